@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.dbpool;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionEvent;
+import javax.resource.spi.ConnectionEventListener;
+import javax.resource.spi.ConnectionManager;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.LocalTransaction;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.resource.spi.ManagedConnectionMetaData;
+import javax.security.auth.Subject;
+import javax.transaction.xa.XAResource;
+
+import com.caucho.transaction.UserTransactionProxy;
+
+/**
+ * Microbenchmark comparing the locked round-robin idle set with the
+ * thread-affinity idle bag.  Each thread repeatedly allocates and
+ * closes a connection from a no-op resource adapter, so the result
+ * measures only the pool's allocate/free path.
+ *
+ * <code><pre>
+ * java com.caucho.env.dbpool.ConnectionPoolBenchmark [threads] [seconds]
+ * </pre></code>
+ */
+public class ConnectionPoolBenchmark {
+  private final int _threadCount;
+  private final long _time;
+
+  public ConnectionPoolBenchmark(int threadCount, long time)
+  {
+    _threadCount = threadCount;
+    _time = time;
+  }
+
+  public static void main(String []args)
+    throws Exception
+  {
+    int threadCount = 2 * Runtime.getRuntime().availableProcessors();
+    long time = 5000;
+
+    if (args.length > 0)
+      threadCount = Integer.parseInt(args[0]);
+
+    if (args.length > 1)
+      time = 1000L * Integer.parseInt(args[1]);
+
+    ConnectionPoolBenchmark benchmark
+      = new ConnectionPoolBenchmark(threadCount, time);
+
+    // warmup
+    benchmark.run(false, time / 5);
+    benchmark.run(true, time / 5);
+
+    long lockedOps = benchmark.run(false, time);
+    long affinityOps = benchmark.run(true, time);
+
+    System.out.println("threads: " + threadCount + ", time: " + time + "ms");
+    System.out.println("  idle-set:        " + toRate(lockedOps, time)
+                       + " allocations/s");
+    System.out.println("  thread-affinity: " + toRate(affinityOps, time)
+                       + " allocations/s");
+  }
+
+  private static long toRate(long ops, long time)
+  {
+    return 1000L * ops / Math.max(1, time);
+  }
+
+  /**
+   * Runs the allocate/close loop, returning the number of allocations.
+   */
+  long run(boolean isThreadAffinity, long time)
+    throws Exception
+  {
+    final ConnectionPool pool = new ConnectionPool();
+    pool.setName("benchmark-" + (isThreadAffinity ? "affinity" : "idle-set"));
+    pool.setTransactionManager(UserTransactionProxy.getInstance());
+    pool.setXATransaction(false);
+    pool.setLocalTransaction(false);
+    pool.setMaxConnections(_threadCount);
+    pool.setThreadAffinity(isThreadAffinity);
+
+    final BenchFactory mcf = new BenchFactory();
+    pool.init(mcf);
+    pool.start();
+
+    final AtomicBoolean isDone = new AtomicBoolean();
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong failCount = new AtomicLong();
+
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+
+    for (int i = 0; i < _threadCount; i++) {
+      Thread thread = new Thread() {
+          @Override
+          public void run()
+          {
+            long localCount = 0;
+
+            while (! isDone.get()) {
+              try {
+                BenchConnection conn
+                  = (BenchConnection) pool.allocateConnection(mcf, null);
+
+                conn.close();
+
+                localCount++;
+              } catch (Exception e) {
+                failCount.incrementAndGet();
+              }
+            }
+
+            count.addAndGet(localCount);
+          }
+        };
+
+      threads.add(thread);
+    }
+
+    for (Thread thread : threads)
+      thread.start();
+
+    Thread.sleep(time);
+    isDone.set(true);
+
+    for (Thread thread : threads)
+      thread.join();
+
+    pool.destroy();
+
+    if (failCount.get() > 0)
+      System.out.println(pool + " failures: " + failCount.get());
+
+    return count.get();
+  }
+
+  static class BenchFactory implements ManagedConnectionFactory {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public Object createConnectionFactory()
+    {
+      return this;
+    }
+
+    @Override
+    public Object createConnectionFactory(ConnectionManager cm)
+    {
+      return this;
+    }
+
+    @Override
+    public ManagedConnection
+      createManagedConnection(Subject subject, ConnectionRequestInfo info)
+    {
+      return new BenchManagedConnection();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public ManagedConnection
+      matchManagedConnections(Set connSet,
+                              Subject subject,
+                              ConnectionRequestInfo info)
+    {
+      Iterator iter = connSet.iterator();
+
+      if (iter.hasNext())
+        return (ManagedConnection) iter.next();
+      else
+        return null;
+    }
+
+    @Override
+    public PrintWriter getLogWriter()
+    {
+      return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out)
+    {
+    }
+  }
+
+  static class BenchManagedConnection implements ManagedConnection {
+    private ConnectionEventListener _listener;
+
+    @Override
+    public Object getConnection(Subject subject, ConnectionRequestInfo info)
+    {
+      return new BenchConnection(this);
+    }
+
+    void close(BenchConnection conn)
+    {
+      ConnectionEvent event
+        = new ConnectionEvent(this, ConnectionEvent.CONNECTION_CLOSED);
+      event.setConnectionHandle(conn);
+
+      _listener.connectionClosed(event);
+    }
+
+    @Override
+    public void addConnectionEventListener(ConnectionEventListener listener)
+    {
+      _listener = listener;
+    }
+
+    @Override
+    public void removeConnectionEventListener(ConnectionEventListener listener)
+    {
+    }
+
+    @Override
+    public void associateConnection(Object conn)
+    {
+    }
+
+    @Override
+    public void cleanup()
+    {
+    }
+
+    @Override
+    public void destroy()
+    {
+    }
+
+    @Override
+    public XAResource getXAResource()
+      throws ResourceException
+    {
+      throw new javax.resource.NotSupportedException();
+    }
+
+    @Override
+    public LocalTransaction getLocalTransaction()
+      throws ResourceException
+    {
+      throw new javax.resource.NotSupportedException();
+    }
+
+    @Override
+    public ManagedConnectionMetaData getMetaData()
+    {
+      return null;
+    }
+
+    @Override
+    public PrintWriter getLogWriter()
+    {
+      return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out)
+    {
+    }
+  }
+
+  static class BenchConnection {
+    private final BenchManagedConnection _mConn;
+
+    BenchConnection(BenchManagedConnection mConn)
+    {
+      _mConn = mConn;
+    }
+
+    void close()
+    {
+      _mConn.close(this);
+    }
+  }
+}
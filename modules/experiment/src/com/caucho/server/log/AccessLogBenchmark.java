@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.caucho.util.CharBuffer;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.QDate;
+
+/**
+ * Microbenchmark comparing the compiled access log segments with the
+ * per-request switch they replaced.  Each thread formats log lines
+ * into a private buffer, so the result measures only the formatting
+ * path.
+ *
+ * The request-dependent codes need a live request, so the benchmark
+ * format uses %t and constant text in place of the request fields.
+ * The legacy formatter is a copy of the old TEXT and %t cases.
+ *
+ * <code><pre>
+ * java com.caucho.server.log.AccessLogBenchmark [threads] [seconds]
+ * </pre></code>
+ */
+public class AccessLogBenchmark {
+  private static final String FORMAT
+    = "192.168.1.17 %l - %t \"GET /images/logo.png HTTP/1.1\" 200 4523"
+    + " \"http://www.example.com/index.html\""
+    + " \"Mozilla/5.0 (X11; Linux x86_64; rv:38.0) Gecko/20100101\"";
+
+  private static final String TIME_FORMAT = "[%d/%b/%Y:%H:%M:%S %z]";
+
+  private final int _threadCount;
+
+  public AccessLogBenchmark(int threadCount)
+  {
+    _threadCount = threadCount;
+  }
+
+  public static void main(String []args)
+    throws Exception
+  {
+    int threadCount = Runtime.getRuntime().availableProcessors();
+    long time = 5000;
+
+    if (args.length > 0)
+      threadCount = Integer.parseInt(args[0]);
+
+    if (args.length > 1)
+      time = 1000L * Integer.parseInt(args[1]);
+
+    AccessLogBenchmark benchmark = new AccessLogBenchmark(threadCount);
+
+    // warmup
+    benchmark.run(false, time / 5);
+    benchmark.run(true, time / 5);
+
+    long legacyLines = benchmark.run(false, time);
+    long compiledLines = benchmark.run(true, time);
+
+    System.out.println("threads: " + threadCount + ", time: " + time + "ms");
+    System.out.println("  switch:   " + toRate(legacyLines, time)
+                       + " lines/s");
+    System.out.println("  compiled: " + toRate(compiledLines, time)
+                       + " lines/s");
+  }
+
+  private static long toRate(long ops, long time)
+  {
+    return 1000L * ops / Math.max(1, time);
+  }
+
+  /**
+   * Runs the format loop, returning the number of lines formatted.
+   */
+  long run(final boolean isCompiled, long time)
+    throws Exception
+  {
+    final AccessLogSegment []segments
+      = AccessLogSegment.compile(FORMAT, TIME_FORMAT, false);
+    final LegacyFormat legacy = new LegacyFormat(FORMAT, TIME_FORMAT);
+
+    final AtomicBoolean isDone = new AtomicBoolean();
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong byteCount = new AtomicLong();
+
+    ArrayList<Thread> threads = new ArrayList<Thread>();
+
+    for (int i = 0; i < _threadCount; i++) {
+      Thread thread = new Thread() {
+          @Override
+          public void run()
+          {
+            byte []buffer = new byte[1024];
+            long localCount = 0;
+            long localBytes = 0;
+
+            try {
+              while (! isDone.get()) {
+                int length;
+
+                if (isCompiled)
+                  length = writeCompiled(segments, buffer);
+                else
+                  length = legacy.write(buffer);
+
+                localBytes += length;
+                localCount++;
+              }
+            } catch (IOException e) {
+              e.printStackTrace();
+            }
+
+            count.addAndGet(localCount);
+            byteCount.addAndGet(localBytes);
+          }
+        };
+
+      threads.add(thread);
+    }
+
+    for (Thread thread : threads)
+      thread.start();
+
+    Thread.sleep(time);
+    isDone.set(true);
+
+    for (Thread thread : threads)
+      thread.join();
+
+    if (count.get() > 0 && byteCount.get() / count.get() < FORMAT.length())
+      System.out.println("short lines: " + byteCount.get() / count.get());
+
+    return count.get();
+  }
+
+  private static int writeCompiled(AccessLogSegment []segments,
+                                   byte []buffer)
+    throws IOException
+  {
+    int offset = 0;
+
+    for (AccessLogSegment segment : segments) {
+      offset = segment.write(null, null, null, null, buffer, offset);
+    }
+
+    return offset;
+  }
+
+  /**
+   * The TEXT and %t cases of the switch-based formatter.
+   */
+  static class LegacyFormat {
+    private static final int TEXT = 0;
+
+    private final int []_codes;
+    private final String []_text;
+    private final String _timeFormat;
+
+    private final CharBuffer _cb = new CharBuffer();
+
+    private final QDate _calendar = new QDate(true);
+    private final CharBuffer _dateCb = new CharBuffer();
+    private final byte []_dateBuffer = new byte[64];
+    private int _dateLength;
+    private long _lastDate;
+
+    LegacyFormat(String format, String timeFormat)
+    {
+      _timeFormat = timeFormat;
+
+      ArrayList<Integer> codes = new ArrayList<Integer>();
+      ArrayList<String> text = new ArrayList<String>();
+      StringBuilder sb = new StringBuilder();
+
+      for (int i = 0; i < format.length(); i++) {
+        char ch = format.charAt(i);
+
+        if (ch == '%' && i + 1 < format.length()) {
+          char code = format.charAt(++i);
+
+          if (code == 'l') {
+            // the old loop wrote '-' from its own case
+            addText(codes, text, sb);
+            codes.add((int) 'l');
+            text.add(null);
+          }
+          else if (code == 't') {
+            addText(codes, text, sb);
+            codes.add((int) 't');
+            text.add(null);
+          }
+          else
+            sb.append(ch).append(code);
+        }
+        else
+          sb.append(ch);
+      }
+
+      sb.append('\n');
+      addText(codes, text, sb);
+
+      _codes = new int[codes.size()];
+      for (int i = 0; i < _codes.length; i++)
+        _codes[i] = codes.get(i);
+
+      _text = text.toArray(new String[text.size()]);
+    }
+
+    private static void addText(ArrayList<Integer> codes,
+                                ArrayList<String> text,
+                                StringBuilder sb)
+    {
+      if (sb.length() > 0) {
+        codes.add(TEXT);
+        text.add(sb.toString());
+        sb.setLength(0);
+      }
+    }
+
+    int write(byte []buffer)
+    {
+      int offset = 0;
+
+      for (int i = 0; i < _codes.length; i++) {
+        switch (_codes[i]) {
+        case TEXT:
+          offset = print(buffer, offset, _text[i]);
+          break;
+
+        case 'l':
+          buffer[offset++] = (byte) '-';
+          break;
+
+        case 't':
+          {
+            long now = CurrentTime.getCurrentTime();
+
+            if (_lastDate / 1000 != now / 1000)
+              fillDate(now);
+
+            System.arraycopy(_dateBuffer, 0, buffer, offset, _dateLength);
+            offset += _dateLength;
+            break;
+          }
+        }
+      }
+
+      return offset;
+    }
+
+    private synchronized void fillDate(long now)
+    {
+      _calendar.setGMTTime(now);
+      _dateCb.clear();
+      _calendar.format(_dateCb, _timeFormat);
+
+      int len = _dateCb.length();
+
+      for (int i = 0; i < len; i++)
+        _dateBuffer[i] = (byte) _dateCb.charAt(i);
+
+      _dateLength = len;
+      _lastDate = now;
+    }
+
+    private int print(byte []buffer, int offset, String s)
+    {
+      int length = s.length();
+
+      _cb.ensureCapacity(length);
+      char []cBuf = _cb.getBuffer();
+
+      s.getChars(0, length, cBuf, 0);
+
+      for (int i = length - 1; i >= 0; i--)
+        buffer[offset + i] = (byte) cBuf[i];
+
+      return offset + length;
+    }
+  }
+}
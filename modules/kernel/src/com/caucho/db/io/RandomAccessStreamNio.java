@@ -98,16 +98,12 @@ public class RandomAccessStreamNio extends RandomAccessStream
     }
     */
     
-    InStore is = null;
+    if (! allocate()) {
+      return -1;
+    }
 
     try {
-      if (! allocate()) {
-        return -1;
-      }
-      
-      is = _store.openRead(pos, length);
-      
-      if (is.read(pos, buf, offset, length)) {
+      if (_store.read(pos, buf, offset, length)) {
         return length;
       }
       else {
@@ -115,10 +111,6 @@ public class RandomAccessStreamNio extends RandomAccessStream
       }
     } finally {
       free();
-      
-      if (is != null) {
-        is.close();
-      }
     }
   }
   
@@ -149,16 +141,12 @@ public class RandomAccessStreamNio extends RandomAccessStream
     }
     */
 
-    OutStore os = null;
+    if (! allocate()) {
+      return;
+    }
     
     try {
-      if (! allocate()) {
-        return;
-      }
-      
-      os = _store.openWrite(pos, length);
-      
-      os.write(pos, buf, offset, length);
+      _store.write(pos, buf, offset, length);
     } finally {
       free();
     }
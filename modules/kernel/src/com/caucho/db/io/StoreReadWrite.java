@@ -68,6 +68,16 @@ public interface StoreReadWrite
    * Opens the underlying file to the database.
    */
   OutStore openWrite(long offset, int size);
+
+  /**
+   * Reads directly from the store, without an InStore.
+   */
+  boolean read(long address, byte []buffer, int offset, int length);
+
+  /**
+   * Writes directly to the store, without an OutStore.
+   */
+  boolean write(long address, byte []buffer, int offset, int length);
   
   // used in QA
   void fsync();
@@ -236,6 +236,30 @@ public class StoreReadWriteImpl implements StoreReadWrite
     }
   }
   
+  @Override
+  public boolean read(long address, byte []buffer, int offset, int length)
+  {
+    InStore is = openRead(address, length);
+
+    try {
+      return is.read(address, buffer, offset, length);
+    } finally {
+      is.close();
+    }
+  }
+
+  @Override
+  public boolean write(long address, byte []buffer, int offset, int length)
+  {
+    OutStore os = openWrite(address, length);
+
+    try {
+      return os.write(address, buffer, offset, length);
+    } finally {
+      os.close();
+    }
+  }
+  
   private RandomAccessStream streamOpen(long fileSize)
     throws IOException
   {
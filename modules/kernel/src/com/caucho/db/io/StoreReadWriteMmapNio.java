@@ -67,7 +67,7 @@ public class StoreReadWriteMmapNio implements StoreReadWrite
   private final ConcurrentArrayList<MmapFile> _mmapFiles
     = new ConcurrentArrayList<MmapFile>(MmapFile.class);
   
-  private MmapFile []_mmapFileChunks = new MmapFile[0];
+  private volatile MmapFile []_mmapFileChunks = new MmapFile[0];
   
   private long _mmapCloseTimeout = 1000L;
   
@@ -266,6 +266,92 @@ public class StoreReadWriteMmapNio implements StoreReadWrite
     }
   }
 
+  /**
+   * Reads directly from the mapped chunks. The only allocation is the
+   * duplicate of the chunk's buffer, since the position isn't shared.
+   */
+  @Override
+  public boolean read(long address, byte []buffer, int offset, int length)
+  {
+    if (_isClosed.get()) {
+      throw new IllegalStateException(L.l("{0} is closed.", this));
+    }
+    
+    if (getFileSize() < address + length) {
+      throw new IllegalStateException(L.l("{0} read for length {1}:{2} but file length {3}",
+                                          this, address, length, getFileSize()));
+    }
+    
+    try {
+      streamOpen(address, length);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    
+    MmapFile []mmapFileChunks = _mmapFileChunks;
+    
+    while (length > 0) {
+      MmapFile mmapFile = mmapFileChunks[(int) (address / _mmapChunkSize)];
+      
+      int mmapOffset = (int) (address - mmapFile.getAddress());
+      int sublen = (int) Math.min(length, mmapFile.getSize() - mmapOffset);
+      
+      ByteBuffer mmap = mmapFile.getByteBuffer().duplicate();
+      
+      mmap.position(mmapOffset);
+      mmap.get(buffer, offset, sublen);
+      
+      offset += sublen;
+      length -= sublen;
+      address += sublen;
+    }
+    
+    return true;
+  }
+
+  /**
+   * Writes directly to the mapped chunks.
+   */
+  @Override
+  public boolean write(long address, byte []buffer, int offset, int length)
+  {
+    if (_isClosed.get()) {
+      throw new IllegalStateException(L.l("{0} is closed.", this));
+    }
+    
+    if (length <= 0) {
+      throw new IllegalArgumentException(L.l("Invalid size: {0}", length));
+    }
+    
+    try {
+      streamOpen(address, length);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    
+    MmapFile []mmapFileChunks = _mmapFileChunks;
+    
+    while (length > 0) {
+      MmapFile mmapFile = mmapFileChunks[(int) (address / _mmapChunkSize)];
+      
+      int mmapOffset = (int) (address - mmapFile.getAddress());
+      int sublen = (int) Math.min(length, mmapFile.getSize() - mmapOffset);
+      
+      ByteBuffer mmap = mmapFile.getByteBuffer().duplicate();
+      
+      mmap.position(mmapOffset);
+      mmap.put(buffer, offset, sublen);
+      
+      mmapFile.setDirty();
+      
+      offset += sublen;
+      length -= sublen;
+      address += sublen;
+    }
+    
+    return true;
+  }
+
   private  OutStore openWriteImpl(long address, int size)
   {
     return new OutStoreMmapNio(address, size);
@@ -0,0 +1,971 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed length concurrent cache with a frequency-based admission policy,
+ * with the same API as LruCache. If cache items implement CacheListener,
+ * they will be informed when they're removed from the cache.
+ *
+ * <p>Reads are lock-free. A hit is recorded in a striped, lossy buffer
+ * and the recency lists are updated in batches by whichever thread
+ * wins the eviction lock. Replacement is W-TinyLFU: new items enter a
+ * small LRU window, and an item leaving the window only displaces the
+ * main cache's victim if a count-min sketch says it is used more often,
+ * so a scan of one-time keys can't flush the frequently used items.
+ *
+ * <p>Null keys are not allowed.
+ */
+public final class TinyLfuCache<K,V> {
+  private static final Object NULL = new Object();
+
+  private static final int READ_BUFFER_SIZE = 32;
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+  private static final int READ_BUFFER_DRAIN = READ_BUFFER_SIZE / 2;
+
+  private final ConcurrentHashMap<Object,Node<K,V>> _map;
+
+  // maximum allowed entries
+  private final int _capacity;
+
+  private final int _windowMax;
+  private final int _protectedMax;
+
+  private final AtomicInteger _size = new AtomicInteger();
+
+  private boolean _isEnableListeners = true;
+
+  //
+  // policy, guarded by _evictionLock
+  //
+
+  private final ReentrantLock _evictionLock = new ReentrantLock();
+
+  private final AccessQueue<K,V> _window = new AccessQueue<K,V>();
+  private final AccessQueue<K,V> _probation = new AccessQueue<K,V>();
+  private final AccessQueue<K,V> _protected = new AccessQueue<K,V>();
+
+  private final FrequencySketch _sketch;
+
+  private final ReadBuffer []_readBuffers;
+
+  //
+  // statistics
+  //
+
+  private boolean _isEnableStatistics;
+
+  // hit count statistics
+  private volatile long _hitCount;
+  // miss count statistics
+  private volatile long _missCount;
+
+  /**
+   * Create the cache with a specific capacity.
+   *
+   * @param initialCapacity maximum number of entries in the cache
+   */
+  public TinyLfuCache(int initialCapacity)
+  {
+    this(initialCapacity, false);
+  }
+
+  /**
+   * Create the cache with a specific capacity.
+   *
+   * @param initialCapacity maximum number of entries in the cache
+   */
+  public TinyLfuCache(int initialCapacity, boolean isStatistics)
+  {
+    _capacity = Math.max(initialCapacity, 1);
+
+    _map = new ConcurrentHashMap<Object,Node<K,V>>(Math.min(_capacity, 1024));
+
+    _windowMax = Math.max(1, _capacity / 100);
+    _protectedMax = (_capacity - _windowMax) * 4 / 5;
+
+    _sketch = new FrequencySketch(_capacity);
+
+    int stripes;
+    int cpus = Runtime.getRuntime().availableProcessors();
+
+    for (stripes = 4; stripes < 4 * cpus && stripes < 64; stripes *= 2) {
+    }
+
+    _readBuffers = new ReadBuffer[stripes];
+    for (int i = 0; i < _readBuffers.length; i++) {
+      _readBuffers[i] = new ReadBuffer();
+    }
+
+    _isEnableStatistics = isStatistics;
+  }
+
+  /**
+   * Disable the listeners
+   */
+  public void setEnableListeners(boolean isEnable)
+  {
+    _isEnableListeners = isEnable;
+  }
+
+  public void setEnableStatistics(boolean isEnable)
+  {
+    _isEnableStatistics = isEnable;
+  }
+
+  /**
+   * Returns the current number of entries in the cache.
+   */
+  public int size()
+  {
+    return _size.get();
+  }
+
+  /**
+   * Returns the cache capacity
+   */
+  public int getCapacity()
+  {
+    return _capacity;
+  }
+
+  /**
+   * Clears the cache
+   */
+  public void clear()
+  {
+    if (_size.get() == 0)
+      return;
+
+    for (Node<K,V> node : _map.values()) {
+      if (kill(node)) {
+        unlink(node);
+
+        notifyRemove(node._value, false);
+      }
+    }
+  }
+
+  /**
+   * Get an item from the cache, recording the hit.
+   *
+   * @param key key to lookup the item
+   * @return the matching object in the cache
+   */
+  public V get(K key)
+  {
+    Object okey = key;
+    if (okey == null)
+      okey = NULL;
+
+    Node<K,V> node = _map.get(okey);
+
+    if (node == null) {
+      if (_isEnableStatistics)
+        _missCount++;
+
+      return null;
+    }
+
+    if (_isEnableStatistics)
+      _hitCount++;
+
+    recordRead(node);
+
+    return node._value;
+  }
+
+  /**
+   * Puts a new item in the cache.  If the cache is full, the policy
+   * removes an item.
+   *
+   * @param key key to store data
+   * @param value value to be stored
+   *
+   * @return old value stored under the key
+   */
+  public V put(K key, V value)
+  {
+    return compareAndPut(null, key, value, false);
+  }
+
+  /**
+   * Puts a new item in the cache if there is no current value.
+   *
+   * @param key key to store data
+   * @param value value to be stored
+   *
+   * @return the value actually stored
+   */
+  public V putIfNew(K key, V value)
+  {
+    V oldValue = compareAndPut(null, key, value, true);
+
+    if (oldValue != null)
+      return oldValue;
+    else
+      return value;
+  }
+
+  /**
+   * Puts a new item in the cache if the current value matches oldValue.
+   *
+   * @param key the key
+   * @param value the new value
+   * @param testValue the value to test against the current
+   *
+   * @return true if the put succeeds
+   */
+  public boolean compareAndPut(V testValue, K key, V value)
+  {
+    V result = compareAndPut(testValue, key, value, true);
+
+    return testValue == result;
+  }
+
+  /**
+   * Puts a new item in the cache.
+   *
+   * @param key key to store data
+   * @param value value to be stored
+   * @param testValue tests the current value in the cache
+   * @param isCompare if true, this is a compare and put
+   *
+   * @return old value stored under the key
+   */
+  @SuppressWarnings("unchecked")
+  private V compareAndPut(V testValue, K key, V value, boolean isCompare)
+  {
+    Object okey = key;
+
+    if (okey == null)
+      okey = NULL;
+
+    while (true) {
+      Node<K,V> node = _map.get(okey);
+
+      if (node == null) {
+        if (isCompare && testValue != null)
+          return null;
+
+        node = new Node<K,V>((K) okey, value);
+
+        if (_map.putIfAbsent(okey, node) == null) {
+          _size.incrementAndGet();
+
+          afterInsert(node);
+
+          return null;
+        }
+
+        continue;
+      }
+
+      V oldValue;
+
+      synchronized (node) {
+        if (! node._isAlive)
+          continue;
+
+        oldValue = node._value;
+
+        if (isCompare && testValue != oldValue)
+          return oldValue;
+
+        node._value = value;
+
+        if (value == oldValue)
+          oldValue = null;
+
+        if (_isEnableListeners
+            && oldValue instanceof SyncCacheListener)
+          ((SyncCacheListener) oldValue).syncRemoveEvent();
+      }
+
+      recordRead(node);
+
+      notifyRemove(oldValue, false);
+
+      return oldValue;
+    }
+  }
+
+  /**
+   * Removes an item from the cache
+   *
+   * @param key the key to remove
+   *
+   * @return the value removed
+   */
+  public V remove(K key)
+  {
+    Object okey = key;
+    if (okey == null)
+      okey = NULL;
+
+    Node<K,V> node = _map.get(okey);
+
+    if (node == null || ! kill(node))
+      return null;
+
+    unlink(node);
+
+    V value = node._value;
+
+    notifyRemove(value, false);
+
+    return value;
+  }
+
+  /**
+   * Removes the item the policy would evict next.
+   */
+  public boolean removeTail()
+  {
+    Node<K,V> victim;
+
+    _evictionLock.lock();
+    try {
+      drainReadBuffers();
+
+      victim = evictVictim(true);
+    } finally {
+      _evictionLock.unlock();
+    }
+
+    if (victim == null)
+      return false;
+
+    notifyRemove(victim._value, true);
+
+    return true;
+  }
+
+  /**
+   * Removes the item the policy would evict next. The frequency
+   * policy already balances the recency and frequency queues.
+   */
+  public boolean removeLongestTail()
+  {
+    return removeTail();
+  }
+
+  /**
+   * Returns the keys stored in the cache
+   */
+  public Iterator<K> keys()
+  {
+    return new KeyIterator<K,V>(_map.values().iterator());
+  }
+
+  /**
+   * Returns keys stored in the cache using an old iterator
+   */
+  public Iterator<K> keys(Iterator<K> oldIter)
+  {
+    return keys();
+  }
+
+  /**
+   * Returns the values in the cache
+   */
+  public Iterator<V> values()
+  {
+    return new ValueIterator<K,V>(_map.values().iterator());
+  }
+
+  public Iterator<V> values(Iterator<V> oldIter)
+  {
+    return values();
+  }
+
+  /**
+   * Returns the entries
+   */
+  public Iterator<LruCache.Entry<K,V>> iterator()
+  {
+    return new EntryIterator(_map.values().iterator());
+  }
+
+  /**
+   * Returns the hit count.
+   */
+  public long getHitCount()
+  {
+    return _hitCount;
+  }
+
+  /**
+   * Returns the miss count.
+   */
+  public long getMissCount()
+  {
+    return _missCount;
+  }
+
+  //
+  // policy
+  //
+
+  /**
+   * Records a read in the thread's buffer, draining the buffers when
+   * they fill. A full buffer drops the read.
+   */
+  private void recordRead(Node<K,V> node)
+  {
+    int index = (int) Thread.currentThread().getId() & (_readBuffers.length - 1);
+
+    if (_readBuffers[index].offer(node)
+        && _evictionLock.tryLock()) {
+      try {
+        drainReadBuffers();
+      } finally {
+        _evictionLock.unlock();
+      }
+    }
+  }
+
+  private void afterInsert(Node<K,V> node)
+  {
+    _evictionLock.lock();
+    try {
+      drainReadBuffers();
+
+      _sketch.increment(node._hash);
+
+      // removed before it was linked
+      if (node._isAlive)
+        _window.add(node);
+    } finally {
+      _evictionLock.unlock();
+    }
+
+    while (true) {
+      Node<K,V> victim;
+
+      _evictionLock.lock();
+      try {
+        victim = evictVictim(false);
+      } finally {
+        _evictionLock.unlock();
+      }
+
+      if (victim == null)
+        return;
+
+      notifyRemove(victim._value, true);
+    }
+  }
+
+  private void drainReadBuffers()
+  {
+    for (ReadBuffer buffer : _readBuffers) {
+      buffer.drain(this);
+    }
+  }
+
+  /**
+   * Called with the eviction lock for a buffered read.
+   */
+  private void onRead(Node<K,V> node)
+  {
+    _sketch.increment(node._hash);
+
+    AccessQueue<K,V> queue = node._queue;
+
+    if (queue == _probation) {
+      // promote to the protected queue, demoting its lru if full
+      _probation.remove(node);
+      _protected.add(node);
+
+      while (_protectedMax < _protected._size) {
+        Node<K,V> demote = _protected._head;
+
+        _protected.remove(demote);
+        _probation.add(demote);
+      }
+    }
+    else if (queue != null) {
+      queue.moveToTail(node);
+    }
+  }
+
+  /**
+   * Selects and kills the next victim. Called with the eviction lock.
+   *
+   * @param isForce if true, removes a victim even if under capacity
+   */
+  private Node<K,V> evictVictim(boolean isForce)
+  {
+    // items leaving the window become candidates on the probation queue
+    while (_windowMax < _window._size) {
+      Node<K,V> candidate = _window._head;
+
+      _window.remove(candidate);
+      _probation.add(candidate);
+    }
+
+    while (true) {
+      int size = _window._size + _probation._size + _protected._size;
+
+      if (! isForce && size <= _capacity)
+        return null;
+
+      Node<K,V> victim = _probation._head;
+      Node<K,V> candidate = _probation._tail;
+
+      if (victim == null) {
+        victim = _protected._head;
+
+        if (victim == null)
+          victim = _window._head;
+
+        if (victim == null)
+          return null;
+      }
+      else if (candidate != victim
+               && _sketch.frequency(victim._hash)
+                  < _sketch.frequency(candidate._hash)) {
+        // the candidate is used more often and is admitted
+      }
+      else if (candidate != victim) {
+        victim = candidate;
+      }
+
+      victim._queue.remove(victim);
+
+      // a concurrent remove() may have already killed the node
+      if (kill(victim))
+        return victim;
+    }
+  }
+
+  /**
+   * Marks the node as removed and removes it from the map.
+   *
+   * @return true if this call removed the node
+   */
+  private boolean kill(Node<K,V> node)
+  {
+    synchronized (node) {
+      if (! node._isAlive)
+        return false;
+
+      node._isAlive = false;
+
+      if (_isEnableListeners
+          && node._value instanceof SyncCacheListener)
+        ((SyncCacheListener) node._value).syncRemoveEvent();
+    }
+
+    _map.remove(node._key, node);
+    _size.decrementAndGet();
+
+    return true;
+  }
+
+  private void unlink(Node<K,V> node)
+  {
+    _evictionLock.lock();
+    try {
+      AccessQueue<K,V> queue = node._queue;
+
+      if (queue != null)
+        queue.remove(node);
+    } finally {
+      _evictionLock.unlock();
+    }
+  }
+
+  private void notifyRemove(V value, boolean isEvict)
+  {
+    if (isEvict && value instanceof LruListener)
+      ((LruListener) value).lruEvent();
+
+    if (_isEnableListeners && value instanceof CacheListener)
+      ((CacheListener) value).removeEvent();
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + _size.get() + "/" + _capacity + "]");
+  }
+
+  /**
+   * A cache item
+   */
+  static final class Node<K,V> {
+    final K _key;
+    final int _hash;
+
+    volatile V _value;
+
+    // guarded by the node's monitor
+    volatile boolean _isAlive = true;
+
+    // guarded by the eviction lock
+    AccessQueue<K,V> _queue;
+    Node<K,V> _prev;
+    Node<K,V> _next;
+
+    Node(K key, V value)
+    {
+      if (key == null)
+        throw new NullPointerException();
+
+      _key = key;
+      _value = value;
+
+      int hash = key.hashCode();
+      hash ^= (hash >>> 20) ^ (hash >>> 12);
+      _hash = hash ^ (hash >>> 7) ^ (hash >>> 4);
+    }
+  }
+
+  /**
+   * Doubly linked LRU queue, with the LRU at the head.
+   */
+  static final class AccessQueue<K,V> {
+    Node<K,V> _head;
+    Node<K,V> _tail;
+    int _size;
+
+    void add(Node<K,V> node)
+    {
+      node._queue = this;
+      node._prev = _tail;
+      node._next = null;
+
+      if (_tail != null)
+        _tail._next = node;
+      else
+        _head = node;
+
+      _tail = node;
+      _size++;
+    }
+
+    void remove(Node<K,V> node)
+    {
+      Node<K,V> prev = node._prev;
+      Node<K,V> next = node._next;
+
+      if (prev != null)
+        prev._next = next;
+      else
+        _head = next;
+
+      if (next != null)
+        next._prev = prev;
+      else
+        _tail = prev;
+
+      node._queue = null;
+      node._prev = null;
+      node._next = null;
+      _size--;
+    }
+
+    void moveToTail(Node<K,V> node)
+    {
+      if (_tail != node) {
+        remove(node);
+        add(node);
+      }
+    }
+  }
+
+  /**
+   * Lossy ring buffer of reads waiting for the policy.
+   */
+  static final class ReadBuffer {
+    private final AtomicReferenceArray<Node<?,?>> _ring
+      = new AtomicReferenceArray<Node<?,?>>(READ_BUFFER_SIZE);
+
+    private final AtomicLong _writeCount = new AtomicLong();
+    // guarded by the eviction lock
+    private volatile long _readCount;
+
+    /**
+     * Adds the read, returning true if the buffer should be drained.
+     */
+    boolean offer(Node<?,?> node)
+    {
+      long head = _readCount;
+      long tail = _writeCount.get();
+      long size = tail - head;
+
+      if (size < READ_BUFFER_SIZE
+          && _writeCount.compareAndSet(tail, tail + 1)) {
+        _ring.lazySet((int) tail & READ_BUFFER_MASK, node);
+      }
+
+      return READ_BUFFER_DRAIN <= size;
+    }
+
+    @SuppressWarnings("unchecked")
+    <K,V> void drain(TinyLfuCache<K,V> cache)
+    {
+      long head = _readCount;
+      long tail = _writeCount.get();
+
+      for (; head < tail; head++) {
+        int index = (int) head & READ_BUFFER_MASK;
+
+        Node<K,V> node = (Node<K,V>) _ring.get(index);
+
+        // slot claimed but not yet published
+        if (node == null)
+          break;
+
+        _ring.lazySet(index, null);
+
+        if (node._isAlive)
+          cache.onRead(node);
+      }
+
+      _readCount = head;
+    }
+  }
+
+  /**
+   * Count-min sketch of 4-bit counters estimating access frequency.
+   * The counters are halved periodically so old popularity ages out.
+   */
+  static final class FrequencySketch {
+    private static final long []SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+      0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long []_table;
+    private final int _tableMask;
+    private final int _sampleMax;
+    private int _sampleCount;
+
+    FrequencySketch(int capacity)
+    {
+      int size;
+
+      for (size = 16; size < capacity && size < (1 << 28); size *= 2) {
+      }
+
+      _table = new long[size];
+      _tableMask = size - 1;
+      _sampleMax = 10 * Math.max(capacity, 16);
+    }
+
+    int frequency(int hash)
+    {
+      int frequency = 15;
+
+      for (int i = 0; i < SEEDS.length; i++) {
+        long h = index(hash, i);
+        int offset = (int) (h >>> 60) << 2;
+        int count = (int) (_table[(int) h & _tableMask] >>> offset) & 0xf;
+
+        frequency = Math.min(frequency, count);
+      }
+
+      return frequency;
+    }
+
+    void increment(int hash)
+    {
+      boolean isAdded = false;
+
+      for (int i = 0; i < SEEDS.length; i++) {
+        long h = index(hash, i);
+        int index = (int) h & _tableMask;
+        int offset = (int) (h >>> 60) << 2;
+        long mask = 0xfL << offset;
+
+        if ((_table[index] & mask) != mask) {
+          _table[index] += 1L << offset;
+          isAdded = true;
+        }
+      }
+
+      if (isAdded && _sampleMax <= ++_sampleCount)
+        reset();
+    }
+
+    private static long index(int hash, int i)
+    {
+      long h = (hash + SEEDS[i]) * SEEDS[i];
+
+      return h ^ (h >>> 32);
+    }
+
+    private void reset()
+    {
+      for (int i = 0; i < _table.length; i++) {
+        _table[i] = (_table[i] >>> 1) & RESET_MASK;
+      }
+
+      _sampleCount /= 2;
+    }
+  }
+
+  /**
+   * Iterator of cache keys
+   */
+  static class KeyIterator<K,V> implements Iterator<K> {
+    private final Iterator<Node<K,V>> _iter;
+
+    KeyIterator(Iterator<Node<K,V>> iter)
+    {
+      _iter = iter;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return _iter.hasNext();
+    }
+
+    @Override
+    public K next()
+    {
+      Node<K,V> node = _iter.next();
+
+      return node._key != NULL ? node._key : null;
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Iterator of cache values
+   */
+  static class ValueIterator<K,V> implements Iterator<V> {
+    private final Iterator<Node<K,V>> _iter;
+
+    ValueIterator(Iterator<Node<K,V>> iter)
+    {
+      _iter = iter;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return _iter.hasNext();
+    }
+
+    @Override
+    public V next()
+    {
+      return _iter.next()._value;
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Iterator of cache entries
+   */
+  class EntryIterator implements Iterator<LruCache.Entry<K,V>>,
+                                 LruCache.Entry<K,V> {
+    private final Iterator<Node<K,V>> _iter;
+    private Node<K,V> _node;
+
+    EntryIterator(Iterator<Node<K,V>> iter)
+    {
+      _iter = iter;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return _iter.hasNext();
+    }
+
+    @Override
+    public LruCache.Entry<K,V> next()
+    {
+      _node = _iter.next();
+
+      return this;
+    }
+
+    /**
+     * Returns the key.
+     */
+    @Override
+    public K getKey()
+    {
+      Node<K,V> node = _node;
+
+      if (node == null || node._key == NULL)
+        return null;
+      else
+        return node._key;
+    }
+
+    /**
+     * Returns the value.
+     */
+    @Override
+    public V getValue()
+    {
+      Node<K,V> node = _node;
+
+      return node != null ? node._value : null;
+    }
+
+    @Override
+    public void remove()
+    {
+      Node<K,V> node = _node;
+
+      if (node != null)
+        TinyLfuCache.this.remove(node._key);
+    }
+  }
+}
@@ -1424,7 +1424,19 @@ public abstract class Path implements Comparable<Path> {
   public void sendfile(OutputStream os, long offset, long length)
     throws IOException
   {
-    if (os instanceof OutputStreamWithBuffer) {
+    if (offset != 0 || (0 <= length && length != getLength())) {
+      // byte range
+      ReadStream is = openRead();
+
+      try {
+        is.skip(offset);
+
+        is.writeToStream(os, (int) length);
+      } finally {
+        is.close();
+      }
+    }
+    else if (os instanceof OutputStreamWithBuffer) {
       writeToStream((OutputStreamWithBuffer) os);
     }
     else {
@@ -37,7 +37,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -92,7 +94,7 @@ public class QJniServerSocket {
 
     for (int i = 0; i < 10; i++) {
       try {
-        ServerSocket ss = new ServerSocket(port, listenBacklog, host);
+        ServerSocket ss = openServerSocket(host, port, listenBacklog);
       
         return new QServerSocketWrapper(ss);
       } catch (BindException e) {
@@ -105,7 +107,7 @@ public class QJniServerSocket {
     }
     
     try {
-      ServerSocket ss = new ServerSocket(port, listenBacklog, host);
+      ServerSocket ss = openServerSocket(host, port, listenBacklog);
       
       return new QServerSocketWrapper(ss);
     } catch (BindException e) {
@@ -117,6 +119,31 @@ public class QJniServerSocket {
 
   }
 
+  /**
+   * Opens a java server socket backed by a ServerSocketChannel, so
+   * accepted sockets can use a nio select for keepalive.
+   */
+  private static ServerSocket openServerSocket(InetAddress host,
+                                               int port,
+                                               int listenBacklog)
+    throws IOException
+  {
+    ServerSocketChannel channel = ServerSocketChannel.open();
+
+    try {
+      ServerSocket ss = channel.socket();
+
+      ss.setReuseAddress(true);
+      ss.bind(new InetSocketAddress(host, port), listenBacklog);
+
+      return ss;
+    } catch (IOException e) {
+      channel.close();
+
+      throw e;
+    }
+  }
+
   /**
    * Creates the SSL ServerSocket.
    */
@@ -69,6 +69,14 @@ abstract public class QServerSocket {
     return false;
   }
 
+  /**
+   * Returns true if accepted sockets have a selectable channel.
+   */
+  public boolean isSelectable()
+  {
+    return false;
+  }
+
   public boolean setSaveOnExec()
   {
     return false;
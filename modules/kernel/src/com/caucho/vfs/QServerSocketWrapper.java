@@ -176,6 +176,18 @@ public class QServerSocketWrapper extends QServerSocket {
     return _ss.getLocalPort();
   }
 
+  /**
+   * Returns true if the server socket was opened from a channel, so
+   * accepted sockets can be registered with a selector.
+   */
+  @Override
+  public boolean isSelectable()
+  {
+    ServerSocket ss = _ss;
+
+    return ss != null && ss.getChannel() != null;
+  }
+
   public Selector getSelector()
   {
     try {
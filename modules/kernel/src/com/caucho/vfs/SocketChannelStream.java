@@ -34,6 +34,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 import java.util.logging.*;
 
@@ -272,6 +273,69 @@ public class SocketChannelStream extends StreamImpl {
   }
   */
 
+  @Override
+  public boolean isFileTransferEnabled()
+  {
+    return _channel != null;
+  }
+
+  /**
+   * Writes the pending buffer, followed by the file region with
+   * FileChannel.transferTo.
+   */
+  @Override
+  public void writeFileTransfer(byte []buffer, int offset, int length,
+                                FileChannel file,
+                                long fileOffset,
+                                long fileLength)
+    throws IOException
+  {
+    SocketChannel channel = _channel;
+
+    if (channel == null)
+      return;
+
+    try {
+      while (length > 0) {
+        int sublen = Math.min(length, _writeBuffer.capacity());
+
+        _writeBuffer.clear();
+        _writeBuffer.put(buffer, offset, sublen);
+        _writeBuffer.flip();
+
+        while (_writeBuffer.hasRemaining()) {
+          channel.write(_writeBuffer);
+        }
+
+        _totalWriteBytes += sublen;
+        offset += sublen;
+        length -= sublen;
+      }
+
+      long position = fileOffset;
+      long end = fileOffset + fileLength;
+
+      while (position < end) {
+        long sublen = file.transferTo(position, end - position, channel);
+
+        if (sublen <= 0)
+          throw new IOException("unexpected end of file at " + position);
+
+        position += sublen;
+        _totalWriteBytes += sublen;
+      }
+    } catch (IOException e) {
+      IOException exn = ClientDisconnectException.create(this + ":" + e, e);
+
+      try {
+        close();
+      } catch (IOException e1) {
+      }
+
+      throw exn;
+    }
+  }
+
   /**
    * Writes bytes to the socket.
    *
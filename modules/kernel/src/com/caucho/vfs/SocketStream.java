@@ -33,9 +33,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.util.logging.*;
 
 import com.caucho.inject.Module;
+import com.caucho.util.L10N;
 
 /**
  * Specialized stream to handle sockets.
@@ -45,6 +48,7 @@ import com.caucho.inject.Module;
  */
 @Module
 public class SocketStream extends StreamImpl {
+  private static final L10N L = new L10N(SocketStream.class);
   private static final Logger log
     = Logger.getLogger(SocketStream.class.getName());
   
@@ -303,6 +307,64 @@ public class SocketStream extends StreamImpl {
     }
   }
 
+  /**
+   * Zero-copy transfer is available when the socket has a channel.
+   */
+  @Override
+  public boolean isFileTransferEnabled()
+  {
+    Socket s = _s;
+
+    return s != null && s.getChannel() != null;
+  }
+
+  /**
+   * Writes the pending buffer, followed by the file region with
+   * FileChannel.transferTo.
+   */
+  @Override
+  public void writeFileTransfer(byte []buffer, int offset, int length,
+                                FileChannel file,
+                                long fileOffset,
+                                long fileLength)
+    throws IOException
+  {
+    if (length > 0)
+      write(buffer, offset, length, false);
+
+    Socket s = _s;
+
+    if (s == null)
+      return;
+
+    SocketChannel channel = s.getChannel();
+
+    try {
+      long position = fileOffset;
+      long end = fileOffset + fileLength;
+
+      while (position < end) {
+        long sublen = file.transferTo(position, end - position, channel);
+
+        if (sublen <= 0)
+          throw new IOException(L.l("unexpected end of file at {0}",
+                                    position));
+
+        position += sublen;
+        _totalWriteBytes += sublen;
+      }
+    } catch (IOException e) {
+      IOException exn = ClientDisconnectException.create(this + ":" + e, e);
+      
+      try {
+        close();
+      } catch (IOException e1) {
+      }
+
+      throw exn;
+    }
+  }
+
   /**
    * Flushes the socket.
    */
@@ -32,6 +32,7 @@ package com.caucho.vfs;
 import com.caucho.util.NullIterator;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 
 /**
@@ -380,6 +381,27 @@ public class StreamImpl {
     throw new UnsupportedOperationException(getClass().getName());
   }
 
+  /**
+   * Returns true if the stream can write file regions directly from
+   * a FileChannel, i.e. zero-copy with FileChannel.transferTo.
+   */
+  public boolean isFileTransferEnabled()
+  {
+    return false;
+  }
+
+  /**
+   * Writes the pending buffer followed by a region of the file.
+   */
+  public void writeFileTransfer(byte []buffer, int offset, int length,
+                                FileChannel file,
+                                long fileOffset,
+                                long fileLength)
+    throws IOException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
   /**
    * Closes the write half of the stream.
    */
@@ -34,6 +34,7 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 import java.util.Locale;
 
@@ -1665,6 +1666,36 @@ public class WriteStream extends OutputStreamWithBuffer
     _position += fileLength;
   }
 
+  @Override
+  public boolean isFileTransferEnabled()
+  {
+    return _source.isFileTransferEnabled();
+  }
+
+  /**
+   * Writes a region of the file directly to the underlying stream
+   * after any buffered data.
+   */
+  @Override
+  public void writeFileTransfer(FileChannel file,
+                                long fileOffset, long fileLength)
+    throws IOException
+  {
+    int writeLength = _writeLength;
+
+    if (writeLength > 0) {
+      _writeLength = 0;
+      _position += writeLength;
+    }
+
+    _source.writeFileTransfer(_writeBuffer, 0, writeLength,
+                              file, fileOffset, fileLength);
+
+    _isFlushRequired = true;
+
+    _position += fileLength;
+  }
+
   @Override
   public String toString()
   {
@@ -31,7 +31,9 @@ package com.caucho.quercus;
 /**
  * Records the source file location of a statement or expression.
  */
-public class Location {
+public class Location implements java.io.Serializable {
+  private static final long serialVersionUID = 1L;
+
   public static final Location UNKNOWN = new Location();
 
   private final String _fileName;
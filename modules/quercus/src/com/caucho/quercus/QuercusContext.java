@@ -67,6 +67,7 @@ import com.caucho.quercus.env.UnicodeBuilderValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.ExprFactory;
 import com.caucho.quercus.function.AbstractFunction;
+import com.caucho.quercus.gen.QuercusCompiler;
 import com.caucho.quercus.lib.db.JavaSqlDriverWrapper;
 import com.caucho.quercus.lib.db.JdbcDriverContext;
 import com.caucho.quercus.lib.file.FileModule;
@@ -468,6 +469,15 @@ public class QuercusContext
     return _pageManager.isCompile();
   }
 
+  /**
+   * Returns the background compiler for hot functions and pages, or null
+   * if compilation is disabled.
+   */
+  public QuercusCompiler getCompiler()
+  {
+    return _pageManager.getCompiler();
+  }
+
   /**
    * Returns true if this is the Professional version.
    */
@@ -542,6 +552,30 @@ public class QuercusContext
     _pageManager.setCompileFailover(isCompileFailover);
   }
 
+  /**
+   * Set true if parsed pages should be saved in the work directory.
+   */
+  public void setParseCache(boolean isParseCache)
+  {
+    _pageManager.setParseCache(isParseCache);
+  }
+
+  /**
+   * Returns the parse cache hit count.
+   */
+  public long getParseCacheHitCount()
+  {
+    return _pageManager.getParseCacheHitCount();
+  }
+
+  /**
+   * Returns the parse cache miss count.
+   */
+  public long getParseCacheMissCount()
+  {
+    return _pageManager.getParseCacheMissCount();
+  }
+
   /**
    * Returns the expected encoding of php scripts.
    */
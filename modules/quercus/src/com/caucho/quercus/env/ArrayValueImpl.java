@@ -34,12 +34,21 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import com.caucho.util.RandomUtil;
 
 /**
  * Represents a PHP array value.
+ *
+ * Lists with the keys 0..n-1 in order are stored packed as a Value[]
+ * without entries or hashing.  The first non-sequential insert, string key
+ * or call needing the Entry list converts the array to the hashed form.
  */
 public class ArrayValueImpl extends ArrayValue
   implements Serializable
@@ -54,6 +63,11 @@ public class ArrayValueImpl extends ArrayValue
   // save memory on short arrays
   private static final int MIN_HASH = 4;
 
+  private static final int MIN_PACKED = 4;
+
+  private static final boolean _isPackedEnabled
+    = ! "false".equals(System.getProperty("com.caucho.quercus.array.packed"));
+
   private Entry []_entries;
   private int _hashMask;
 
@@ -66,6 +80,11 @@ public class ArrayValueImpl extends ArrayValue
 
   private ConstArrayValue _constSource;
 
+  // packed list: values for the keys 0.._size-1, or null when hashed
+  private Value []_packed;
+  // current() index for a packed list, or -1
+  private int _packedCurrent = -1;
+
   public ArrayValueImpl()
   {
     /*
@@ -91,9 +110,43 @@ public class ArrayValueImpl extends ArrayValue
   {
     // this(copy.getSize());
 
-    for (Entry ptr = source.getHead(); ptr != null; ptr = ptr.getNext()) {
+    if (source instanceof ArrayValueImpl
+        && ((ArrayValueImpl) source)._packed != null) {
+      ArrayValueImpl list = (ArrayValueImpl) source;
+
+      int size = list._size;
+      Value []packed = new Value[Math.max(size, MIN_PACKED)];
+
+      for (int i = 0; i < size; i++) {
+        // php/0662 for copy
+        packed[i] = list._packed[i].toValue().copyArrayItem();
+      }
+
+      _packed = packed;
+      _size = size;
+      _nextAvailableIndex = size;
+      _packedCurrent = size > 0 ? 0 : -1;
+
+      return;
+    }
+
+    Iterator<Map.Entry<Value,Value>> iter = source.getIterator();
+
+    while (iter.hasNext()) {
+      Map.Entry<Value,Value> ptr = iter.next();
+
       // php/0662 for copy
-      Entry entry = createNewEntry(ptr.getKey());
+      Value value = ptr.getValue().copyArrayItem();
+      Value key = ptr.getKey();
+
+      int slot = createPackedSlot(key);
+
+      if (slot >= 0) {
+        _packed[slot] = value;
+        continue;
+      }
+
+      Entry entry = createNewEntry(key);
 
       /*
       if (ptr._var != null)
@@ -101,7 +154,7 @@ public class ArrayValueImpl extends ArrayValue
       else
         entry._value = ptr._value.copyArrayItem();
       */
-      entry.setValue(ptr.getValue().copyArrayItem());
+      entry.setValue(value);
     }
   }
 
@@ -118,6 +171,15 @@ public class ArrayValueImpl extends ArrayValue
     _isDirty = true;
 
     _size = source._size;
+    _nextAvailableIndex = source._nextAvailableIndex;
+
+    if (source._packed != null) {
+      _packed = source._packed;
+      _packedCurrent = source._packedCurrent;
+
+      return;
+    }
+
     _entries = source._entries;
     _hashMask = source._hashMask;
 
@@ -125,7 +187,6 @@ public class ArrayValueImpl extends ArrayValue
     setCurrent(source.getCurrent());
 
     _tail = source._tail;
-    _nextAvailableIndex = source._nextAvailableIndex;
   }
 
   public ArrayValueImpl(ConstArrayValue source)
@@ -135,6 +196,18 @@ public class ArrayValueImpl extends ArrayValue
     _isDirty = true;
 
     _size = source.getSize();
+
+    Value []packed = source.getConstPackedValues();
+
+    if (packed != null) {
+      // the constant's packed values are never modified, see copyOnWrite
+      _packed = packed;
+      _nextAvailableIndex = _size;
+      _packedCurrent = _size > 0 ? 0 : -1;
+
+      return;
+    }
+
     _entries = source.getEntries();
     _hashMask = source.getHashMask();
 
@@ -152,9 +225,13 @@ public class ArrayValueImpl extends ArrayValue
 
     map.put(copy, this);
 
-    for (Entry ptr = copy.getHead(); ptr != null; ptr = ptr.getNext()) {
+    Iterator<Map.Entry<Value,Value>> iter = copy.getIterator();
+
+    while (iter.hasNext()) {
+      Map.Entry<Value,Value> ptr = iter.next();
+
       // Value value = ptr._var != null ? ptr._var.toValue() : ptr._value;
-      Value value = ptr.toValue();
+      Value value = ptr.getValue();
 
       append(ptr.getKey(), value.copy(env, map));
     }
@@ -171,9 +248,13 @@ public class ArrayValueImpl extends ArrayValue
 
     root.putCopy(copy, this);
 
-    for (Entry ptr = copy.getHead(); ptr != null; ptr = ptr.getNext()) {
+    Iterator<Map.Entry<Value,Value>> iter = copy.getIterator();
+
+    while (iter.hasNext()) {
+      Map.Entry<Value,Value> ptr = iter.next();
+
       // Value value = ptr._var != null ? ptr._var.toValue() : ptr._value;
-      Value value = ptr.toValue();
+      Value value = ptr.getValue();
 
       append(ptr.getKey(), value.copyTree(env, root));
     }
@@ -231,6 +312,14 @@ public class ArrayValueImpl extends ArrayValue
     return _nextAvailableIndex;
   }
 
+  /**
+   * Returns the packed values, or null for a hashed array.
+   */
+  protected final Value []getPackedValues()
+  {
+    return _packed;
+  }
+
   private void copyOnWrite()
   {
     if (! _isDirty)
@@ -240,6 +329,18 @@ public class ArrayValueImpl extends ArrayValue
 
     _isDirty = false;
 
+    if (_packed != null) {
+      Value []packed = new Value[_packed.length];
+
+      for (int i = 0; i < _size; i++) {
+        packed[i] = _packed[i].copyArrayItem();
+      }
+
+      _packed = packed;
+
+      return;
+    }
+
     Entry []entries = _entries;
 
     if (entries != null)
@@ -441,6 +542,8 @@ public class ArrayValueImpl extends ArrayValue
     }
 
     _entries = null;
+    _packed = null;
+    _packedCurrent = -1;
 
     _size = 0;
     _head = _tail = null;
@@ -469,6 +572,14 @@ public class ArrayValueImpl extends ArrayValue
     if (key instanceof UnsetValue) // php/4a4h
       key = createTailKey();
 
+    int slot = createPackedSlot(key.toKey());
+
+    if (slot >= 0) {
+      setPacked(slot, value);
+
+      return this;
+    }
+
     Entry entry = createEntry(key);
 
     // php/0434
@@ -487,6 +598,9 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null)
+      unpack();
+
     _size++;
 
     Entry []entries = _entries;
@@ -521,6 +635,9 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null)
+      unpack();
+
     int index = 0;
 
     ArrayValueImpl result = new ArrayValueImpl();
@@ -612,6 +729,20 @@ public class ArrayValueImpl extends ArrayValue
   {
     ArrayValueImpl array = new ArrayValueImpl();
 
+    if (_packed != null) {
+      Value []packed = _packed;
+      int size = Math.min(end, _size);
+
+      for (int i = Math.max(start, 0); i < size; i++) {
+        if (isPreserveKeys)
+          array.put(LongValue.create(i), packed[i].toValue());
+        else
+          array.put(packed[i].toValue());
+      }
+
+      return array;
+    }
+
     int i = 0;
     for (Entry ptr = _head; i < end && ptr != null; ptr = ptr.getNext()) {
       if (start > i++)
@@ -642,11 +773,21 @@ public class ArrayValueImpl extends ArrayValue
     //if (isTop)
       //return new ArgGetValue(this, index);
 
-    Entry entry = getEntry(index);
+    Value value;
+
+    if (_packed != null) {
+      int slot = getPackedSlot(index.toKey());
+
+      value = slot >= 0 ? _packed[slot].toValue() : null;
+    }
+    else {
+      Entry entry = getEntry(index);
+
+      value = entry != null ? entry.getValue() : null;
+    }
 
-    if (entry != null) {
+    if (value != null) {
       // php/3d48, php/39aj
-      Value value = entry.getValue();
 
       // php/3d42
       if (! isTop && value.isset())
@@ -690,6 +831,29 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    int slot = createPackedSlot(index.toKey());
+
+    if (slot >= 0) {
+      Value value = _packed[slot].toValue();
+      Value array = value.toAutoArray();
+
+      if (value != array) {
+        setPacked(slot, array);
+
+        return array;
+      }
+      else if (array.isString()) {
+        // php/0482
+        Var var = _packed[slot].toVar();
+        _packed[slot] = var;
+
+        return new ArgRef(var);
+      }
+      else {
+        return array;
+      }
+    }
+
     Entry entry = createEntry(index);
 
     Value value = entry.toValue();
@@ -786,6 +950,15 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
+    if (_packed != null) {
+      int slot = getPackedSlot(key);
+
+      if (slot >= 0)
+        return _packed[slot].toValue();
+      else
+        return UnsetValue.UNSET;
+    }
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -825,6 +998,15 @@ public class ArrayValueImpl extends ArrayValue
   {
     key = key.toKey();
 
+    if (_packed != null) {
+      int slot = getPackedSlot(key);
+
+      if (slot >= 0)
+        return _packed[slot];
+      else
+        return UnsetValue.UNSET;
+    }
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -863,6 +1045,15 @@ public class ArrayValueImpl extends ArrayValue
   @Override
   public Value contains(Value value)
   {
+    if (_packed != null) {
+      for (int i = 0; i < _size; i++) {
+        if (_packed[i].toValue().eq(value))
+          return LongValue.create(i);
+      }
+
+      return NullValue.NULL;
+    }
+
     for (Entry entry = getHead(); entry != null; entry = entry.getNext()) {
       if (entry.getValue().eq(value))
         return entry.getKey();
@@ -881,6 +1072,15 @@ public class ArrayValueImpl extends ArrayValue
   @Override
   public Value containsStrict(Value value)
   {
+    if (_packed != null) {
+      for (int i = 0; i < _size; i++) {
+        if (_packed[i].toValue().eql(value))
+          return LongValue.create(i);
+      }
+
+      return NullValue.NULL;
+    }
+
     for (Entry entry = getHead(); entry != null; entry = entry.getNext()) {
       if (entry.getValue().eql(value))
         return entry.getKey();
@@ -899,6 +1099,12 @@ public class ArrayValueImpl extends ArrayValue
   @Override
   public Value containsKey(Value key)
   {
+    if (_packed != null) {
+      int slot = getPackedSlot(key.toKey());
+
+      return slot >= 0 ? _packed[slot].toValue() : null;
+    }
+
     Entry entry = getEntry(key);
 
     if (entry != null)
@@ -946,6 +1152,25 @@ public class ArrayValueImpl extends ArrayValue
 
     key = key.toKey();
 
+    if (_packed != null) {
+      int slot = getPackedSlot(key);
+
+      if (slot < 0)
+        return UnsetValue.UNSET;
+      else if (slot == _size - 1) {
+        Value value = _packed[slot].toValue();
+
+        _packed[slot] = null;
+        _size--;
+        _nextAvailableIndex = _size;
+        _packedCurrent = _size > 0 ? 0 : -1;
+
+        return value;
+      }
+      else
+        unpack();
+    }
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -1019,6 +1244,15 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    int slot = createPackedSlot(index.toKey());
+
+    if (slot >= 0) {
+      Var var = _packed[slot].toVar();
+      _packed[slot] = var;
+
+      return var;
+    }
+
     Entry entry = createEntry(index);
     // quercus/0431
 
@@ -1034,6 +1268,15 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    int slot = createPackedSlot(index.toKey());
+
+    if (slot >= 0) {
+      Var var = _packed[slot].toVar();
+      _packed[slot] = var;
+
+      return var;
+    }
+
     Entry entry = createEntry(index);
     // quercus/0431
 
@@ -1217,6 +1460,127 @@ public class ArrayValueImpl extends ArrayValue
     }
   }
 
+  /**
+   * Returns the packed slot for a key, appending a new slot if the key is
+   * the next list index, or -1 if the key needs the hashed form.
+   */
+  private int createPackedSlot(Value key)
+  {
+    if (_packed == null) {
+      // only an empty array starting at 0 becomes packed
+      if (_size != 0 || _nextAvailableIndex > 0 || ! _isPackedEnabled)
+        return -1;
+      else if (! (key instanceof LongValue) || key.toLong() != 0)
+        return -1;
+
+      _packed = new Value[MIN_PACKED];
+      _entries = null;
+      _hashMask = 0;
+    }
+
+    if (key instanceof LongValue) {
+      long index = key.toLong();
+
+      if (0 <= index && index < _size)
+        return (int) index;
+      else if (index == _size) {
+        if (_packed.length <= _size) {
+          Value []packed = new Value[2 * _packed.length];
+
+          System.arraycopy(_packed, 0, packed, 0, _size);
+
+          _packed = packed;
+        }
+
+        int slot = _size++;
+
+        _packed[slot] = NullValue.NULL;
+        _nextAvailableIndex = _size;
+
+        if (slot == 0)
+          _packedCurrent = 0;
+
+        return slot;
+      }
+    }
+
+    unpack();
+
+    return -1;
+  }
+
+  /**
+   * Returns the packed slot for an existing key, or -1.
+   */
+  private int getPackedSlot(Value key)
+  {
+    if (key instanceof LongValue) {
+      long index = key.toLong();
+
+      if (0 <= index && index < _size)
+        return (int) index;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Sets a packed value with the same semantics as Entry.set().
+   */
+  private void setPacked(int slot, Value value)
+  {
+    if (value instanceof Var)
+      _packed[slot] = value;
+    else
+      _packed[slot] = _packed[slot].set(value);
+  }
+
+  /**
+   * Converts a packed list to the hashed Entry form.
+   */
+  protected void unpack()
+  {
+    Value []packed = _packed;
+
+    if (packed == null)
+      return;
+
+    int size = _size;
+    int current = _packedCurrent;
+    boolean isCopy = _isDirty;
+
+    _packed = null;
+    _packedCurrent = -1;
+    _isDirty = false;
+
+    _size = 0;
+    _entries = null;
+    _hashMask = 0;
+    _head = _tail = null;
+    _nextAvailableIndex = 0;
+
+    Entry currentEntry = null;
+
+    for (int i = 0; i < size; i++) {
+      Entry entry = createNewEntry(LongValue.create(i));
+
+      if (isCopy)
+        entry.setValue(packed[i].copyArrayItem());
+      else
+        entry.setValue(packed[i]);
+
+      if (i == current)
+        currentEntry = entry;
+    }
+
+    setCurrent(currentEntry);
+  }
+
+  private boolean isPackedCurrent()
+  {
+    return 0 <= _packedCurrent && _packedCurrent < _size;
+  }
+
   /**
    * Pops the top value.
    */
@@ -1226,6 +1590,13 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null) {
+      if (_size > 0)
+        return remove(LongValue.create(_size - 1));
+      else
+        return NullValue.NULL;
+    }
+
     if (_tail != null)
       return remove(_tail.getKey());
     else
@@ -1234,11 +1605,17 @@ public class ArrayValueImpl extends ArrayValue
 
   public final Entry getHead()
   {
+    if (_packed != null)
+      unpack();
+
     return _head;
   }
 
   protected final Entry getTail()
   {
+    if (_packed != null)
+      unpack();
+
     return _tail;
   }
 
@@ -1250,6 +1627,23 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_packed != null) {
+      Value []packed = _packed;
+      int length = _size;
+
+      for (int i = 0; i < length; i++) {
+        int rand = RandomUtil.nextInt(length);
+
+        Value temp = packed[rand];
+        packed[rand] = packed[i];
+        packed[i] = temp;
+      }
+
+      _packedCurrent = length > 0 ? 0 : -1;
+
+      return BooleanValue.TRUE;
+    }
+
     Entry []values = new Entry[size()];
 
     int length = values.length;
@@ -1287,6 +1681,252 @@ public class ArrayValueImpl extends ArrayValue
     return BooleanValue.TRUE;
   }
 
+  @Override
+  protected Entry getCurrent()
+  {
+    if (_packed != null)
+      unpack();
+
+    return super.getCurrent();
+  }
+
+  /**
+   * Returns the current value.
+   */
+  @Override
+  public Value current()
+  {
+    if (_packed == null)
+      return super.current();
+    else if (isPackedCurrent())
+      return _packed[_packedCurrent].toValue();
+    else
+      return BooleanValue.FALSE;
+  }
+
+  /**
+   * Returns the current key
+   */
+  @Override
+  public Value key()
+  {
+    if (_packed == null)
+      return super.key();
+    else if (isPackedCurrent())
+      return LongValue.create(_packedCurrent);
+    else
+      return NullValue.NULL;
+  }
+
+  /**
+   * Returns true if there are more elements.
+   */
+  @Override
+  public boolean hasCurrent()
+  {
+    if (_packed == null)
+      return super.hasCurrent();
+    else
+      return isPackedCurrent();
+  }
+
+  /**
+   * Returns the next value.
+   */
+  @Override
+  public Value next()
+  {
+    if (_packed == null)
+      return super.next();
+
+    if (isPackedCurrent()) {
+      _packedCurrent++;
+
+      if (_size <= _packedCurrent)
+        _packedCurrent = -1;
+    }
+
+    return current();
+  }
+
+  /**
+   * Returns the previous value.
+   */
+  @Override
+  public Value prev()
+  {
+    if (_packed == null)
+      return super.prev();
+
+    if (isPackedCurrent())
+      _packedCurrent--;
+
+    return current();
+  }
+
+  /**
+   * The each iterator
+   */
+  @Override
+  public Value each()
+  {
+    if (_packed == null)
+      return super.each();
+    else if (! isPackedCurrent())
+      return BooleanValue.FALSE;
+
+    Value key = LongValue.create(_packedCurrent);
+    Value value = _packed[_packedCurrent].toValue();
+
+    ArrayValue result = new ArrayValueImpl();
+
+    result.put(LongValue.ZERO, key);
+    result.put(KEY, key);
+
+    result.put(LongValue.ONE, value);
+    result.put(VALUE, value);
+
+    next();
+
+    return result;
+  }
+
+  /**
+   * Returns the first value.
+   */
+  @Override
+  public Value reset()
+  {
+    if (_packed == null)
+      return super.reset();
+
+    _packedCurrent = _size > 0 ? 0 : -1;
+
+    return current();
+  }
+
+  /**
+   * Returns the last value.
+   */
+  @Override
+  public Value end()
+  {
+    if (_packed == null)
+      return super.end();
+
+    _packedCurrent = _size - 1;
+
+    return current();
+  }
+
+  @Override
+  public Iterator<Map.Entry<Value, Value>> getBaseIterator(Env env)
+  {
+    if (_packed != null)
+      return new PackedEntryIterator();
+    else
+      return super.getBaseIterator(env);
+  }
+
+  @Override
+  public Iterator<Map.Entry<Value, Value>> getIterator()
+  {
+    if (_packed != null)
+      return new PackedEntryIterator();
+    else
+      return super.getIterator();
+  }
+
+  @Override
+  public Iterator<Value> getKeyIterator(Env env)
+  {
+    if (_packed != null)
+      return new PackedKeyIterator();
+    else
+      return super.getKeyIterator(env);
+  }
+
+  @Override
+  public Iterator<Value> getValueIterator(Env env)
+  {
+    if (_packed != null)
+      return new PackedValueIterator();
+    else
+      return super.getValueIterator(env);
+  }
+
+  /**
+   * Returns a set of all the of the entries.
+   */
+  @Override
+  public Set<Map.Entry<Value,Value>> entrySet()
+  {
+    if (_packed != null)
+      return new PackedEntrySet();
+    else
+      return super.entrySet();
+  }
+
+  /**
+   * Returns an iterator of the entries.
+   */
+  @Override
+  public Set<Value> keySet()
+  {
+    if (_packed != null)
+      return new PackedKeySet();
+    else
+      return super.keySet();
+  }
+
+  /**
+   * Returns a collection of the values.
+   */
+  @Override
+  public Collection<Value> values()
+  {
+    if (_packed != null)
+      return new PackedValueCollection();
+    else
+      return super.values();
+  }
+
+  /**
+   * Takes the values of this array and puts them in a java array
+   */
+  @Override
+  public Value[] keysToArray()
+  {
+    if (_packed == null)
+      return super.keysToArray();
+
+    Value []keys = new Value[_size];
+
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = LongValue.create(i);
+    }
+
+    return keys;
+  }
+
+  /**
+   * Takes the values of this array and puts them in a java array
+   */
+  @Override
+  public Value[] valuesToArray()
+  {
+    if (_packed == null)
+      return super.valuesToArray();
+
+    Value []values = new Value[_size];
+
+    for (int i = 0; i < values.length; i++) {
+      values[i] = _packed[i].toValue();
+    }
+
+    return values;
+  }
+
   /**
    * Returns the array keys.
    */
@@ -1311,6 +1951,157 @@ public class ArrayValueImpl extends ArrayValue
       return super.getValues();
   }
 
+  class PackedEntrySet extends AbstractSet<Map.Entry<Value,Value>> {
+    @Override
+    public int size()
+    {
+      return ArrayValueImpl.this.getSize();
+    }
+
+    @Override
+    public Iterator<Map.Entry<Value,Value>> iterator()
+    {
+      return new PackedEntryIterator();
+    }
+  }
+
+  class PackedKeySet extends AbstractSet<Value> {
+    @Override
+    public int size()
+    {
+      return ArrayValueImpl.this.getSize();
+    }
+
+    @Override
+    public Iterator<Value> iterator()
+    {
+      return new PackedKeyIterator();
+    }
+  }
+
+  class PackedValueCollection extends AbstractCollection<Value> {
+    @Override
+    public int size()
+    {
+      return ArrayValueImpl.this.getSize();
+    }
+
+    @Override
+    public Iterator<Value> iterator()
+    {
+      return new PackedValueIterator();
+    }
+  }
+
+  /**
+   * Iterates over a packed list.  If the array is converted to the hashed
+   * form during the iteration, continues with the matching entry.
+   */
+  abstract class PackedIterator<T> implements Iterator<T> {
+    private int _index;
+
+    private boolean _isHashed;
+    private Entry _entry;
+
+    public boolean hasNext()
+    {
+      if (! _isHashed && _packed != null)
+        return _index < _size;
+      else
+        return getHashEntry() != null;
+    }
+
+    public T next()
+    {
+      if (! _isHashed && _packed != null) {
+        if (_size <= _index)
+          return null;
+
+        int index = _index++;
+
+        return getPacked(index, _packed[index]);
+      }
+
+      Entry entry = getHashEntry();
+
+      if (entry == null)
+        return null;
+
+      _entry = entry.getNext();
+      _index++;
+
+      return getHashed(entry);
+    }
+
+    private Entry getHashEntry()
+    {
+      if (! _isHashed) {
+        _isHashed = true;
+
+        Entry entry = getHead();
+
+        for (int i = 0; entry != null && i < _index; i++) {
+          entry = entry.getNext();
+        }
+
+        _entry = entry;
+      }
+
+      return _entry;
+    }
+
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    abstract protected T getPacked(int index, Value value);
+
+    abstract protected T getHashed(Entry entry);
+  }
+
+  class PackedEntryIterator extends PackedIterator<Map.Entry<Value,Value>> {
+    @Override
+    protected Map.Entry<Value,Value> getPacked(int index, Value value)
+    {
+      return new Entry(LongValue.create(index), value);
+    }
+
+    @Override
+    protected Map.Entry<Value,Value> getHashed(Entry entry)
+    {
+      return entry;
+    }
+  }
+
+  class PackedKeyIterator extends PackedIterator<Value> {
+    @Override
+    protected Value getPacked(int index, Value value)
+    {
+      return LongValue.create(index);
+    }
+
+    @Override
+    protected Value getHashed(Entry entry)
+    {
+      return entry.getKey();
+    }
+  }
+
+  class PackedValueIterator extends PackedIterator<Value> {
+    @Override
+    protected Value getPacked(int index, Value value)
+    {
+      return value.toValue();
+    }
+
+    @Override
+    protected Value getHashed(Entry entry)
+    {
+      return entry.getValue();
+    }
+  }
+
   //
   // Java serialization code
   //
@@ -1331,6 +2122,9 @@ public class ArrayValueImpl extends ArrayValue
   {
     int size = in.readInt();
 
+    // field initializers don't run for a deserialized object
+    _packedCurrent = -1;
+
     int capacity = DEFAULT_SIZE;
 
     while (capacity < 4 * size) {
@@ -29,6 +29,9 @@
 
 package com.caucho.quercus.env;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 /**
  * Represents a PHP array value.
  */
@@ -40,20 +43,48 @@ public class ConstArrayValue
   
   private Value []_keysArray;
   private Value []_valuesArray;
+
+  // packed values shared with copies, the constant itself is hashed
+  private Value []_packedValues;
   
   public ConstArrayValue(ArrayValueImpl source)
   {
     super.copyFrom(source);
+
+    init();
   }
   
   public ConstArrayValue(ArrayValueComponent[] components)
   {
     super(components);
+
+    init();
   }
 
   public ConstArrayValue(Value []keys, Value []values)
   {
     super(keys, values);
+
+    init();
+  }
+
+  /**
+   * Constants are shared, so convert to the hashed form eagerly instead of
+   * on the first getHead().  The packed values are kept for copies.
+   */
+  private void init()
+  {
+    _packedValues = super.getPackedValues();
+
+    unpack();
+  }
+
+  /**
+   * Returns the packed values for a copy of the constant, or null.
+   */
+  Value []getConstPackedValues()
+  {
+    return _packedValues;
   }
   
   /**
@@ -123,5 +154,16 @@ public class ConstArrayValue
    
     return _values.copy();
   }
-}
 
+  //
+  // Java serialization code
+  //
+
+  private void readObject(ObjectInputStream in)
+    throws ClassNotFoundException, IOException
+  {
+    in.defaultReadObject();
+
+    init();
+  }
+}
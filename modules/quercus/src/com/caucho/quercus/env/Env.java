@@ -77,6 +77,7 @@ import com.caucho.quercus.module.ModuleContext;
 import com.caucho.quercus.module.ModuleStartupListener;
 import com.caucho.quercus.page.QuercusPage;
 import com.caucho.quercus.program.ClassDef;
+import com.caucho.quercus.program.FunctionInfo;
 import com.caucho.quercus.program.JavaClassDef;
 import com.caucho.quercus.program.QuercusProgram;
 import com.caucho.quercus.program.UndefinedFunction;
@@ -282,6 +283,9 @@ public class Env
   // Current env
   private Map<StringValue, EnvVar> _map = _globalMap;
 
+  // Current env when it's a slot frame, i.e. _map as a SlotSymbolMap
+  private SlotSymbolMap _slotMap;
+
   private HashMap<String, Value> _iniMap;
 
   // specialMap is used for implicit resources like the mysql link
@@ -2312,6 +2316,11 @@ public class Env
 
     _map = map;
 
+    if (map instanceof SlotSymbolMap)
+      _slotMap = (SlotSymbolMap) map;
+    else
+      _slotMap = null;
+
     return oldEnv;
   }
 
@@ -2321,6 +2330,25 @@ public class Env
   public void popEnv(Map<StringValue,EnvVar> oldEnv)
   {
     _map = oldEnv;
+
+    if (oldEnv instanceof SlotSymbolMap)
+      _slotMap = (SlotSymbolMap) oldEnv;
+    else
+      _slotMap = null;
+  }
+
+  /**
+   * Returns the slot array of the current environment if it's a slot
+   * frame for the given function, or null otherwise.
+   */
+  public final EnvVar []getLocalSlots(FunctionInfo info)
+  {
+    SlotSymbolMap slotMap = _slotMap;
+
+    if (slotMap != null && slotMap.getFunctionInfo() == info)
+      return slotMap.getSlots();
+    else
+      return null;
   }
 
   /**
@@ -4667,6 +4695,7 @@ public class Env
 
     _globalMap = new LazySymbolMap(globalNameMap, globalList);
     _map = _globalMap;
+    _slotMap = null;
 
     // php/4045 - set the vars for any active EnvVar entries
     for (Map.Entry<StringValue,EnvVar> oldEntry : oldGlobal.entrySet()) {
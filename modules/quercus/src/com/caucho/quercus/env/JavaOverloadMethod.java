@@ -45,6 +45,8 @@ public class JavaOverloadMethod extends AbstractJavaMethod {
   private AbstractJavaMethod [][]_restMethodTable
     = new AbstractJavaMethod[0][];
 
+  private boolean _isCallUsesSymbolTable;
+
   public JavaOverloadMethod(AbstractJavaMethod fun)
   {
     overload(fun);
@@ -68,11 +70,23 @@ public class JavaOverloadMethod extends AbstractJavaMethod {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Returns true if any of the overloaded methods uses the symbol table
+   */
+  @Override
+  public boolean isCallUsesSymbolTable()
+  {
+    return _isCallUsesSymbolTable;
+  }
+
   /**
    * Returns an overloaded java method.
    */
   public AbstractJavaMethod overload(AbstractJavaMethod fun)
   {
+    if (fun.isCallUsesSymbolTable())
+      _isCallUsesSymbolTable = true;
+
     if (fun.getHasRestArgs()) {
       int len = fun.getMinArgLength();
 
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.env;
+
+import com.caucho.quercus.program.FunctionInfo;
+import com.caucho.util.IntMap;
+
+import java.util.*;
+
+/**
+ * Symbol table for an interpreted function whose locals were assigned
+ * fixed slots by the parser.  VarExpr reads the slot array directly, while
+ * name-based callers (global, static, include, closures) see a normal map.
+ */
+public class SlotSymbolMap extends AbstractMap<StringValue,EnvVar> {
+  private final FunctionInfo _info;
+  private final IntMap _slotIndex;
+  private final EnvVar []_slots;
+
+  private HashMap<StringValue,EnvVar> _extMap;
+
+  public SlotSymbolMap(FunctionInfo info)
+  {
+    _info = info;
+    _slotIndex = info.getSlotIndex();
+    _slots = new EnvVar[info.getSlotNames().length];
+  }
+
+  /**
+   * Returns the function owning the slots.
+   */
+  public final FunctionInfo getFunctionInfo()
+  {
+    return _info;
+  }
+
+  /**
+   * Returns the slot array.
+   */
+  public final EnvVar []getSlots()
+  {
+    return _slots;
+  }
+
+  /**
+   * Sets a slot directly, used for the function arguments.
+   */
+  public final void putSlot(int slot, EnvVar envVar)
+  {
+    _slots[slot] = envVar;
+  }
+
+  /**
+   * Returns the matching value, or null.
+   */
+  @Override
+  public EnvVar get(Object key)
+  {
+    return get((StringValue) key);
+  }
+
+  /**
+   * Returns the matching value, or null.
+   */
+  public EnvVar get(StringValue key)
+  {
+    int id = _slotIndex.get(key);
+
+    if (id >= 0)
+      return _slots[id];
+    else if (_extMap != null)
+      return _extMap.get(key);
+    else
+      return null;
+  }
+
+  @Override
+  public boolean containsKey(Object key)
+  {
+    return get(key) != null;
+  }
+
+  /**
+   * Sets the matching value.
+   */
+  @Override
+  public EnvVar put(StringValue key, EnvVar envVar)
+  {
+    int id = _slotIndex.get(key);
+
+    if (id >= 0) {
+      EnvVar oldVar = _slots[id];
+
+      _slots[id] = envVar;
+
+      return oldVar;
+    }
+
+    if (_extMap == null)
+      _extMap = new HashMap<StringValue,EnvVar>();
+
+    return _extMap.put(key, envVar);
+  }
+
+  @Override
+  public EnvVar remove(Object key)
+  {
+    int id = _slotIndex.get(key);
+
+    if (id >= 0) {
+      EnvVar oldVar = _slots[id];
+
+      _slots[id] = null;
+
+      return oldVar;
+    }
+    else if (_extMap != null)
+      return _extMap.remove(key);
+    else
+      return null;
+  }
+
+  @Override
+  public Set<Map.Entry<StringValue,EnvVar>> entrySet()
+  {
+    StringValue []names = _info.getSlotNames();
+
+    LinkedHashMap<StringValue,EnvVar> map
+      = new LinkedHashMap<StringValue,EnvVar>();
+
+    for (int i = 0; i < _slots.length; i++) {
+      if (_slots[i] != null)
+        map.put(names[i], _slots[i]);
+    }
+
+    if (_extMap != null)
+      map.putAll(_extMap);
+
+    return Collections.unmodifiableMap(map).entrySet();
+  }
+}
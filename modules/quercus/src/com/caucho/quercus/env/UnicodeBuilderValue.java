@@ -1425,6 +1425,16 @@ public class UnicodeBuilderValue
     }
   }
 
+  private void writeObject(ObjectOutputStream out)
+    throws IOException
+  {
+    out.writeInt(_length);
+
+    for (int i = 0; i < _length; i++) {
+      out.writeChar(_buffer[i]);
+    }
+  }
+
   private void readObject(ObjectInputStream in)
     throws ClassNotFoundException, IOException
   {
@@ -1432,7 +1442,7 @@ public class UnicodeBuilderValue
     _buffer = new char[_length];
 
     for (int i = 0; i < _length; i++) {
-      _buffer[i] = (char) (in.read() & 0xFF);
+      _buffer[i] = in.readChar();
     }
   }
 
@@ -55,6 +55,22 @@ public class BinaryAssignExpr extends Expr {
     _value = value;
   }
 
+  /**
+   * Returns the assigned variable.
+   */
+  public AbstractVarExpr getVar()
+  {
+    return _var;
+  }
+
+  /**
+   * Returns the assigned value expression.
+   */
+  public Expr getValue()
+  {
+    return _value;
+  }
+
   /**
    * Creates a assignment
    * @param location
@@ -50,7 +50,8 @@ public class CallExpr extends Expr {
   protected final StringValue _nsName;
   protected final Expr []_args;
 
-  private int _funId;
+  // per-JVM function id cache
+  private transient int _funId;
 
   protected boolean _isRef;
 
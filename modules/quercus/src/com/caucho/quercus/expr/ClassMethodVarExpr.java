@@ -53,7 +53,7 @@ public class ClassMethodVarExpr extends AbstractMethodExpr
 
   protected Expr []_fullArgs;
 
-  protected AbstractFunction _fun;
+  protected transient AbstractFunction _fun;
   protected boolean _isMethod;
 
   public ClassMethodVarExpr(Location location,
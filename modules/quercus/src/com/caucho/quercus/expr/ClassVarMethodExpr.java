@@ -51,7 +51,7 @@ public class ClassVarMethodExpr extends Expr {
 
   protected final Expr []_args;
 
-  protected AbstractFunction _fun;
+  protected transient AbstractFunction _fun;
   protected boolean _isMethod;
 
   public ClassVarMethodExpr(Location location,
@@ -53,7 +53,7 @@ public class ClassVarMethodVarExpr extends Expr
 
   protected Expr []_fullArgs;
 
-  protected AbstractFunction _fun;
+  protected transient AbstractFunction _fun;
   protected boolean _isMethod;
 
   public ClassVarMethodVarExpr(Location location,
@@ -55,7 +55,7 @@ public class ClassVirtualMethodVarExpr extends Expr {
 
   protected Expr []_fullArgs;
 
-  protected AbstractFunction _fun;
+  protected transient AbstractFunction _fun;
   protected boolean _isMethod;
 
   public ClassVirtualMethodVarExpr(Location location,
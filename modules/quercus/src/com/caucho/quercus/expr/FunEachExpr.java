@@ -43,7 +43,7 @@ import java.io.IOException;
  * Represents a PHP each expression.
  */
 public class FunEachExpr extends AbstractUnaryExpr {
-  private final L10N L = new L10N(FunEachExpr.class);
+  private static final L10N L = new L10N(FunEachExpr.class);
   
   private boolean _isVar;
   
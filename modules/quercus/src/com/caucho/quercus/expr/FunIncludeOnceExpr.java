@@ -35,12 +35,17 @@ import com.caucho.quercus.env.NullValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.vfs.Path;
+import com.caucho.vfs.Vfs;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 
 /**
  * Represents a PHP include statement
  */
 public class FunIncludeOnceExpr extends AbstractUnaryExpr {
-  protected Path _dir;
+  protected transient Path _dir;
   protected boolean _isRequire;
   
   public FunIncludeOnceExpr(Location location, Path sourceFile, Expr expr)
@@ -109,5 +114,27 @@ public class FunIncludeOnceExpr extends AbstractUnaryExpr {
   {
     return _expr.toString();
   }
-}
 
+  //
+  // Java serialization code
+  //
+
+  private void writeObject(ObjectOutputStream out)
+    throws IOException
+  {
+    out.defaultWriteObject();
+
+    out.writeObject(_dir != null ? _dir.getURL() : null);
+  }
+
+  private void readObject(ObjectInputStream in)
+    throws ClassNotFoundException, IOException
+  {
+    in.defaultReadObject();
+
+    String dir = (String) in.readObject();
+
+    if (dir != null)
+      _dir = Vfs.lookup(dir);
+  }
+}
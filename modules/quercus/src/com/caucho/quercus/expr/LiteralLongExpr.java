@@ -69,6 +69,17 @@ public class LiteralLongExpr extends Expr {
     return true;
   }
 
+  /**
+   * Evaluates the expression as a constant.
+   *
+   * @return the expression value.
+   */
+  @Override
+  public Value evalConstant()
+  {
+    return _objValue;
+  }
+
   /**
    * Evaluates the expression.
    *
@@ -45,9 +45,9 @@ public class ThisMethodExpr extends ObjectMethodExpr {
   protected final InterpretedClassDef _classDef;
 
   protected final int _hashCodeInsensitive;
-  protected boolean _isInit;
+  protected transient boolean _isInit;
 
-  protected AbstractFunction _fun;
+  protected transient AbstractFunction _fun;
 
   public ThisMethodExpr(Location location,
                         ThisExpr qThis,
@@ -32,6 +32,7 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.ArrayValueImpl;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.EnvVar;
 import com.caucho.quercus.env.NullValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.StringValue;
@@ -137,6 +138,11 @@ public class VarExpr
   @Override
   public Value eval(Env env)
   {
+    EnvVar envVar = getSlotVar(env);
+
+    if (envVar != null)
+      return envVar.get();
+
     return env.getValue(_name, false, true);
   }
 
@@ -149,6 +155,11 @@ public class VarExpr
   @Override
   public Value evalTop(Env env)
   {
+    EnvVar envVar = getSlotVar(env);
+
+    if (envVar != null)
+      return envVar.get();
+
     return env.getValue(_name, false, false);
   }
 
@@ -157,7 +168,7 @@ public class VarExpr
    */
   public boolean evalIsset(Env env)
   {
-    return env.getValue(_name, false, false).isset();
+    return evalIssetValue(env).isset();
   }
 
   /**
@@ -165,6 +176,11 @@ public class VarExpr
    */
   public Value evalIssetValue(Env env)
   {
+    EnvVar envVar = getSlotVar(env);
+
+    if (envVar != null)
+      return envVar.get();
+
     return env.getValue(_name, false, false);
   }
 
@@ -189,7 +205,7 @@ public class VarExpr
   @Override
   public Value evalArray(Env env)
   {
-    Value value = env.getVar(_name);
+    Value value = evalVar(env);
 
     value = value.toAutoArray();
 
@@ -218,12 +234,20 @@ public class VarExpr
       }
     } else {
     */
-      value = env.getValue(_name);
+      EnvVar envVar = getSlotVar(env);
+
+      if (envVar != null)
+        value = envVar.get();
+      else
+        value = env.getValue(_name);
 
       if (value == null || value.isString() || value.isNull()) {
         value = env.createObject();
 
-        env.setValue(_name, value);
+        if (envVar != null)
+          envVar.set(value);
+        else
+          env.setValue(_name, value);
       }
     //}
 
@@ -238,6 +262,11 @@ public class VarExpr
    */
   public Var evalVar(Env env)
   {
+    EnvVar envVar = getSlotVar(env);
+
+    if (envVar != null)
+      return envVar.getVar();
+
     return env.getVar(_name);
   }
 
@@ -253,7 +282,7 @@ public class VarExpr
     // php/043k
     // php/0443
 
-    return env.getVar(_name);
+    return evalVar(env);
   }
 
   /**
@@ -265,7 +294,12 @@ public class VarExpr
   public Value evalAssignValue(Env env, Value value)
   {
     // php/0232
-    env.setValue(_name, value);
+    EnvVar envVar = getSlotVar(env);
+
+    if (envVar != null)
+      envVar.set(value);
+    else
+      env.setValue(_name, value);
 
     return value;
   }
@@ -278,7 +312,12 @@ public class VarExpr
   @Override
   public Value evalAssignRef(Env env, Value value)
   {
-    env.setRef(_name, value);
+    EnvVar envVar = getSlotVar(env);
+
+    if (envVar != null)
+      envVar.setRef(value);
+    else
+      env.setRef(_name, value);
 
     return value;
   }
@@ -297,7 +336,31 @@ public class VarExpr
       env.unsetGlobalVar(_name);
     else
     */
-    env.unsetLocalVar(_name);
+    EnvVar envVar = getSlotVar(env);
+
+    if (envVar != null)
+      envVar.setVar(new Var());
+    else
+      env.unsetLocalVar(_name);
+  }
+
+  /**
+   * Returns the variable's entry when the current frame is a slot frame
+   * of the declaring function and the variable is already bound, or null
+   * to fall back to the symbol table lookup.
+   */
+  private EnvVar getSlotVar(Env env)
+  {
+    EnvVar []slots = env.getLocalSlots(_var.getFunction());
+
+    if (slots != null) {
+      int slot = _var.getSlot();
+
+      if (0 <= slot && slot < slots.length)
+        return slots[slot];
+    }
+
+    return null;
   }
 
   public int hashCode()
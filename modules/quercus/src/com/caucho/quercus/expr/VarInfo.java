@@ -35,11 +35,15 @@ import com.caucho.quercus.program.FunctionInfo;
 /**
  * Information about a variable's use in a function.
  */
-public class VarInfo {
+public class VarInfo implements java.io.Serializable {
+  private static final long serialVersionUID = 1L;
+
   private final FunctionInfo _function;
 
   private final StringValue _name;
 
+  private int _slot = -1;
+
   public VarInfo(StringValue name, FunctionInfo function)
   {
     _name = name;
@@ -62,6 +66,22 @@ public class VarInfo {
     return _function;
   }
 
+  /**
+   * Returns the local slot index, or -1 if the variable has no slot.
+   */
+  public int getSlot()
+  {
+    return _slot;
+  }
+
+  /**
+   * Sets the local slot index.
+   */
+  public void setSlot(int slot)
+  {
+    _slot = slot;
+  }
+
   @Override
   public String toString()
   {
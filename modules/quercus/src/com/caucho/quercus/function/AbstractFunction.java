@@ -64,7 +64,7 @@ abstract public class AbstractFunction extends Callback {
   protected Visibility _visibility = Visibility.PUBLIC;
   protected String _declaringClassName;
 
-  protected QuercusClass _bindingClass;
+  protected transient QuercusClass _bindingClass;
 
   protected int _parseIndex;
 
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.gen;
+
+import com.caucho.quercus.statement.Statement;
+
+/**
+ * Base class for statements generated by the QuercusCompiler.  The
+ * generated subclass implements execute() as straight-line Java code
+ * and keeps the interpreted source for anything it delegates.
+ */
+abstract public class CompiledStatement extends Statement {
+  private static final long serialVersionUID = 1L;
+
+  private final Statement _source;
+
+  protected CompiledStatement(Statement source)
+  {
+    super(source.getLocation());
+
+    _source = source;
+  }
+
+  /**
+   * Returns the interpreted statement this class was compiled from.
+   */
+  public Statement getSource()
+  {
+    return _source;
+  }
+
+  /**
+   * Returns true if control can go past the statement.
+   */
+  @Override
+  public int fallThrough()
+  {
+    return _source.fallThrough();
+  }
+
+  /**
+   * Serializes as the interpreted statement, since the generated class
+   * only exists in this JVM.
+   */
+  protected Object writeReplace()
+  {
+    return _source;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _source + "]";
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.gen;
+
+import com.caucho.java.JavaCompilerUtil;
+import com.caucho.loader.SimpleLoader;
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.program.Function;
+import com.caucho.quercus.program.QuercusProgram;
+import com.caucho.quercus.statement.Statement;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.WriteStream;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compiles hot interpreted functions and pages to Java classes.
+ *
+ * Functions and programs count their invocations and hand themselves to
+ * compileLater() once the threshold is reached.  The compile runs on a
+ * background thread and the compiled statement replaces the interpreted
+ * body with a single reference write, so running calls finish on the
+ * interpreted tree.  Any failure leaves the interpreted body in place.
+ */
+public class QuercusCompiler
+{
+  private static final Logger log
+    = Logger.getLogger(QuercusCompiler.class.getName());
+
+  private static final L10N L = new L10N(QuercusCompiler.class);
+
+  private static final int DEFAULT_THRESHOLD
+    = Integer.getInteger("com.caucho.quercus.compile.threshold", 1000);
+
+  private static final AtomicInteger _classCount = new AtomicInteger();
+
+  private final QuercusContext _quercus;
+  private final int _threshold;
+
+  private final LinkedBlockingQueue<CompileTask> _queue
+    = new LinkedBlockingQueue<CompileTask>();
+
+  // pages which already logged a compile failure
+  private final ConcurrentHashMap<String,Boolean> _failedPageMap
+    = new ConcurrentHashMap<String,Boolean>();
+
+  private CompileThread _thread;
+
+  private volatile boolean _isClosed;
+
+  /**
+   * Creates the compiler.
+   *
+   * @param quercus the owning context
+   * @param isLazy if true, compile only after the invocation threshold,
+   *   otherwise compile on first use
+   */
+  public QuercusCompiler(QuercusContext quercus, boolean isLazy)
+  {
+    _quercus = quercus;
+
+    _threshold = isLazy ? Math.max(1, DEFAULT_THRESHOLD) : 1;
+  }
+
+  /**
+   * Returns the number of invocations before a function is compiled.
+   */
+  public int getThreshold()
+  {
+    return _threshold;
+  }
+
+  /**
+   * Queues the function body for background compilation.
+   */
+  public void compileLater(Function fun)
+  {
+    offer(new FunctionTask(fun));
+  }
+
+  /**
+   * Queues the program's top-level statement for background compilation.
+   */
+  public void compileLater(QuercusProgram program)
+  {
+    offer(new ProgramTask(program));
+  }
+
+  private void offer(CompileTask task)
+  {
+    if (_isClosed)
+      return;
+
+    synchronized (this) {
+      if (_thread == null) {
+        _thread = new CompileThread();
+        _thread.start();
+      }
+    }
+
+    _queue.offer(task);
+  }
+
+  /**
+   * Compiles the statement, returning null if it's not worth compiling.
+   *
+   * @param name the function or page name used for the class name
+   * @param stmt the interpreted statement
+   */
+  public CompiledStatement compile(String name, Statement stmt)
+    throws Exception
+  {
+    if (! StatementGenerator.isCompilable(stmt))
+      return null;
+
+    String className = ("_quercus." + JavaCompilerUtil.mangleName(name)
+                        + "__" + _classCount.incrementAndGet());
+
+    StatementGenerator gen = new StatementGenerator();
+
+    String source = gen.generate(className, stmt);
+
+    Path workDir = _quercus.getWorkDir();
+
+    String fileName = className.replace('.', '/') + ".java";
+    Path path = workDir.lookup(fileName);
+    path.getParent().mkdirs();
+
+    WriteStream os = path.openWrite();
+
+    try {
+      // the generated source is ASCII, literals live in the pool
+      os.print(source);
+    } finally {
+      os.close();
+    }
+
+    ClassLoader parentLoader = QuercusCompiler.class.getClassLoader();
+
+    JavaCompilerUtil compiler = JavaCompilerUtil.create(parentLoader);
+    compiler.setClassDir(workDir);
+    compiler.compile(fileName, null);
+
+    // a loader per class, so the class goes away with its program
+    ClassLoader loader = SimpleLoader.create(parentLoader, workDir, className);
+
+    Class<?> cl = Class.forName(className, false, loader);
+
+    Constructor<?> ctor = cl.getConstructor(Statement.class, Object[].class);
+
+    return (CompiledStatement) ctor.newInstance(stmt, gen.getPool());
+  }
+
+  /**
+   * Stops the compile thread. Queued tasks are dropped.
+   */
+  public void close()
+  {
+    _isClosed = true;
+
+    _queue.clear();
+
+    CompileThread thread = _thread;
+
+    if (thread != null)
+      thread.interrupt();
+  }
+
+  abstract class CompileTask {
+    abstract String getName();
+
+    abstract String getPage();
+
+    abstract void compile()
+      throws Exception;
+
+    void run()
+    {
+      try {
+        compile();
+      } catch (Throwable e) {
+        String page = getPage();
+
+        if (_failedPageMap.putIfAbsent(page, Boolean.TRUE) == null) {
+          log.log(Level.WARNING,
+                  L.l("{0} failed to compile and will be interpreted: {1}",
+                      getName(), e.toString()), e);
+        }
+        else {
+          log.log(Level.FINE, L.l("{0} failed to compile: {1}",
+                                  getName(), e.toString()), e);
+        }
+      }
+    }
+  }
+
+  class FunctionTask extends CompileTask {
+    private final Function _fun;
+
+    FunctionTask(Function fun)
+    {
+      _fun = fun;
+    }
+
+    String getName()
+    {
+      return _fun.getName();
+    }
+
+    String getPage()
+    {
+      return String.valueOf(_fun.getLocation().getFileName());
+    }
+
+    void compile()
+      throws Exception
+    {
+      Statement stmt = _fun.getStatement();
+
+      if (stmt instanceof CompiledStatement)
+        return;
+
+      CompiledStatement compiledStmt = QuercusCompiler.this.compile(getName(),
+                                                                     stmt);
+
+      if (compiledStmt != null) {
+        _fun.setCompiledStatement(compiledStmt);
+
+        if (log.isLoggable(Level.FINE))
+          log.fine(L.l("{0} compiled to {1}", _fun, compiledStmt));
+      }
+    }
+  }
+
+  class ProgramTask extends CompileTask {
+    private final QuercusProgram _program;
+
+    ProgramTask(QuercusProgram program)
+    {
+      _program = program;
+    }
+
+    String getName()
+    {
+      return String.valueOf(_program.getSourcePath());
+    }
+
+    String getPage()
+    {
+      return getName();
+    }
+
+    void compile()
+      throws Exception
+    {
+      Statement stmt = _program.getStatement();
+
+      if (stmt instanceof CompiledStatement)
+        return;
+
+      CompiledStatement compiledStmt = QuercusCompiler.this.compile(getName(),
+                                                                     stmt);
+
+      if (compiledStmt != null) {
+        _program.setCompiledStatement(compiledStmt);
+
+        if (log.isLoggable(Level.FINE))
+          log.fine(L.l("{0} compiled to {1}", _program, compiledStmt));
+      }
+    }
+  }
+
+  class CompileThread extends Thread {
+    CompileThread()
+    {
+      super("quercus-compiler");
+
+      setDaemon(true);
+    }
+
+    public void run()
+    {
+      while (! _isClosed) {
+        try {
+          CompileTask task = _queue.take();
+
+          task.run();
+        } catch (InterruptedException e) {
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,672 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.gen;
+
+import com.caucho.quercus.expr.AbstractBinaryExpr;
+import com.caucho.quercus.expr.BinaryAddExpr;
+import com.caucho.quercus.expr.BinaryAndExpr;
+import com.caucho.quercus.expr.BinaryAssignExpr;
+import com.caucho.quercus.expr.BinaryBitAndExpr;
+import com.caucho.quercus.expr.BinaryBitOrExpr;
+import com.caucho.quercus.expr.BinaryBitXorExpr;
+import com.caucho.quercus.expr.BinaryDivExpr;
+import com.caucho.quercus.expr.BinaryEqExpr;
+import com.caucho.quercus.expr.BinaryEqualsExpr;
+import com.caucho.quercus.expr.BinaryGeqExpr;
+import com.caucho.quercus.expr.BinaryGtExpr;
+import com.caucho.quercus.expr.BinaryLeftShiftExpr;
+import com.caucho.quercus.expr.BinaryLeqExpr;
+import com.caucho.quercus.expr.BinaryLtExpr;
+import com.caucho.quercus.expr.BinaryModExpr;
+import com.caucho.quercus.expr.BinaryMulExpr;
+import com.caucho.quercus.expr.BinaryNeqExpr;
+import com.caucho.quercus.expr.BinaryOrExpr;
+import com.caucho.quercus.expr.BinaryRightShiftExpr;
+import com.caucho.quercus.expr.BinarySubExpr;
+import com.caucho.quercus.expr.Expr;
+import com.caucho.quercus.expr.UnaryMinusExpr;
+import com.caucho.quercus.expr.UnaryNotExpr;
+import com.caucho.quercus.expr.VarExpr;
+import com.caucho.quercus.statement.BlockStatement;
+import com.caucho.quercus.statement.BreakStatement;
+import com.caucho.quercus.statement.ContinueStatement;
+import com.caucho.quercus.statement.DoStatement;
+import com.caucho.quercus.statement.EchoStatement;
+import com.caucho.quercus.statement.ExprStatement;
+import com.caucho.quercus.statement.ForStatement;
+import com.caucho.quercus.statement.IfStatement;
+import com.caucho.quercus.statement.ReturnStatement;
+import com.caucho.quercus.statement.Statement;
+import com.caucho.quercus.statement.WhileStatement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Generates the Java source of a CompiledStatement.
+ *
+ * Blocks, conditionals, loops, echo and return, and the arithmetic,
+ * comparison and simple assignment expressions are generated inline.
+ * Any other node is added to the constant pool and called through its
+ * interpreted eval() or execute(), so a generated class always has the
+ * same semantics as the tree it came from.
+ */
+public class StatementGenerator
+{
+  // evaluation modes, matching the Expr.evalXXX methods
+  private static final int EVAL = 0;
+  private static final int VALUE = 1;
+  private static final int COPY = 2;
+  private static final int TOP = 3;
+  private static final int BOOLEAN = 4;
+
+  private static final String []EVAL_METHODS = {
+    "eval", "evalValue", "evalCopy", "evalTop", "evalBoolean"
+  };
+
+  private static final HashMap<Class<?>,String> _binaryMethodMap
+    = new HashMap<Class<?>,String>();
+
+  private static final HashMap<Class<?>,String> _compareMethodMap
+    = new HashMap<Class<?>,String>();
+
+  private final ArrayList<Object> _pool = new ArrayList<Object>();
+  private final ArrayList<String> _poolTypes = new ArrayList<String>();
+  private final IdentityHashMap<Object,String> _poolMap
+    = new IdentityHashMap<Object,String>();
+
+  private final ArrayList<Loop> _loopStack = new ArrayList<Loop>();
+  private int _labelCount;
+
+  private final StringBuilder _sb = new StringBuilder();
+  private int _depth;
+
+  /**
+   * Returns true if the statement's own control flow can be generated,
+   * i.e. compiling it would do more than delegate to the interpreter.
+   */
+  public static boolean isCompilable(Statement stmt)
+  {
+    Class<?> cl = stmt.getClass();
+
+    return (cl == BlockStatement.class
+            || cl == ExprStatement.class
+            || cl == IfStatement.class
+            || cl == WhileStatement.class
+            || cl == DoStatement.class
+            || cl == ForStatement.class
+            || cl == EchoStatement.class
+            || cl == ReturnStatement.class);
+  }
+
+  /**
+   * Returns the constant pool to pass to the generated constructor.
+   */
+  public Object []getPool()
+  {
+    Object []pool = new Object[_pool.size()];
+
+    return _pool.toArray(pool);
+  }
+
+  /**
+   * Generates the source of a CompiledStatement subclass for the statement.
+   *
+   * @param className the fully qualified name of the generated class
+   * @param stmt the interpreted statement
+   */
+  public String generate(String className, Statement stmt)
+  {
+    int p = className.lastIndexOf('.');
+
+    String packageName = className.substring(0, p);
+    String name = className.substring(p + 1);
+
+    _depth = 2;
+
+    if (generateStatement(stmt)) {
+      println("return null;");
+    }
+
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("package " + packageName + ";\n\n");
+    sb.append("import com.caucho.quercus.env.*;\n\n");
+    sb.append("public final class " + name
+              + " extends com.caucho.quercus.gen.CompiledStatement\n{\n");
+
+    for (int i = 0; i < _pool.size(); i++) {
+      sb.append("  private final " + _poolTypes.get(i) + " _p" + i + ";\n");
+    }
+
+    sb.append("\n  public " + name
+              + "(com.caucho.quercus.statement.Statement source,"
+              + " Object []pool)\n  {\n    super(source);\n\n");
+
+    for (int i = 0; i < _pool.size(); i++) {
+      sb.append("    _p" + i + " = (" + _poolTypes.get(i)
+                + ") pool[" + i + "];\n");
+    }
+
+    sb.append("  }\n\n");
+    sb.append("  public Value execute(Env env)\n  {\n    Value v = null;\n\n");
+    sb.append(_sb);
+    sb.append("  }\n}\n");
+
+    return sb.toString();
+  }
+
+  /**
+   * Generates a statement, returning true if the generated code can
+   * complete normally in the Java sense, i.e. code after it is reachable.
+   */
+  private boolean generateStatement(Statement stmt)
+  {
+    Class<?> cl = stmt.getClass();
+
+    if (cl == BlockStatement.class)
+      return generateBlock((BlockStatement) stmt);
+    else if (cl == ExprStatement.class)
+      return generateExprStatement((ExprStatement) stmt);
+    else if (cl == IfStatement.class)
+      return generateIf((IfStatement) stmt);
+    else if (cl == WhileStatement.class)
+      return generateWhile((WhileStatement) stmt);
+    else if (cl == DoStatement.class)
+      return generateDo((DoStatement) stmt);
+    else if (cl == ForStatement.class)
+      return generateFor((ForStatement) stmt);
+    else if (cl == EchoStatement.class)
+      return generateEcho((EchoStatement) stmt);
+    else if (cl == ReturnStatement.class)
+      return generateReturn((ReturnStatement) stmt);
+    else if (cl == BreakStatement.class
+             && ((BreakStatement) stmt).getTarget() == null)
+      return generateBreak();
+    else if (cl == ContinueStatement.class
+             && ((ContinueStatement) stmt).getTarget() == null)
+      return generateContinue();
+    else
+      return generateDelegate(stmt);
+  }
+
+  private boolean generateBlock(BlockStatement block)
+  {
+    for (Statement stmt : block.getStatements()) {
+      // the rest of the block is dead code, as in the interpreter
+      if (! generateStatement(stmt))
+        return false;
+    }
+
+    return true;
+  }
+
+  private boolean generateExprStatement(ExprStatement stmt)
+  {
+    println("{");
+    _depth++;
+
+    println("com.caucho.quercus.Location oldLocation = env.setLocation("
+            + addPool(stmt.getLocation(), "com.caucho.quercus.Location")
+            + ");");
+
+    generateExprTop(stmt.getExpr(), TOP);
+
+    println("env.setLocation(oldLocation);");
+
+    _depth--;
+    println("}");
+
+    return true;
+  }
+
+  private boolean generateIf(IfStatement stmt)
+  {
+    println("if (" + generateExpr(stmt.getTest(), BOOLEAN) + ") {");
+
+    _depth++;
+    boolean isTrueNormal = generateStatement(stmt.getTrueBlock());
+    _depth--;
+
+    boolean isFalseNormal = true;
+
+    if (stmt.getFalseBlock() != null) {
+      println("}");
+      println("else {");
+
+      _depth++;
+      isFalseNormal = generateStatement(stmt.getFalseBlock());
+      _depth--;
+    }
+
+    println("}");
+
+    return isTrueNormal || isFalseNormal;
+  }
+
+  private boolean generateWhile(WhileStatement stmt)
+  {
+    String location = addPool(stmt.getLocation(),
+                              "com.caucho.quercus.Location");
+
+    println("env.setLocation(" + location + ");");
+
+    Loop loop = pushLoop();
+
+    println(loop.getLabel() + ": while ("
+            + generateExpr(stmt.getTest(), BOOLEAN) + ") {");
+
+    _depth++;
+    println("env.checkTimeout();");
+
+    if (generateStatement(stmt.getBlock()))
+      println("env.setLocation(" + location + ");");
+
+    _depth--;
+    println("}");
+
+    popLoop();
+
+    return true;
+  }
+
+  private boolean generateDo(DoStatement stmt)
+  {
+    Loop loop = pushLoop();
+
+    println(loop.getLabel() + ": do {");
+
+    _depth++;
+    println("env.checkTimeout();");
+
+    boolean isNormal = generateStatement(stmt.getBlock());
+    _depth--;
+
+    println("} while (" + generateExpr(stmt.getTest(), BOOLEAN) + ");");
+
+    popLoop();
+
+    return isNormal || loop.isContinue() || loop.isBreak();
+  }
+
+  private boolean generateFor(ForStatement stmt)
+  {
+    if (stmt.getInit() != null)
+      generateExprTop(stmt.getInit(), EVAL);
+
+    Loop loop = pushLoop();
+
+    String test = "";
+
+    if (stmt.getTest() != null)
+      test = generateExpr(stmt.getTest(), BOOLEAN);
+
+    String incr = "";
+
+    if (stmt.getIncr() != null && ! isConstant(stmt.getIncr()))
+      incr = "v = " + generateExpr(stmt.getIncr(), EVAL);
+
+    println(loop.getLabel() + ": for (; " + test + "; " + incr + ") {");
+
+    _depth++;
+    println("env.checkTimeout();");
+
+    generateStatement(stmt.getBlock());
+    _depth--;
+
+    println("}");
+
+    popLoop();
+
+    return stmt.getTest() != null || loop.isBreak();
+  }
+
+  private boolean generateEcho(EchoStatement stmt)
+  {
+    println(generateExpr(stmt.getExpr(), EVAL) + ".print(env);");
+
+    return true;
+  }
+
+  private boolean generateReturn(ReturnStatement stmt)
+  {
+    if (stmt.getExpr() != null)
+      println("return " + generateExpr(stmt.getExpr(), VALUE) + ";");
+    else
+      println("return NullValue.NULL;");
+
+    return false;
+  }
+
+  private boolean generateBreak()
+  {
+    if (_loopStack.size() == 0) {
+      println("return BreakValue.BREAK;");
+    }
+    else {
+      Loop loop = _loopStack.get(_loopStack.size() - 1);
+
+      loop.setBreak();
+
+      println("break " + loop.getLabel() + ";");
+    }
+
+    return false;
+  }
+
+  private boolean generateContinue()
+  {
+    if (_loopStack.size() == 0) {
+      println("return ContinueValue.CONTINUE;");
+    }
+    else {
+      Loop loop = _loopStack.get(_loopStack.size() - 1);
+
+      loop.setContinue();
+
+      println("continue " + loop.getLabel() + ";");
+    }
+
+    return false;
+  }
+
+  /**
+   * Executes an interpreted statement, mapping a returned BreakValue or
+   * ContinueValue onto the enclosing generated loops the same way the
+   * interpreted loops would.
+   */
+  private boolean generateDelegate(Statement stmt)
+  {
+    String name = addPool(stmt, "com.caucho.quercus.statement.Statement");
+
+    println("v = " + name + ".execute(env);");
+    println("if (v != null) {");
+    _depth++;
+
+    int size = _loopStack.size();
+
+    if (size > 0) {
+      generateLoopExit("BreakValue", "break", size);
+      generateLoopExit("ContinueValue", "continue", size);
+
+      println("else");
+      _depth++;
+    }
+
+    println("return v;");
+
+    if (size > 0)
+      _depth--;
+
+    _depth--;
+    println("}");
+
+    return true;
+  }
+
+  private void generateLoopExit(String valueClass, String op, int size)
+  {
+    println(("break".equals(op) ? "if" : "else if")
+            + " (v instanceof " + valueClass + ") {");
+    _depth++;
+
+    println("int target = ((" + valueClass + ") v).getTarget();");
+
+    for (int i = 0; i < size; i++) {
+      Loop loop = _loopStack.get(size - 1 - i);
+
+      if ("break".equals(op))
+        loop.setBreak();
+      else
+        loop.setContinue();
+
+      String test = i == 0 ? "target <= 1" : "target == " + (i + 1);
+
+      println((i == 0 ? "if" : "else if") + " (" + test + ")");
+      println("  " + op + " " + loop.getLabel() + ";");
+    }
+
+    println("else");
+    println("  return new " + valueClass + "(target - " + size + ");");
+
+    _depth--;
+    println("}");
+  }
+
+  /**
+   * Generates an expression evaluated only for its side effects.
+   */
+  private void generateExprTop(Expr expr, int mode)
+  {
+    if (! isConstant(expr))
+      println("v = " + generateExpr(expr, mode) + ";");
+  }
+
+  /**
+   * Returns the Java expression evaluating expr in the given mode.
+   */
+  private String generateExpr(Expr expr, int mode)
+  {
+    Class<?> cl = expr.getClass();
+
+    if (isConstant(expr)) {
+      String name = addPool(expr.evalConstant(), "Value");
+
+      return mode == BOOLEAN ? name + ".toBoolean()" : name;
+    }
+
+    String method = _binaryMethodMap.get(cl);
+
+    if (method != null) {
+      AbstractBinaryExpr binary = (AbstractBinaryExpr) expr;
+
+      String code = (generateExpr(binary.getLeft(), EVAL)
+                     + "." + method + "("
+                     + generateExpr(binary.getRight(), EVAL) + ")");
+
+      return mode == BOOLEAN ? code + ".toBoolean()" : code;
+    }
+
+    method = _compareMethodMap.get(cl);
+
+    if (method != null) {
+      AbstractBinaryExpr binary = (AbstractBinaryExpr) expr;
+
+      String test = (generateExpr(binary.getLeft(), EVAL)
+                     + "." + method + "("
+                     + generateExpr(binary.getRight(), EVAL) + ")");
+
+      if (cl == BinaryNeqExpr.class)
+        test = "(! " + test + ")";
+
+      return toBooleanMode(test, mode);
+    }
+
+    if (cl == BinaryAndExpr.class || cl == BinaryOrExpr.class) {
+      AbstractBinaryExpr binary = (AbstractBinaryExpr) expr;
+
+      String op = cl == BinaryAndExpr.class ? " && " : " || ";
+
+      String test = ("(" + generateExpr(binary.getLeft(), BOOLEAN)
+                     + op
+                     + generateExpr(binary.getRight(), BOOLEAN) + ")");
+
+      return toBooleanMode(test, mode);
+    }
+
+    if (cl == UnaryNotExpr.class) {
+      Expr subExpr = ((UnaryNotExpr) expr).getExpr();
+
+      return toBooleanMode("(! " + generateExpr(subExpr, BOOLEAN) + ")", mode);
+    }
+
+    if (cl == UnaryMinusExpr.class) {
+      Expr subExpr = ((UnaryMinusExpr) expr).getExpr();
+
+      String code = generateExpr(subExpr, EVAL) + ".neg()";
+
+      return mode == BOOLEAN ? code + ".toBoolean()" : code;
+    }
+
+    if (cl == BinaryAssignExpr.class
+        && ((BinaryAssignExpr) expr).getVar().getClass() == VarExpr.class) {
+      BinaryAssignExpr assign = (BinaryAssignExpr) expr;
+
+      String code = (addPool(assign.getVar(), "com.caucho.quercus.expr.Expr")
+                     + ".evalAssignValue(env, "
+                     + generateExpr(assign.getValue(), COPY) + ")");
+
+      if (mode == COPY)
+        return code + ".copy()";
+      else if (mode == BOOLEAN)
+        return code + ".toBoolean()";
+      else
+        return code;
+    }
+
+    String name = addPool(expr, "com.caucho.quercus.expr.Expr");
+
+    return name + "." + EVAL_METHODS[mode] + "(env)";
+  }
+
+  private static String toBooleanMode(String test, int mode)
+  {
+    if (mode == BOOLEAN)
+      return test;
+    else
+      return "(" + test + " ? BooleanValue.TRUE : BooleanValue.FALSE)";
+  }
+
+  private static boolean isConstant(Expr expr)
+  {
+    return expr.isLiteral() && expr.evalConstant() != null;
+  }
+
+  /**
+   * Adds an object to the constant pool, returning its field name.
+   */
+  private String addPool(Object value, String type)
+  {
+    String name = _poolMap.get(value);
+
+    if (name == null) {
+      name = "_p" + _pool.size();
+
+      _pool.add(value);
+      _poolTypes.add(type);
+      _poolMap.put(value, name);
+    }
+
+    return name;
+  }
+
+  private Loop pushLoop()
+  {
+    Loop loop = new Loop("L" + _labelCount++);
+
+    _loopStack.add(loop);
+
+    return loop;
+  }
+
+  private void popLoop()
+  {
+    _loopStack.remove(_loopStack.size() - 1);
+  }
+
+  private void println(String line)
+  {
+    for (int i = 0; i < _depth; i++) {
+      _sb.append("  ");
+    }
+
+    _sb.append(line);
+    _sb.append('\n');
+  }
+
+  static class Loop {
+    private final String _label;
+
+    private boolean _isBreak;
+    private boolean _isContinue;
+
+    Loop(String label)
+    {
+      _label = label;
+    }
+
+    String getLabel()
+    {
+      return _label;
+    }
+
+    void setBreak()
+    {
+      _isBreak = true;
+    }
+
+    boolean isBreak()
+    {
+      return _isBreak;
+    }
+
+    void setContinue()
+    {
+      _isContinue = true;
+    }
+
+    boolean isContinue()
+    {
+      return _isContinue;
+    }
+  }
+
+  static {
+    _binaryMethodMap.put(BinaryAddExpr.class, "add");
+    _binaryMethodMap.put(BinarySubExpr.class, "sub");
+    _binaryMethodMap.put(BinaryMulExpr.class, "mul");
+    _binaryMethodMap.put(BinaryDivExpr.class, "div");
+    _binaryMethodMap.put(BinaryModExpr.class, "mod");
+    _binaryMethodMap.put(BinaryBitAndExpr.class, "bitAnd");
+    _binaryMethodMap.put(BinaryBitOrExpr.class, "bitOr");
+    _binaryMethodMap.put(BinaryBitXorExpr.class, "bitXor");
+    _binaryMethodMap.put(BinaryLeftShiftExpr.class, "lshift");
+    _binaryMethodMap.put(BinaryRightShiftExpr.class, "rshift");
+
+    _compareMethodMap.put(BinaryEqExpr.class, "eq");
+    _compareMethodMap.put(BinaryNeqExpr.class, "eq");
+    _compareMethodMap.put(BinaryEqualsExpr.class, "eql");
+    _compareMethodMap.put(BinaryLtExpr.class, "lt");
+    _compareMethodMap.put(BinaryLeqExpr.class, "leq");
+    _compareMethodMap.put(BinaryGtExpr.class, "gt");
+    _compareMethodMap.put(BinaryGeqExpr.class, "geq");
+  }
+}
@@ -49,11 +49,19 @@ public class Regexp {
   public static final int FAIL = -1;
   public static final int SUCCESS = 0;
 
+  private static final boolean IS_LINEAR
+    = ! "false".equals(System.getProperty("com.caucho.quercus.regexp.linear"));
+
   final StringValue _rawRegexp;
   StringValue _pattern;
   int _flags;
 
   RegexpNode _prog;
+
+  // linear-time engine, null if the pattern needs backtracking
+  RegexpNfa _nfa;
+  RegexpDfa _dfa;
+
   boolean _ignoreCase;
   boolean _isGlobal;
 
@@ -252,6 +260,14 @@ public class Regexp {
     _nGroup = comp._maxGroup;
     _nLoop = comp._nLoop;
 
+    // backreferences, lookaround and the like keep the backtracking engine
+    if (IS_LINEAR) {
+      _nfa = RegexpNfa.create(prog, _nGroup);
+
+      if (_nfa != null)
+        _dfa = new RegexpDfa(_nfa);
+    }
+
     _groupNames = new StringValue[_nGroup + 1];
     for (Map.Entry<Integer,StringValue> entry
            : comp._groupNameMap.entrySet()) {
@@ -272,6 +288,14 @@ public class Regexp {
     return _groupNames[i];
   }
 
+  /**
+   * True if the pattern runs on the linear-time DFA/NFA engine.
+   */
+  public boolean isLinear()
+  {
+    return _nfa != null;
+  }
+
   public boolean isGlobal() { return _isGlobal; }
   public boolean isIgnoreCase() { return _ignoreCase; }
 
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.regexp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.caucho.quercus.env.StringValue;
+
+/**
+ * Lazily built DFA over a RegexpNfa.  It rejects subjects without a
+ * match in linear time, so the NFA only runs to find the groups of an
+ * actual match.
+ *
+ * A state is the set of NFA pcs reached after a character plus the
+ * context the assertions need.  Transitions on Latin-1 characters are
+ * cached in the state.  The state cache is bounded: when it's full it's
+ * flushed, and a search which keeps flushing gives up and lets the NFA
+ * decide.  Assertions which need more than one character of lookahead,
+ * i.e. '$' before a final newline, are assumed to pass, so a false match
+ * is possible but a missed match isn't.
+ */
+class RegexpDfa {
+  private static final int MAX_STATES = 128;
+  private static final int MAX_FLUSH = 4;
+
+  private static final int CACHE_CHARS = 256;
+
+  // context flags
+  private static final int F_BEGIN = 0x1;
+  private static final int F_START = 0x2;
+  private static final int F_WORD = 0x4;
+  private static final int F_NEWLINE = 0x8;
+  // unanchored, so a thread starts at every offset
+  private static final int F_SEARCH = 0x10;
+
+  private static final int []EMPTY = new int[0];
+
+  private final RegexpNfa _nfa;
+
+  private final State _matchState = new State(EMPTY, -1);
+  private final State _deadState = new State(EMPTY, -2);
+
+  private HashMap<State,State> _stateMap = new HashMap<State,State>();
+  private volatile int _flushCount;
+
+  RegexpDfa(RegexpNfa nfa)
+  {
+    _nfa = nfa;
+  }
+
+  /**
+   * Returns false if there's no match starting at or after first, or
+   * only at first if anchored.
+   */
+  boolean isMatch(RegexpState state, StringValue subject, int length,
+                  int first, boolean isAnchored)
+  {
+    int start = state._start;
+
+    // the flags don't cover a search before the start
+    if (first < start)
+      return true;
+
+    int flags = isAnchored ? 0 : F_SEARCH;
+
+    if (first == 0)
+      flags |= F_BEGIN;
+
+    if (first == start)
+      flags |= F_START;
+
+    if (first > 0) {
+      char prev = subject.charAt(first - 1);
+
+      if (start < first && RegexpSet.WORD.match(prev))
+        flags |= F_WORD;
+
+      if (prev == '\n')
+        flags |= F_NEWLINE;
+    }
+
+    int flushCount = _flushCount;
+
+    State s = getState(isAnchored ? new int[] { _nfa._startPc } : EMPTY,
+                       flags);
+
+    for (int pos = first; pos < length; pos++) {
+      char ch = subject.charAt(pos);
+
+      State []nextMap = s._next;
+      State next = null;
+
+      if (ch < CACHE_CHARS && nextMap != null)
+        next = nextMap[ch];
+
+      if (next == null) {
+        next = step(s, subject, length, pos, state);
+
+        if (ch < CACHE_CHARS) {
+          if (nextMap == null) {
+            nextMap = new State[CACHE_CHARS];
+            s._next = nextMap;
+          }
+
+          nextMap[ch] = next;
+        }
+
+        if (MAX_FLUSH < _flushCount - flushCount)
+          return true;
+      }
+
+      if (next == _matchState)
+        return true;
+      else if (next == _deadState)
+        return false;
+
+      s = next;
+    }
+
+    int endMatch = s._endMatch;
+
+    if (endMatch == 0) {
+      endMatch = closure(s, (char) 0, true, null, null, 0, 0, null) ? 2 : 1;
+
+      s._endMatch = endMatch;
+    }
+
+    return endMatch == 2;
+  }
+
+  /**
+   * Returns the state after the character at pos.
+   */
+  private State step(State s, StringValue subject, int length, int pos,
+                     RegexpState state)
+  {
+    char ch = subject.charAt(pos);
+
+    boolean []kernel = new boolean[_nfa.getSize()];
+
+    if (closure(s, ch, false, kernel, subject, length, pos, state))
+      return _matchState;
+
+    int count = 0;
+
+    for (int i = 0; i < kernel.length; i++) {
+      if (kernel[i])
+        count++;
+    }
+
+    if (count == 0 && (s._flags & F_SEARCH) == 0)
+      return _deadState;
+
+    int []pcs = new int[count];
+
+    for (int i = 0, j = 0; i < kernel.length; i++) {
+      if (kernel[i])
+        pcs[j++] = i;
+    }
+
+    int flags = s._flags & F_SEARCH;
+
+    if (RegexpSet.WORD.match(ch))
+      flags |= F_WORD;
+
+    if (ch == '\n')
+      flags |= F_NEWLINE;
+
+    return getState(pcs, flags);
+  }
+
+  /**
+   * Follows the epsilon transitions from the state, with ch as the next
+   * character, and marks the pcs reached by consuming ch in kernel.
+   *
+   * @return true if the closure reaches a match
+   */
+  private boolean closure(State s, char ch, boolean isEnd, boolean []kernel,
+                          StringValue subject, int length, int pos,
+                          RegexpState state)
+  {
+    RegexpNfa nfa = _nfa;
+    int size = nfa.getSize();
+    int flags = s._flags;
+
+    boolean []isVisited = new boolean[size];
+    int []stack = new int[2 * size + s._pcs.length + 1];
+    int top = 0;
+
+    for (int i = s._pcs.length - 1; i >= 0; i--) {
+      stack[top++] = s._pcs[i];
+    }
+
+    if ((flags & F_SEARCH) != 0)
+      stack[top++] = nfa._startPc;
+
+    while (top > 0) {
+      int pc = stack[--top];
+
+      if (isVisited[pc])
+        continue;
+
+      isVisited[pc] = true;
+
+      switch (nfa._op[pc]) {
+      case RegexpNfa.OP_MATCH:
+        return true;
+
+      case RegexpNfa.OP_SPLIT:
+        stack[top++] = nfa._y[pc];
+        stack[top++] = nfa._x[pc];
+        break;
+
+      case RegexpNfa.OP_SAVE:
+        stack[top++] = nfa._x[pc];
+        break;
+
+      case RegexpNfa.OP_ASSERT:
+        if (isAssert(nfa._y[pc], flags, ch, isEnd))
+          stack[top++] = nfa._x[pc];
+        break;
+
+      case RegexpNfa.OP_CHAR:
+        if (! isEnd && ch == nfa._ch[pc])
+          kernel[nfa._x[pc]] = true;
+        break;
+
+      case RegexpNfa.OP_ATOM:
+        if (! isEnd) {
+          int tail = nfa._node[pc].match(subject, length, pos, state);
+
+          if (tail == pos + 1)
+            kernel[nfa._x[pc]] = true;
+          else if (tail == pos + 2)
+            kernel[nfa._y[pc]] = true;
+        }
+        break;
+
+      case RegexpNfa.OP_ANY:
+        if (! isEnd)
+          kernel[nfa._x[pc]] = true;
+        break;
+      }
+    }
+
+    return false;
+  }
+
+  private static boolean isAssert(int kind, int flags, char ch, boolean isEnd)
+  {
+    switch (kind) {
+    case RegexpNfa.A_BEGIN:
+      return (flags & F_BEGIN) != 0;
+
+    case RegexpNfa.A_BEGIN_LINE:
+      return (flags & (F_BEGIN | F_NEWLINE)) != 0;
+
+    case RegexpNfa.A_START:
+      return (flags & F_START) != 0;
+
+    case RegexpNfa.A_END:
+      // a newline only ends the subject if it's the last character
+      return isEnd || ch == '\n';
+
+    case RegexpNfa.A_END_ONLY:
+      return isEnd;
+
+    case RegexpNfa.A_END_LINE:
+      return isEnd || ch == '\n';
+
+    case RegexpNfa.A_WORD:
+      return ((flags & F_WORD) != 0) != (! isEnd && RegexpSet.WORD.match(ch));
+
+    case RegexpNfa.A_NOT_WORD:
+      return ((flags & F_WORD) != 0) == (! isEnd && RegexpSet.WORD.match(ch));
+
+    default:
+      return true;
+    }
+  }
+
+  private State getState(int []pcs, int flags)
+  {
+    State key = new State(pcs, flags);
+
+    synchronized (this) {
+      State state = _stateMap.get(key);
+
+      if (state == null) {
+        if (MAX_STATES <= _stateMap.size()) {
+          _stateMap = new HashMap<State,State>();
+          _flushCount++;
+        }
+
+        state = key;
+        _stateMap.put(key, state);
+      }
+
+      return state;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _nfa + "]";
+  }
+
+  static final class State {
+    final int []_pcs;
+    final int _flags;
+    private final int _hash;
+
+    // transitions, racy but idempotent
+    State []_next;
+
+    // 0 unknown, 1 no match at the end, 2 match
+    int _endMatch;
+
+    State(int []pcs, int flags)
+    {
+      _pcs = pcs;
+      _flags = flags;
+      _hash = 65521 * Arrays.hashCode(pcs) + flags;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return _hash;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+        return true;
+      else if (! (o instanceof State))
+        return false;
+
+      State state = (State) o;
+
+      return _flags == state._flags && Arrays.equals(_pcs, state._pcs);
+    }
+  }
+}
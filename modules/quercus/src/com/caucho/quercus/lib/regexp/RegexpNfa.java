@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib.regexp;
+
+import java.util.IdentityHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.quercus.env.StringValue;
+
+/**
+ * Thompson NFA for patterns without backreferences or lookaround.
+ *
+ * The program is compiled from the RegexpNode graph and simulated in
+ * lockstep over the subject (a Pike VM), so a match costs
+ * O(subject * program) instead of the backtracking engine's worst-case
+ * exponential time.  Threads are kept in priority order, which gives the
+ * same leftmost-first match and groups as the backtracking engine.
+ */
+class RegexpNfa {
+  private static final Logger log
+    = Logger.getLogger(RegexpNfa.class.getName());
+
+  // instructions
+  static final int OP_MATCH = 0;
+  static final int OP_CHAR = 1;
+  static final int OP_ATOM = 2;
+  static final int OP_ANY = 3;
+  static final int OP_SPLIT = 4;
+  static final int OP_SAVE = 5;
+  static final int OP_ASSERT = 6;
+
+  // assertion kinds, evaluated without the subject by the DFA
+  static final int A_OTHER = 0;
+  static final int A_BEGIN = 1;
+  static final int A_BEGIN_LINE = 2;
+  static final int A_START = 3;
+  static final int A_END = 4;
+  static final int A_END_ONLY = 5;
+  static final int A_END_LINE = 6;
+  static final int A_WORD = 7;
+  static final int A_NOT_WORD = 8;
+
+  private static final int MAX_SIZE = 4096;
+
+  // matches RegexpNode's unbounded loop count
+  private static final int LOOP_INFINITE = Integer.MAX_VALUE - 1;
+
+  private final int _slotCount;
+
+  private int _size;
+
+  int []_op = new int[64];
+  // next pc
+  int []_x = new int[64];
+  // split alternative, save slot, atom surrogate pc or assertion kind
+  int []_y = new int[64];
+  char []_ch = new char[64];
+  RegexpNode []_node = new RegexpNode[64];
+
+  private int _matchPc;
+  int _startPc;
+
+  private IdentityHashMap<RegexpNode,Integer> _compileMap
+    = new IdentityHashMap<RegexpNode,Integer>();
+
+  private RegexpNfa(int groupCount)
+  {
+    _slotCount = 2 * Math.max(groupCount, 1);
+
+    _matchPc = add(OP_MATCH, -1, -1);
+  }
+
+  /**
+   * Compiles the pattern, or returns null if it needs the backtracking
+   * engine.
+   */
+  static RegexpNfa create(RegexpNode prog, int groupCount)
+  {
+    RegexpNfa nfa = new RegexpNfa(groupCount);
+
+    try {
+      nfa._startPc = nfa.compile(prog);
+      nfa._compileMap = null;
+
+      return nfa;
+    } catch (UnsupportedOperationException e) {
+      if (log.isLoggable(Level.FINER))
+        log.finer("regexp needs backtracking (" + e.getMessage() + ")");
+
+      return null;
+    } catch (StackOverflowError e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+  }
+
+  int getSize()
+  {
+    return _size;
+  }
+
+  //
+  // compilation
+  //
+
+  int getMatch()
+  {
+    return _matchPc;
+  }
+
+  /**
+   * Compiles a node and its continuation once.
+   */
+  int compile(RegexpNode node)
+  {
+    Integer pc = _compileMap.get(node);
+
+    if (pc != null)
+      return pc;
+
+    int value = node.compileNfa(this);
+
+    _compileMap.put(node, value);
+
+    return value;
+  }
+
+  int addChar(char ch, int next)
+  {
+    int pc = add(OP_CHAR, next, -1);
+
+    _ch[pc] = ch;
+
+    return pc;
+  }
+
+  /**
+   * A single-character test, which may also consume the low half of a
+   * surrogate pair.
+   */
+  int addAtom(RegexpNode node, int next)
+  {
+    int any = add(OP_ANY, next, -1);
+    int pc = add(OP_ATOM, next, any);
+
+    _node[pc] = node;
+
+    return pc;
+  }
+
+  int addAssert(RegexpNode node, int kind, int next)
+  {
+    int pc = add(OP_ASSERT, next, kind);
+
+    _node[pc] = node;
+
+    return pc;
+  }
+
+  int addSplit(int first, int second)
+  {
+    return add(OP_SPLIT, first, second);
+  }
+
+  int addSave(int slot, int next)
+  {
+    return add(OP_SAVE, next, slot);
+  }
+
+  /**
+   * Expands a counted loop.  A null tail means the body is a single
+   * atom, otherwise the body's paths end at the tail.
+   */
+  int addLoop(RegexpNode body, RegexpNode tail,
+              int min, int max, boolean isGreedy, int exit)
+  {
+    int pc;
+
+    if (max >= LOOP_INFINITE) {
+      pc = addSplit(-1, -1);
+
+      int bodyPc = compileBody(body, tail, pc);
+
+      _x[pc] = isGreedy ? bodyPc : exit;
+      _y[pc] = isGreedy ? exit : bodyPc;
+    }
+    else {
+      pc = exit;
+
+      for (int i = min; i < max; i++) {
+        int bodyPc = compileBody(body, tail, pc);
+
+        pc = isGreedy ? addSplit(bodyPc, exit) : addSplit(exit, bodyPc);
+      }
+    }
+
+    for (int i = 0; i < min; i++) {
+      pc = compileBody(body, tail, pc);
+    }
+
+    return pc;
+  }
+
+  /**
+   * Compiles a fresh copy of a loop body continuing at next.
+   */
+  private int compileBody(RegexpNode body, RegexpNode tail, int next)
+  {
+    if (tail == null)
+      return body.compileNfaAtom(this, next);
+
+    IdentityHashMap<RegexpNode,Integer> oldMap = _compileMap;
+
+    try {
+      _compileMap = new IdentityHashMap<RegexpNode,Integer>();
+      _compileMap.put(tail, next);
+
+      int pc = compile(body);
+
+      // LoopTail's empty-iteration rule depends on the capture history,
+      // which the thread list can't follow, so backtrack instead
+      if (isNullable(pc, next))
+        throw new UnsupportedOperationException("nullable loop");
+
+      return pc;
+    } finally {
+      _compileMap = oldMap;
+    }
+  }
+
+  /**
+   * Returns true if target is reachable from pc without consuming input.
+   */
+  private boolean isNullable(int pc, int target)
+  {
+    boolean []isVisited = new boolean[_size];
+    int []stack = new int[2 * _size + 1];
+    int top = 0;
+
+    stack[top++] = pc;
+
+    while (top > 0) {
+      pc = stack[--top];
+
+      if (pc == target)
+        return true;
+      else if (isVisited[pc])
+        continue;
+
+      isVisited[pc] = true;
+
+      switch (_op[pc]) {
+      case OP_SPLIT:
+        stack[top++] = _x[pc];
+        stack[top++] = _y[pc];
+        break;
+
+      case OP_SAVE:
+      case OP_ASSERT:
+        stack[top++] = _x[pc];
+        break;
+      }
+    }
+
+    return false;
+  }
+
+  private int add(int op, int x, int y)
+  {
+    int pc = _size;
+
+    if (MAX_SIZE <= pc)
+      throw new UnsupportedOperationException("program too large");
+
+    if (_op.length <= pc) {
+      int length = 2 * _op.length;
+
+      _op = copyOf(_op, length);
+      _x = copyOf(_x, length);
+      _y = copyOf(_y, length);
+
+      char []ch = new char[length];
+      System.arraycopy(_ch, 0, ch, 0, _ch.length);
+      _ch = ch;
+
+      RegexpNode []node = new RegexpNode[length];
+      System.arraycopy(_node, 0, node, 0, _node.length);
+      _node = node;
+    }
+
+    _op[pc] = op;
+    _x[pc] = x;
+    _y[pc] = y;
+
+    _size = pc + 1;
+
+    return pc;
+  }
+
+  private static int []copyOf(int []data, int length)
+  {
+    int []newData = new int[length];
+
+    System.arraycopy(data, 0, newData, 0, data.length);
+
+    return newData;
+  }
+
+  //
+  // simulation
+  //
+
+  /**
+   * Finds the leftmost match starting at or after first, or only at
+   * first if anchored.
+   *
+   * @return the group offsets, slots 0 and 1 for the whole match, or null
+   *   if there's no match
+   */
+  int []search(RegexpState state, StringValue subject, int length,
+               int first, boolean isAnchored)
+  {
+    ThreadList clist = new ThreadList(_size);
+    ThreadList nlist = new ThreadList(_size);
+
+    int []stackPc = new int[_size + 1];
+    int [][]stackSlots = new int[_size + 1][];
+
+    int []match = null;
+
+    for (int pos = first; ; pos++) {
+      if (match == null && (pos == first || ! isAnchored)) {
+        int []slots = new int[_slotCount];
+
+        for (int i = 0; i < slots.length; i++) {
+          slots[i] = -1;
+        }
+
+        slots[0] = pos;
+
+        addThread(clist, _startPc, slots, subject, length, pos, state,
+                  stackPc, stackSlots);
+      }
+
+      if (clist._size == 0)
+        break;
+
+      char ch = pos < length ? subject.charAt(pos) : 0;
+
+      for (int i = 0; i < clist._size; i++) {
+        int pc = clist._pc[i];
+        int []slots = clist._slots[i];
+
+        switch (_op[pc]) {
+        case OP_MATCH:
+          match = slots.clone();
+          match[1] = pos;
+
+          // lower-priority threads can't win
+          i = clist._size;
+          break;
+
+        case OP_CHAR:
+          if (pos < length && ch == _ch[pc])
+            addThread(nlist, _x[pc], slots, subject, length, pos + 1, state,
+                      stackPc, stackSlots);
+          break;
+
+        case OP_ATOM:
+          if (pos < length) {
+            int tail = _node[pc].match(subject, length, pos, state);
+
+            if (tail == pos + 1)
+              addThread(nlist, _x[pc], slots, subject, length, pos + 1,
+                        state, stackPc, stackSlots);
+            else if (tail == pos + 2)
+              addThread(nlist, _y[pc], slots, subject, length, pos + 1,
+                        state, stackPc, stackSlots);
+          }
+          break;
+
+        case OP_ANY:
+          if (pos < length)
+            addThread(nlist, _x[pc], slots, subject, length, pos + 1, state,
+                      stackPc, stackSlots);
+          break;
+        }
+      }
+
+      if (length <= pos)
+        break;
+
+      ThreadList list = clist;
+      clist = nlist;
+      nlist = list;
+      nlist.clear();
+    }
+
+    return match;
+  }
+
+  /**
+   * Adds a thread and its epsilon closure in priority order.
+   */
+  private void addThread(ThreadList list, int pc, int []slots,
+                         StringValue subject, int length, int pos,
+                         RegexpState state,
+                         int []stackPc, int [][]stackSlots)
+  {
+    int top = 0;
+
+    stackPc[top] = pc;
+    stackSlots[top] = slots;
+    top++;
+
+    while (top > 0) {
+      top--;
+      pc = stackPc[top];
+      slots = stackSlots[top];
+
+      while (list.add(pc)) {
+        int op = _op[pc];
+
+        if (op == OP_SPLIT) {
+          stackPc[top] = _y[pc];
+          stackSlots[top] = slots;
+          top++;
+
+          pc = _x[pc];
+        }
+        else if (op == OP_SAVE) {
+          slots = slots.clone();
+          slots[_y[pc]] = pos;
+
+          pc = _x[pc];
+        }
+        else if (op == OP_ASSERT) {
+          if (_node[pc].match(subject, length, pos, state) < 0)
+            break;
+
+          pc = _x[pc];
+        }
+        else {
+          list.setSlots(slots);
+          break;
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _size + "]";
+  }
+
+  /**
+   * Sparse set of pcs in insertion order.
+   */
+  static final class ThreadList {
+    final int []_pc;
+    final int [][]_slots;
+    private final int []_index;
+    int _size;
+
+    ThreadList(int size)
+    {
+      _pc = new int[size];
+      _slots = new int[size][];
+      _index = new int[size];
+    }
+
+    boolean add(int pc)
+    {
+      int index = _index[pc];
+
+      if (index < _size && _pc[index] == pc)
+        return false;
+
+      _index[pc] = _size;
+      _pc[_size] = pc;
+      _slots[_size] = null;
+      _size++;
+
+      return true;
+    }
+
+    void setSlots(int []slots)
+    {
+      _slots[_size - 1] = slots;
+    }
+
+    void clear()
+    {
+      _size = 0;
+    }
+  }
+}
@@ -279,6 +279,37 @@ class RegexpNode {
     return this;
   }
 
+  //
+  // linear-time compilation, see RegexpNfa
+  //
+
+  /**
+   * Compiles this node and the nodes following it, returning the entry
+   * pc.  Nodes which need backtracking throw an
+   * UnsupportedOperationException.
+   */
+  int compileNfa(RegexpNfa nfa)
+  {
+    // an atom at the end of the pattern
+    return compileNfaAtom(nfa, nfa.getMatch());
+  }
+
+  /**
+   * Compiles this node as a self-contained atom followed by next.
+   */
+  int compileNfaAtom(RegexpNfa nfa, int next)
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  /**
+   * True if the node is a single-character test.
+   */
+  boolean isNfaChar()
+  {
+    return false;
+  }
+
   //
   // matching
   //
@@ -337,6 +368,18 @@ class RegexpNode {
    * A node with exactly one character matches.
    */
   static class AbstractCharNode extends RegexpNode {
+    @Override
+    boolean isNfaChar()
+    {
+      return true;
+    }
+
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAtom(this, next);
+    }
+
     @Override
     RegexpNode createLoop(Regcomp parser, int min, int max)
     {
@@ -364,6 +407,12 @@ class RegexpNode {
       _ch = ch;
     }
 
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addChar(_ch, next);
+    }
+
     @Override
     int firstChar()
     {
@@ -405,6 +454,12 @@ class RegexpNode {
     = new AnchorEndOrNewline();
 
   static class AnchorBegin extends NullableNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_BEGIN, next);
+    }
+
     @Override
     boolean isAnchorBegin()
     {
@@ -422,6 +477,12 @@ class RegexpNode {
   }
 
   private static class AnchorBeginOrNewline extends NullableNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_BEGIN_LINE, next);
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
@@ -433,6 +494,12 @@ class RegexpNode {
   }
 
   static class AnchorBeginRelative extends NullableNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_START, next);
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
@@ -444,6 +511,12 @@ class RegexpNode {
   }
 
   private static class AnchorEnd extends NullableNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_END, next);
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
@@ -456,6 +529,12 @@ class RegexpNode {
   }
 
   private static class AnchorEndOnly extends NullableNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_END_ONLY, next);
+    }
+
     @Override
     int match(StringValue string, int length, int offset, RegexpState state)
     {
@@ -467,6 +546,12 @@ class RegexpNode {
   }
 
   private static class AnchorEndOrNewline extends NullableNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_END_LINE, next);
+    }
+
     @Override
     int match(StringValue string, int length, int offset, RegexpState state)
     {
@@ -643,6 +728,12 @@ class RegexpNode {
         return new LoopHead(parser, this, min, max);
     }
 
+    @Override
+    int compileNfa(RegexpNfa nfa)
+    {
+      return nfa.addLoop(_node, null, _min, _max, true, nfa.compile(_next));
+    }
+
     @Override
     int minLength()
     {
@@ -771,6 +862,12 @@ class RegexpNode {
         return new LoopHead(parser, this, min, max);
     }
 
+    @Override
+    int compileNfa(RegexpNfa nfa)
+    {
+      return nfa.addLoop(_node, null, _min, _max, false, nfa.compile(_next));
+    }
+
     @Override
     int minLength()
     {
@@ -913,6 +1010,12 @@ class RegexpNode {
       return _next;
     }
 
+    @Override
+    int compileNfa(RegexpNfa nfa)
+    {
+      return _head.compileNfaAtom(nfa, nfa.compile(_next));
+    }
+
     @Override
     int match(StringValue string, int length, int offset, RegexpState state)
     {
@@ -1176,6 +1279,17 @@ class RegexpNode {
     {
     }
 
+    @Override
+    int compileNfa(RegexpNfa nfa)
+    {
+      return nfa.getMatch();
+    }
+
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return next;
+    }
 
     @Override
     int match(StringValue string, int length, int offset, RegexpState state)
@@ -1191,6 +1305,12 @@ class RegexpNode {
       return next;
     }
 
+    @Override
+    int compileNfa(RegexpNfa nfa)
+    {
+      return nfa.getMatch();
+    }
+
     @Override
     int match(StringValue string, int length, int offset, RegexpState state)
     {
@@ -1336,6 +1456,17 @@ class RegexpNode {
       return _node.isAnchorBegin();
     }
 
+    @Override
+    int compileNfa(RegexpNfa nfa)
+    {
+      int pc = nfa.compile(_node);
+
+      if (_group > 0)
+        return nfa.addSave(2 * _group, pc);
+      else
+        return pc;
+    }
+
     @Override
     int match(StringValue string, int length, int offset, RegexpState state)
     {
@@ -1458,6 +1589,17 @@ class RegexpNode {
       return _next.minLength();
     }
 
+    @Override
+    int compileNfa(RegexpNfa nfa)
+    {
+      int pc = nfa.compile(_next);
+
+      if (_group > 0)
+        return nfa.addSave(2 * _group + 1, pc);
+      else
+        return pc;
+    }
+
     @Override
     int match(StringValue string, int length, int offset, RegexpState state)
     {
@@ -1704,6 +1846,15 @@ class RegexpNode {
       return firstSet;
     }
 
+    @Override
+    int compileNfa(RegexpNfa nfa)
+    {
+      LoopTail tail = (LoopTail) _tail;
+
+      return nfa.addLoop(_node, tail, _min, _max, true,
+                         nfa.compile(tail._next));
+    }
+
     //
     // match functions
     //
@@ -1952,6 +2103,13 @@ class RegexpNode {
         return -1;
     }
 
+    @Override
+    int compileNfa(RegexpNfa nfa)
+    {
+      return nfa.addLoop(_node, _tail, _min, _max, false,
+                         nfa.compile(_tail._next));
+    }
+
     @Override
     public String toString()
     {
@@ -2067,6 +2225,21 @@ class RegexpNode {
       return new Not(node);
     }
 
+    @Override
+    boolean isNfaChar()
+    {
+      return _node.isNfaChar();
+    }
+
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      if (isNfaChar())
+        return nfa.addAtom(this, next);
+      else
+        return super.compileNfaAtom(nfa, next);
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
@@ -2168,6 +2341,38 @@ class RegexpNode {
       return _left.isAnchorBegin() && _right != null && _right.isAnchorBegin();
     }
 
+    @Override
+    boolean isNfaChar()
+    {
+      for (Or ptr = this; ptr != null; ptr = ptr._right) {
+        if (! ptr._left.isNfaChar())
+          return false;
+      }
+
+      return true;
+    }
+
+    @Override
+    int compileNfa(RegexpNfa nfa)
+    {
+      if (_right == null)
+        return nfa.compile(_left);
+      else
+        return nfa.addSplit(nfa.compile(_left), nfa.compile(_right));
+    }
+
+    /**
+     * A character set with class alternatives, e.g. [a-z\d].
+     */
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      if (isNfaChar())
+        return nfa.addAtom(this, next);
+      else
+        return super.compileNfaAtom(nfa, next);
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
@@ -3062,6 +3267,22 @@ class RegexpNode {
       return new String(_buffer, 0, _length);
     }
 
+    @Override
+    boolean isNfaChar()
+    {
+      return _length == 1;
+    }
+
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      for (int i = _length - 1; i >= 0; i--) {
+        next = nfa.addChar(_buffer[i], next);
+      }
+
+      return next;
+    }
+
     //
     // match function
     //
@@ -3209,6 +3430,27 @@ class RegexpNode {
       return new String(_buffer, 0, _length);
     }
 
+    @Override
+    boolean isNfaChar()
+    {
+      return _length == 1;
+    }
+
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      if (_length == 1)
+        return nfa.addAtom(this, next);
+
+      for (int i = _length - 1; i >= 0; i--) {
+        RegexpNode ch = new StringIgnoreCase(new char[] { _buffer[i] }, 1);
+
+        next = nfa.addAtom(ch, next);
+      }
+
+      return next;
+    }
+
     //
     // match function
     //
@@ -3229,6 +3471,12 @@ class RegexpNode {
   static final StringNewline STRING_NEWLINE = new StringNewline();
 
   private static class StringBegin extends RegexpNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_START, next);
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
@@ -3240,6 +3488,12 @@ class RegexpNode {
   }
 
   private static class StringEnd extends RegexpNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_END_ONLY, next);
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
@@ -3262,6 +3516,12 @@ class RegexpNode {
   }
 
   private static class StringNewline extends RegexpNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_END, next);
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
@@ -3277,6 +3537,12 @@ class RegexpNode {
   static final NotWord NOT_WORD = new NotWord();
 
   private static class Word extends RegexpNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_WORD, next);
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
@@ -3291,6 +3557,12 @@ class RegexpNode {
   }
 
   private static class NotWord extends RegexpNode {
+    @Override
+    int compileNfaAtom(RegexpNfa nfa, int next)
+    {
+      return nfa.addAssert(this, RegexpNfa.A_NOT_WORD, next);
+    }
+
     @Override
     int match(StringValue string, int strlen, int offset, RegexpState state)
     {
@@ -193,6 +193,9 @@ public class RegexpState {
       if (_subject == null)
         return false;
 
+      if (_regexp._nfa != null)
+        return findLinear();
+
       StringValue subject = _subject;
       int length = _subjectLength;
 
@@ -279,6 +282,13 @@ public class RegexpState {
       _first = first;
       clearGroup();
 
+      if (_regexp._nfa != null) {
+        if (searchLinear(first, true) < 0)
+          return -1;
+        else
+          return _groupEnd[0];
+      }
+
       return _regexp._prog.match(_subject, _subjectLength, first, this);
     } catch (StackOverflowError e) {
       log.warning(L.l("regexp '{0}' produces a StackOverflowError for\n{1}",
@@ -316,6 +326,9 @@ public class RegexpState {
       int subjectLength = subject != null ? subject.length() : 0;
       _subjectLength = subjectLength;
 
+      if (_regexp._nfa != null)
+        return searchLinear(start, _regexp._isAnchorBegin);
+
       int minLength = _regexp._minLength;
       boolean []firstSet = _regexp._firstSet;
       int end = subjectLength - minLength;
@@ -352,6 +365,71 @@ public class RegexpState {
     }
   }
 
+  /**
+   * find() on the linear-time engine.
+   */
+  private boolean findLinear()
+  {
+    int begin = searchLinear(_first, _regexp._isAnchorBegin);
+
+    if (begin < 0) {
+      _first = _subjectLength + 1;
+
+      return false;
+    }
+
+    int end = _groupEnd[0];
+
+    if (begin < end)
+      _first = end;
+    else
+      _first = begin + 1;
+
+    return true;
+  }
+
+  /**
+   * Finds the leftmost match at or after first with the DFA and NFA,
+   * returning its start.
+   */
+  private int searchLinear(int first, boolean isAnchored)
+  {
+    StringValue subject = _subject;
+    int length = _subjectLength;
+
+    clearGroup();
+
+    if (length < first)
+      return -1;
+
+    // the DFA rejects most subjects without running the NFA
+    if (! _regexp._dfa.isMatch(this, subject, length, first, isAnchored))
+      return -1;
+
+    int []slots = _regexp._nfa.search(this, subject, length,
+                                      first, isAnchored);
+
+    if (slots == null)
+      return -1;
+
+    int nGroup = Math.min(_regexp._nGroup, _groupBegin.length);
+
+    for (int i = 1; i < nGroup; i++) {
+      int end = slots[2 * i + 1];
+
+      if (end >= 0) {
+        _groupBegin[i] = slots[2 * i];
+        _groupEnd[i] = end;
+        _groupLength = i;
+      }
+    }
+
+    _groupBegin[0] = slots[0];
+    _groupEnd[0] = slots[1];
+
+    return slots[0];
+  }
+
   private void clearGroup()
   {
     _groupLength = 0;
@@ -30,6 +30,7 @@
 package com.caucho.quercus.page;
 
 import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.gen.QuercusCompiler;
 import com.caucho.quercus.parser.QuercusParser;
 import com.caucho.quercus.program.QuercusProgram;
 import com.caucho.util.CurrentTime;
@@ -62,6 +63,11 @@ public class PageManager
 
   private boolean _isRequireSource = true;
 
+  private boolean _isParseCache;
+  private volatile ParseCache _parseCache;
+
+  private volatile QuercusCompiler _compiler;
+
   private ConcurrentHashMap<String,Object> _programLockMap
     = new ConcurrentHashMap<String,Object>();
 
@@ -123,6 +129,29 @@ public class PageManager
     _isLazyCompile = isCompile;
   }
 
+  /**
+   * Returns the background compiler for hot functions and pages, or null
+   * if compilation is disabled.
+   */
+  public QuercusCompiler getCompiler()
+  {
+    QuercusCompiler compiler = _compiler;
+
+    if (compiler == null && (_isCompile || _isLazyCompile) && ! _isClosed) {
+      synchronized (this) {
+        compiler = _compiler;
+
+        if (compiler == null) {
+          compiler = new QuercusCompiler(_quercus, ! _isCompile);
+
+          _compiler = compiler;
+        }
+      }
+    }
+
+    return compiler;
+  }
+
   /**
    * true if interpreted pages should be used if pages fail to compile.
    */
@@ -155,6 +184,64 @@ public class PageManager
     return _isRequireSource;
   }
 
+  /**
+   * true if parsed pages should be saved in the work directory.
+   */
+  public void setParseCache(boolean isParseCache)
+  {
+    _isParseCache = isParseCache;
+  }
+
+  /**
+   * true if parsed pages should be saved in the work directory.
+   */
+  public boolean isParseCache()
+  {
+    return _isParseCache;
+  }
+
+  /**
+   * Returns the persistent parse cache, or null if it's disabled.
+   */
+  public ParseCache getParseCache()
+  {
+    ParseCache cache = _parseCache;
+
+    if (cache == null && _isParseCache) {
+      synchronized (this) {
+        cache = _parseCache;
+
+        if (cache == null) {
+          cache = new ParseCache(_quercus);
+
+          _parseCache = cache;
+        }
+      }
+    }
+
+    return cache;
+  }
+
+  /**
+   * Returns the number of pages loaded from the parse cache.
+   */
+  public long getParseCacheHitCount()
+  {
+    ParseCache cache = _parseCache;
+
+    return cache != null ? cache.getHitCount() : 0;
+  }
+
+  /**
+   * Returns the number of pages which missed the parse cache.
+   */
+  public long getParseCacheMissCount()
+  {
+    ParseCache cache = _parseCache;
+
+    return cache != null ? cache.getMissCount() : 0;
+  }
+
   /**
    * Gets the max size of the page cache.
    */
@@ -280,6 +367,12 @@ public class PageManager
 
         program = preloadProgram(path, fileName);
 
+        // only pages parsed under their own name are cached
+        ParseCache parseCache = fileName == null ? getParseCache() : null;
+
+        if (program == null && parseCache != null)
+          program = parseCache.load(path);
+
         if (program == null) {
           if (log.isLoggable(Level.FINE))
             log.fine(L.l("Quercus[{0}] parsing page", path));
@@ -289,6 +382,9 @@ public class PageManager
                                         _quercus.getScriptEncoding(),
                                         fileName,
                                         line);
+
+          if (parseCache != null)
+            parseCache.store(path, program);
         }
 
         _programCache.put(path, new SoftReference<QuercusProgram>(program));
@@ -337,6 +433,12 @@ public class PageManager
   public void close()
   {
     _isClosed = true;
+
+    QuercusCompiler compiler = _compiler;
+    _compiler = null;
+
+    if (compiler != null)
+      compiler.close();
   }
 }
 
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.page;
+
+import com.caucho.java.JavaCompilerUtil;
+import com.caucho.quercus.QuercusContext;
+import com.caucho.quercus.QuercusVersion;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.program.Function;
+import com.caucho.quercus.program.FunctionInfo;
+import com.caucho.quercus.program.InterpretedClassDef;
+import com.caucho.quercus.program.QuercusProgram;
+import com.caucho.quercus.statement.Statement;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Depend;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent cache of parsed programs in the work directory.
+ *
+ * Each entry is keyed by the source's last-modified time, length and
+ * CRC64 digest, and by the engine version and the options which affect
+ * parsing.  A stale or unreadable entry is treated as a miss.
+ */
+public class ParseCache
+{
+  private static final L10N L = new L10N(ParseCache.class);
+  private static final Logger log
+    = Logger.getLogger(ParseCache.class.getName());
+
+  private static final int MAGIC = 0x51504331; // "QPC1"
+  private static final int FORMAT_VERSION = 2;
+
+  private final QuercusContext _quercus;
+
+  private final AtomicLong _hitCount = new AtomicLong();
+  private final AtomicLong _missCount = new AtomicLong();
+  private final AtomicLong _writeCount = new AtomicLong();
+
+  public ParseCache(QuercusContext quercus)
+  {
+    _quercus = quercus;
+  }
+
+  /**
+   * Returns the number of programs loaded from the cache.
+   */
+  public long getHitCount()
+  {
+    return _hitCount.get();
+  }
+
+  /**
+   * Returns the number of lookups which needed a parse.
+   */
+  public long getMissCount()
+  {
+    return _missCount.get();
+  }
+
+  /**
+   * Returns the number of programs written to the cache.
+   */
+  public long getWriteCount()
+  {
+    return _writeCount.get();
+  }
+
+  /**
+   * Loads the parsed program for the source, or returns null if there
+   * is no current entry.
+   */
+  public QuercusProgram load(Path source)
+  {
+    Path path = getCachePath(source);
+
+    if (path == null || ! path.canRead()) {
+      _missCount.incrementAndGet();
+      return null;
+    }
+
+    ReadStream is = null;
+
+    try {
+      is = path.openRead();
+
+      QuercusProgram program = readProgram(source, is);
+
+      if (program != null) {
+        _hitCount.incrementAndGet();
+
+        if (log.isLoggable(Level.FINE))
+          log.fine(L.l("Quercus[{0}] loading parsed page from {1}",
+                       source, path));
+
+        return program;
+      }
+    } catch (Throwable e) {
+      // includes StackOverflowError for a very deep tree
+      log.log(Level.FINE, L.l("Quercus[{0}] can't load parse cache {1}",
+                              source, path), e);
+    } finally {
+      close(is);
+    }
+
+    _missCount.incrementAndGet();
+
+    try {
+      path.remove();
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+
+    return null;
+  }
+
+  /**
+   * Saves the parsed program.
+   */
+  public void store(Path source, QuercusProgram program)
+  {
+    Path path = getCachePath(source);
+
+    if (path == null)
+      return;
+
+    // read before the write so a concurrent edit invalidates the entry
+    long lastModified = source.getLastModified();
+    long length = source.getLength();
+    long digest = source.getCrc64();
+
+    if (lastModified <= 0 || digest == -1)
+      return;
+
+    Path tmp = path.getParent().lookup(path.getTail() + ".tmp");
+
+    try {
+      path.getParent().mkdirs();
+
+      WriteStream os = tmp.openWrite();
+
+      try {
+        ObjectOutputStream out = new ObjectOutputStream(os);
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(QuercusVersion.getVersionNumber());
+        out.writeUTF(getOptions());
+        out.writeUTF(source.getFullPath());
+        out.writeLong(lastModified);
+        out.writeLong(length);
+        out.writeLong(digest);
+
+        out.writeObject(program.getFunctionMap());
+        out.writeObject(program.getFunctionList());
+        out.writeObject(program.getClassMap());
+        out.writeObject(program.getClassList());
+        out.writeObject(program.getFunctionInfo());
+        out.writeObject(program.getStatement());
+
+        out.flush();
+      } finally {
+        os.close();
+      }
+
+      if (! tmp.renameTo(path)) {
+        tmp.remove();
+        return;
+      }
+
+      _writeCount.incrementAndGet();
+    } catch (Throwable e) {
+      log.log(Level.FINE, L.l("Quercus[{0}] can't write parse cache {1}",
+                              source, path), e);
+
+      try {
+        tmp.remove();
+      } catch (Exception e1) {
+        log.log(Level.FINEST, e1.toString(), e1);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private QuercusProgram readProgram(Path source, InputStream is)
+    throws IOException, ClassNotFoundException
+  {
+    ProgramInputStream in = new ProgramInputStream(is, _quercus);
+
+    if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+      return null;
+
+    if (! QuercusVersion.getVersionNumber().equals(in.readUTF()))
+      return null;
+
+    if (! getOptions().equals(in.readUTF()))
+      return null;
+
+    if (! source.getFullPath().equals(in.readUTF()))
+      return null;
+
+    long lastModified = in.readLong();
+    long length = in.readLong();
+    long digest = in.readLong();
+
+    // a touched but unchanged file is still current, e.g. after a deploy
+    if (new Depend(source, lastModified, length).isModified()
+        && new Depend(source, digest).isModified()) {
+      return null;
+    }
+
+    HashMap<StringValue,Function> functionMap
+      = (HashMap<StringValue,Function>) in.readObject();
+    ArrayList<Function> functionList
+      = (ArrayList<Function>) in.readObject();
+    HashMap<String,InterpretedClassDef> classMap
+      = (HashMap<String,InterpretedClassDef>) in.readObject();
+    ArrayList<InterpretedClassDef> classList
+      = (ArrayList<InterpretedClassDef>) in.readObject();
+    FunctionInfo functionInfo = (FunctionInfo) in.readObject();
+    Statement statement = (Statement) in.readObject();
+
+    return new QuercusProgram(_quercus, source,
+                              functionMap, functionList,
+                              classMap, classList,
+                              functionInfo, statement);
+  }
+
+  /**
+   * Returns the settings which change the parsed tree.
+   */
+  private String getOptions()
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("unicode=").append(_quercus.isUnicodeSemantics());
+    sb.append(",encoding=").append(_quercus.getScriptEncoding());
+    sb.append(",short_open_tag=")
+      .append(_quercus.getIniBoolean("short_open_tag"));
+    sb.append(",strict=").append(_quercus.isStrict());
+    sb.append(",loose=").append(_quercus.isLooseParse());
+    sb.append(",factory=")
+      .append(_quercus.createExprFactory().getClass().getName());
+
+    return sb.toString();
+  }
+
+  private Path getCachePath(Path source)
+  {
+    Path workDir = _quercus.getWorkDir();
+
+    if (workDir == null)
+      return null;
+
+    String name = JavaCompilerUtil.mangleName(source.getFullPath());
+
+    return workDir.lookup("_quercus_parse/" + name.replace('.', '/') + ".ser");
+  }
+
+  private static void close(InputStream is)
+  {
+    try {
+      if (is != null)
+        is.close();
+    } catch (IOException e) {
+    }
+  }
+
+  /**
+   * Rebinds the deserialized tree to the current engine.
+   */
+  static class ProgramInputStream extends ObjectInputStream {
+    private final QuercusContext _quercus;
+
+    ProgramInputStream(InputStream is, QuercusContext quercus)
+      throws IOException
+    {
+      super(is);
+
+      _quercus = quercus;
+
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+      throws IOException, ClassNotFoundException
+    {
+      String name = desc.getName();
+
+      if (! isAllowed(name))
+        throw new InvalidClassException(name, L.l("not a Quercus program class"));
+
+      ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+      try {
+        return Class.forName(desc.getName(), false, loader);
+      } catch (ClassNotFoundException e) {
+        return super.resolveClass(desc);
+      }
+    }
+
+    /**
+     * Only Quercus and JDK classes can appear in a cached program.
+     */
+    private static boolean isAllowed(String name)
+    {
+      int i = 0;
+
+      while (i < name.length() && name.charAt(i) == '[')
+        i++;
+
+      if (i > 0) {
+        // primitive array
+        if (i + 1 == name.length())
+          return true;
+        else if (name.charAt(i) != 'L' || ! name.endsWith(";"))
+          return false;
+
+        name = name.substring(i + 1, name.length() - 1);
+      }
+
+      return (name.startsWith("com.caucho.quercus.")
+              || name.startsWith("java."));
+    }
+
+    @Override
+    protected Object resolveObject(Object obj)
+    {
+      if (obj instanceof FunctionInfo)
+        ((FunctionInfo) obj).setQuercus(_quercus);
+
+      return obj;
+    }
+  }
+}
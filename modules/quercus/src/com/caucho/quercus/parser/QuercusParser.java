@@ -3930,9 +3930,13 @@ public class QuercusParser {
       _peekToken = token;
 
       // php/0d6c, php/0d6f
+      _function.setVariableVar(true);
+
       return _factory.createVarVar(parseTermArray());
     }
     else if (token == '{') {
+      _function.setVariableVar(true);
+
       AbstractVarExpr expr = _factory.createVarVar(parseExpr());
 
       expect('}');
@@ -3972,6 +3976,13 @@ public class QuercusParser {
       name = name.toLowerCase(Locale.ENGLISH);
     }
 
+    // extract(), compact(), get_defined_vars() need a real symbol table
+    AbstractFunction fun = _quercus.findFunction(name);
+
+    if (fun != null && fun.isCallUsesSymbolTable()) {
+      _function.setUsesSymbolTable(true);
+    }
+
     return _factory.createCall(this, name, args);
 
     /*
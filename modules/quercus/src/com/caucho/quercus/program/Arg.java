@@ -38,7 +38,9 @@ import com.caucho.quercus.expr.ParamRequiredExpr;
 /**
  * Represents a formal argument.
  */
-public class Arg {
+public class Arg implements java.io.Serializable {
+  private static final long serialVersionUID = 1L;
+
   private final StringValue _name;
   private final Expr _default;
 
@@ -35,8 +35,10 @@ import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.expr.Expr;
 
-public class ClassField
+public class ClassField implements java.io.Serializable
 {
+  private static final long serialVersionUID = 1L;
+
   private final StringValue _name;
   private final StringValue _canonicalName;
   private final String _declaringClassName;
@@ -36,6 +36,7 @@ import com.caucho.quercus.env.EnvVar;
 import com.caucho.quercus.env.EnvVarImpl;
 import com.caucho.quercus.env.NullThisValue;
 import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.SlotSymbolMap;
 import com.caucho.quercus.env.StringValue;
 import com.caucho.quercus.env.QuercusClass;
 import com.caucho.quercus.env.Value;
@@ -44,6 +45,8 @@ import com.caucho.quercus.expr.Expr;
 import com.caucho.quercus.expr.ExprFactory;
 import com.caucho.quercus.expr.ParamRequiredExpr;
 import com.caucho.quercus.function.AbstractFunction;
+import com.caucho.quercus.gen.CompiledStatement;
+import com.caucho.quercus.gen.QuercusCompiler;
 import com.caucho.quercus.statement.Statement;
 
 import java.util.HashMap;
@@ -59,7 +62,8 @@ public class Function extends AbstractFunction {
 
   protected final String _name;
   protected final Arg []_args;
-  protected final Statement _statement;
+  // replaced by the compiled body, see QuercusCompiler
+  protected volatile Statement _statement;
 
   protected boolean _hasReturn;
 
@@ -67,6 +71,13 @@ public class Function extends AbstractFunction {
 
   protected Arg []_closureUseArgs;
 
+  // true if the locals are slot-resolved, see FunctionInfo.isSlotFrame()
+  private final boolean _isSlotFrame;
+  private final int []_argSlots;
+
+  // calls until the body is queued for compilation, -1 once queued
+  private transient int _callCount;
+
   public Function(ExprFactory exprFactory,
                   Location location,
                   String name,
@@ -91,6 +102,20 @@ public class Function extends AbstractFunction {
     setClosure(info.isClosure());
 
     _isStatic = true;
+
+    _isSlotFrame = info.isSlotFrame();
+
+    if (_isSlotFrame) {
+      info.initSlots();
+
+      _argSlots = new int[_args.length];
+
+      for (int i = 0; i < _args.length; i++) {
+        _argSlots[i] = info.getSlotIndex().get(_args[i].getName());
+      }
+    }
+    else
+      _argSlots = null;
   }
 
   /**
@@ -101,6 +126,38 @@ public class Function extends AbstractFunction {
     return _name;
   }
 
+  /**
+   * Returns the function body.
+   */
+  public Statement getStatement()
+  {
+    return _statement;
+  }
+
+  /**
+   * Replaces the interpreted body with its compiled form.
+   */
+  public void setCompiledStatement(CompiledStatement statement)
+  {
+    _statement = statement;
+  }
+
+  /**
+   * Counts the call, queuing the body for compilation when it gets hot.
+   */
+  private void countCall(Env env)
+  {
+    QuercusCompiler compiler = env.getQuercus().getCompiler();
+
+    if (compiler == null)
+      _callCount = -1;
+    else if (++_callCount >= compiler.getThreshold()) {
+      _callCount = -1;
+
+      compiler.compileLater(this);
+    }
+  }
+
   /**
    * Returns the declaring class
    */
@@ -241,7 +298,7 @@ public class Function extends AbstractFunction {
 
   private Value callImpl(Env env, Expr []args, boolean isRef)
   {
-    HashMap<StringValue,EnvVar> map = new HashMap<StringValue,EnvVar>();
+    Map<StringValue,EnvVar> map = createLocalMap();
 
     Value []values = new Value[args.length];
 
@@ -258,7 +315,7 @@ public class Function extends AbstractFunction {
       else if (arg.isReference()) {
         values[i] = args[i].evalVar(env);
 
-        map.put(arg.getName(), new EnvVarImpl(values[i].toLocalVarDeclAsRef()));
+        putArg(map, i, new EnvVarImpl(values[i].toLocalVarDeclAsRef()));
       }
       else {
         // php/0d04
@@ -266,7 +323,7 @@ public class Function extends AbstractFunction {
 
         Var var = values[i].toVar();
 
-        map.put(arg.getName(), new EnvVarImpl(var));
+        putArg(map, i, new EnvVarImpl(var));
 
         values[i] = var.toValue();
       }
@@ -280,11 +337,11 @@ public class Function extends AbstractFunction {
       if (defaultExpr == null)
         return env.error("expected default expression");
       else if (arg.isReference())
-        map.put(arg.getName(),
-                new EnvVarImpl(defaultExpr.evalVar(env).toVar()));
+        putArg(map, i,
+               new EnvVarImpl(defaultExpr.evalVar(env).toVar()));
       else {
-        map.put(arg.getName(),
-                new EnvVarImpl(defaultExpr.eval(env).copy().toVar()));
+        putArg(map, i,
+               new EnvVarImpl(defaultExpr.eval(env).copy().toVar()));
       }
     }
 
@@ -299,6 +356,9 @@ public class Function extends AbstractFunction {
     else
       oldThis = env.getThis();
 
+    if (_callCount >= 0)
+      countCall(env);
+
     try {
       Value value = _statement.execute(env);
 
@@ -348,7 +408,7 @@ public class Function extends AbstractFunction {
   public Value callImpl(Env env, Value []args, boolean isRef,
                         Arg []useParams, Value []useArgs)
   {
-    HashMap<StringValue,EnvVar> map = new HashMap<StringValue,EnvVar>(8);
+    Map<StringValue,EnvVar> map = createLocalMap();
 
     if (useParams != null) {
       for (int i = 0; i < useParams.length; i++) {
@@ -366,7 +426,7 @@ public class Function extends AbstractFunction {
       if (arg == null) {
       }
       else if (arg.isReference()) {
-        map.put(arg.getName(), new EnvVarImpl(args[i].toLocalVarDeclAsRef()));
+        putArg(map, i, new EnvVarImpl(args[i].toLocalVarDeclAsRef()));
       }
       else {
         // XXX: php/1708, toVar() may be doing another copy()
@@ -381,7 +441,7 @@ public class Function extends AbstractFunction {
         }
 
         // quercus/0d04
-        map.put(arg.getName(), new EnvVarImpl(var));
+        putArg(map, i, new EnvVarImpl(var));
       }
     }
 
@@ -394,9 +454,9 @@ public class Function extends AbstractFunction {
         if (defaultExpr == null)
           return env.error("expected default expression");
         else if (arg.isReference())
-          map.put(arg.getName(), new EnvVarImpl(defaultExpr.evalVar(env).toVar()));
+          putArg(map, i, new EnvVarImpl(defaultExpr.evalVar(env).toVar()));
         else {
-          map.put(arg.getName(), new EnvVarImpl(defaultExpr.eval(env).toLocalVar()));
+          putArg(map, i, new EnvVarImpl(defaultExpr.eval(env).toLocalVar()));
         }
       } catch (Exception e) {
         throw new QuercusException(getName() + ":arg(" + arg.getName() + ") "
@@ -416,6 +476,9 @@ public class Function extends AbstractFunction {
       oldThis = env.setThis(NullThisValue.NULL);
     }
 
+    if (_callCount >= 0)
+      countCall(env);
+
     try {
       Value value = _statement.execute(env);
 
@@ -478,6 +541,30 @@ public class Function extends AbstractFunction {
   }
 
 
+  /**
+   * Creates the local symbol table for a call.
+   */
+  private Map<StringValue,EnvVar> createLocalMap()
+  {
+    if (_isSlotFrame)
+      return new SlotSymbolMap(_info);
+    else
+      return new HashMap<StringValue,EnvVar>(8);
+  }
+
+  /**
+   * Binds an argument in the local symbol table.
+   */
+  private void putArg(Map<StringValue,EnvVar> map, int i, EnvVar envVar)
+  {
+    int slot = _argSlots != null ? _argSlots[i] : -1;
+
+    if (slot >= 0)
+      ((SlotSymbolMap) map).putSlot(slot, envVar);
+    else
+      map.put(_args[i].getName(), envVar);
+  }
+
   private boolean isVariableArgs()
   {
     return _info.isVariableArgs() || _args.length > 5;
@@ -32,6 +32,7 @@ package com.caucho.quercus.program;
 import com.caucho.quercus.QuercusContext;
 import com.caucho.quercus.expr.VarInfo;
 import com.caucho.quercus.env.StringValue;
+import com.caucho.util.IntMap;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -40,9 +41,15 @@ import java.util.HashMap;
 /**
  * Information about a function.
  */
-public class FunctionInfo
+public class FunctionInfo implements java.io.Serializable
 {
-  private final QuercusContext _quercus;
+  private static final long serialVersionUID = 1L;
+
+  private static final boolean _isSlotEnabled
+    = ! "false".equals(System.getProperty("com.caucho.quercus.slots"));
+
+  // rebound after deserialization, see setQuercus()
+  private transient QuercusContext _quercus;
 
   private final ClassDef _classDef;
   private final String _name;
@@ -74,6 +81,9 @@ public class FunctionInfo
 
   private boolean _isReadOnly = true;
 
+  private transient IntMap _slotIndex;
+  private StringValue []_slotNames;
+
   public FunctionInfo(QuercusContext quercus, ClassDef classDef, String name)
   {
     _quercus = quercus;
@@ -117,6 +127,14 @@ public class FunctionInfo
     return _quercus;
   }
 
+  /**
+   * Rebinds a deserialized function to its owning quercus.
+   */
+  public void setQuercus(QuercusContext quercus)
+  {
+    _quercus = quercus;
+  }
+
   public String getName()
   {
     return _name;
@@ -394,6 +412,7 @@ public class FunctionInfo
 
     if (var == null) {
       var = createVarInfo(name);
+      var.setSlot(_varMap.size());
 
       _varMap.put(name, var);
     }
@@ -414,6 +433,62 @@ public class FunctionInfo
     return _varMap.values();
   }
 
+  /**
+   * True if the locals can live in a slot array instead of a map, i.e.
+   * the function has no $$var and doesn't call extract(), compact() or
+   * other functions using the symbol table.
+   */
+  public boolean isSlotFrame()
+  {
+    return (_isSlotEnabled
+            && ! _isPageMain
+            && ! _isVariableVar
+            && ! _isUsesSymbolTable);
+  }
+
+  /**
+   * Returns the slot index for the local variable names.
+   */
+  public IntMap getSlotIndex()
+  {
+    if (_slotIndex == null)
+      initSlots();
+
+    return _slotIndex;
+  }
+
+  /**
+   * Returns the local variable names, ordered by slot.
+   */
+  public StringValue []getSlotNames()
+  {
+    if (_slotNames == null)
+      initSlots();
+
+    return _slotNames;
+  }
+
+  /**
+   * Freezes the slot assignment once the function body has been parsed.
+   */
+  public void initSlots()
+  {
+    StringValue []names = new StringValue[_varMap.size()];
+    IntMap slotIndex = new IntMap();
+
+    for (VarInfo var : _varMap.values()) {
+      int slot = var.getSlot();
+
+      if (0 <= slot && slot < names.length) {
+        names[slot] = var.getName();
+        slotIndex.put(var.getName(), slot);
+      }
+    }
+
+    _slotNames = names;
+    _slotIndex = slotIndex;
+  }
+
   /**
    * Adds a temp variable.
    */
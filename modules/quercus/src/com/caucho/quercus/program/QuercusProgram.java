@@ -33,6 +33,8 @@ import com.caucho.quercus.QuercusContext;
 import com.caucho.quercus.QuercusException;
 import com.caucho.quercus.env.*;
 import com.caucho.quercus.function.AbstractFunction;
+import com.caucho.quercus.gen.CompiledStatement;
+import com.caucho.quercus.gen.QuercusCompiler;
 import com.caucho.quercus.page.QuercusPage;
 import com.caucho.quercus.statement.*;
 import com.caucho.vfs.BasicDependencyContainer;
@@ -81,7 +83,11 @@ public class QuercusProgram {
   private ArrayList<InterpretedClassDef> _classList;
 
   private FunctionInfo _functionInfo;
-  private Statement _statement;
+  // replaced by the compiled statement, see QuercusCompiler
+  private volatile Statement _statement;
+
+  // executions until the statement is queued for compilation
+  private int _executeCount;
 
   private ArrayList<PersistentDependency> _dependList
     = new ArrayList<PersistentDependency>();
@@ -345,6 +351,14 @@ public class QuercusProgram {
     return fun;
   }
 
+  /**
+   * Returns the function map.
+   */
+  public HashMap<StringValue,Function> getFunctionMap()
+  {
+    return _functionMap;
+  }
+
   /**
    * Returns the functions.
    */
@@ -361,6 +375,14 @@ public class QuercusProgram {
     return _functionList;
   }
 
+  /**
+   * Returns the class map.
+   */
+  public HashMap<String,InterpretedClassDef> getClassMap()
+  {
+    return _classMap;
+  }
+
   /**
    * Returns the classes.
    */
@@ -414,9 +436,37 @@ public class QuercusProgram {
    */
   public Value execute(Env env)
   {
+    if (_executeCount >= 0)
+      countExecute();
+
     return _statement.execute(env);
   }
 
+  /**
+   * Counts the execution, queuing the statement for compilation when
+   * the page gets hot.
+   */
+  private void countExecute()
+  {
+    QuercusCompiler compiler = _quercus.getCompiler();
+
+    if (compiler == null)
+      _executeCount = -1;
+    else if (++_executeCount >= compiler.getThreshold()) {
+      _executeCount = -1;
+
+      compiler.compileLater(this);
+    }
+  }
+
+  /**
+   * Replaces the interpreted statement with its compiled form.
+   */
+  public void setCompiledStatement(CompiledStatement statement)
+  {
+    _statement = statement;
+  }
+
   /**
    * Imports the page definitions.
    */
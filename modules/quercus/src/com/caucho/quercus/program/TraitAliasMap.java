@@ -36,8 +36,10 @@ import java.util.Set;
 
 import com.caucho.quercus.env.StringValue;
 
-public class TraitAliasMap
+public class TraitAliasMap implements java.io.Serializable
 {
+  private static final long serialVersionUID = 1L;
+
   private final HashMap<StringValue,TraitAlias> _aliasMap
     = new HashMap<StringValue,TraitAlias>();
 
@@ -70,7 +72,9 @@ public class TraitAliasMap
     return _aliasMap.entrySet();
   }
 
-  static class TraitAlias {
+  static class TraitAlias implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final String _traitName;
     private final StringValue _funNameAlias;
 
@@ -36,8 +36,10 @@ import java.util.Set;
 
 import com.caucho.quercus.env.StringValue;
 
-public class TraitInsteadofMap
+public class TraitInsteadofMap implements java.io.Serializable
 {
+  private static final long serialVersionUID = 1L;
+
   public static final int USE_NEW_TRAIT = 1;
   public static final int USE_EXISTING_TRAIT = 0;
   public static final int NULL = -1;
@@ -75,7 +77,9 @@ public class TraitInsteadofMap
     return _insteadofMap.entrySet();
   }
 
-  static class TraitInsteadof {
+  static class TraitInsteadof implements java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
     private final String _traitName;
     private final String _insteadofTraitName;
 
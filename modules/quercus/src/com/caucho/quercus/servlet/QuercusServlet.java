@@ -73,10 +73,11 @@ public class QuercusServlet
   private QuercusServletImpl _impl;
 
   private boolean _isCompile;
-  private boolean _isLazyCompile = true;
+  private boolean _isLazyCompile;
   private boolean _isCompileFailover = true;
   private double _profileProbability;
   private boolean _isRequireSource = true;
+  private boolean _isParseCache;
 
   private DataSource _database;
 
@@ -214,6 +215,14 @@ public class QuercusServlet
     _isRequireSource = isRequireSource;
   }
 
+  /**
+   * Set true if parsed pages should be saved in the work directory
+   */
+  public void setParseCache(boolean isParseCache)
+  {
+    _isParseCache = isParseCache;
+  }
+
   public void setDependencyCheckInterval(long ms)
   {
     _dependencyCheckInterval = ms;
@@ -457,6 +466,9 @@ public class QuercusServlet
     else if ("require-source".equals(paramName)) {
       setRequireSource("true".equals(paramValue));
     }
+    else if ("parse-cache".equals(paramName)) {
+      setParseCache("true".equals(paramValue));
+    }
     else if ("dependency-check-interval".equals(paramName)) {
       setDependencyCheckInterval(Long.parseLong(paramValue));
     }
@@ -516,6 +528,7 @@ public class QuercusServlet
     quercus.setCompileFailover(_isCompileFailover);
     quercus.setProfileProbability(_profileProbability);
     quercus.setRequireSource(_isRequireSource);
+    quercus.setParseCache(_isParseCache);
     quercus.setDatabase(_database);
     quercus.setStrict(_isStrict);
     quercus.setLooseParse(_isLooseParse);
@@ -57,6 +57,14 @@ public class BreakStatement extends Statement {
     _loopLabelList = loopLabelList;
   }
 
+  /**
+   * Returns the break depth expression, or null for a plain break.
+   */
+  public Expr getTarget()
+  {
+    return _target;
+  }
+
   /**
    * Executes the statement, returning the expression value.
    */
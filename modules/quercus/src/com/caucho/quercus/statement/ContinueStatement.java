@@ -55,6 +55,14 @@ public class ContinueStatement extends Statement {
     _loopLabelList = loopLabelList;
   }
 
+  /**
+   * Returns the continue depth expression, or null for a plain continue.
+   */
+  public Expr getTarget()
+  {
+    return _target;
+  }
+
   /**
    * Executes the statement, returning the expression value.
    */
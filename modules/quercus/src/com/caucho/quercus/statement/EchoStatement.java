@@ -50,6 +50,14 @@ public class EchoStatement extends Statement {
     _expr = expr;
   }
 
+  /**
+   * Returns the echoed expression.
+   */
+  public Expr getExpr()
+  {
+    return _expr;
+  }
+
   public Value execute(Env env)
   {
     Value value = _expr.eval(env);
@@ -61,6 +61,38 @@ public class ForStatement extends Statement {
     block.setParent(this);
   }
 
+  /**
+   * Returns the initialization expression.
+   */
+  public Expr getInit()
+  {
+    return _init;
+  }
+
+  /**
+   * Returns the loop test.
+   */
+  public Expr getTest()
+  {
+    return _test;
+  }
+
+  /**
+   * Returns the increment expression.
+   */
+  public Expr getIncr()
+  {
+    return _incr;
+  }
+
+  /**
+   * Returns the loop body.
+   */
+  public Statement getBlock()
+  {
+    return _block;
+  }
+
   @Override
   public boolean isLoop()
   {
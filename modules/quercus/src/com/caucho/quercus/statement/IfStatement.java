@@ -60,17 +60,17 @@ public class IfStatement extends Statement {
       _falseBlock.setParent(this);
   }
 
-  protected Expr getTest()
+  public Expr getTest()
   {
     return _test;
   }
 
-  protected Statement getTrueBlock()
+  public Statement getTrueBlock()
   {
     return _trueBlock;
   }
 
-  protected Statement getFalseBlock()
+  public Statement getFalseBlock()
   {
     return _falseBlock;
   }
@@ -59,6 +59,14 @@ public class ReturnStatement extends Statement {
     _expr = expr;
   }
 
+  /**
+   * Returns the returned expression.
+   */
+  public Expr getExpr()
+  {
+    return _expr;
+  }
+
   /**
    * Executes the statement, returning the expression value.
    */
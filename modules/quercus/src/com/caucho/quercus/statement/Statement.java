@@ -41,7 +41,9 @@ import java.util.logging.Logger;
 /**
  * Represents a PHP statement
  */
-abstract public class Statement {
+abstract public class Statement implements java.io.Serializable {
+  private static final long serialVersionUID = 1L;
+
   private static final Logger log = Logger.getLogger(Statement.class.getName());
 
   public static final int FALL_THROUGH = 0;
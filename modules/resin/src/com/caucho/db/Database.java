@@ -50,7 +50,7 @@ import com.caucho.lifecycle.Lifecycle;
 import com.caucho.loader.CloseListener;
 import com.caucho.loader.Environment;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
+import com.caucho.util.TinyLfuCache;
 import com.caucho.vfs.Path;
 
 /**
@@ -67,13 +67,14 @@ public class Database
   private BlockManager _blockManager;
   private HashMap<String,Table> _tables = new HashMap<String,Table>();
 
-  private LruCache<String,Query> _cachedQueries = new LruCache<String,Query>(128);
+  private TinyLfuCache<String,Query> _cachedQueries = new TinyLfuCache<String,Query>(128);
 
   //private DatabaseLock _databaseLock = new DatabaseLock("db");
   private ReadWriteLock _databaseLock = new ReentrantReadWriteLock();
 
   private boolean _removeOnError;
   private boolean _isFlushDirtyBlocksOnCommit = true;
+  private boolean _isRowLocking;
 
   private final Lifecycle _lifecycle = new Lifecycle(log, null, Level.FINER);
 
@@ -126,6 +127,21 @@ public class Database
     return _isFlushDirtyBlocksOnCommit;
   }
 
+  /**
+   * If true, writers lock only the blocks of the rows they modify
+   * instead of the whole table, and readers iterate over block
+   * snapshots without blocking writers.
+   */
+  public void setRowLocking(boolean isRowLocking)
+  {
+    _isRowLocking = isRowLocking;
+  }
+
+  public boolean isRowLocking()
+  {
+    return _isRowLocking;
+  }
+
   /**
    * Ensure a minimum memory size.
    *
@@ -192,6 +208,7 @@ public class Database
     log.fine("adding table " + table.getName());
 
     table.setFlushDirtyBlocksOnCommit(_isFlushDirtyBlocksOnCommit);
+    table.setRowLocking(_isRowLocking);
     table.init();
 
     _tables.put(table.getName(), table);
@@ -220,6 +237,7 @@ public class Database
           return null;
 
         table.setFlushDirtyBlocksOnCommit(_isFlushDirtyBlocksOnCommit);
+        table.setRowLocking(_isRowLocking);
         table.init();
 
         _tables.put(name, table);
@@ -195,6 +195,10 @@ public class BlockReadWrite {
   {
     long blockAddress = blockId & BlockStore.BLOCK_MASK;
 
+    if (readBlockMmap(blockAddress, buffer, offset, length)) {
+      return true;
+    }
+
     boolean isPriority = false;
     RandomAccessWrapper wrapper = openRowFile(isPriority,
                                               blockAddress + length);
@@ -238,6 +242,32 @@ public class BlockReadWrite {
     }
   }
 
+  /**
+   * Reads a block directly from the shared mmap file, bypassing the
+   * row file wrappers and the semaphore. Returns false if the mmap
+   * isn't available or the block is past the mapped length.
+   */
+  private boolean readBlockMmap(long blockAddress,
+                                byte []buffer, int offset, int length)
+    throws IOException
+  {
+    RandomAccessStream mmapFile = _mmapFile.get();
+
+    if (mmapFile == null
+        || blockAddress < 0
+        || mmapFile.getLength() < blockAddress + length) {
+      return false;
+    }
+
+    if (mmapFile.read(blockAddress, buffer, offset, length) != length) {
+      return false;
+    }
+
+    _blockManager.addBlockRead();
+
+    return true;
+  }
+
   /**
    * Saves the buffer to the database.
    */
@@ -246,6 +276,23 @@ public class BlockReadWrite {
                          boolean isPriority)
     throws IOException
   {
+    RandomAccessStream mmapFile = _mmapFile.get();
+
+    // mmap files write directly when the block is already mapped
+    if (mmapFile != null
+        && blockAddress + length <= mmapFile.getLength()
+        && mmapFile.allocate()) {
+      try {
+        mmapFile.write(blockAddress, buffer, offset, length);
+      } finally {
+        mmapFile.free();
+      }
+
+      _blockManager.addBlockWrite();
+
+      return;
+    }
+
     RandomAccessWrapper wrapper;
 
     wrapper = openRowFile(isPriority, blockAddress + length);
@@ -222,6 +222,112 @@ public final class BTree {
     }
   }
 
+  /**
+   * Returns the size of the tree's keys.
+   */
+  public int getKeySize()
+  {
+    return _keySize;
+  }
+
+  /**
+   * Fills the cursor's next batch of entries in key order, starting
+   * from the cursor's minimum key.
+   */
+  synchronized
+  void scan(BTreeCursor cursor)
+    throws IOException, SQLException
+  {
+    try {
+      scan(cursor, _rootBlockId);
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Scans the subtree in key order.
+   *
+   * @return false when the scan is complete, either because the batch
+   * is full or the maximum key has been passed.
+   */
+  private boolean scan(BTreeCursor cursor, long blockId)
+    throws IOException, SQLException, InterruptedException
+  {
+    Block block;
+
+    if (blockId == _rootBlockId) {
+      block = _rootBlock;
+      block.allocate();
+    }
+    else
+      block = _store.loadBlock(blockId);
+
+    try {
+      Lock blockLock = block.getReadLock();
+
+      blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS);
+
+      try {
+        validateIndex(block);
+
+        block.read();
+
+        byte []buffer = block.getBuffer();
+
+        boolean isLeaf = isLeaf(buffer, block);
+
+        int length = getLength(buffer);
+        int tupleSize = _tupleSize;
+        KeyCompare keyCompare = _keyCompare;
+
+        for (int i = 0; i < length; i++) {
+          int offset = HEADER_SIZE + i * tupleSize;
+          int keyOffset = offset + PTR_SIZE;
+
+          // child and leaf keys at or before the minimum are skipped
+          if (! cursor.isAfterMin(keyCompare, buffer, keyOffset))
+            continue;
+
+          long value = getPointer(buffer, offset);
+
+          if (isLeaf) {
+            if (! cursor.isBeforeMax(keyCompare, buffer, keyOffset))
+              return false;
+
+            if (value != 0 && ! cursor.add(buffer, keyOffset, value))
+              return false;
+          }
+          else {
+            if (value == 0)
+              throw corrupted("illegal 0 value at " + offset + " for block " + debugId(blockId));
+
+            if (! scan(cursor, value))
+              return false;
+
+            // the remaining children are past the key
+            if (! cursor.isBeforeMax(keyCompare, buffer, keyOffset)
+                || cursor.isMaxKey(keyCompare, buffer, keyOffset))
+              return false;
+          }
+        }
+
+        if (! isLeaf) {
+          long next = getPointer(buffer, NEXT_OFFSET);
+
+          if (next != 0)
+            return scan(cursor, next);
+        }
+
+        return true;
+      } finally {
+        blockLock.unlock();
+      }
+    } finally {
+      block.free();
+    }
+  }
+
   /**
    * Inserts the new value for the given key.
    *
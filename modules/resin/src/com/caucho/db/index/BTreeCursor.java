@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.db.index;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Iterates over a key range of a BTree in key order.
+ *
+ * The cursor reads the tree in batches. Each batch descends from the
+ * root starting after the last key of the previous batch, so no block
+ * locks are held between calls to next().
+ */
+public final class BTreeCursor {
+  private static final int BATCH_SIZE = 64;
+
+  private final BTree _tree;
+  private final int _keySize;
+
+  private final byte []_minKey;
+  private int _minLength;
+  private boolean _isMin;
+  private boolean _isMinInclusive;
+
+  private final byte []_maxKey;
+  private int _maxLength;
+  private boolean _isMax;
+
+  private final byte []_keys;
+  private final long []_values = new long[BATCH_SIZE];
+  private int _size;
+  private int _index;
+  private boolean _isEnd;
+
+  private long _value;
+
+  public BTreeCursor(BTree tree)
+  {
+    _tree = tree;
+    _keySize = tree.getKeySize();
+
+    _minKey = new byte[_keySize];
+    _maxKey = new byte[_keySize];
+    _keys = new byte[BATCH_SIZE * _keySize];
+  }
+
+  /**
+   * Returns the cursor's tree.
+   */
+  public BTree getTree()
+  {
+    return _tree;
+  }
+
+  /**
+   * Clears the range, iterating over the entire tree.
+   */
+  public void init()
+  {
+    _isMin = false;
+    _isMax = false;
+    _size = 0;
+    _index = 0;
+    _isEnd = false;
+    _value = 0;
+  }
+
+  /**
+   * Sets the minimum key.
+   */
+  public void setMin(byte []buffer, int offset, int length,
+                     boolean isInclusive)
+  {
+    if (_keySize < length)
+      length = _keySize;
+
+    System.arraycopy(buffer, offset, _minKey, 0, length);
+    _minLength = length;
+    _isMin = true;
+    _isMinInclusive = isInclusive;
+  }
+
+  /**
+   * Sets the maximum key, which is inclusive.
+   */
+  public void setMax(byte []buffer, int offset, int length)
+  {
+    if (_keySize < length)
+      length = _keySize;
+
+    System.arraycopy(buffer, offset, _maxKey, 0, length);
+    _maxLength = length;
+    _isMax = true;
+  }
+
+  /**
+   * Moves to the next entry, returning false at the end of the range.
+   */
+  public boolean next()
+    throws IOException, SQLException
+  {
+    if (_size <= _index) {
+      if (_isEnd)
+        return false;
+
+      if (_size > 0) {
+        // resume after the last key of the previous batch
+        setMin(_keys, (_size - 1) * _keySize, _keySize, false);
+      }
+
+      _size = 0;
+      _index = 0;
+
+      _tree.scan(this);
+
+      if (_size < BATCH_SIZE)
+        _isEnd = true;
+
+      if (_size == 0)
+        return false;
+    }
+
+    _value = _values[_index++];
+
+    return true;
+  }
+
+  /**
+   * Returns the value of the current entry, e.g. a row address.
+   */
+  public long getValue()
+  {
+    return _value;
+  }
+
+  /**
+   * True if the key is after the minimum.
+   */
+  boolean isAfterMin(KeyCompare keyCompare, byte []buffer, int offset)
+  {
+    if (! _isMin)
+      return true;
+
+    int cmp = keyCompare.compare(_minKey, 0, buffer, offset, _minLength);
+
+    return cmp < 0 || (cmp == 0 && _isMinInclusive);
+  }
+
+  /**
+   * True if the key is before or equal to the maximum.
+   */
+  boolean isBeforeMax(KeyCompare keyCompare, byte []buffer, int offset)
+  {
+    if (! _isMax)
+      return true;
+
+    return keyCompare.compare(_maxKey, 0, buffer, offset, _maxLength) >= 0;
+  }
+
+  /**
+   * True if the key equals the maximum.
+   */
+  boolean isMaxKey(KeyCompare keyCompare, byte []buffer, int offset)
+  {
+    if (! _isMax)
+      return false;
+
+    return keyCompare.compare(_maxKey, 0, buffer, offset, _maxLength) == 0;
+  }
+
+  /**
+   * Adds an entry to the batch, returning false when the batch is full.
+   */
+  boolean add(byte []buffer, int offset, long value)
+  {
+    System.arraycopy(buffer, offset, _keys, _size * _keySize, _keySize);
+    _values[_size++] = value;
+
+    return _size < BATCH_SIZE;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _tree + "]";
+  }
+}
@@ -50,7 +50,7 @@ public final class IndexCache
 
   private static IndexCache _staticCache;
 
-  private final LruCache<IndexKey,IndexKey> _cache;
+  private final TinyLfuCache<IndexKey,IndexKey> _cache;
 
   private final ArrayList<IndexKey> _writeQueue
     = new ArrayList<IndexKey>();
@@ -62,7 +62,7 @@ public final class IndexCache
 
   private IndexCache(int capacity)
   {
-    _cache = new LruCache<IndexKey,IndexKey>(capacity);
+    _cache = new TinyLfuCache<IndexKey,IndexKey>(capacity);
   }
 
   /**
@@ -102,6 +102,11 @@ public class DataSourceImpl implements DataSource {
     _database.setFlushDirtyBlocksOnCommit(isFlush);
   }
   
+  public void setRowLocking(boolean isRowLocking)
+  {
+    _database.setRowLocking(isRowLocking);
+  }
+  
   /**
    * Initialize the data source.
    */
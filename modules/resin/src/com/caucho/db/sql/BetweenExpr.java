@@ -77,6 +77,23 @@ class BetweenExpr extends Expr {
             _max.subCost(fromList));
   }
 
+  /**
+   * Returns an index range expression if available.
+   */
+  @Override
+  public RowIterateExpr getIndexExpr(FromItem item)
+  {
+    if (! _isNot
+        && _expr instanceof IdExpr
+        && IndexRangeExpr.isNumericRangeColumn((IdExpr) _expr, item)
+        && IndexRangeExpr.isRangeBound(_min, item)
+        && IndexRangeExpr.isRangeBound(_max, item)) {
+      return new IndexRangeExpr((IdExpr) _expr, _min, _max, this);
+    }
+
+    return null;
+  }
+
   /**
    * Evaluates the expression as a boolean.
    */
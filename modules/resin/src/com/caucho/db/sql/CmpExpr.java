@@ -152,6 +152,59 @@ class CmpExpr extends AbstractBinaryExpr {
     return _left.subCost(fromList) + _right.subCost(fromList);
   }
 
+  /**
+   * Returns an index range expression if available.
+   */
+  @Override
+  public RowIterateExpr getIndexExpr(FromItem item)
+  {
+    boolean isMin;
+
+    switch (_op) {
+    case Parser.GT:
+    case Parser.GE:
+      isMin = true;
+      break;
+
+    case Parser.LT:
+    case Parser.LE:
+      isMin = false;
+      break;
+
+    default:
+      return null;
+    }
+
+    if (_left instanceof IdExpr
+        && IndexRangeExpr.isNumericRangeColumn((IdExpr) _left, item)
+        && IndexRangeExpr.isRangeBound(_right, item)) {
+      if (isMin)
+        return new IndexRangeExpr((IdExpr) _left, _right, null, this);
+      else
+        return new IndexRangeExpr((IdExpr) _left, null, _right, this);
+    }
+    else if (_right instanceof IdExpr
+             && IndexRangeExpr.isNumericRangeColumn((IdExpr) _right, item)
+             && IndexRangeExpr.isRangeBound(_left, item)) {
+      if (isMin)
+        return new IndexRangeExpr((IdExpr) _right, null, _left, this);
+      else
+        return new IndexRangeExpr((IdExpr) _right, _left, null, this);
+    }
+    else if (_left instanceof OidExpr && isMin
+             && item == ((OidExpr) _left).getFromItem()
+             && IndexRangeExpr.isRangeBound(_right, item)) {
+      return new OidRangeExpr((OidExpr) _left, _right, this);
+    }
+    else if (_right instanceof OidExpr && ! isMin
+             && item == ((OidExpr) _right).getFromItem()
+             && IndexRangeExpr.isRangeBound(_left, item)) {
+      return new OidRangeExpr((OidExpr) _right, _left, this);
+    }
+
+    return null;
+  }
+
   /**
    * Evaluates the expression as a boolean.
    */
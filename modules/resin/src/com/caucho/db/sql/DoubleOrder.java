@@ -41,25 +41,36 @@ class DoubleOrder extends Order {
     _column = column;
   }
 
-  public int compare(SelectResult result, int indexA, int indexB)
+  /**
+   * Returns the result column.
+   */
+  @Override
+  int getColumn()
+  {
+    return _column;
+  }
+
+  public int compare(SelectResult resultA, int indexA,
+                     SelectResult resultB, int indexB)
     throws SQLException
   {
-    result.setRow(indexA);
+    resultA.setRow(indexA);
 
-    double valueA = result.getDouble(_column);
-    if (result.wasNull())
+    double valueA = resultA.getDouble(_column);
+    if (resultA.wasNull())
       valueA = Double.MIN_VALUE;
     
-    result.setRow(indexB);
+    resultB.setRow(indexB);
 
-    double valueB = result.getDouble(_column);
-    if (result.wasNull())
+    double valueB = resultB.getDouble(_column);
+    if (resultB.wasNull())
       valueB = Double.MIN_VALUE;
 
     if (valueA < valueB)
       return isAscending() ?  -1 : 1;
     else if (valueA == valueB)
-      return _next == null ? 0 : _next.compare(result, indexA, indexB);
+      return (_next == null
+              ? 0 : _next.compare(resultA, indexA, resultB, indexB));
     else
       return isAscending() ?  1 : -1;
   }
@@ -144,9 +144,35 @@ final class EqExpr extends Expr {
       }
     }
 
+    // equi-join without an index
+    if (_left instanceof IdExpr && _right instanceof IdExpr) {
+      IdExpr left = (IdExpr) _left;
+      IdExpr right = (IdExpr) _right;
+
+      if (item == left.getFromItem()
+          && item != right.getFromItem()
+          && isHashJoinColumn(left)) {
+        return new HashJoinExpr(left, right);
+      }
+      else if (item == right.getFromItem()
+               && item != left.getFromItem()
+               && isHashJoinColumn(right)) {
+        return new HashJoinExpr(right, left);
+      }
+    }
+
     return null;
   }
 
+  private boolean isHashJoinColumn(IdExpr expr)
+  {
+    ColumnType type = expr.getColumn().getTypeCode();
+
+    return (type != ColumnType.BLOB
+            && type != ColumnType.IDENTITY
+            && expr.getColumn().getIndex() == null);
+  }
+
   /**
    * Returns the type of the expression.
    */
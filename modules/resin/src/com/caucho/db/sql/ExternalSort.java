@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.db.sql;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.db.Database;
+import com.caucho.util.L10N;
+import com.caucho.util.SQLExceptionWrapper;
+import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Sorts ORDER BY results for a cursor, spilling sorted runs to temp
+ * files in the database directory when the buffered rows exceed the
+ * run size, and merging the runs as the cursor advances.
+ */
+class ExternalSort {
+  private static final L10N L = new L10N(ExternalSort.class);
+  private static final Logger log
+    = Logger.getLogger(ExternalSort.class.getName());
+
+  private static final int RUN_SIZE = 4 * 1024 * 1024;
+
+  private final Database _db;
+  private final Expr []_exprs;
+  private final Order _order;
+
+  private SelectResult _result;
+
+  private final ArrayList<SortRun> _runs = new ArrayList<SortRun>();
+
+  // heap of runs ordered by their current row
+  private SortRun []_heap;
+  private int _heapSize;
+  private boolean _isMergeStart;
+
+  private SelectResult _head;
+
+  private int _limit = Integer.MAX_VALUE;
+
+  ExternalSort(Database db, Expr []exprs, Order order)
+  {
+    _db = db;
+    _exprs = exprs;
+    _order = order;
+
+    _result = SelectResult.create(exprs, order);
+  }
+
+  /**
+   * Starts a new row, spilling the buffered run if it is full.
+   */
+  SelectResult startRow()
+    throws SQLException
+  {
+    if (RUN_SIZE <= _result.getLength())
+      spill();
+
+    _result.startRow();
+
+    return _result;
+  }
+
+  /**
+   * Sets the maximum number of rows returned by next().
+   */
+  void setLimit(int limit)
+  {
+    _limit = limit;
+  }
+
+  /**
+   * Prepares the sorted rows for reading.
+   */
+  void initRead()
+    throws SQLException
+  {
+    if (_runs.size() == 0) {
+      _result.initRead();
+      _head = _result;
+      return;
+    }
+
+    if (_result.getLength() > 0)
+      spill();
+
+    _result.close();
+    _result = null;
+
+    try {
+      _heap = new SortRun[_runs.size()];
+
+      for (SortRun run : _runs) {
+        run.openRead(_exprs);
+      }
+    } catch (IOException e) {
+      throw new SQLExceptionWrapper(e);
+    }
+
+    _isMergeStart = true;
+  }
+
+  /**
+   * Moves to the next sorted row.
+   */
+  boolean next()
+    throws SQLException
+  {
+    if (_limit-- <= 0)
+      return false;
+
+    if (_result != null)
+      return _result.next();
+
+    try {
+      if (_isMergeStart) {
+        _isMergeStart = false;
+
+        for (SortRun run : _runs) {
+          if (run.next())
+            push(run);
+        }
+      }
+      else if (_heapSize > 0) {
+        SortRun top = _heap[0];
+
+        if (top.next())
+          siftDown(0);
+        else {
+          _heapSize--;
+          _heap[0] = _heap[_heapSize];
+          _heap[_heapSize] = null;
+
+          if (_heapSize > 0)
+            siftDown(0);
+        }
+      }
+    } catch (IOException e) {
+      throw new SQLExceptionWrapper(e);
+    }
+
+    if (_heapSize > 0) {
+      _head = _heap[0].getResult();
+      _head.setRow(0);
+
+      return true;
+    }
+    else
+      return false;
+  }
+
+  public String getString(int i)
+    throws SQLException
+  {
+    return _head.getString(i);
+  }
+
+  public int getInt(int i)
+    throws SQLException
+  {
+    return _head.getInt(i);
+  }
+
+  public long getLong(int i)
+    throws SQLException
+  {
+    return _head.getLong(i);
+  }
+
+  public double getDouble(int i)
+    throws SQLException
+  {
+    return _head.getDouble(i);
+  }
+
+  public byte []getBytes(int i)
+    throws SQLException
+  {
+    return _head.getBytes(i);
+  }
+
+  /**
+   * Sorts the buffered rows and writes them as a new run.
+   */
+  private void spill()
+    throws SQLException
+  {
+    SelectResult result = _result;
+
+    result.initRead();
+
+    SortRun run = null;
+
+    try {
+      Path path = _db.getPath().createTempFile("sort", ".tmp");
+
+      run = new SortRun(path);
+      _runs.add(run);
+
+      WriteStream os = path.openWrite();
+
+      try {
+        while (result.next()) {
+          result.writeRow(os);
+        }
+      } finally {
+        os.close();
+      }
+    } catch (IOException e) {
+      throw new SQLExceptionWrapper(e);
+    }
+
+    if (log.isLoggable(Level.FINER))
+      log.finer(L.l("{0} spilled sort run {1}", this, run));
+
+    result.clear();
+  }
+
+  private void push(SortRun run)
+    throws SQLException
+  {
+    int i = _heapSize++;
+
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+
+      if (compare(_heap[parent], run) <= 0)
+        break;
+
+      _heap[i] = _heap[parent];
+      i = parent;
+    }
+
+    _heap[i] = run;
+  }
+
+  private void siftDown(int i)
+    throws SQLException
+  {
+    SortRun []heap = _heap;
+    int size = _heapSize;
+    SortRun run = heap[i];
+
+    while (true) {
+      int child = 2 * i + 1;
+
+      if (size <= child)
+        break;
+
+      if (child + 1 < size && compare(heap[child + 1], heap[child]) < 0)
+        child++;
+
+      if (compare(run, heap[child]) <= 0)
+        break;
+
+      heap[i] = heap[child];
+      i = child;
+    }
+
+    heap[i] = run;
+  }
+
+  private int compare(SortRun a, SortRun b)
+    throws SQLException
+  {
+    return _order.compare(a.getResult(), 0, b.getResult(), 0);
+  }
+
+  /**
+   * Closes the sort, removing any spilled runs.
+   */
+  void close()
+  {
+    SelectResult result = _result;
+    _result = null;
+    _head = null;
+
+    if (result != null)
+      result.close();
+
+    for (SortRun run : _runs) {
+      run.close();
+    }
+
+    _runs.clear();
+    _heap = null;
+    _heapSize = 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _order + "]";
+  }
+
+  /**
+   * A sorted run spilled to a temp file.
+   */
+  static class SortRun {
+    private Path _path;
+    private ReadStream _is;
+    private SelectResult _result;
+
+    SortRun(Path path)
+    {
+      _path = path;
+    }
+
+    void openRead(Expr []exprs)
+      throws IOException
+    {
+      _is = _path.openRead();
+      _result = SelectResult.create(exprs, null);
+    }
+
+    SelectResult getResult()
+    {
+      return _result;
+    }
+
+    boolean next()
+      throws IOException
+    {
+      return _result.readRow(_is);
+    }
+
+    void close()
+    {
+      ReadStream is = _is;
+      _is = null;
+
+      SelectResult result = _result;
+      _result = null;
+
+      Path path = _path;
+      _path = null;
+
+      if (is != null)
+        is.close();
+
+      if (result != null)
+        result.close();
+
+      try {
+        if (path != null)
+          path.remove();
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+      }
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _path + "]";
+    }
+  }
+}
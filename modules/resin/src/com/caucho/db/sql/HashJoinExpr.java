@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.db.sql;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashMap;
+
+import com.caucho.db.table.TableIterator;
+
+/**
+ * Equi-join on a column without an index. The first row lookup scans
+ * the inner table into an in-memory hash table of row addresses, and
+ * each outer row then probes the table instead of rescanning.
+ */
+class HashJoinExpr extends RowIterateExpr {
+  private static final int KEY_STRING = 0;
+  private static final int KEY_LONG = 1;
+  private static final int KEY_DOUBLE = 2;
+
+  private IdExpr _columnExpr;
+
+  private Expr _expr;
+
+  private int _keyType;
+
+  HashJoinExpr(IdExpr column, Expr expr)
+  {
+    if (column == null || expr == null)
+      throw new NullPointerException();
+
+    _columnExpr = column;
+    _expr = expr;
+  }
+
+  /**
+   * Binds the expression.
+   */
+  @Override
+  public Expr bind(Query query)
+    throws SQLException
+  {
+    _columnExpr = (IdExpr) _columnExpr.bind(query);
+    _expr = _expr.bind(query);
+
+    if (_columnExpr.isLong() && _expr.isLong())
+      _keyType = KEY_LONG;
+    else if (_columnExpr.isDouble() && _expr.isDouble())
+      _keyType = KEY_DOUBLE;
+    else
+      _keyType = KEY_STRING;
+
+    return this;
+  }
+
+  /**
+   * Returns true if shifing the child rows will make a difference.
+   */
+  @Override
+  boolean allowChildRowShift(QueryContext context, TableIterator rowIter)
+  {
+    return false;
+  }
+
+  /**
+   * Sets the initial row.
+   */
+  @Override
+  boolean init(QueryContext context, TableIterator rowIter)
+    throws SQLException, IOException
+  {
+    rowIter.init(context);
+
+    return true;
+  }
+
+  /**
+   * Sets the first row matching the outer key.
+   */
+  @Override
+  boolean initRow(QueryContext context, TableIterator rowIter)
+    throws SQLException, IOException
+  {
+    JoinTable table = (JoinTable) context.getIterateState(this);
+
+    if (table == null) {
+      table = buildTable(context, rowIter);
+
+      context.setIterateState(this, table);
+    }
+
+    Object key = evalKey(_expr, context);
+
+    table.probe(key);
+
+    return nextRow(context, rowIter);
+  }
+
+  /**
+   * Moves to the next row matching the outer key.
+   */
+  @Override
+  boolean nextRow(QueryContext context, TableIterator rowIter)
+    throws IOException, SQLException
+  {
+    JoinTable table = (JoinTable) context.getIterateState(this);
+
+    if (table == null)
+      return false;
+
+    long rowAddr;
+
+    while ((rowAddr = table.nextRowAddress()) != 0) {
+      if (! rowIter.isValidRow(rowAddr))
+        continue;
+
+      rowIter.setRow(rowAddr);
+
+      // the row may have been updated since the table was built
+      Object key = evalKey(_columnExpr, context);
+
+      if (key != null && key.equals(table.getKey()))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the next block.
+   */
+  @Override
+  boolean nextBlock(QueryContext context, TableIterator rowIter)
+    throws IOException, SQLException
+  {
+    return false;
+  }
+
+  /**
+   * Scans the inner table, saving row addresses by key.
+   */
+  private JoinTable buildTable(QueryContext context, TableIterator rowIter)
+    throws SQLException, IOException
+  {
+    JoinTable table = new JoinTable();
+
+    rowIter.init(context);
+
+    context.unlock();
+
+    while (rowIter.nextBlock()) {
+      rowIter.initRow();
+
+      while (rowIter.nextRow()) {
+        Object key = evalKey(_columnExpr, context);
+
+        if (key != null)
+          table.add(key, rowIter.getRowAddress());
+      }
+    }
+
+    return table;
+  }
+
+  /**
+   * Returns the hash key for the expression, or null for SQL null,
+   * which never matches.
+   */
+  private Object evalKey(Expr expr, QueryContext context)
+    throws SQLException
+  {
+    if (expr.isNull(context))
+      return null;
+
+    switch (_keyType) {
+    case KEY_LONG:
+      return Long.valueOf(expr.evalLong(context));
+
+    case KEY_DOUBLE:
+      {
+        double value = expr.evalDouble(context);
+
+        // -0.0 == 0.0 for the join
+        if (value == 0)
+          value = 0;
+
+        return Double.valueOf(value);
+      }
+
+    default:
+      return expr.evalString(context);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "HashJoin(" + _columnExpr + " = " + _expr + ")";
+  }
+
+  /**
+   * Per-execution hash table, saved in the QueryContext.
+   */
+  static class JoinTable {
+    private final HashMap<Object,long[]> _map = new HashMap<Object,long[]>();
+
+    private Object _key;
+    private long []_rows;
+    private int _index;
+
+    /**
+     * Adds a row address, keeping the count in the first slot.
+     */
+    void add(Object key, long rowAddr)
+    {
+      long []rows = _map.get(key);
+
+      if (rows == null) {
+        rows = new long[4];
+        _map.put(key, rows);
+      }
+      else if (rows.length <= rows[0] + 1) {
+        long []newRows = new long[2 * rows.length];
+        System.arraycopy(rows, 0, newRows, 0, rows.length);
+        rows = newRows;
+        _map.put(key, rows);
+      }
+
+      int count = (int) rows[0] + 1;
+      rows[count] = rowAddr;
+      rows[0] = count;
+    }
+
+    void probe(Object key)
+    {
+      _key = key;
+      _rows = key != null ? _map.get(key) : null;
+      _index = 0;
+    }
+
+    Object getKey()
+    {
+      return _key;
+    }
+
+    long nextRowAddress()
+    {
+      long []rows = _rows;
+
+      if (rows == null || rows[0] <= _index)
+        return 0;
+
+      return rows[++_index];
+    }
+  }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.db.sql;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import com.caucho.db.index.BTree;
+import com.caucho.db.index.BTreeCursor;
+import com.caucho.db.table.Column;
+import com.caucho.db.table.Column.ColumnType;
+import com.caucho.db.table.TableIterator;
+
+/**
+ * Range scan over a column's index, returning rows in index order.
+ *
+ * The index bounds are inclusive and may be wider than the predicate,
+ * e.g. for LIKE prefixes, so each row is checked against the original
+ * predicate.
+ */
+class IndexRangeExpr extends RowIterateExpr {
+  private static final ArrayList<FromItem> NO_ITEMS
+    = new ArrayList<FromItem>();
+
+  private IdExpr _columnExpr;
+  private Column _column;
+  private BTree _index;
+
+  private Expr _minExpr;
+  private Expr _maxExpr;
+
+  private Expr _filterExpr;
+
+  IndexRangeExpr(IdExpr column, Expr minExpr, Expr maxExpr, Expr filterExpr)
+  {
+    if (column == null)
+      throw new NullPointerException();
+
+    _columnExpr = column;
+    _column = column.getColumn();
+    _index = _column.getIndex();
+
+    if (_index == null)
+      throw new IllegalArgumentException();
+
+    _minExpr = minExpr;
+    _maxExpr = maxExpr;
+    _filterExpr = filterExpr;
+  }
+
+  /**
+   * Returns true if the column's index is ordered like the column's
+   * SQL comparison.
+   */
+  static boolean isRangeColumn(IdExpr expr, FromItem item)
+  {
+    if (item != expr.getFromItem())
+      return false;
+
+    Column column = expr.getColumn();
+
+    if (column.getIndex() == null)
+      return false;
+
+    switch (column.getTypeCode()) {
+    case INT:
+    case LONG:
+    case VARCHAR:
+      return true;
+
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Returns true if the column is numeric, for the <, <= etc operators.
+   */
+  static boolean isNumericRangeColumn(IdExpr expr, FromItem item)
+  {
+    return (isRangeColumn(expr, item)
+            && expr.getColumn().getTypeCode() != ColumnType.VARCHAR);
+  }
+
+  /**
+   * Returns true if the bound can be evaluated before the item's row,
+   * i.e. a constant, parameter or another table's column.
+   */
+  static boolean isRangeBound(Expr expr, FromItem item)
+  {
+    if (expr instanceof IdExpr)
+      return ((IdExpr) expr).getFromItem() != item;
+    else
+      return expr.subCost(NO_ITEMS) == 0;
+  }
+
+  /**
+   * Returns the indexed column.
+   */
+  Column getColumn()
+  {
+    return _column;
+  }
+
+  /**
+   * Returns the original predicate.
+   */
+  @Override
+  Expr getRangeExpr()
+  {
+    return _filterExpr;
+  }
+
+  /**
+   * Binds the expression.
+   */
+  @Override
+  public Expr bind(Query query)
+    throws SQLException
+  {
+    _columnExpr = (IdExpr) _columnExpr.bind(query);
+
+    if (_minExpr != null)
+      _minExpr = _minExpr.bind(query);
+
+    if (_maxExpr != null)
+      _maxExpr = _maxExpr.bind(query);
+
+    if (_filterExpr != null)
+      _filterExpr = _filterExpr.bind(query);
+
+    return this;
+  }
+
+  /**
+   * Returns true if shifing the child rows will make a difference.
+   */
+  @Override
+  boolean allowChildRowShift(QueryContext context, TableIterator rowIter)
+  {
+    return false;
+  }
+
+  /**
+   * Sets the initial row.
+   */
+  @Override
+  boolean init(QueryContext context, TableIterator rowIter)
+    throws SQLException, IOException
+  {
+    rowIter.init(context);
+
+    return true;
+  }
+
+  /**
+   * Starts the index cursor at the minimum key.
+   */
+  @Override
+  boolean initRow(QueryContext context, TableIterator rowIter)
+    throws SQLException, IOException
+  {
+    BTreeCursor cursor = (BTreeCursor) context.getIterateState(this);
+
+    if (cursor == null) {
+      cursor = new BTreeCursor(_index);
+      context.setIterateState(this, cursor);
+    }
+
+    cursor.init();
+
+    byte []buffer = context.getBuffer();
+
+    if (_minExpr != null) {
+      int length = evalBound(context, _minExpr, buffer, true);
+
+      if (length <= 0)
+        return false;
+
+      cursor.setMin(buffer, 0, length, true);
+    }
+
+    if (_maxExpr != null) {
+      int length = evalBound(context, _maxExpr, buffer, false);
+
+      if (length <= 0)
+        return false;
+
+      cursor.setMax(buffer, 0, length);
+    }
+
+    return nextRow(context, rowIter);
+  }
+
+  /**
+   * Evaluates a bound as an index key. Numeric bounds are rounded
+   * outward and clamped to the column's range, so the key range always
+   * covers the predicate.
+   *
+   * @return the key length, or -1 for a null bound
+   */
+  private int evalBound(QueryContext context, Expr expr,
+                        byte []buffer, boolean isMin)
+    throws SQLException
+  {
+    ColumnType type = _column.getTypeCode();
+
+    if (type == ColumnType.VARCHAR)
+      return expr.evalToBuffer(context, buffer, 0, type);
+
+    if (expr.isNull(context))
+      return -1;
+
+    long value;
+
+    if (expr.isLong())
+      value = expr.evalLong(context);
+    else {
+      double dValue = expr.evalDouble(context);
+
+      if (Double.isNaN(dValue))
+        return -1;
+
+      value = (long) (isMin ? Math.floor(dValue) : Math.ceil(dValue));
+    }
+
+    if (type == ColumnType.INT) {
+      if (value < Integer.MIN_VALUE)
+        value = Integer.MIN_VALUE;
+      else if (Integer.MAX_VALUE < value)
+        value = Integer.MAX_VALUE;
+
+      int v = (int) value;
+
+      buffer[0] = (byte) (v >> 24);
+      buffer[1] = (byte) (v >> 16);
+      buffer[2] = (byte) (v >> 8);
+      buffer[3] = (byte) (v);
+
+      return 4;
+    }
+    else {
+      buffer[0] = (byte) (value >> 56);
+      buffer[1] = (byte) (value >> 48);
+      buffer[2] = (byte) (value >> 40);
+      buffer[3] = (byte) (value >> 32);
+
+      buffer[4] = (byte) (value >> 24);
+      buffer[5] = (byte) (value >> 16);
+      buffer[6] = (byte) (value >> 8);
+      buffer[7] = (byte) (value);
+
+      return 8;
+    }
+  }
+
+  /**
+   * Returns the next row in the range.
+   */
+  @Override
+  boolean nextRow(QueryContext context, TableIterator rowIter)
+    throws IOException, SQLException
+  {
+    BTreeCursor cursor = (BTreeCursor) context.getIterateState(this);
+
+    if (cursor == null)
+      return false;
+
+    while (cursor.next()) {
+      long rowAddr = cursor.getValue();
+
+      if (! rowIter.isValidRow(rowAddr))
+        continue;
+
+      rowIter.setRow(rowAddr);
+
+      if (_filterExpr == null || _filterExpr.isSelect(context))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the next block.
+   */
+  @Override
+  boolean nextBlock(QueryContext context, TableIterator rowIter)
+    throws IOException, SQLException
+  {
+    return false;
+  }
+
+  @Override
+  public String toString()
+  {
+    return ("IndexRange(" + _columnExpr
+            + ", " + _minExpr + ", " + _maxExpr + ")");
+  }
+}
@@ -106,24 +106,35 @@ class InsertQuery extends Query {
    */
   public void execute(QueryContext queryContext, DbTransaction xa)
     throws SQLException
+  {
+    if (_table.isRowLocking()) {
+      executeInsert(queryContext, xa);
+    }
+    else {
+      synchronized (_table) {
+        executeInsert(queryContext, xa);
+      }
+    }
+  }
+
+  private void executeInsert(QueryContext queryContext, DbTransaction xa)
+    throws SQLException
   {
     TableIterator []rows = new TableIterator[1];
 
-    synchronized (_table) {
-      try {
-        rows[0] = _table.createTableIterator();
-        queryContext.init(xa, rows, isReadOnly());
+    try {
+      rows[0] = _table.createTableIterator();
+      queryContext.init(xa, rows, isReadOnly());
 
-        _table.insert(queryContext, xa, _columns, _values);
+      _table.insert(queryContext, xa, _columns, _values);
 
-        queryContext.setRowUpdateCount(1);
+      queryContext.setRowUpdateCount(1);
 
-        xa.writeData(); // XXX:
-      } catch (java.io.IOException e) {
-        throw new SQLExceptionWrapper(e);
-      } finally {
-        queryContext.close();
-      }
+      xa.writeData(); // XXX:
+    } catch (java.io.IOException e) {
+      throw new SQLExceptionWrapper(e);
+    } finally {
+      queryContext.close();
     }
   }
 
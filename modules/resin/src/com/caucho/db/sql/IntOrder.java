@@ -41,28 +41,39 @@ class IntOrder extends Order {
     _column = column;
   }
 
+  /**
+   * Returns the result column.
+   */
+  @Override
+  int getColumn()
+  {
+    return _column;
+  }
+
   /**
    * Returns the result of comparing the two results.
    */
-  public int compare(SelectResult result, int indexA, int indexB)
+  public int compare(SelectResult resultA, int indexA,
+                     SelectResult resultB, int indexB)
     throws SQLException
   {
-    result.setRow(indexA);
+    resultA.setRow(indexA);
 
-    int valueA = result.getInt(_column);
-    if (result.wasNull())
+    int valueA = resultA.getInt(_column);
+    if (resultA.wasNull())
       valueA = Integer.MIN_VALUE;
     
-    result.setRow(indexB);
+    resultB.setRow(indexB);
 
-    int valueB = result.getInt(_column);
-    if (result.wasNull())
+    int valueB = resultB.getInt(_column);
+    if (resultB.wasNull())
       valueB = Integer.MIN_VALUE;
 
     if (valueA < valueB)
       return isAscending() ?  -1 : 1;
     else if (valueA == valueB)
-      return 0;
+      return (_next == null
+              ? 0 : _next.compare(resultA, indexA, resultB, indexB));
     else
       return isAscending() ?  1 : -1;
   }
@@ -110,8 +110,13 @@ class LeftOuterIndexExpr extends RowIterateExpr {
    */
   @Override
   boolean nextRow(QueryContext context, TableIterator table)
+    throws IOException, SQLException
   {
-    return false;
+    // a hash join may match several rows
+    if (table.getBlockId() != 0)
+      return _indexExpr.nextRow(context, table);
+    else
+      return false;
   }
 
   /**
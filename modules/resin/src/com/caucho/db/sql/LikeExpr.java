@@ -35,6 +35,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+import com.caucho.db.table.Column.ColumnType;
+
 class LikeExpr extends Expr {
   private static final Logger log
     = Logger.getLogger(LikeExpr.class.getName());
@@ -102,6 +104,44 @@ class LikeExpr extends Expr {
     return (_expr.subCost(fromList));
   }
 
+  /**
+   * Returns an index range over the pattern's literal prefix.
+   */
+  @Override
+  public RowIterateExpr getIndexExpr(FromItem item)
+  {
+    if (_isNot
+        || ! (_expr instanceof IdExpr)
+        || ! IndexRangeExpr.isRangeColumn((IdExpr) _expr, item)
+        || ((IdExpr) _expr).getColumn().getTypeCode() != ColumnType.VARCHAR)
+      return null;
+
+    int i = 0;
+    for (; i < _pattern.length(); i++) {
+      char ch = _pattern.charAt(i);
+
+      if (ch == '%' || ch == '_')
+        break;
+    }
+
+    if (i == 0)
+      return null;
+
+    String prefix = _pattern.substring(0, i);
+    char last = prefix.charAt(i - 1);
+
+    if (last == Character.MAX_VALUE)
+      return null;
+
+    // "abc%" is in ["abc", "abd"]
+    String max = prefix.substring(0, i - 1) + (char) (last + 1);
+
+    return new IndexRangeExpr((IdExpr) _expr,
+                              new StringExpr(prefix),
+                              new StringExpr(max),
+                              this);
+  }
+
   /**
    * Evaluates the expression as a boolean.
    */
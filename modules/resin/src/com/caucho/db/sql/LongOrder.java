@@ -41,25 +41,36 @@ class LongOrder extends Order {
     _column = column;
   }
 
-  public int compare(SelectResult result, int indexA, int indexB)
+  /**
+   * Returns the result column.
+   */
+  @Override
+  int getColumn()
+  {
+    return _column;
+  }
+
+  public int compare(SelectResult resultA, int indexA,
+                     SelectResult resultB, int indexB)
     throws SQLException
   {
-    result.setRow(indexA);
+    resultA.setRow(indexA);
 
-    long valueA = result.getLong(_column);
-    if (result.wasNull())
+    long valueA = resultA.getLong(_column);
+    if (resultA.wasNull())
       valueA = Long.MIN_VALUE;
     
-    result.setRow(indexB);
+    resultB.setRow(indexB);
 
-    long valueB = result.getLong(_column);
-    if (result.wasNull())
+    long valueB = resultB.getLong(_column);
+    if (resultB.wasNull())
       valueB = Long.MIN_VALUE;
 
     if (valueA < valueB)
       return isAscending() ?  -1 : 1;
     else if (valueA == valueB)
-      return _next == null ? 0 : _next.compare(result, indexA, indexB);
+      return (_next == null
+              ? 0 : _next.compare(resultA, indexA, resultB, indexB));
     else
       return isAscending() ?  1 : -1;
   }
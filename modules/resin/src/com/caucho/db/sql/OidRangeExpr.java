@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.db.sql;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import com.caucho.db.block.BlockStore;
+import com.caucho.db.table.Table;
+import com.caucho.db.table.TableIterator;
+
+/**
+ * resin_oid lower bound, e.g. "? &lt; resin_oid". The scan starts at
+ * the bound's block instead of the start of the table.
+ */
+class OidRangeExpr extends RowIterateExpr {
+  private OidExpr _columnExpr;
+  private Expr _minExpr;
+
+  private Expr _filterExpr;
+
+  OidRangeExpr(OidExpr column, Expr minExpr, Expr filterExpr)
+  {
+    if (column == null || minExpr == null || filterExpr == null)
+      throw new NullPointerException();
+
+    _columnExpr = column;
+    _minExpr = minExpr;
+    _filterExpr = filterExpr;
+  }
+
+  /**
+   * Returns the original predicate.
+   */
+  @Override
+  Expr getRangeExpr()
+  {
+    return _filterExpr;
+  }
+
+  /**
+   * Binds the expression.
+   */
+  @Override
+  public Expr bind(Query query)
+    throws SQLException
+  {
+    _minExpr = _minExpr.bind(query);
+    _filterExpr = _filterExpr.bind(query);
+
+    return this;
+  }
+
+  /**
+   * Returns true if shifing the child rows will make a difference.
+   */
+  @Override
+  boolean allowChildRowShift(QueryContext context, TableIterator rowIter)
+  {
+    return false;
+  }
+
+  /**
+   * Sets the initial row.
+   */
+  @Override
+  boolean init(QueryContext context, TableIterator rowIter)
+    throws SQLException, IOException
+  {
+    rowIter.init(context);
+
+    return true;
+  }
+
+  /**
+   * Moves to the bound's block and returns the first matching row.
+   */
+  @Override
+  boolean initRow(QueryContext context, TableIterator rowIter)
+    throws SQLException, IOException
+  {
+    if (_minExpr.isNull(context))
+      return false;
+
+    long oid = _minExpr.evalLong(context);
+
+    long blockId = 0;
+
+    if (oid > 0) {
+      Table table = rowIter.getTable();
+
+      blockId = table.addressToBlockId(oid);
+    }
+
+    // nextBlock() starts with the block after the current one
+    rowIter.setBlockId(blockId - BlockStore.BLOCK_SIZE);
+
+    context.unlock();
+
+    if (! rowIter.nextBlock())
+      return false;
+
+    rowIter.initRow();
+
+    return nextRow(context, rowIter);
+  }
+
+  /**
+   * Returns the next matching row, continuing to following blocks.
+   */
+  @Override
+  boolean nextRow(QueryContext context, TableIterator rowIter)
+    throws IOException, SQLException
+  {
+    do {
+      while (rowIter.nextRow()) {
+        if (_filterExpr.isSelect(context))
+          return true;
+      }
+
+      context.unlock();
+
+      if (! rowIter.nextBlock())
+        return false;
+
+      rowIter.initRow();
+    } while (true);
+  }
+
+  /**
+   * Returns the next block.
+   */
+  @Override
+  boolean nextBlock(QueryContext context, TableIterator rowIter)
+    throws IOException, SQLException
+  {
+    return false;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "OidRange(" + _columnExpr + " > " + _minExpr + ")";
+  }
+}
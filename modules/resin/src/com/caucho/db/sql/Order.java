@@ -54,6 +54,14 @@ abstract class Order {
     _isAscending = isAscending;
   }
 
+  /**
+   * Returns the result column for the ordering, or -1.
+   */
+  int getColumn()
+  {
+    return -1;
+  }
+
   /**
    * Append the next value.
    */
@@ -67,7 +75,20 @@ abstract class Order {
     }
   }
 
-  abstract public int compare(SelectResult result, int indexA, int indexB)
+  /**
+   * Compares two rows of the same result.
+   */
+  public int compare(SelectResult result, int indexA, int indexB)
+    throws SQLException
+  {
+    return compare(result, indexA, result, indexB);
+  }
+
+  /**
+   * Compares rows from two results, used when merging sorted runs.
+   */
+  abstract public int compare(SelectResult resultA, int indexA,
+                              SelectResult resultB, int indexB)
     throws SQLException;
 
   /**
@@ -254,6 +254,14 @@ abstract public class Query {
     return _isGroup;
   }
 
+  /**
+   * Chooses an index scan for the query's ordering, before the
+   * index expressions are bound.
+   */
+  protected void initIndexOrder(RowIterateExpr []indexExprs)
+  {
+  }
+
   /**
    * Binds the query.
    */
@@ -280,6 +288,8 @@ abstract public class Query {
       _indexExprs = new RowIterateExpr[1];
     }
 
+    initIndexOrder(_indexExprs);
+
     for (int i = 0; i < _indexExprs.length; i++) {
       Expr expr = _indexExprs[i];
 
@@ -392,6 +402,17 @@ abstract public class Query {
           if (indexExpr != null && indexExprs[i] == null) {
             indexExprs[i] = indexExpr;
           }
+          else if (indexExpr != null
+                   && indexExpr.getRangeExpr() == null
+                   && indexExprs[i].getRangeExpr() != null) {
+            // a point lookup is better than a range scan
+            if (subWhereExpr == null)
+              subWhereExpr = new AndExpr();
+
+            subWhereExpr.add(indexExprs[i].getRangeExpr());
+
+            indexExprs[i] = indexExpr;
+          }
           else {
             // XXX: check if really need to add
             if (subWhereExpr == null)
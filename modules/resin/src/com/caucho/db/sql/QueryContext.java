@@ -41,9 +41,11 @@ import java.util.logging.Logger;
 import com.caucho.db.block.Block;
 import com.caucho.db.jdbc.GeneratedKeysResultSet;
 import com.caucho.db.table.Column.ColumnType;
+import com.caucho.db.table.Table;
 import com.caucho.db.table.TableIterator;
 import com.caucho.db.xa.DbTransaction;
 import com.caucho.inject.Module;
+import com.caucho.util.CurrentTime;
 import com.caucho.util.FreeList;
 import com.caucho.util.L10N;
 
@@ -81,10 +83,14 @@ public class QueryContext {
   private int _blockLockLength;
 
   private boolean _isLocked;
+  private boolean _isRowLocked;
   private boolean _isNonLocking;
+  private boolean _isSnapshotRead;
 
   private HashMap<GroupItem,GroupItem> _groupMap;
 
+  private HashMap<RowIterateExpr,Object> _iterateStateMap;
+
   private byte []_buffer = new byte[256];
 
   private Thread _thread;
@@ -116,6 +122,24 @@ public class QueryContext {
     _isNonLocking = true;
   }
 
+  /**
+   * Returns true if the table iterators of a row-locking table should
+   * read from a block snapshot instead of the live block.
+   */
+  public boolean isSnapshotRead()
+  {
+    return _isSnapshotRead;
+  }
+
+  /**
+   * Disables snapshot reads, e.g. for cursors which update the
+   * current row in place.
+   */
+  public void setSnapshotRead(boolean isSnapshotRead)
+  {
+    _isSnapshotRead = isSnapshotRead;
+  }
+
   public void clearParameters()
   {
     for (int i = _parameters.length - 1; i >= 0; i--) {
@@ -145,6 +169,7 @@ public class QueryContext {
 
     _xa = xa;
     _isWrite = ! isReadOnly;
+    _isSnapshotRead = isReadOnly;
     _tableIterators = tableIterators;
 
     _blockLockLength = tableIterators.length;
@@ -159,6 +184,32 @@ public class QueryContext {
     _rowUpdateCount = 0;
     _groupItem = _tempGroupItem;
     _groupItem.init(0, null);
+
+    if (_iterateStateMap != null)
+      _iterateStateMap.clear();
+  }
+
+  /**
+   * Returns a row iterator's state for the current execution, e.g.
+   * a hash-join table or an index cursor.
+   */
+  Object getIterateState(RowIterateExpr expr)
+  {
+    if (_iterateStateMap != null)
+      return _iterateStateMap.get(expr);
+    else
+      return null;
+  }
+
+  /**
+   * Saves a row iterator's state for the current execution.
+   */
+  void setIterateState(RowIterateExpr expr, Object state)
+  {
+    if (_iterateStateMap == null)
+      _iterateStateMap = new HashMap<RowIterateExpr,Object>();
+
+    _iterateStateMap.put(expr, state);
   }
 
   /**
@@ -532,10 +583,11 @@ public class QueryContext {
   }
 
   /**
-   * Lock the blocks.  The blocks are locked in ascending block id
+   * Lock the table for writing.  For row-locking tables only the
+   * blocks of the current rows are locked, in ascending block id
    * order to avoid deadlocks.
    *
-   * @param isWrite if true, the block should be locked for writing
+   * @return false if the lock timed out
    */
   public boolean lock()
     throws SQLException
@@ -547,25 +599,131 @@ public class QueryContext {
     if (_isLocked) {
       throw new IllegalStateException(L.l("blocks are already locked"));
     }
-      
-    _isLocked = true;
+
+    if (! _isWrite) {
+      _isLocked = true;
+      _isRowLocked = false;
+
+      return true;
+    }
+
+    Table table = _tableIterators[0].getTable();
 
     try {
-      Lock tableLock = _tableIterators[0].getTable().getTableLock();
-      
-      if (_isWrite) {
-        return tableLock.tryLock(_xa.getTimeout(), TimeUnit.MILLISECONDS);
+      boolean isLock;
+
+      if (table.isRowLocking()) {
+        isLock = lockRowBlocks();
+        _isRowLocked = true;
       }
       else {
+        isLock = lockTable(table.getTableLock(), table);
+        _isRowLocked = false;
+      }
+
+      _isLocked = isLock;
+
+      return isLock;
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private boolean lockTable(Lock tableLock, Table table)
+    throws InterruptedException
+  {
+    if (tableLock.tryLock()) {
+      return true;
+    }
+
+    long start = CurrentTime.getCurrentTimeActual();
+
+    boolean isLock = tableLock.tryLock(_xa.getTimeout(), TimeUnit.MILLISECONDS);
+
+    table.addLockWait(CurrentTime.getCurrentTimeActual() - start, ! isLock);
+
+    return isLock;
+  }
+
+  /**
+   * Write-locks the blocks of the current rows in ascending block id
+   * order.  Readers use block snapshots, so only other writers to the
+   * same blocks wait.
+   */
+  private boolean lockRowBlocks()
+    throws InterruptedException
+  {
+    int len = _tableIterators.length;
+
+    for (int i = 0; i < len; i++) {
+      Block bestBlock = null;
+      Table bestTable = null;
+      long bestId = Long.MAX_VALUE;
+
+      loop:
+      for (int j = 0; j < len; j++) {
+        TableIterator iter = _tableIterators[j];
+
+        if (iter == null)
+          continue;
+
+        Block block = iter.getBlock();
+
+        if (block == null)
+          continue;
+
+        long id = block.getBlockId();
+        if (bestId <= id)
+          continue;
+
+        for (int k = 0; k < i; k++) {
+          if (_blockLocks[k] == block)
+            continue loop;
+        }
+
+        bestId = id;
+        bestBlock = block;
+        bestTable = iter.getTable();
+      }
+
+      if (bestBlock == null) {
         return true;
       }
-      /*
-      else {
-        tableLock.tryLock(_xa.getTimeout(), TimeUnit.MILLISECONDS);
+
+      Lock lock = bestBlock.getWriteLock();
+
+      if (! lock.tryLock()) {
+        long start = CurrentTime.getCurrentTimeActual();
+
+        boolean isLock = lock.tryLock(_xa.getTimeout(), TimeUnit.MILLISECONDS);
+
+        bestTable.addLockWait(CurrentTime.getCurrentTimeActual() - start,
+                              ! isLock);
+
+        if (! isLock) {
+          unlockRowBlocks();
+
+          return false;
+        }
+      }
+
+      // assignment must be after obtaining lock because the unlock
+      // requires a lock
+      _blockLocks[i] = bestBlock;
+    }
+
+    return true;
+  }
+
+  private void unlockRowBlocks()
+  {
+    for (int i = _blockLocks.length - 1; i >= 0; i--) {
+      Block block = _blockLocks[i];
+      _blockLocks[i] = null;
+
+      if (block != null) {
+        block.getWriteLock().unlock();
       }
-      */
-    } catch (Exception e) {
-      throw new IllegalStateException(e);
     }
   }
   
@@ -589,9 +747,20 @@ public class QueryContext {
 
     int len = _blockLocks.length;
 
-    Lock tableLock = _tableIterators[0].getTable().getTableLock();
+    if (_isRowLocked) {
+      // block locks are released before the commit, which waits for
+      // the write locks to clear
+      for (int i = len - 1; i >= 0; i--) {
+        Block block = _blockLocks[i];
+
+        if (block != null) {
+          block.getWriteLock().unlock();
+        }
+      }
+    }
+    else if (_isWrite) {
+      Lock tableLock = _tableIterators[0].getTable().getTableLock();
 
-    if (_isWrite) {
       try {
         tableLock.unlock();
       } catch (Exception e) {
@@ -606,9 +775,7 @@ public class QueryContext {
         Block block = _blockLocks[i];
         _blockLocks[i] = null;
 
-        if (block == null) {
-        }
-        else if (_isWrite) {
+        if (block != null) {
           try {
             block.commit();
           } catch (Exception e) {
@@ -759,6 +926,9 @@ public class QueryContext {
       throw new IllegalStateException();
     }
     
+    if (_iterateStateMap != null)
+      _iterateStateMap.clear();
+
     DbTransaction xa = _xa;
     _xa = null;
     
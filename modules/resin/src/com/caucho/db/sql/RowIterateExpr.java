@@ -75,6 +75,15 @@ class RowIterateExpr extends Expr {
     return true;
   }
 
+  /**
+   * Returns the original predicate for a range scan, which the planner
+   * replaces with a point index lookup when one is available.
+   */
+  Expr getRangeExpr()
+  {
+    return null;
+  }
+
   /**
    * Returns the next block.
    */
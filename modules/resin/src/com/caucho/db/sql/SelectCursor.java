@@ -75,6 +75,12 @@ public class SelectCursor {
   private SelectQuery _query;
   private QueryContext _context;
 
+  // sorted rows for an ORDER BY cursor
+  private ExternalSort _sort;
+
+  // rows remaining before the LIMIT
+  private int _limit = Integer.MAX_VALUE;
+
   public SelectCursor(Expr []exprs,
                       SelectQuery query,
                       QueryContext context)
@@ -107,6 +113,22 @@ public class SelectCursor {
     return _rows;
   }
 
+  /**
+   * Reads the cursor's rows from a sort instead of the live tables.
+   */
+  void setSort(ExternalSort sort)
+  {
+    _sort = sort;
+  }
+
+  /**
+   * Stops the cursor after the given number of rows.
+   */
+  void setLimit(int limit)
+  {
+    _limit = limit;
+  }
+
   /**
    * Initialize based on the exprs.
    */
@@ -157,6 +179,12 @@ public class SelectCursor {
   public boolean next()
     throws SQLException
   {
+    if (_sort != null)
+      return _sort.next();
+
+    if (_limit-- <= 0)
+      return false;
+
     if (! _isStart) {
       _isStart = true;
       
@@ -169,54 +197,81 @@ public class SelectCursor {
   public String getString(int i)
     throws SQLException
   {
+    if (_sort != null)
+      return _sort.getString(i);
+
     return _exprs[i].evalString(_context);
   }
 
   public void updateString(int i, String value)
     throws SQLException
   {
+    if (_sort != null)
+      throw new SQLException(L.l("cursor with ORDER BY is not updatable"));
+
     _exprs[i].updateString(_context, value);
   }
 
   public int getInt(int i)
   throws SQLException
   {
+    if (_sort != null)
+      return _sort.getInt(i);
+
     return (int) _exprs[i].evalLong(_context);
   }
   
   public void updateInt(int i, int value)
     throws SQLException
   {
+    if (_sort != null)
+      throw new SQLException(L.l("cursor with ORDER BY is not updatable"));
+
     _exprs[i].updateLong(_context, value);
   }
 
   public long getLong(int i)
     throws SQLException
   {
+    if (_sort != null)
+      return _sort.getLong(i);
+
     return _exprs[i].evalLong(_context);
   }
   
   public void updateLong(int i, long value)
     throws SQLException
   {
+    if (_sort != null)
+      throw new SQLException(L.l("cursor with ORDER BY is not updatable"));
+
     _exprs[i].updateLong(_context, value);
   }
 
   public double getDouble(int i)
     throws SQLException
   {
+    if (_sort != null)
+      return _sort.getDouble(i);
+
     return _exprs[i].evalDouble(_context);
   }
   
   public void updateDouble(int i, double value)
     throws SQLException
   {
+    if (_sort != null)
+      throw new SQLException(L.l("cursor with ORDER BY is not updatable"));
+
     _exprs[i].updateDouble(_context, value);
   }
 
   public byte []getBytes(int i)
     throws SQLException
   {
+    if (_sort != null)
+      return _sort.getBytes(i);
+
     return _exprs[i].evalBytes(_context);
   }
 
@@ -227,5 +282,10 @@ public class SelectCursor {
 
   public void close()
   {
+    ExternalSort sort = _sort;
+    _sort = null;
+
+    if (sort != null)
+      sort.close();
   }
 }
@@ -129,6 +129,60 @@ public class SelectQuery extends Query {
     _order = order;
   }
 
+  /**
+   * Uses an index scan for ORDER BY on an indexed column, so rows are
+   * read in order without a sort.
+   */
+  @Override
+  protected void initIndexOrder(RowIterateExpr []indexExprs)
+  {
+    Order order = _order;
+    FromItem []fromItems = getFromItems();
+
+    if (order == null
+        || order._next != null
+        || ! order.isAscending()
+        || isGroup()
+        || fromItems.length != 1
+        || indexExprs.length != 1) {
+      return;
+    }
+
+    int column = order.getColumn();
+
+    if (column < 0
+        || _results.length <= column
+        || ! (_results[column] instanceof IdExpr)) {
+      return;
+    }
+
+    IdExpr idExpr = (IdExpr) _results[column];
+
+    if (! IndexRangeExpr.isRangeColumn(idExpr, fromItems[0]))
+      return;
+
+    RowIterateExpr indexExpr = indexExprs[0];
+
+    if (indexExpr == null) {
+      // rows with null keys are not ordered by the index
+      if (! idExpr.getColumn().isNotNull()
+          && ! idExpr.getColumn().isPrimaryKey()) {
+        return;
+      }
+
+      indexExprs[0] = new IndexRangeExpr(idExpr, null, null, null);
+    }
+    else if (! (indexExpr instanceof IndexRangeExpr)
+             || ((IndexRangeExpr) indexExpr).getColumn() != idExpr.getColumn()) {
+      return;
+    }
+
+    if (log.isLoggable(Level.FINER))
+      log.finer(L.l("{0} using index order for {1}", this, idExpr));
+
+    _order = null;
+  }
+
   @Override
   public void setLimit(int limit)
   {
@@ -293,8 +347,6 @@ public class SelectQuery extends Query {
   {
     if (isGroup())
       throw new IllegalStateException();
-    if (_order != null)
-      throw new IllegalStateException();
     
     FromItem []fromItems = getFromItems();
     TableIterator []rows = null;
@@ -306,6 +358,21 @@ public class SelectQuery extends Query {
 
     int rowLength = fromItems.length;
 
+    if (_order != null)
+      return executeSortCursor(cursor, rows, context, xa);
+
+    // cursor updates write through the iterators' buffers
+    context.setSnapshotRead(false);
+
+    // an index-ordered read applies the LIMIT as it iterates
+    int limit = _limit;
+    int contextLimit = context.getLimit();
+    if (contextLimit > 0) {
+      limit = contextLimit;
+    }
+
+    cursor.setLimit(limit);
+
     if (start(rows, rowLength, context, xa)) {
       context.unlock();
       
@@ -315,6 +382,56 @@ public class SelectQuery extends Query {
       return null;
   }
 
+  /**
+   * Executes an ORDER BY cursor, sorting the rows before the first
+   * next(). Large results spill sorted runs to disk, which are
+   * merged as the cursor advances.
+   */
+  private SelectCursor executeSortCursor(SelectCursor cursor,
+                                         TableIterator []rows,
+                                         QueryContext context,
+                                         DbTransaction xa)
+    throws SQLException
+  {
+    int rowLength = getFromItems().length;
+
+    int limit = _limit;
+    int contextLimit = context.getLimit();
+    if (contextLimit > 0) {
+      limit = contextLimit;
+    }
+
+    ExternalSort sort = new ExternalSort(getDatabase(), _results, _order);
+    boolean isValid = false;
+
+    try {
+      if (start(rows, rowLength, context, xa)) {
+        do {
+          SelectResult result = sort.startRow();
+
+          for (int i = 0; i < _results.length; i++) {
+            _results[i].evalToResult(context, result);
+          }
+        } while (nextTuple(rows, rowLength, context, xa));
+      }
+
+      sort.initRead();
+      sort.setLimit(limit);
+
+      cursor.setSort(sort);
+      isValid = true;
+
+      return cursor;
+    } catch (IOException e) {
+      throw new SQLExceptionWrapper(e);
+    } finally {
+      if (! isValid)
+        sort.close();
+
+      context.unlock();
+    }
+  }
+
   /**
    * Executes the query.
    */
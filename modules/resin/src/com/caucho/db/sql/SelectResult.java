@@ -47,7 +47,9 @@ import com.caucho.util.IntArray;
 import com.caucho.util.L10N;
 import com.caucho.util.QDate;
 import com.caucho.util.SQLExceptionWrapper;
+import com.caucho.vfs.ReadStream;
 import com.caucho.vfs.TempBuffer;
+import com.caucho.vfs.WriteStream;
 
 public class SelectResult {
   private static final L10N L = new L10N(SelectResult.class);
@@ -154,6 +156,113 @@ public class SelectResult {
     _columnOffset = 0;
   }
 
+  /**
+   * Returns the number of buffered bytes, used to bound sort runs.
+   */
+  int getLength()
+  {
+    return _length;
+  }
+
+  /**
+   * Discards the buffered rows, keeping the expressions and order.
+   */
+  void clear()
+  {
+    for (int i = 0; i < _buffers.length; i++) {
+      TempBuffer buffer = _tempBuffers[i];
+
+      if (buffer != null)
+        TempBuffer.free(buffer);
+
+      _tempBuffers[i] = null;
+      _buffers[i] = null;
+    }
+
+    if (_orderIndex != null)
+      _orderIndex.clear();
+
+    _length = 0;
+    _rowCount = 0;
+    _row = -1;
+    _offset = 0;
+    _column = 0;
+    _rowOffset = 0;
+    _columnOffset = 0;
+  }
+
+  /**
+   * Writes the current row as a length-prefixed block for a sort run.
+   */
+  void writeRow(WriteStream os)
+    throws IOException
+  {
+    int rowOffset = _rowOffset;
+
+    setRow(rowOffset);
+    skipColumns(_exprs.length);
+    int end = _offset;
+    setRow(rowOffset);
+
+    int length = end - rowOffset;
+
+    os.write(length >> 24);
+    os.write(length >> 16);
+    os.write(length >> 8);
+    os.write(length);
+
+    for (int offset = rowOffset; offset < end; ) {
+      byte []buffer = _buffers[offset / SIZE];
+      int bufferOffset = offset % SIZE;
+
+      int sublen = SIZE - bufferOffset;
+      if (end - offset < sublen)
+        sublen = end - offset;
+
+      os.write(buffer, bufferOffset, sublen);
+
+      offset += sublen;
+    }
+  }
+
+  /**
+   * Replaces the buffer with the next row of a sort run, returning
+   * false at the end of the run.
+   */
+  boolean readRow(ReadStream is)
+    throws IOException
+  {
+    clear();
+
+    int length = is.readInt();
+
+    if (length < 0)
+      return false;
+
+    TempBuffer tempBuffer = TempBuffer.allocate();
+    byte []buffer = tempBuffer.getBuffer();
+
+    try {
+      while (length > 0) {
+        int sublen = Math.min(length, buffer.length);
+
+        if (is.readAll(buffer, 0, sublen) != sublen)
+          throw new IOException(L.l("unexpected end of sort run"));
+
+        write(buffer, 0, sublen);
+
+        length -= sublen;
+      }
+    } finally {
+      TempBuffer.free(tempBuffer);
+    }
+
+    _rowCount = 1;
+    setRow(0);
+
+    return true;
+  }
+
   /**
    * Moves to the next row, returning true if the row has data.
    */
@@ -41,20 +41,31 @@ class StringOrder extends Order {
     _column = column;
   }
 
-  public int compare(SelectResult result, int indexA, int indexB)
+  /**
+   * Returns the result column.
+   */
+  @Override
+  int getColumn()
+  {
+    return _column;
+  }
+
+  public int compare(SelectResult resultA, int indexA,
+                     SelectResult resultB, int indexB)
     throws SQLException
   {
-    result.setRow(indexA);
+    resultA.setRow(indexA);
 
-    String valueA = result.getString(_column);
+    String valueA = resultA.getString(_column);
     
-    result.setRow(indexB);
-    String valueB = result.getString(_column);
+    resultB.setRow(indexB);
+    String valueB = resultB.getString(_column);
 
     int sign = isAscending() ? 1 : -1;
 
     if (valueA == valueB)
-      return _next == null ? 0 : _next.compare(result, indexA, indexB);
+      return (_next == null
+              ? 0 : _next.compare(resultA, indexA, resultB, indexB));
     else if (valueA == null)
       return sign;
     else if (valueB == null)
@@ -62,7 +73,8 @@ class StringOrder extends Order {
 
     int cmp = valueA.compareTo(valueB);
     if (cmp == 0)
-      return _next == null ? 0 : _next.compare(result, indexA, indexB);
+      return (_next == null
+              ? 0 : _next.compare(resultA, indexA, resultB, indexB));
     else
       return cmp;
   }
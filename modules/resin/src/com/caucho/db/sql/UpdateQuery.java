@@ -89,6 +89,19 @@ class UpdateQuery extends Query {
    */
   public void execute(QueryContext context, DbTransaction xa)
     throws SQLException
+  {
+    if (_table.isRowLocking()) {
+      executeUpdate(context, xa);
+    }
+    else {
+      synchronized (_table) {
+        executeUpdate(context, xa);
+      }
+    }
+  }
+
+  private void executeUpdate(QueryContext context, DbTransaction xa)
+    throws SQLException
   {
     int count = 0;
     SetItem []setItems = _setItems;
@@ -96,44 +109,44 @@ class UpdateQuery extends Query {
     rows[0] = _table.createTableIterator();
     context.init(xa, rows, isReadOnly());
     
-    synchronized (_table) {
-      try {
-        if (! start(rows, rows.length, context, xa)) {
-          return;
-        }
+    try {
+      if (! start(rows, rows.length, context, xa)) {
+        return;
+      }
 
-        do {
-          context.lock();
+      do {
+        if (! context.lock()) {
+          throw new IllegalStateException("unable to lock for update");
+        }
 
-          try {
-            if (! isSelect(context)) {
-              continue;
-            }
+        try {
+          if (! isSelect(context)) {
+            continue;
+          }
 
-            TableIterator iter = rows[0];
-            // iter.setDirty();
+          TableIterator iter = rows[0];
+          // iter.setDirty();
 
-            for (int i = 0; i < setItems.length; i++) {
-              Column column = setItems[i].getColumn();
-              Expr expr = setItems[i].getExpr();
+          for (int i = 0; i < setItems.length; i++) {
+            Column column = setItems[i].getColumn();
+            Expr expr = setItems[i].getExpr();
 
-              column.set(xa, iter, expr, context);
-            }
-          } finally {
-            context.unlock();
+            column.set(xa, iter, expr, context);
           }
+        } finally {
+          context.unlock();
+        }
 
-          context.setRowUpdateCount(++count);
-        } while (nextTuple(rows, rows.length, context, xa));
-      } catch (IOException e) {
-        throw new SQLExceptionWrapper(e);
-      } finally {
-        // autoCommitWrite must be before freeRows in case freeRows
-        // throws an exception
-        context.close();
+        context.setRowUpdateCount(++count);
+      } while (nextTuple(rows, rows.length, context, xa));
+    } catch (IOException e) {
+      throw new SQLExceptionWrapper(e);
+    } finally {
+      // autoCommitWrite must be before freeRows in case freeRows
+      // throws an exception
+      context.close();
 
-        freeRows(rows, rows.length);
-      }
+      freeRows(rows, rows.length);
     }
   }
 
@@ -118,6 +118,12 @@ public class Table extends BlockStore
 
   private final AtomicLong _rowDeleteCount = new AtomicLong();
 
+  private boolean _isRowLocking;
+
+  private final AtomicLong _lockWaitCount = new AtomicLong();
+  private final AtomicLong _lockWaitTime = new AtomicLong();
+  private final AtomicLong _lockTimeoutCount = new AtomicLong();
+
   private long _autoIncrementValue = -1;
 
   private final Lifecycle _lifecycle;
@@ -1024,6 +1030,7 @@ public class Table extends BlockStore
     boolean isReadOnly = false;
     queryContext.init(xa, iterSet, isReadOnly);
     iter.init(queryContext);
+    iter.setRow(block, rowOffset);
 
     boolean isOkay = false;
     
@@ -1033,8 +1040,6 @@ public class Table extends BlockStore
     }
 
     try {
-      iter.setRow(block, rowOffset);
-
       if (buffer[rowOffset] != ROW_ALLOC)
         throw new IllegalStateException(L.l("Expected ROW_ALLOC at '{0}'",
                                             buffer[rowOffset]));
@@ -1189,6 +1194,61 @@ public class Table extends BlockStore
     return _rowDeleteCount.get();
   }
 
+  /**
+   * If true, writes lock the modified row blocks instead of the table,
+   * and read queries iterate over block snapshots.
+   */
+  public void setRowLocking(boolean isRowLocking)
+  {
+    _isRowLocking = isRowLocking;
+  }
+
+  public boolean isRowLocking()
+  {
+    return _isRowLocking;
+  }
+
+  /**
+   * Records a contended write lock, i.e. a lock that was not
+   * immediately available.
+   *
+   * @param waitTime the time spent waiting in milliseconds
+   * @param isTimeout true if the lock timed out
+   */
+  public void addLockWait(long waitTime, boolean isTimeout)
+  {
+    _lockWaitCount.incrementAndGet();
+    _lockWaitTime.addAndGet(waitTime);
+
+    if (isTimeout) {
+      _lockTimeoutCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the number of write lock requests which had to wait.
+   */
+  public long getLockWaitCount()
+  {
+    return _lockWaitCount.get();
+  }
+
+  /**
+   * Returns the total time spent waiting for write locks in milliseconds.
+   */
+  public long getLockWaitTime()
+  {
+    return _lockWaitTime.get();
+  }
+
+  /**
+   * Returns the number of write lock requests which timed out.
+   */
+  public long getLockTimeoutCount()
+  {
+    return _lockTimeoutCount.get();
+  }
+
   @Override
   public void close()
   {
@@ -31,6 +31,7 @@ package com.caucho.db.table;
 
 import com.caucho.db.block.Block;
 import com.caucho.db.block.BlockStore;
+import com.caucho.db.lock.LockTimeoutException;
 import com.caucho.db.sql.QueryContext;
 import com.caucho.db.sql.SelectResult;
 import com.caucho.db.xa.DbTransaction;
@@ -38,6 +39,8 @@ import com.caucho.util.L10N;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 
 /**
@@ -60,6 +63,9 @@ public class TableIterator {
   private Block _block;
   private byte []_buffer;
 
+  // copy of the current block for snapshot reads of row-locking tables
+  private byte []_snapshotBuffer;
+
   public TableIterator()
   {
   }
@@ -275,7 +281,7 @@ public class TableIterator {
 
     block = _xa.readBlock(_table, _blockId);
 
-    buffer = block.getBuffer();
+    buffer = readBuffer(block);
     _block = block;
     _buffer = buffer;
     _rowOffset = 0;
@@ -283,6 +289,51 @@ public class TableIterator {
     return true;
   }
 
+  /**
+   * Returns the buffer to read the block's rows from.  Read queries on
+   * a row-locking table copy the block under its read lock, so they
+   * see a consistent version of the block while writers continue to
+   * update the live buffer.
+   */
+  private byte []readBuffer(Block block)
+    throws IOException
+  {
+    QueryContext queryContext = _queryContext;
+
+    if (! _table.isRowLocking()
+        || queryContext == null
+        || ! queryContext.isSnapshotRead()) {
+      return block.getBuffer();
+    }
+
+    byte []snapshot = _snapshotBuffer;
+
+    if (snapshot == null) {
+      snapshot = new byte[Table.BLOCK_SIZE];
+      _snapshotBuffer = snapshot;
+    }
+
+    Lock lock = block.getReadLock();
+
+    try {
+      if (! lock.tryLock(_xa.getTimeout(), TimeUnit.MILLISECONDS)) {
+        throw new LockTimeoutException(L.l("{0} unable to read-lock block {1}",
+                                           _table,
+                                           Long.toHexString(block.getBlockId())));
+      }
+    } catch (InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+
+    try {
+      System.arraycopy(block.getBuffer(), 0, snapshot, 0, snapshot.length);
+    } finally {
+      lock.unlock();
+    }
+
+    return snapshot;
+  }
+
   /**
    * Sets the next row.
    */
@@ -325,7 +376,7 @@ public class TableIterator {
       }
 
       _block = _xa.readBlock(_table, _blockId);
-      _buffer = _block.getBuffer();
+      _buffer = readBuffer(_block);
     }
     
     _rowOffset = (int) (rowAddr & BlockStore.BLOCK_OFFSET_MASK);
@@ -153,22 +153,27 @@ class TableRowAllocator extends AbstractTaskWorker {
       return blockId;
     }
 
-    long rowTailOffset = _rowTailOffset.get();
+    // a new row block is marked as allocated before its buffer is
+    // cleared, so concurrent inserts must not find it in the tail scan
+    // until the allocation completes
+    synchronized (this) {
+      long rowTailOffset = _rowTailOffset.get();
 
-    blockId = _table.firstRowBlock(rowTailOffset);
+      blockId = _table.firstRowBlock(rowTailOffset);
 
-    if (blockId <= 0) {
-      Block block = _table.allocateRow();
+      if (blockId <= 0) {
+        Block block = _table.allocateRow();
 
-      blockId = block.getBlockId();
-      // System.out.println("ALLOC: " + blockId + " " + _rowTailOffset.get() + " " + _rowTailTop);
+        blockId = block.getBlockId();
+        // System.out.println("ALLOC: " + blockId + " " + _rowTailOffset.get() + " " + _rowTailTop);
 
-      block.free();
-    }
+        block.free();
+      }
 
-    _rowTailOffset.compareAndSet(rowTailOffset, blockId + BlockStore.BLOCK_SIZE);
+      _rowTailOffset.compareAndSet(rowTailOffset, blockId + BlockStore.BLOCK_SIZE);
     
-    return blockId;
+      return blockId;
+    }
   }
 
   //
@@ -428,6 +428,22 @@ public class AbstractCache
     _config.setScopeMode(scope);
   }
 
+  /**
+   * Uses a fast non-cryptographic 128-bit hash for keys instead of
+   * SHA-256. String, byte[] and Long keys are hashed without
+   * serialization.
+   * <p/>
+   * Keys hashed in one mode aren't found in the other, so every server
+   * sharing the cache must use the same setting.
+   * <p/>
+   * The default is false.
+   */
+  @Configurable
+  public void setFastKeyHash(boolean isFastKeyHash)
+  {
+    _config.setFastKeyHash(isFastKeyHash);
+  }
+
   public boolean isBackup()
   {
     return _config.isBackup();
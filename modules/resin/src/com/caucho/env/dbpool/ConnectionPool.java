@@ -123,12 +123,16 @@ public class ConnectionPool extends AbstractManagedObject
   // If true, close dangling connections
   private boolean _isCloseDanglingConnections = true;
 
+  // If true, use the lock-free thread-affinity idle bag
+  private boolean _isThreadAffinity;
+
   private ManagedConnectionFactory _mcf;
   
   private final ArrayList<ManagedPoolItem> _connectionPool
     = new ArrayList<ManagedPoolItem>();
 
   private IdlePoolSet _idlePool;
+  private IdleConnectionBag _idleBag;
 
   // temporary connection list for the alarm callback
   private final ArrayList<ManagedPoolItem> _alarmConnections
@@ -275,6 +279,24 @@ public class ConnectionPool extends AbstractManagedObject
     _isCloseDanglingConnections = isClose;
   }
 
+  /**
+   * Set true to hand a thread the connection it last used and to take
+   * idle connections from a lock-free bag instead of the locked
+   * round-robin idle set.
+   */
+  public void setThreadAffinity(boolean isThreadAffinity)
+  {
+    _isThreadAffinity = isThreadAffinity;
+  }
+
+  /**
+   * Returns true for the thread-affinity idle bag.
+   */
+  public boolean isThreadAffinity()
+  {
+    return _isThreadAffinity;
+  }
+
   /**
    * Set true for local transaction support.
    */
@@ -554,7 +576,7 @@ public class ConnectionPool extends AbstractManagedObject
   @Override
   public int getConnectionIdleCount()
   {
-    return _idlePool.size();
+    return getIdleSize();
   }
   
   /**
@@ -572,7 +594,7 @@ public class ConnectionPool extends AbstractManagedObject
   @Override
   public int getConnectionActiveCount()
   {
-    return _connectionPool.size() - _idlePool.size();
+    return _connectionPool.size() - getIdleSize();
   }
 
   /**
@@ -633,6 +655,9 @@ public class ConnectionPool extends AbstractManagedObject
 
     _idlePool = new IdlePoolSet(_maxIdleCount);
 
+    if (_isThreadAffinity)
+      _idleBag = new IdleConnectionBag(_maxIdleCount);
+
     _connectionTime = MeterService.createActiveTimeMeter("Resin|Database|Connection");
     _idleTime = MeterService.createActiveTimeMeter("Resin|Database|Idle");
     _queryTime = MeterService.createActiveTimeMeter("Resin|Database|Query");
@@ -918,7 +943,14 @@ public class ConnectionPool extends AbstractManagedObject
 
       ManagedPoolItem poolItem = null;
 
-      while (true) {
+      if (_idleBag != null) {
+        poolItem = _idleBag.poll(mcf, subject, info);
+
+        if (poolItem == null)
+          return null;
+      }
+
+      while (poolItem == null) {
         // asks the Driver's ManagedConnectionFactory to match an
         // idle connection
         synchronized (_connectionPool) {
@@ -963,6 +995,19 @@ public class ConnectionPool extends AbstractManagedObject
     return null;
   }
 
+  /**
+   * Returns the number of idle connections.
+   */
+  private int getIdleSize()
+  {
+    IdleConnectionBag idleBag = _idleBag;
+
+    if (idleBag != null)
+      return idleBag.size();
+    else
+      return _idlePool.size();
+  }
+
   private ManagedPoolItem findPoolItem(ManagedConnection mConn)
   {
     synchronized (_connectionPool) {
@@ -1152,7 +1197,7 @@ public class ConnectionPool extends AbstractManagedObject
    */
   private boolean isIdleAvailable()
   {
-    return _idlePool.size() > 0;
+    return getIdleSize() > 0;
   }
 
   /**
@@ -1203,13 +1248,19 @@ public class ConnectionPool extends AbstractManagedObject
 
       long now = CurrentTime.getCurrentTime();
 
-      if (_idlePool.size() == 0)
+      if (getIdleSize() == 0)
         _idlePoolExpire = now + _idleTimeout;
 
       if (_idlePoolExpire < now) {
         // shrink the idle pool when non-empty for idleTimeout
         _idlePoolExpire = now + _idleTimeout;
       }
+      else if (_idleBag != null) {
+        if (_idleBag.add(item)) {
+          item = null;
+          return;
+        }
+      }
       else if (_idlePool.add(mConn)) {
         item = null;
         return;
@@ -1229,6 +1280,11 @@ public class ConnectionPool extends AbstractManagedObject
    */
   void removeItem(ManagedPoolItem item, ManagedConnection mConn)
   {
+    IdleConnectionBag idleBag = _idleBag;
+
+    if (idleBag != null)
+      idleBag.remove(item);
+
     synchronized (_connectionPool) {
       _idlePool.remove(mConn);
 
@@ -1256,6 +1312,9 @@ public class ConnectionPool extends AbstractManagedObject
 
     ArrayList<ManagedPoolItem> clearItems = new ArrayList<ManagedPoolItem>();
 
+    if (_idleBag != null)
+      _idleBag.clear();
+
     synchronized (_connectionPool) {
       _idlePool.clear();
 
@@ -1372,6 +1431,9 @@ public class ConnectionPool extends AbstractManagedObject
         _idlePool.clear();
     }
 
+    if (_idleBag != null)
+      _idleBag.clear();
+
     for (int i = 0; i < pool.size(); i++) {
       ManagedPoolItem poolItem = pool.get(i);
 
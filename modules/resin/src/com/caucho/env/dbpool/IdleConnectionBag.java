@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.dbpool;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.resource.ResourceException;
+import javax.resource.spi.ConnectionRequestInfo;
+import javax.resource.spi.ManagedConnection;
+import javax.resource.spi.ManagedConnectionFactory;
+import javax.security.auth.Subject;
+
+/**
+ * Lock-free idle set for the thread-affinity pool mode.
+ *
+ * Pool items stay in the bag while they're in use, and only flip their
+ * state between idle and active. A thread first tries the item it
+ * last returned, and otherwise steals any idle item from the shared
+ * list. The shared list only changes when items enter or leave the bag,
+ * i.e. on creation and destruction.
+ */
+final class IdleConnectionBag {
+  static final int STATE_NONE = 0;
+  static final int STATE_IDLE = 1;
+  static final int STATE_ACTIVE = 2;
+
+  private final int _capacity;
+
+  private final CopyOnWriteArrayList<ManagedPoolItem> _items
+    = new CopyOnWriteArrayList<ManagedPoolItem>();
+
+  private final ThreadLocal<ManagedPoolItem> _threadItem
+    = new ThreadLocal<ManagedPoolItem>();
+
+  private final AtomicInteger _idleCount = new AtomicInteger();
+
+  IdleConnectionBag(int capacity)
+  {
+    _capacity = capacity;
+  }
+
+  /**
+   * Returns the number of idle items.
+   */
+  int size()
+  {
+    return _idleCount.get();
+  }
+
+  /**
+   * Returns an idle item to the bag, remembering it as the current
+   * thread's item.
+   *
+   * @return false if the bag is full
+   */
+  boolean add(ManagedPoolItem item)
+  {
+    AtomicInteger state = item.getBagState();
+
+    if (_capacity < _idleCount.incrementAndGet()) {
+      _idleCount.decrementAndGet();
+      return false;
+    }
+
+    if (state.compareAndSet(STATE_ACTIVE, STATE_IDLE)) {
+    }
+    else if (state.compareAndSet(STATE_NONE, STATE_IDLE)) {
+      _items.add(item);
+    }
+    else {
+      // already idle
+      _idleCount.decrementAndGet();
+      return false;
+    }
+
+    _threadItem.set(item);
+
+    return true;
+  }
+
+  /**
+   * Removes a matching idle item, marking it active.  The thread's last
+   * item is tried first.
+   */
+  ManagedPoolItem poll(ManagedConnectionFactory mcf,
+                       Subject subject,
+                       ConnectionRequestInfo info)
+    throws ResourceException
+  {
+    ManagedPoolItem item = _threadItem.get();
+
+    if (item != null && allocate(item, mcf, subject, info)) {
+      return item;
+    }
+
+    Iterator<ManagedPoolItem> iter = _items.iterator();
+
+    while (iter.hasNext()) {
+      item = iter.next();
+
+      if (allocate(item, mcf, subject, info)) {
+        _threadItem.set(item);
+
+        return item;
+      }
+    }
+
+    return null;
+  }
+
+  private boolean allocate(ManagedPoolItem item,
+                           ManagedConnectionFactory mcf,
+                           Subject subject,
+                           ConnectionRequestInfo info)
+    throws ResourceException
+  {
+    AtomicInteger state = item.getBagState();
+
+    if (! state.compareAndSet(STATE_IDLE, STATE_ACTIVE)) {
+      return false;
+    }
+
+    _idleCount.decrementAndGet();
+
+    ManagedConnection mConn = item.getManagedConnection();
+
+    if (mConn == null) {
+      // destroyed while idle
+      remove(item);
+      return false;
+    }
+
+    if (mConn == mcf.matchManagedConnections(Collections.singleton(mConn),
+                                             subject, info)) {
+      return true;
+    }
+
+    // mismatched credentials, so return the item to the bag
+    if (state.compareAndSet(STATE_ACTIVE, STATE_IDLE)) {
+      _idleCount.incrementAndGet();
+    }
+
+    return false;
+  }
+
+  /**
+   * Removes the item from the bag.
+   */
+  boolean remove(ManagedPoolItem item)
+  {
+    AtomicInteger state = item.getBagState();
+
+    while (true) {
+      int oldState = state.get();
+
+      if (oldState == STATE_NONE) {
+        return false;
+      }
+
+      if (state.compareAndSet(oldState, STATE_NONE)) {
+        if (oldState == STATE_IDLE) {
+          _idleCount.decrementAndGet();
+        }
+
+        _items.remove(item);
+
+        if (_threadItem.get() == item) {
+          _threadItem.remove();
+        }
+
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Clears the bag.
+   */
+  void clear()
+  {
+    for (ManagedPoolItem item : _items) {
+      remove(item);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[idle=" + _idleCount.get() + ",size=" + _items.size() + "]");
+  }
+}
@@ -50,6 +50,7 @@ import javax.security.auth.Subject;
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -108,6 +109,9 @@ class ManagedPoolItem implements ConnectionEventListener, ManagedXAResource {
 
   private IllegalStateException _allocationStackTrace;
 
+  // state in the thread-affinity idle bag
+  private final AtomicInteger _bagState = new AtomicInteger();
+
   //
   // statistics
   //
@@ -1075,6 +1079,14 @@ class ManagedPoolItem implements ConnectionEventListener, ManagedXAResource {
     }
   }
 
+  /**
+   * Returns the item's state in the thread-affinity idle bag.
+   */
+  final AtomicInteger getBagState()
+  {
+    return _bagState;
+  }
+
   /**
    * Changes the state to idle.
    */
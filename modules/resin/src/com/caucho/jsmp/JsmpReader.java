@@ -187,7 +187,8 @@ public class JsmpReader {
   public String readString()
     throws IOException
   {
-    InputStream is = _is;
+    // the json input buffers the stream, so all reads go through it
+    JsonInput is = _in;
 
     if (is == null)
       return null;
@@ -214,12 +215,14 @@ public class JsmpReader {
   public boolean startPacket()
     throws IOException
   {
-    if (_is == null)
+    JsonInput in = _in;
+
+    if (in == null)
       return false;
 
     int ch;
 
-    while ((ch = _is.read()) >= 0 && Character.isWhitespace((char) ch)) {
+    while ((ch = in.read()) >= 0 && Character.isWhitespace((char) ch)) {
     }
 
     if (ch < 0)
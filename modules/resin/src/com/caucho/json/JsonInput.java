@@ -34,14 +34,55 @@ import java.util.*;
 
 import com.caucho.json.ser.JsonDeserializer;
 import com.caucho.json.ser.JsonSerializerFactory;
-import com.caucho.util.Utf8;
 
 /**
  * Input stream for JSON requests.
+ *
+ * The input is buffered, so all reads of the underlying stream must go
+ * through the JsonInput. In addition to the object API, the input is
+ * a pull parser:
+ *
+ * <pre>
+ * int token;
+ *
+ * while ((token = in.next()) != JsonInput.END_DOCUMENT) {
+ *   if (token == JsonInput.KEY_NAME) {
+ *     String key = in.getString();
+ *     ...
+ * }
+ * </pre>
  */
 public class JsonInput {
+  public static final int END_DOCUMENT = -1;
+  public static final int START_OBJECT = 1;
+  public static final int END_OBJECT = 2;
+  public static final int START_ARRAY = 3;
+  public static final int END_ARRAY = 4;
+  public static final int KEY_NAME = 5;
+  public static final int VALUE_STRING = 6;
+  public static final int VALUE_LONG = 7;
+  public static final int VALUE_DOUBLE = 8;
+  public static final int VALUE_TRUE = 9;
+  public static final int VALUE_FALSE = 10;
+  public static final int VALUE_NULL = 11;
+
+  private static final int KEY_CACHE_SIZE = 256;
+
   private InputStream _is;
-  private int _peek = -1;
+
+  private final byte []_buffer = new byte[8192];
+  private int _offset;
+  private int _length;
+
+  // reused string buffer
+  private char []_cbuf = new char[256];
+  private int _cbufLength;
+
+  // recent map keys, to avoid allocating the same field names
+  private final String []_keyCache = new String[KEY_CACHE_SIZE];
+
+  private long _longValue;
+  private double _doubleValue;
 
   private JsonSerializerFactory _factory = new JsonSerializerFactory();
 
@@ -60,49 +101,50 @@ public class JsonInput {
   public void init(InputStream is)
   {
     _is = is;
+    _offset = 0;
+    _length = 0;
   }
 
   public Object readObject()
     throws IOException
   {
-    InputStream is = _is;
-
-    if (is == null)
+    if (_is == null)
       return null;
 
-    int ch;
+    int ch = skipWhitespace();
 
-    while ((ch = read()) >= 0) {
-      switch (ch) {
-      case ' ': case '\n': case '\r': case '\t':
-        break;
+    switch (ch) {
+    case '0': case '1': case '2': case '3': case '4':
+    case '5': case '6': case '7': case '8': case '9':
+    case '.': case '+': case '-':
+      if (parseNumber(ch))
+        return _doubleValue;
+      else
+        return _longValue;
 
-      case '0': case '1': case '2': case '3': case '4':
-      case '5': case '6': case '7': case '8': case '9':
-      case '.': case '+': case '-':
-        return parseNumber(ch);
+    case '"':
+      parseString();
+      return new String(_cbuf, 0, _cbufLength);
 
-      case '"':
-        return parseString();
+    case 'n':
+      parseNull();
+      return null;
 
-      case 'n':
-        return parseNull(is);
+    case 't':
+      return parseTrue();
 
-      case 't':
-        return parseTrue(is);
+    case 'f':
+      return parseFalse();
 
-      case 'f':
-        return parseFalse(is);
+    case '[':
+      return parseArray();
 
-      case '[':
-        return parseArray(is);
+    case '{':
+      return parseMap();
 
-      case '{':
-        return parseMap(is);
-      }
+    default:
+      return null;
     }
-
-    return null;
   }
 
   public Object readObject(String type)
@@ -128,6 +170,17 @@ public class JsonInput {
   public long readLong()
     throws IOException
   {
+    int ch = skipWhitespace();
+
+    if (isNumberStart(ch)) {
+      if (parseNumber(ch))
+        return (long) _doubleValue;
+      else
+        return _longValue;
+    }
+
+    unread(ch);
+
     Object value = readObject();
 
     if (value instanceof Number)
@@ -139,6 +192,17 @@ public class JsonInput {
   public double readDouble()
     throws IOException
   {
+    int ch = skipWhitespace();
+
+    if (isNumberStart(ch)) {
+      if (parseNumber(ch))
+        return _doubleValue;
+      else
+        return _longValue;
+    }
+
+    unread(ch);
+
     Object value = readObject();
 
     if (value instanceof Number)
@@ -155,6 +219,111 @@ public class JsonInput {
     return (String) value;
   }
 
+  //
+  // pull parser
+  //
+
+  /**
+   * Returns the next token. Commas and colons are consumed as separators.
+   */
+  public int next()
+    throws IOException
+  {
+    int ch;
+
+    while ((ch = read()) >= 0) {
+      switch (ch) {
+      case ' ': case '\n': case '\r': case '\t':
+      case ',':
+        break;
+
+      case '0': case '1': case '2': case '3': case '4':
+      case '5': case '6': case '7': case '8': case '9':
+      case '.': case '+': case '-':
+        return parseNumber(ch) ? VALUE_DOUBLE : VALUE_LONG;
+
+      case '"':
+        parseString();
+
+        ch = skipWhitespace();
+
+        if (ch == ':')
+          return KEY_NAME;
+
+        unread(ch);
+
+        return VALUE_STRING;
+
+      case 'n':
+        parseNull();
+        return VALUE_NULL;
+
+      case 't':
+        parseTrue();
+        return VALUE_TRUE;
+
+      case 'f':
+        parseFalse();
+        return VALUE_FALSE;
+
+      case '[':
+        return START_ARRAY;
+
+      case ']':
+        return END_ARRAY;
+
+      case '{':
+        return START_OBJECT;
+
+      case '}':
+        return END_OBJECT;
+
+      default:
+        throw error(ch, "a JSON value");
+      }
+    }
+
+    return END_DOCUMENT;
+  }
+
+  /**
+   * Returns the string value of the current KEY_NAME or VALUE_STRING.
+   */
+  public String getString()
+  {
+    return new String(_cbuf, 0, _cbufLength);
+  }
+
+  /**
+   * Returns the current string's buffer, valid until the next token.
+   */
+  public char []getCharBuffer()
+  {
+    return _cbuf;
+  }
+
+  public int getCharLength()
+  {
+    return _cbufLength;
+  }
+
+  /**
+   * Returns the value of the current VALUE_LONG or VALUE_DOUBLE.
+   */
+  public long getLong()
+  {
+    return _longValue;
+  }
+
+  public double getDouble()
+  {
+    return _doubleValue;
+  }
+
+  //
+  // packets
+  //
+
   public boolean startPacket()
     throws IOException
   {
@@ -184,125 +353,293 @@ public class JsonInput {
   // utility
   //
 
-  private Object parseNull(InputStream is)
+  private void parseNull()
     throws IOException
   {
     int ch;
 
-    if ((ch = is.read()) == 'u'
-        && (ch = is.read()) == 'l'
-        && (ch = is.read()) == 'l')
-      return null;
+    if ((ch = read()) == 'u'
+        && (ch = read()) == 'l'
+        && (ch = read()) == 'l')
+      return;
 
     throw new IOException(this + " parsing of null failed at " + (char) ch);
   }
 
-  private Boolean parseTrue(InputStream is)
+  private Boolean parseTrue()
     throws IOException
   {
     int ch;
 
-    if ((ch = is.read()) == 'r'
-        && (ch = is.read()) == 'u'
-        && (ch = is.read()) == 'e')
+    if ((ch = read()) == 'r'
+        && (ch = read()) == 'u'
+        && (ch = read()) == 'e')
       return Boolean.TRUE;
 
     throw new IOException(this + " parsing of true failed at " + (char) ch);
   }
 
-  private Boolean parseFalse(InputStream is)
+  private Boolean parseFalse()
     throws IOException
   {
     int ch;
 
-    if ((ch = is.read()) == 'a'
-        && (ch = is.read()) == 'l'
-        && (ch = is.read()) == 's'
-        && (ch = is.read()) == 'e')
+    if ((ch = read()) == 'a'
+        && (ch = read()) == 'l'
+        && (ch = read()) == 's'
+        && (ch = read()) == 'e')
       return Boolean.FALSE;
 
     throw new IOException(this + " parsing of false failed at " + (char) ch);
   }
 
-  private String parseString()
+  /**
+   * Parses a string into the char buffer, after the opening quote.
+   */
+  private void parseString()
     throws IOException
   {
-    int ch;
-
-    InputStream is = _is;
+    char []cbuf = _cbuf;
+    int length = 0;
 
-    StringBuilder sb = new StringBuilder();
+    while (true) {
+      // ascii fast path directly from the byte buffer
+      byte []buffer = _buffer;
+      int offset = _offset;
+      int end = _length;
 
-    while ((ch = Utf8.read(is)) >= 0 && ch != '"') {
-      if (ch == '\\') {
-        ch = Utf8.read(is);
+      for (; offset < end; offset++) {
+        int ch = buffer[offset];
 
-        switch (ch) {
-        case 'r':
-          sb.append('\r');
+        if (ch == '"' || ch == '\\' || ch < 0)
           break;
-        case 'n':
-          sb.append('\n');
-          break;
-        case 't':
-          sb.append('\t');
-          break;
-        case 'f':
-          sb.append('\f');
-          break;
-        default:
-          sb.append((char) ch);
+
+        if (cbuf.length <= length)
+          cbuf = growBuffer(length);
+
+        cbuf[length++] = (char) ch;
+      }
+
+      _offset = offset;
+
+      int ch = read();
+
+      if (ch < 0) {
+        _cbufLength = length;
+        throw new EOFException(this + " unexpected end of file in string");
+      }
+
+      if (ch == '"')
+        break;
+
+      if (ch == '\\')
+        ch = parseEscape();
+      else if (ch >= 0x80)
+        ch = parseUtf8(ch);
+
+      if (cbuf.length <= length + 1)
+        cbuf = growBuffer(length + 1);
+
+      if (ch >= 0x10000) {
+        ch -= 0x10000;
+        cbuf[length++] = (char) (0xd800 + (ch >> 10));
+        cbuf[length++] = (char) (0xdc00 + (ch & 0x3ff));
+      }
+      else
+        cbuf[length++] = (char) ch;
+    }
+
+    _cbufLength = length;
+  }
+
+  private int parseEscape()
+    throws IOException
+  {
+    int ch = read();
+
+    switch (ch) {
+    case 'r':
+      return '\r';
+    case 'n':
+      return '\n';
+    case 't':
+      return '\t';
+    case 'f':
+      return '\f';
+    case 'b':
+      return '\b';
+    case 'u':
+      {
+        int value = 0;
+
+        for (int i = 0; i < 4; i++) {
+          ch = read();
+
+          int digit = Character.digit(ch, 16);
+
+          if (ch < 0 || digit < 0)
+            throw error(ch, "a hex digit");
+
+          value = 16 * value + digit;
         }
+
+        return value;
       }
-      else {
-        sb.append((char) ch);
+    default:
+      if (ch < 0)
+        throw new EOFException(this + " unexpected end of file in string");
+
+      return ch;
+    }
+  }
+
+  private int parseUtf8(int ch)
+    throws IOException
+  {
+    if (ch < 0xe0) {
+      return ((ch & 0x1f) << 6) + (read() & 0x3f);
+    }
+    else if (ch < 0xf0) {
+      int ch1 = read();
+      int ch2 = read();
+
+      return ((ch & 0xf) << 12) + ((ch1 & 0x3f) << 6) + (ch2 & 0x3f);
+    }
+    else {
+      int ch1 = read();
+      int ch2 = read();
+      int ch3 = read();
+
+      return (((ch & 0x7) << 18) + ((ch1 & 0x3f) << 12)
+              + ((ch2 & 0x3f) << 6) + (ch3 & 0x3f));
+    }
+  }
+
+  private char []growBuffer(int length)
+  {
+    char []cbuf = new char[2 * Math.max(length, _cbuf.length)];
+    System.arraycopy(_cbuf, 0, cbuf, 0, length);
+    _cbuf = cbuf;
+
+    return cbuf;
+  }
+
+  /**
+   * Returns the current string as a map key, reusing recent keys.
+   */
+  private String getKey()
+  {
+    char []cbuf = _cbuf;
+    int length = _cbufLength;
+
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + cbuf[i];
+    }
+
+    int bucket = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+
+    String key = _keyCache[bucket];
+
+    if (key != null && key.length() == length && key.hashCode() == hash) {
+      int i = 0;
+
+      for (; i < length && key.charAt(i) == cbuf[i]; i++) {
       }
+
+      if (i == length)
+        return key;
     }
 
-    if (ch < 0)
-      return null;
+    key = new String(cbuf, 0, length);
+
+    _keyCache[bucket] = key;
+
+    return key;
+  }
 
-    return sb.toString();
+  private static boolean isNumberStart(int ch)
+  {
+    return ('0' <= ch && ch <= '9') || ch == '-' || ch == '+' || ch == '.';
   }
 
-  private Number parseNumber(int ch)
+  /**
+   * Parses a number, returning true for a double value.
+   */
+  private boolean parseNumber(int ch)
     throws IOException
   {
-    InputStream is = _is;
+    boolean isNegative = false;
+
+    if (ch == '-') {
+      isNegative = true;
+      ch = read();
+    }
+    else if (ch == '+')
+      ch = read();
+
+    long value = 0;
+    int digits = 0;
+
+    // 18 digits always fit in a long
+    for (; '0' <= ch && ch <= '9' && digits < 18; ch = read()) {
+      value = 10 * value + ch - '0';
+      digits++;
+    }
+
+    if (ch != '.' && ch != 'e' && ch != 'E' && (ch < '0' || '9' < ch)) {
+      unread(ch);
+
+      _longValue = isNegative ? -value : value;
+      _doubleValue = _longValue;
 
+      return false;
+    }
+
+    // doubles and long overflow parse from the text
     StringBuilder sb = new StringBuilder();
-    boolean isDouble = false;
 
-    loop:
-    for (; ch >= 0; ch = is.read()) {
-      switch (ch) {
-      case '+':
-        break;
+    if (isNegative)
+      sb.append('-');
 
-      case '-':
-      case '0': case '1': case '2': case '3': case '4':
-      case '5': case '6': case '7': case '8': case '9':
-        sb.append((char) ch);
-        break;
+    if (digits > 0)
+      sb.append(value);
+
+    boolean isDouble = false;
 
-      case '.': case 'e': case 'E':
+    for (; ch >= 0; ch = read()) {
+      if ('0' <= ch && ch <= '9' || ch == '-' || ch == '+')
+        sb.append((char) ch);
+      else if (ch == '.' || ch == 'e' || ch == 'E') {
         sb.append((char) ch);
         isDouble = true;
+      }
+      else
         break;
+    }
 
-      default:
-        _peek = ch;
-        break loop;
+    unread(ch);
+
+    String text = sb.toString();
+
+    if (! isDouble) {
+      try {
+        _longValue = Long.parseLong(text);
+        _doubleValue = _longValue;
+
+        return false;
+      } catch (NumberFormatException e) {
+        // integers beyond a long are returned as a double
       }
     }
 
-    if (isDouble)
-      return Double.parseDouble(sb.toString());
-    else
-      return Long.parseLong(sb.toString());
+    _doubleValue = Double.parseDouble(text);
+    _longValue = (long) _doubleValue;
+
+    return true;
   }
 
-  private ArrayList parseArray(InputStream is)
+  private ArrayList parseArray()
     throws IOException
   {
     ArrayList list = new ArrayList();
@@ -319,7 +656,7 @@ public class JsonInput {
         return list;
 
       default:
-        _peek = ch;
+        unread(ch);
         list.add(readObject());
       }
     }
@@ -327,7 +664,7 @@ public class JsonInput {
     return list;
   }
 
-  private LinkedHashMap parseMap(InputStream is)
+  private LinkedHashMap parseMap()
     throws IOException
   {
     LinkedHashMap map = new LinkedHashMap();
@@ -344,8 +681,9 @@ public class JsonInput {
         return map;
 
       case '"':
-        String key = parseString();
-        for (ch = read(); ch >= 0 && ch != ':' && ch != '}'; ch = is.read()) {
+        parseString();
+        String key = getKey();
+        for (ch = read(); ch >= 0 && ch != ':' && ch != '}'; ch = read()) {
         }
         if (ch == ':') {
           Object value = readObject();
@@ -356,7 +694,7 @@ public class JsonInput {
         break;
 
       default:
-        _peek = ch;
+        unread(ch);
         return map;
       }
     }
@@ -368,8 +706,6 @@ public class JsonInput {
                            JsonDeserializer deser)
     throws IOException
   {
-    InputStream is = _is;
-
     int ch;
 
     while ((ch = read()) >= 0 && ch != '{') {
@@ -395,8 +731,9 @@ public class JsonInput {
         return;
 
       case '"':
-        String key = parseString();
-        for (ch = read(); ch >= 0 && ch != ':' && ch != '}'; ch = is.read()) {
+        parseString();
+        String key = getKey();
+        for (ch = read(); ch >= 0 && ch != ':' && ch != '}'; ch = read()) {
         }
 
         if (ch == ':') {
@@ -407,22 +744,76 @@ public class JsonInput {
         break;
 
       default:
-        _peek = ch;
+        unread(ch);
         return;
       }
     }
   }
 
-  private int read()
+  private int skipWhitespace()
+    throws IOException
+  {
+    int ch;
+
+    while ((ch = read()) == ' ' || ch == '\n' || ch == '\r' || ch == '\t') {
+    }
+
+    return ch;
+  }
+
+  private IOException error(int ch, String expect)
+  {
+    if (ch < 0)
+      return new EOFException(this + " unexpected end of file, expected " + expect);
+    else
+      return new IOException(this + " '" + (char) ch + "' (0x"
+                             + Integer.toHexString(ch)
+                             + ") is an unexpected character, expected "
+                             + expect);
+  }
+
+  /**
+   * Reads the next byte from the buffered input.
+   */
+  public int read()
+    throws IOException
+  {
+    if (_offset < _length || fillBuffer())
+      return _buffer[_offset++] & 0xff;
+    else
+      return -1;
+  }
+
+  /**
+   * Unreads the last byte returned by read().
+   */
+  private void unread(int ch)
+  {
+    if (ch >= 0)
+      _offset--;
+  }
+
+  private boolean fillBuffer()
     throws IOException
   {
-    int peek = _peek;
-    if (peek >= 0) {
-      _peek = -1;
-      return peek;
+    InputStream is = _is;
+
+    if (is == null)
+      return false;
+
+    int len = is.read(_buffer, 0, _buffer.length);
+
+    if (len <= 0) {
+      _offset = 0;
+      _length = 0;
+
+      return false;
     }
 
-    return _is.read();
+    _offset = 0;
+    _length = len;
+
+    return true;
   }
 
   public void close()
@@ -430,5 +821,13 @@ public class JsonInput {
   {
     InputStream is = _is;
     _is = null;
+    _offset = 0;
+    _length = 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _is + "]";
   }
 }
@@ -258,6 +258,15 @@ public class JsonOutput {
     writeObject((Serializable) value, annotated);
   }
 
+  /**
+   * Writes a map key which is already quoted and followed by the ':'.
+   */
+  public void writeMapKey(char []quotedKey)
+    throws IOException
+  {
+    _os.write(quotedKey, 0, quotedKey.length);
+  }
+
   public void writeMapEnd()
     throws IOException
   {
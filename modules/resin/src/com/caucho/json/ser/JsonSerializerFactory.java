@@ -93,7 +93,10 @@ public class JsonSerializerFactory {
     if(Enum.class.isAssignableFrom(cl))
       return EnumSerializer.SER;
 
-    return new JavaSerializer(cl, annotated);
+    if (UnsafeJsonSerializer.isEnabled())
+      return new UnsafeJsonSerializer(cl, annotated);
+    else
+      return new JavaSerializer(cl, annotated);
   }
 
   //
@@ -120,7 +123,10 @@ public class JsonSerializerFactory {
     if (deser != null)
       return deser;
 
-    return new JavaDeserializer(cl);
+    if (UnsafeJsonSerializer.isEnabled())
+      return new UnsafeJsonDeserializer(cl);
+    else
+      return new JavaDeserializer(cl);
   }
 
   static {
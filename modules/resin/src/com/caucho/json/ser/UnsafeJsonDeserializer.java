@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.json.ser;
+
+import com.caucho.json.JsonInput;
+
+import java.io.*;
+import java.util.*;
+import java.lang.reflect.*;
+
+import sun.misc.Unsafe;
+
+/**
+ * Deserializes java objects using per-field readers which set the
+ * field values with sun.misc.Unsafe, avoiding reflection and boxing
+ * for primitives.
+ */
+public class UnsafeJsonDeserializer implements JsonDeserializer
+{
+  private static final Unsafe _unsafe = UnsafeJsonSerializer.getUnsafe();
+
+  private final Class _type;
+  private final Constructor _ctor;
+  private final HashMap<String,FieldDeserializer> _fieldMap
+    = new HashMap<String,FieldDeserializer>();
+
+  UnsafeJsonDeserializer(Class type)
+  {
+    _type = type;
+    _ctor = introspectConstructor(type);
+    _ctor.setAccessible(true);
+
+    introspectFields(type);
+  }
+
+  private Constructor introspectConstructor(Class type)
+  {
+    for (Constructor ctor : type.getDeclaredConstructors()) {
+      if (ctor.getParameterTypes().length == 0)
+        return ctor;
+    }
+
+    throw new IllegalStateException(type + " needs a zero-arg constructor");
+  }
+
+  private void introspectFields(Class type)
+  {
+    if (type == null)
+      return;
+
+    introspectFields(type.getSuperclass());
+
+    for (Field field : type.getDeclaredFields()) {
+      if (Modifier.isTransient(field.getModifiers()))
+        continue;
+      if (Modifier.isStatic(field.getModifiers()))
+        continue;
+
+      _fieldMap.put(field.getName(), createFieldDeserializer(field));
+    }
+  }
+
+  private static FieldDeserializer createFieldDeserializer(Field field)
+  {
+    Class type = field.getType();
+
+    if (type == boolean.class)
+      return new BooleanFieldDeserializer(field);
+    else if (type == char.class)
+      return new CharFieldDeserializer(field);
+    else if (type == byte.class)
+      return new ByteFieldDeserializer(field);
+    else if (type == short.class)
+      return new ShortFieldDeserializer(field);
+    else if (type == int.class)
+      return new IntFieldDeserializer(field);
+    else if (type == long.class)
+      return new LongFieldDeserializer(field);
+    else if (type == float.class)
+      return new FloatFieldDeserializer(field);
+    else if (type == double.class)
+      return new DoubleFieldDeserializer(field);
+    else if (type == String.class)
+      return new StringFieldDeserializer(field);
+    else if (type == Integer.class)
+      return new IntegerFieldDeserializer(field);
+    else if (type == Long.class)
+      return new LongObjectFieldDeserializer(field);
+    else if (type == Double.class)
+      return new DoubleObjectFieldDeserializer(field);
+    else if (type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+      return new DynamicFieldDeserializer(field);
+    else
+      return new ObjectFieldDeserializer(field);
+  }
+
+  public Object read(JsonInput in)
+    throws IOException
+  {
+    Object bean = create();
+
+    in.parseBeanMap(bean, this);
+
+    return bean;
+  }
+
+  public Object create()
+  {
+    try {
+      return _ctor.newInstance();
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public void readField(JsonInput in, Object bean, String fieldName)
+    throws IOException
+  {
+    FieldDeserializer field = _fieldMap.get(fieldName);
+
+    if (field != null)
+      field.read(in, bean);
+    else {
+      // skip
+      in.readObject();
+    }
+  }
+
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _type + "]";
+  }
+
+  abstract static class FieldDeserializer {
+    protected final Field _field;
+    protected final long _offset;
+
+    FieldDeserializer(Field field)
+    {
+      _field = field;
+      _offset = _unsafe.objectFieldOffset(field);
+
+      if (_offset == Unsafe.INVALID_FIELD_OFFSET)
+        throw new IllegalStateException(field.toString());
+    }
+
+    abstract void read(JsonInput in, Object bean)
+      throws IOException;
+  }
+
+  final static class BooleanFieldDeserializer extends FieldDeserializer {
+    BooleanFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      Object value = in.readObject();
+
+      _unsafe.putBoolean(bean, _offset, Boolean.TRUE.equals(value));
+    }
+  }
+
+  final static class CharFieldDeserializer extends FieldDeserializer {
+    CharFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      Object value = in.readObject();
+
+      if (value instanceof String && ((String) value).length() > 0)
+        _unsafe.putChar(bean, _offset, ((String) value).charAt(0));
+    }
+  }
+
+  final static class ByteFieldDeserializer extends FieldDeserializer {
+    ByteFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      _unsafe.putByte(bean, _offset, (byte) in.readLong());
+    }
+  }
+
+  final static class ShortFieldDeserializer extends FieldDeserializer {
+    ShortFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      _unsafe.putShort(bean, _offset, (short) in.readLong());
+    }
+  }
+
+  final static class IntFieldDeserializer extends FieldDeserializer {
+    IntFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      _unsafe.putInt(bean, _offset, (int) in.readLong());
+    }
+  }
+
+  final static class LongFieldDeserializer extends FieldDeserializer {
+    LongFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      _unsafe.putLong(bean, _offset, in.readLong());
+    }
+  }
+
+  final static class FloatFieldDeserializer extends FieldDeserializer {
+    FloatFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      _unsafe.putFloat(bean, _offset, (float) in.readDouble());
+    }
+  }
+
+  final static class DoubleFieldDeserializer extends FieldDeserializer {
+    DoubleFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      _unsafe.putDouble(bean, _offset, in.readDouble());
+    }
+  }
+
+  final static class IntegerFieldDeserializer extends FieldDeserializer {
+    IntegerFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      _unsafe.putObject(bean, _offset, Integer.valueOf((int) in.readLong()));
+    }
+  }
+
+  final static class LongObjectFieldDeserializer extends FieldDeserializer {
+    LongObjectFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      _unsafe.putObject(bean, _offset, Long.valueOf(in.readLong()));
+    }
+  }
+
+  final static class DoubleObjectFieldDeserializer extends FieldDeserializer {
+    DoubleObjectFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      _unsafe.putObject(bean, _offset, Double.valueOf(in.readDouble()));
+    }
+  }
+
+  final static class StringFieldDeserializer extends FieldDeserializer {
+    StringFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      Object value = in.readObject();
+
+      if (value == null)
+        return;
+
+      if (! (value instanceof String))
+        throw new IOException(value.getClass() + " is an illegal value for " + _field);
+
+      _unsafe.putObject(bean, _offset, value);
+    }
+  }
+
+  /**
+   * Interface fields like List or Map use the parsed json value.
+   */
+  final static class DynamicFieldDeserializer extends FieldDeserializer {
+    DynamicFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      Object value = in.readObject();
+
+      if (value == null)
+        return;
+
+      if (! _field.getType().isAssignableFrom(value.getClass()))
+        throw new IOException(value.getClass() + " is an illegal value for " + _field);
+
+      _unsafe.putObject(bean, _offset, value);
+    }
+  }
+
+  final static class ObjectFieldDeserializer extends FieldDeserializer {
+    ObjectFieldDeserializer(Field field)
+    {
+      super(field);
+    }
+
+    void read(JsonInput in, Object bean)
+      throws IOException
+    {
+      Object value = in.readObject(_field.getType());
+
+      if (value == null)
+        return;
+
+      if (! _field.getType().isAssignableFrom(value.getClass()))
+        throw new IOException(value.getClass() + " is an illegal value for " + _field);
+
+      _unsafe.putObject(bean, _offset, value);
+    }
+  }
+}
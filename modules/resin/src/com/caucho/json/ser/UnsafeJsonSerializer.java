@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.json.ser;
+
+import com.caucho.json.Json;
+import com.caucho.json.JsonOutput;
+import com.caucho.json.Transient;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.*;
+import java.lang.reflect.*;
+
+import sun.misc.Unsafe;
+
+/**
+ * Serializes java objects using precomputed per-field writers. Field
+ * values are read with sun.misc.Unsafe, so primitives are written
+ * without reflection or boxing, and the quoted keys are encoded once.
+ *
+ * The output matches JavaSerializer.
+ */
+public class UnsafeJsonSerializer extends AbstractJsonSerializer {
+  private static final Logger log
+    = Logger.getLogger(UnsafeJsonSerializer.class.getName());
+
+  private static final boolean _isEnabled;
+  private static final Unsafe _unsafe;
+
+  private final Class _type;
+  private FieldSerializer []_fields;
+
+  UnsafeJsonSerializer(Class type, boolean annotated)
+  {
+    _type = type;
+
+    introspect(annotated);
+  }
+
+  public static boolean isEnabled()
+  {
+    return _isEnabled;
+  }
+
+  static Unsafe getUnsafe()
+  {
+    return _unsafe;
+  }
+
+  private void introspect(boolean annotated)
+  {
+    ArrayList<JavaSerializer.JsonField> jsonFields
+      = new ArrayList<JavaSerializer.JsonField>();
+
+    introspectFields(jsonFields, _type, annotated);
+
+    Collections.sort(jsonFields, new JavaSerializer.JsonFieldComparator());
+
+    _fields = new FieldSerializer[jsonFields.size()];
+
+    for (int i = 0; i < _fields.length; i++) {
+      _fields[i] = createFieldSerializer(jsonFields.get(i));
+    }
+  }
+
+  private void introspectFields(ArrayList<JavaSerializer.JsonField> fields,
+                                Class type,
+                                boolean annotated)
+  {
+    if (type == null)
+      return;
+
+    introspectFields(fields, type.getSuperclass(), annotated);
+
+    for (Field field : type.getDeclaredFields()) {
+      if (Modifier.isTransient(field.getModifiers()))
+        continue;
+      if (Modifier.isStatic(field.getModifiers()))
+        continue;
+      if (annotated && field.getAnnotation(Transient.class) != null)
+        continue;
+
+      Json json = field.getAnnotation(Json.class);
+      fields.add(new JavaSerializer.JsonField(field, json));
+    }
+  }
+
+  private static FieldSerializer createFieldSerializer(JavaSerializer.JsonField jsonField)
+  {
+    Field field = jsonField.getField();
+    char []key = encodeKey(jsonField.getName());
+
+    Class type = field.getType();
+
+    if (type == boolean.class)
+      return new BooleanFieldSerializer(field, key);
+    else if (type == char.class)
+      return new CharFieldSerializer(field, key);
+    else if (type == byte.class)
+      return new ByteFieldSerializer(field, key);
+    else if (type == short.class)
+      return new ShortFieldSerializer(field, key);
+    else if (type == int.class)
+      return new IntFieldSerializer(field, key);
+    else if (type == long.class)
+      return new LongFieldSerializer(field, key);
+    else if (type == float.class)
+      return new FloatFieldSerializer(field, key);
+    else if (type == double.class)
+      return new DoubleFieldSerializer(field, key);
+    else if (type == String.class)
+      return new StringFieldSerializer(field, key);
+    else
+      return new ObjectFieldSerializer(field, key);
+  }
+
+  /**
+   * Returns the key as a quoted JSON string followed by the ':'.
+   */
+  private static char []encodeKey(String name)
+  {
+    try {
+      StringWriter sw = new StringWriter();
+      PrintWriter pw = new PrintWriter(sw);
+
+      JsonOutput out = new JsonOutput(pw);
+      out.writeString(name);
+      pw.print(':');
+      pw.flush();
+
+      return sw.toString().toCharArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void write(JsonOutput out, Object value, boolean annotated)
+    throws IOException
+  {
+    FieldSerializer []fields = _fields;
+    boolean isFirst = true;
+
+    out.writeMapBegin();
+
+    for (int i = 0; i < fields.length; i++) {
+      if (fields[i].write(out, value, isFirst, annotated))
+        isFirst = false;
+    }
+
+    out.writeMapEnd();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _type.getName() + "]";
+  }
+
+  abstract static class FieldSerializer {
+    protected final Field _field;
+    protected final long _offset;
+    private final char []_key;
+
+    FieldSerializer(Field field, char []key)
+    {
+      _field = field;
+      _key = key;
+      _offset = _unsafe.objectFieldOffset(field);
+
+      if (_offset == Unsafe.INVALID_FIELD_OFFSET)
+        throw new IllegalStateException(field.toString());
+    }
+
+    /**
+     * Writes the field, returning false if it was skipped.
+     */
+    abstract boolean write(JsonOutput out, Object bean,
+                           boolean isFirst, boolean annotated)
+      throws IOException;
+
+    protected final void writeKey(JsonOutput out, boolean isFirst)
+      throws IOException
+    {
+      if (! isFirst)
+        out.writeMapComma();
+
+      out.writeMapKey(_key);
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _field.getName() + "]";
+    }
+  }
+
+  final static class BooleanFieldSerializer extends FieldSerializer {
+    BooleanFieldSerializer(Field field, char []key)
+    {
+      super(field, key);
+    }
+
+    @Override
+    boolean write(JsonOutput out, Object bean,
+                  boolean isFirst, boolean annotated)
+      throws IOException
+    {
+      writeKey(out, isFirst);
+      out.writeBoolean(_unsafe.getBoolean(bean, _offset));
+
+      return true;
+    }
+  }
+
+  final static class CharFieldSerializer extends FieldSerializer {
+    CharFieldSerializer(Field field, char []key)
+    {
+      super(field, key);
+    }
+
+    @Override
+    boolean write(JsonOutput out, Object bean,
+                  boolean isFirst, boolean annotated)
+      throws IOException
+    {
+      writeKey(out, isFirst);
+      out.writeString(String.valueOf(_unsafe.getChar(bean, _offset)));
+
+      return true;
+    }
+  }
+
+  final static class ByteFieldSerializer extends FieldSerializer {
+    ByteFieldSerializer(Field field, char []key)
+    {
+      super(field, key);
+    }
+
+    @Override
+    boolean write(JsonOutput out, Object bean,
+                  boolean isFirst, boolean annotated)
+      throws IOException
+    {
+      writeKey(out, isFirst);
+      out.writeLong(_unsafe.getByte(bean, _offset));
+
+      return true;
+    }
+  }
+
+  final static class ShortFieldSerializer extends FieldSerializer {
+    ShortFieldSerializer(Field field, char []key)
+    {
+      super(field, key);
+    }
+
+    @Override
+    boolean write(JsonOutput out, Object bean,
+                  boolean isFirst, boolean annotated)
+      throws IOException
+    {
+      writeKey(out, isFirst);
+      out.writeLong(_unsafe.getShort(bean, _offset));
+
+      return true;
+    }
+  }
+
+  final static class IntFieldSerializer extends FieldSerializer {
+    IntFieldSerializer(Field field, char []key)
+    {
+      super(field, key);
+    }
+
+    @Override
+    boolean write(JsonOutput out, Object bean,
+                  boolean isFirst, boolean annotated)
+      throws IOException
+    {
+      writeKey(out, isFirst);
+      out.writeLong(_unsafe.getInt(bean, _offset));
+
+      return true;
+    }
+  }
+
+  final static class LongFieldSerializer extends FieldSerializer {
+    LongFieldSerializer(Field field, char []key)
+    {
+      super(field, key);
+    }
+
+    @Override
+    boolean write(JsonOutput out, Object bean,
+                  boolean isFirst, boolean annotated)
+      throws IOException
+    {
+      writeKey(out, isFirst);
+      out.writeLong(_unsafe.getLong(bean, _offset));
+
+      return true;
+    }
+  }
+
+  final static class FloatFieldSerializer extends FieldSerializer {
+    FloatFieldSerializer(Field field, char []key)
+    {
+      super(field, key);
+    }
+
+    @Override
+    boolean write(JsonOutput out, Object bean,
+                  boolean isFirst, boolean annotated)
+      throws IOException
+    {
+      writeKey(out, isFirst);
+      writeDouble(out, _unsafe.getFloat(bean, _offset));
+
+      return true;
+    }
+  }
+
+  final static class DoubleFieldSerializer extends FieldSerializer {
+    DoubleFieldSerializer(Field field, char []key)
+    {
+      super(field, key);
+    }
+
+    @Override
+    boolean write(JsonOutput out, Object bean,
+                  boolean isFirst, boolean annotated)
+      throws IOException
+    {
+      writeKey(out, isFirst);
+      writeDouble(out, _unsafe.getDouble(bean, _offset));
+
+      return true;
+    }
+  }
+
+  final static class StringFieldSerializer extends FieldSerializer {
+    StringFieldSerializer(Field field, char []key)
+    {
+      super(field, key);
+    }
+
+    @Override
+    boolean write(JsonOutput out, Object bean,
+                  boolean isFirst, boolean annotated)
+      throws IOException
+    {
+      String value = (String) _unsafe.getObject(bean, _offset);
+
+      if (value == null)
+        return false;
+
+      writeKey(out, isFirst);
+      out.writeString(value);
+
+      return true;
+    }
+  }
+
+  final static class ObjectFieldSerializer extends FieldSerializer {
+    ObjectFieldSerializer(Field field, char []key)
+    {
+      super(field, key);
+    }
+
+    @Override
+    boolean write(JsonOutput out, Object bean,
+                  boolean isFirst, boolean annotated)
+      throws IOException
+    {
+      Object value = _unsafe.getObject(bean, _offset);
+
+      if (value == null)
+        return false;
+
+      writeKey(out, isFirst);
+      out.writeObject(value, annotated);
+
+      return true;
+    }
+  }
+
+  /**
+   * Writes a double, matching DoubleSerializer for NaN and infinities.
+   */
+  private static void writeDouble(JsonOutput out, double value)
+    throws IOException
+  {
+    if (Double.isNaN(value))
+      out.writeDouble(0.0);
+    else if (Double.isInfinite(value))
+      out.writeDouble(value > 0 ? Double.MAX_VALUE : -Double.MAX_VALUE);
+    else
+      out.writeDouble(value);
+  }
+
+  static {
+    boolean isEnabled = false;
+    Unsafe unsafe = null;
+
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = null;
+      for (Field field : unsafeClass.getDeclaredFields()) {
+        if (field.getName().equals("theUnsafe"))
+          theUnsafe = field;
+      }
+
+      if (theUnsafe != null) {
+        theUnsafe.setAccessible(true);
+        unsafe = (Unsafe) theUnsafe.get(null);
+      }
+
+      isEnabled = unsafe != null;
+
+      String unsafeProp = System.getProperty("com.caucho.json.unsafe");
+
+      if ("false".equals(unsafeProp))
+        isEnabled = false;
+    } catch (Throwable e) {
+      log.log(Level.ALL, e.toString(), e);
+    }
+
+    _unsafe = unsafe;
+    _isEnabled = isEnabled;
+  }
+}
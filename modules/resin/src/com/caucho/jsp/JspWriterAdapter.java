@@ -30,6 +30,8 @@
 package com.caucho.jsp;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -106,6 +108,54 @@ public class JspWriterAdapter extends AbstractBodyContent {
     _out.print(buf, offset, length);
   }
   
+  /**
+   * Writes static text, using the pre-encoded bytes when the response
+   * stream accepts bytes in the same encoding.
+   *
+   * @param bytes the text pre-encoded in javaEncoding, or null
+   * @param chars the text
+   * @param javaEncoding the java encoding of the bytes
+   */
+  final public void writeStatic(byte []bytes, char []chars,
+                                String javaEncoding)
+    throws IOException
+  {
+    if (_isClosed
+        || bytes == null
+        || ! _out.writeEncoded(bytes, 0, bytes.length, javaEncoding)) {
+      write(chars, 0, chars.length);
+    }
+  }
+
+  /**
+   * Writes static text from a generated JSP page.
+   */
+  public static void writeStatic(Writer out,
+                                 byte []bytes, char []chars,
+                                 String javaEncoding)
+    throws IOException
+  {
+    if (out instanceof JspWriterAdapter)
+      ((JspWriterAdapter) out).writeStatic(bytes, chars, javaEncoding);
+    else
+      out.write(chars, 0, chars.length);
+  }
+
+  /**
+   * Encodes static text for a generated JSP page, returning null if
+   * the encoding is not supported.
+   */
+  public static byte []encodeStatic(char []chars, String javaEncoding)
+  {
+    try {
+      return new String(chars).getBytes(javaEncoding);
+    } catch (UnsupportedEncodingException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+  }
+
   /**
    * Writes a character to the output.
    *
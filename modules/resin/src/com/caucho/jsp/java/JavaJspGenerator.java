@@ -1051,16 +1051,7 @@ public class JavaJspGenerator extends JspGenerator {
   private void generateContentType(JspJavaWriter out)
     throws IOException
   {
-    String encoding = Encoding.getMimeName(_parseState.getCharEncoding());
-
-    if (encoding == null && isXml())
-      encoding = "UTF-8";
-
-    if (encoding == null && _parseState.getJspPropertyGroup() != null)
-      encoding = _parseState.getJspPropertyGroup().getCharacterEncoding();
-
-    if (encoding == null)
-      encoding = Encoding.getMimeName(_parseState.getPageEncoding());
+    String encoding = getResponseEncoding();
 
     // jsp/1co7
     /*
@@ -1112,6 +1103,63 @@ public class JavaJspGenerator extends JspGenerator {
     */
   }
 
+  /**
+   * Returns the mime encoding the page sets on the response, or null
+   * if the response default is used.
+   */
+  private String getResponseEncoding()
+  {
+    String encoding = Encoding.getMimeName(_parseState.getCharEncoding());
+
+    if (encoding == null && isXml())
+      encoding = "UTF-8";
+
+    if (encoding == null && _parseState.getJspPropertyGroup() != null)
+      encoding = _parseState.getJspPropertyGroup().getCharacterEncoding();
+
+    if (encoding == null)
+      encoding = Encoding.getMimeName(_parseState.getPageEncoding());
+
+    return encoding;
+  }
+
+  /**
+   * Returns the java encoding for pre-encoded static text, or null if
+   * the static text is only written as chars.
+   */
+  String getStaticTextEncoding()
+  {
+    if (! _config.isStaticEncoding())
+      return null;
+
+    String encoding = null;
+    String contentType = _parseState.getContentType();
+
+    if (contentType != null) {
+      int p = contentType.indexOf("charset=");
+
+      if (p >= 0) {
+        encoding = contentType.substring(p + "charset=".length()).trim();
+
+        int q = encoding.indexOf(';');
+        if (q >= 0)
+          encoding = encoding.substring(0, q).trim();
+
+        if (encoding.startsWith("\"") && encoding.endsWith("\"")
+            && encoding.length() > 1)
+          encoding = encoding.substring(1, encoding.length() - 1);
+      }
+    }
+
+    if (encoding == null)
+      encoding = getResponseEncoding();
+
+    if (encoding == null)
+      return null;
+
+    return Encoding.getJavaName(encoding);
+  }
+
   public int addString(String string)
   {
     int index = _strings.get(string);
@@ -2311,6 +2359,23 @@ public class JavaJspGenerator extends JspGenerator {
         out.println("private final static char []_jsp_string" + j + ";");
     }
 
+    // static text pre-encoded in the response encoding
+    String staticEncoding = getStaticTextEncoding();
+
+    if (staticEncoding != null) {
+      out.print("private final static String _jsp_static_encoding = \"");
+      out.printJavaString(staticEncoding);
+      out.println("\";");
+
+      iter = _strings.iterator();
+      while (iter.hasNext()) {
+        Object key = iter.next();
+        int j = _strings.get(key);
+
+        out.println("private final static byte []_jsp_bytes" + j + ";");
+      }
+    }
+
     if (_ideHack) {
       out.println("private void _jsp_init_strings() {");
       out.pushDepth();
@@ -2320,15 +2385,6 @@ public class JavaJspGenerator extends JspGenerator {
       out.pushDepth();
     }
 
-    String enc = out.getWriteStream().getJavaEncoding();
-    if (enc == null || enc.equals("ISO8859_1"))
-      enc = null;
-
-    if (_config.isStaticEncoding() && enc != null) {
-      out.println("try {");
-      out.pushDepth();
-    }
-
     iter = _strings.iterator();
     while (iter.hasNext()) {
       String text = (String) iter.next();
@@ -2358,12 +2414,19 @@ public class JavaJspGenerator extends JspGenerator {
 
       out.println("\".toCharArray();");
     }
-    if (_config.isStaticEncoding() && enc != null) {
-      out.popDepth();
-      out.println("} catch (java.io.UnsupportedEncodingException e) {");
-      out.println("  e.printStackTrace();");
-      out.println("}");
+
+    if (staticEncoding != null) {
+      iter = _strings.iterator();
+      while (iter.hasNext()) {
+        Object key = iter.next();
+        int j = _strings.get(key);
+
+        out.println("_jsp_bytes" + j
+                    + " = com.caucho.jsp.JspWriterAdapter.encodeStatic("
+                    + "_jsp_string" + j + ", _jsp_static_encoding);");
+      }
     }
+
     out.popDepth();
     out.println("}");
   }
@@ -150,9 +150,16 @@ public class JspJavaWriter extends JavaWriter {
     }
     else {
       int index = _gen.addString(new String(text, offset, length));
-    
-      print("out.write(_jsp_string" + index + ", 0, ");
-      println("_jsp_string" + index + ".length);");
+
+      if (_gen.getStaticTextEncoding() != null) {
+        print("com.caucho.jsp.JspWriterAdapter.writeStatic(out, ");
+        print("_jsp_bytes" + index + ", _jsp_string" + index);
+        println(", _jsp_static_encoding);");
+      }
+      else {
+        print("out.write(_jsp_string" + index + ", 0, ");
+        println("_jsp_string" + index + ".length);");
+      }
     }
   }
 
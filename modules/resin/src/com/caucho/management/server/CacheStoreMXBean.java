@@ -52,6 +52,31 @@ public interface CacheStoreMXBean extends ManagedObjectMXBean {
    */
   public long getObjectCount();
   
+  /**
+   * Returns the direct memory allocated for hot values.
+   */
+  public long getMemoryTierSize();
+  
+  /**
+   * Returns the values held in the memory tier.
+   */
+  public long getMemoryTierEntryCount();
+  
+  /**
+   * Returns the reads served from the memory tier.
+   */
+  public long getMemoryTierHitCountTotal();
+  
+  /**
+   * Returns the reads which missed the memory tier.
+   */
+  public long getMemoryTierMissCountTotal();
+  
+  /**
+   * Returns the values evicted from the memory tier.
+   */
+  public long getMemoryTierEvictCountTotal();
+  
   /**
    * Returns the total objects loaded.
    */
@@ -62,4 +62,32 @@ public interface DatabaseMXBean extends ConnectionPoolMXBean {
    */
   @Description("The JDBC drivers")
   public JdbcDriverMXBean []getDrivers();
+
+  //
+  // Statistics
+  //
+
+  /**
+   * Returns the number of distinct prepared statements tracked.
+   */
+  @Description("The number of distinct prepared statements tracked")
+  public int getStatementCount();
+
+  /**
+   * Returns the total prepared statement executions.
+   */
+  @Description("The total number of prepared statement executions")
+  public long getStatementExecuteCountTotal();
+
+  /**
+   * Returns the total prepareStatement calls.
+   */
+  @Description("The total number of prepareStatement calls")
+  public long getStatementPrepareCountTotal();
+
+  /**
+   * Returns the total prepareStatement calls served from the cache.
+   */
+  @Description("The total number of prepareStatement calls served from a connection's statement cache")
+  public long getStatementPrepareCacheHitCountTotal();
 }
@@ -56,4 +56,10 @@ public interface JdbcQueryMXBean extends ManagedObjectMXBean {
   @Description("lists the columns in a table")
   public JdbcTableColumn []listColumns(String table)
     throws SQLException;
+
+  @Description("prepared statement statistics, most executed first")
+  public JdbcStatementStatistics []getStatementStatistics();
+
+  @Description("clears the prepared statement statistics")
+  public void clearStatementStatistics();
 }
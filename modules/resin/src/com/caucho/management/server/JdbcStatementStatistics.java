@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.management.server;
+
+import java.io.Serializable;
+
+/**
+ * Wrapper bean for per-statement statistics returned from a JdbcQueryMXBean.
+ **/
+public class JdbcStatementStatistics implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private String _sql;
+
+  private long _executeCount;
+  private long _executeTime;
+  private long _executeTimeMax;
+  private long _errorCount;
+  private long _rowCount;
+
+  private long _prepareCount;
+  private long _prepareCacheHitCount;
+
+  private long []_latencyHistogram;
+
+  public JdbcStatementStatistics()
+  {
+  }
+
+  public JdbcStatementStatistics(String sql,
+                                 long executeCount,
+                                 long executeTime,
+                                 long executeTimeMax,
+                                 long errorCount,
+                                 long rowCount,
+                                 long prepareCount,
+                                 long prepareCacheHitCount,
+                                 long []latencyHistogram)
+  {
+    _sql = sql;
+    _executeCount = executeCount;
+    _executeTime = executeTime;
+    _executeTimeMax = executeTimeMax;
+    _errorCount = errorCount;
+    _rowCount = rowCount;
+    _prepareCount = prepareCount;
+    _prepareCacheHitCount = prepareCacheHitCount;
+    _latencyHistogram = latencyHistogram;
+  }
+
+  /**
+   * The prepared sql.
+   */
+  public String getSql()
+  {
+    return _sql;
+  }
+
+  /**
+   * Number of executions.
+   */
+  public long getExecuteCount()
+  {
+    return _executeCount;
+  }
+
+  /**
+   * Total execution time in microseconds.
+   */
+  public long getExecuteTime()
+  {
+    return _executeTime;
+  }
+
+  /**
+   * Maximum execution time in microseconds.
+   */
+  public long getExecuteTimeMax()
+  {
+    return _executeTimeMax;
+  }
+
+  /**
+   * Number of executions which failed.
+   */
+  public long getErrorCount()
+  {
+    return _errorCount;
+  }
+
+  /**
+   * Total number of rows updated by the statement.
+   */
+  public long getRowCount()
+  {
+    return _rowCount;
+  }
+
+  /**
+   * Number of prepareStatement calls for the sql.
+   */
+  public long getPrepareCount()
+  {
+    return _prepareCount;
+  }
+
+  /**
+   * Number of prepareStatement calls served from a connection's cache.
+   */
+  public long getPrepareCacheHitCount()
+  {
+    return _prepareCacheHitCount;
+  }
+
+  /**
+   * Execution latency histogram. Bucket 0 counts executions under
+   * 1ms, and bucket i counts executions in [2^(i-1), 2^i) ms. The
+   * last bucket is open-ended.
+   */
+  public long []getLatencyHistogram()
+  {
+    return _latencyHistogram;
+  }
+}
@@ -281,6 +281,22 @@ public interface PortMXBean extends ManagedObjectMXBean {
                + " been throttled by disconnectin")
   public long getThrottleDisconnectCountTotal();
 
+  /**
+   * Returns the total number of connections rejected by the
+   * per-address throttle on accept.
+   */
+  @Description("The total number of connections rejected by the"
+               + " per-address throttle")
+  public long getThrottleConnectionRejectCountTotal();
+
+  /**
+   * Returns the total number of keepalive requests rejected by the
+   * per-address request rate.
+   */
+  @Description("The total number of keepalive requests rejected by the"
+               + " per-address request rate")
+  public long getThrottleRequestRejectCountTotal();
+
   /**
    * Returns the total duration in milliseconds that requests serviced by
    * this port have taken.
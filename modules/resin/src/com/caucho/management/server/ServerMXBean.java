@@ -330,6 +330,18 @@ public interface ServerMXBean extends ManagedObjectMXBean {
   @Description("The total count of sendfile responses")
   public long getSendfileCountTotal();
 
+  /**
+   * Returns the bytes of static files sent zero-copy
+   */
+  @Description("The total bytes of static files sent zero-copy")
+  public long getSendfileBytesTotal();
+
+  /**
+   * Returns the bytes of static files copied through the response buffers
+   */
+  @Description("The total bytes of static files copied through buffers")
+  public long getSendfileCopyBytesTotal();
+
   //
   // Operations
   //
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.memcached;
+
+import java.io.IOException;
+
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Constants and framing for the memcached binary protocol.
+ *
+ * Each packet has a 24-byte header followed by the extras, the key and
+ * the value. Keys are written as one byte per char, matching the text
+ * protocol.
+ */
+final class MemcachedBinary {
+  static final int MAGIC_REQUEST = 0x80;
+  static final int MAGIC_RESPONSE = 0x81;
+
+  static final int HEADER_LENGTH = 24;
+
+  static final int OP_GET = 0x00;
+  static final int OP_SET = 0x01;
+  static final int OP_ADD = 0x02;
+  static final int OP_REPLACE = 0x03;
+  static final int OP_DELETE = 0x04;
+  static final int OP_INCREMENT = 0x05;
+  static final int OP_DECREMENT = 0x06;
+  static final int OP_QUIT = 0x07;
+  static final int OP_GETQ = 0x09;
+  static final int OP_NOOP = 0x0a;
+  static final int OP_VERSION = 0x0b;
+  static final int OP_GETK = 0x0c;
+  static final int OP_GETKQ = 0x0d;
+  static final int OP_APPEND = 0x0e;
+  static final int OP_PREPEND = 0x0f;
+  static final int OP_SETQ = 0x11;
+  static final int OP_ADDQ = 0x12;
+  static final int OP_REPLACEQ = 0x13;
+  static final int OP_DELETEQ = 0x14;
+  static final int OP_INCREMENTQ = 0x15;
+  static final int OP_DECREMENTQ = 0x16;
+  static final int OP_QUITQ = 0x17;
+  static final int OP_APPENDQ = 0x19;
+  static final int OP_PREPENDQ = 0x1a;
+
+  static final int STATUS_OK = 0x0000;
+  static final int STATUS_KEY_NOT_FOUND = 0x0001;
+  static final int STATUS_KEY_EXISTS = 0x0002;
+  static final int STATUS_INVALID_ARGUMENTS = 0x0004;
+  static final int STATUS_NOT_STORED = 0x0005;
+  static final int STATUS_NON_NUMERIC = 0x0006;
+  static final int STATUS_UNKNOWN_COMMAND = 0x0081;
+
+  private MemcachedBinary()
+  {
+  }
+
+  /**
+   * Writes a request header.
+   */
+  static void writeRequest(WriteStream out,
+                           int opcode,
+                           int keyLength,
+                           int extrasLength,
+                           long bodyLength,
+                           int opaque,
+                           long cas)
+    throws IOException
+  {
+    out.write(MAGIC_REQUEST);
+    writeHeader(out, opcode, keyLength, extrasLength, 0,
+                bodyLength, opaque, cas);
+  }
+
+  /**
+   * Writes a response header.
+   */
+  static void writeResponse(WriteStream out,
+                            int opcode,
+                            int keyLength,
+                            int extrasLength,
+                            int status,
+                            long bodyLength,
+                            int opaque,
+                            long cas)
+    throws IOException
+  {
+    out.write(MAGIC_RESPONSE);
+    writeHeader(out, opcode, keyLength, extrasLength, status,
+                bodyLength, opaque, cas);
+  }
+
+  private static void writeHeader(WriteStream out,
+                                  int opcode,
+                                  int keyLength,
+                                  int extrasLength,
+                                  int status,
+                                  long bodyLength,
+                                  int opaque,
+                                  long cas)
+    throws IOException
+  {
+    out.write(opcode);
+    writeShort(out, keyLength);
+    out.write(extrasLength);
+    out.write(0); // data type
+    writeShort(out, status);
+    writeInt(out, (int) bodyLength);
+    writeInt(out, opaque);
+    writeLong(out, cas);
+  }
+
+  /**
+   * Writes an error or status response with a text message body.
+   */
+  static void writeStatus(WriteStream out,
+                          int opcode,
+                          int status,
+                          String message,
+                          int opaque)
+    throws IOException
+  {
+    int length = message != null ? message.length() : 0;
+
+    writeResponse(out, opcode, 0, 0, status, length, opaque, 0);
+
+    if (length > 0)
+      writeKey(out, message);
+  }
+
+  static void writeShort(WriteStream out, int value)
+    throws IOException
+  {
+    out.write(value >> 8);
+    out.write(value);
+  }
+
+  static void writeInt(WriteStream out, int value)
+    throws IOException
+  {
+    out.write(value >> 24);
+    out.write(value >> 16);
+    out.write(value >> 8);
+    out.write(value);
+  }
+
+  static void writeLong(WriteStream out, long value)
+    throws IOException
+  {
+    writeInt(out, (int) (value >> 32));
+    writeInt(out, (int) value);
+  }
+
+  /**
+   * Writes the key as one byte per char.
+   */
+  static void writeKey(WriteStream out, String key)
+    throws IOException
+  {
+    int len = key.length();
+
+    for (int i = 0; i < len; i++) {
+      out.write(key.charAt(i));
+    }
+  }
+
+  static int readShort(ReadStream is)
+    throws IOException
+  {
+    return (readByte(is) << 8) | readByte(is);
+  }
+
+  static int readInt(ReadStream is)
+    throws IOException
+  {
+    return ((readByte(is) << 24)
+            | (readByte(is) << 16)
+            | (readByte(is) << 8)
+            | readByte(is));
+  }
+
+  static long readLong(ReadStream is)
+    throws IOException
+  {
+    long high = readInt(is) & 0xffffffffL;
+    long low = readInt(is) & 0xffffffffL;
+
+    return (high << 32) | low;
+  }
+
+  static int readByte(ReadStream is)
+    throws IOException
+  {
+    int ch = is.read();
+
+    if (ch < 0)
+      throw new IOException("unexpected end of file in memcached binary packet");
+
+    return ch;
+  }
+
+  /**
+   * Reads a key of the given length.
+   */
+  static String readKey(ReadStream is, StringBuilder sb, int length)
+    throws IOException
+  {
+    sb.setLength(0);
+
+    for (int i = 0; i < length; i++) {
+      sb.append((char) readByte(is));
+    }
+
+    return sb.toString();
+  }
+
+  static void skip(ReadStream is, long length)
+    throws IOException
+  {
+    for (; length > 0; length--) {
+      readByte(is);
+    }
+  }
+}
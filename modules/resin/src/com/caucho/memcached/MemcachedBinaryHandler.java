@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.memcached;
+
+import static com.caucho.memcached.MemcachedBinary.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import com.caucho.distcache.ClusterCache;
+import com.caucho.distcache.ExtCacheEntry;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Server side of the memcached binary protocol. The connection
+ * dispatches here when a request starts with the binary magic byte.
+ *
+ * Quiet commands only answer on errors (or hits for getq/getkq), so a
+ * client can pipeline a batch and end it with a noop.
+ */
+class MemcachedBinaryHandler
+{
+  private static final long NO_AUTO_CREATE = 0xffffffffL;
+
+  private static final MemcachedConnection.SetCommand SET
+    = new MemcachedConnection.SetCommand();
+  private static final MemcachedConnection.AddCommand ADD
+    = new MemcachedConnection.AddCommand();
+  private static final MemcachedConnection.ReplaceCommand REPLACE
+    = new MemcachedConnection.ReplaceCommand();
+  private static final MemcachedConnection.AppendCommand APPEND
+    = new MemcachedConnection.AppendCommand();
+  private static final MemcachedConnection.PrependCommand PREPEND
+    = new MemcachedConnection.PrependCommand();
+  private static final MemcachedConnection.DeleteCommand DELETE
+    = new MemcachedConnection.DeleteCommand();
+  private static final MemcachedConnection.IncrementCommand INCREMENT
+    = new MemcachedConnection.IncrementCommand();
+
+  private final MemcachedConnection _conn;
+  private final StringBuilder _sb = new StringBuilder();
+
+  MemcachedBinaryHandler(MemcachedConnection conn)
+  {
+    _conn = conn;
+  }
+
+  /**
+   * Handles a request whose magic byte has already been read.
+   *
+   * @return false if the connection should close
+   */
+  boolean handleRequest(ReadStream is)
+    throws IOException
+  {
+    WriteStream out = _conn.getWriteStream();
+    out.setDisableClose(true);
+
+    int opcode = readByte(is);
+    int keyLength = readShort(is);
+    int extrasLength = readByte(is);
+    readByte(is); // data type
+    readShort(is); // vbucket
+    long bodyLength = readInt(is) & 0xffffffffL;
+    int opaque = readInt(is);
+    long cas = readLong(is);
+
+    long valueLength = bodyLength - extrasLength - keyLength;
+
+    if (valueLength < 0)
+      throw new IOException("PROTOCOL: invalid binary body length " + bodyLength);
+
+    switch (opcode) {
+    case OP_GET:
+    case OP_GETQ:
+    case OP_GETK:
+    case OP_GETKQ:
+      skip(is, extrasLength);
+      get(out, opcode, readKey(is, _sb, keyLength), opaque);
+      skip(is, valueLength);
+      return true;
+
+    case OP_SET:
+    case OP_SETQ:
+    case OP_ADD:
+    case OP_ADDQ:
+    case OP_REPLACE:
+    case OP_REPLACEQ:
+      store(is, out, opcode, keyLength, extrasLength, valueLength,
+            opaque, cas);
+      return true;
+
+    case OP_APPEND:
+    case OP_APPENDQ:
+    case OP_PREPEND:
+    case OP_PREPENDQ:
+      skip(is, extrasLength);
+      concat(is, out, opcode, readKey(is, _sb, keyLength), valueLength, opaque);
+      return true;
+
+    case OP_DELETE:
+    case OP_DELETEQ:
+      skip(is, extrasLength);
+      delete(out, opcode, readKey(is, _sb, keyLength), opaque);
+      skip(is, valueLength);
+      return true;
+
+    case OP_INCREMENT:
+    case OP_INCREMENTQ:
+    case OP_DECREMENT:
+    case OP_DECREMENTQ:
+      increment(is, out, opcode, keyLength, extrasLength, valueLength, opaque);
+      return true;
+
+    case OP_NOOP:
+      skip(is, bodyLength);
+      writeResponse(out, opcode, 0, 0, STATUS_OK, 0, opaque, 0);
+      out.flush();
+      return true;
+
+    case OP_VERSION:
+      skip(is, bodyLength);
+      writeStatus(out, opcode, STATUS_OK, "1.4.0", opaque);
+      return true;
+
+    case OP_QUIT:
+      skip(is, bodyLength);
+      writeResponse(out, opcode, 0, 0, STATUS_OK, 0, opaque, 0);
+      out.flush();
+      return false;
+
+    case OP_QUITQ:
+      skip(is, bodyLength);
+      return false;
+
+    default:
+      skip(is, bodyLength);
+      writeStatus(out, opcode, STATUS_UNKNOWN_COMMAND, "Unknown command",
+                  opaque);
+      return true;
+    }
+  }
+
+  private void get(WriteStream out, int opcode, String key, int opaque)
+    throws IOException
+  {
+    boolean isQuiet = (opcode == OP_GETQ || opcode == OP_GETKQ);
+    boolean isKey = (opcode == OP_GETK || opcode == OP_GETKQ);
+
+    ClusterCache cache = _conn.getCache();
+
+    ExtCacheEntry entry = cache.getLiveCacheEntry(key);
+
+    if (entry == null
+        || entry.getValueHash() == 0
+        || entry.isExpired(CurrentTime.getCurrentTime())) {
+      if (! isQuiet)
+        writeStatus(out, opcode, STATUS_KEY_NOT_FOUND, "Not found", opaque);
+
+      return;
+    }
+
+    int keyLength = isKey ? key.length() : 0;
+    long bytes = entry.getValueLength();
+
+    writeResponse(out, opcode, keyLength, 4, STATUS_OK,
+                  4 + keyLength + bytes, opaque, entry.getValueHash());
+
+    writeInt(out, entry.getUserFlags());
+
+    if (isKey)
+      writeKey(out, key);
+
+    if (! entry.readData(out, cache.getConfig())) {
+      throw new IOException("memcached unable to write value for " + key);
+    }
+  }
+
+  private void store(ReadStream is,
+                     WriteStream out,
+                     int opcode,
+                     int keyLength,
+                     int extrasLength,
+                     long valueLength,
+                     int opaque,
+                     long cas)
+    throws IOException
+  {
+    if (extrasLength != 8) {
+      skip(is, extrasLength + keyLength + valueLength);
+      writeStatus(out, opcode, STATUS_INVALID_ARGUMENTS, "Invalid arguments",
+                  opaque);
+      return;
+    }
+
+    int flags = readInt(is);
+    long expTime = readInt(is) & 0xffffffffL;
+
+    String key = readKey(is, _sb, keyLength);
+
+    long timeout = MemcachedConnection.toExpireTimeout(expTime);
+
+    if (cas != 0) {
+      ExtCacheEntry entry = _conn.getCache().getExtCacheEntry(key);
+
+      if (entry == null || entry.getValueHash() != cas) {
+        skip(is, valueLength);
+
+        int status = entry == null ? STATUS_KEY_NOT_FOUND : STATUS_KEY_EXISTS;
+        writeStatus(out, opcode, status, "Exists", opaque);
+        return;
+      }
+    }
+
+    MemcachedConnection.StoreCommand command;
+    boolean isQuiet;
+
+    switch (opcode) {
+    case OP_ADD:
+    case OP_ADDQ:
+      command = ADD;
+      isQuiet = opcode == OP_ADDQ;
+      break;
+
+    case OP_REPLACE:
+    case OP_REPLACEQ:
+      command = REPLACE;
+      isQuiet = opcode == OP_REPLACEQ;
+      break;
+
+    default:
+      command = SET;
+      isQuiet = opcode == OP_SETQ;
+      break;
+    }
+
+    if (command.doCommand(_conn, key, valueLength, timeout, flags)) {
+      if (! isQuiet)
+        writeResponse(out, opcode, 0, 0, STATUS_OK, 0, opaque, 0);
+    }
+    else if (command == ADD) {
+      writeStatus(out, opcode, STATUS_KEY_EXISTS, "Exists", opaque);
+    }
+    else {
+      writeStatus(out, opcode, STATUS_KEY_NOT_FOUND, "Not found", opaque);
+    }
+  }
+
+  private void concat(ReadStream is,
+                      WriteStream out,
+                      int opcode,
+                      String key,
+                      long valueLength,
+                      int opaque)
+    throws IOException
+  {
+    boolean isAppend = (opcode == OP_APPEND || opcode == OP_APPENDQ);
+    boolean isQuiet = (opcode == OP_APPENDQ || opcode == OP_PREPENDQ);
+
+    MemcachedConnection.StoreCommand command = isAppend ? APPEND : PREPEND;
+
+    if (command.doCommand(_conn, key, valueLength, 0, 0)) {
+      if (! isQuiet)
+        writeResponse(out, opcode, 0, 0, STATUS_OK, 0, opaque, 0);
+    }
+    else {
+      writeStatus(out, opcode, STATUS_NOT_STORED, "Not stored", opaque);
+    }
+  }
+
+  private void delete(WriteStream out, int opcode, String key, int opaque)
+    throws IOException
+  {
+    if (DELETE.deleteCache(_conn.getCache(), 0, key)) {
+      if (opcode != OP_DELETEQ)
+        writeResponse(out, opcode, 0, 0, STATUS_OK, 0, opaque, 0);
+    }
+    else {
+      writeStatus(out, opcode, STATUS_KEY_NOT_FOUND, "Not found", opaque);
+    }
+  }
+
+  private void increment(ReadStream is,
+                         WriteStream out,
+                         int opcode,
+                         int keyLength,
+                         int extrasLength,
+                         long valueLength,
+                         int opaque)
+    throws IOException
+  {
+    if (extrasLength != 20) {
+      skip(is, extrasLength + keyLength + valueLength);
+      writeStatus(out, opcode, STATUS_INVALID_ARGUMENTS, "Invalid arguments",
+                  opaque);
+      return;
+    }
+
+    long delta = readLong(is);
+    long initial = readLong(is);
+    long expTime = readInt(is) & 0xffffffffL;
+
+    String key = readKey(is, _sb, keyLength);
+    skip(is, valueLength);
+
+    boolean isDecrement = (opcode == OP_DECREMENT || opcode == OP_DECREMENTQ);
+    boolean isQuiet = (opcode == OP_INCREMENTQ || opcode == OP_DECREMENTQ);
+
+    ClusterCache cache = _conn.getCache();
+
+    long value = INCREMENT.incrementCache(cache, key,
+                                          isDecrement ? -delta : delta);
+
+    if (value == Long.MIN_VALUE) {
+      if (expTime == NO_AUTO_CREATE) {
+        writeStatus(out, opcode, STATUS_KEY_NOT_FOUND, "Not found", opaque);
+        return;
+      }
+
+      value = initial;
+
+      long timeout = MemcachedConnection.toExpireTimeout(expTime);
+      byte []bytes = String.valueOf(value).getBytes();
+
+      cache.put(key, new ByteArrayInputStream(bytes), timeout, timeout);
+    }
+
+    if (! isQuiet) {
+      writeResponse(out, opcode, 0, 0, STATUS_OK, 8, opaque, 0);
+      writeLong(out, value);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _conn + "]";
+  }
+}
@@ -31,7 +31,12 @@ package com.caucho.memcached;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Future;
@@ -60,6 +65,7 @@ import com.caucho.distcache.LocalCache;
 import com.caucho.hessian.io.Hessian2Input;
 import com.caucho.hessian.io.Hessian2Output;
 import com.caucho.network.balance.ClientSocket;
+import com.caucho.network.balance.ClientSocketFactory;
 import com.caucho.server.distcache.CacheConfig;
 import com.caucho.server.distcache.CacheImpl;
 import com.caucho.server.distcache.DistCacheEntry;
@@ -94,6 +100,11 @@ public class MemcachedClient implements Cache
   
   private long _modifiedExpireTimeout = 3600 * 1000L;
   
+  // keys per text "get" line in a multi-get
+  private static final int MAX_GET_KEYS = 100;
+  
+  private boolean _isBinary;
+  
   private AtomicReference<CacheImpl> _localCache
     = new AtomicReference<CacheImpl>();
   
@@ -158,6 +169,15 @@ public class MemcachedClient implements Cache
     _modifiedExpireTimeout = timeout.getPeriod();
   }
 
+  /**
+   * Uses the memcached binary protocol instead of the text protocol.
+   */
+  @Configurable
+  public void setBinary(boolean isBinary)
+  {
+    _isBinary = isBinary;
+  }
+
   @Override
   public boolean containsKey(Object key) throws CacheException
   {
@@ -173,7 +193,7 @@ public class MemcachedClient implements Cache
     boolean isResin = _isResin != null && _isResin;
     
     if (! isResin)
-      return getImpl(String.valueOf(key));
+      return getRemote(String.valueOf(key));
     
     CacheImpl cache = getLocalCache();
     
@@ -183,13 +203,22 @@ public class MemcachedClient implements Cache
       return value;
     }
     
-    value = getImpl(String.valueOf(key));
+    value = getRemote(String.valueOf(key));
     
     cache.put(key, value);
     
     return value;
   }
     
+  private Object getRemote(String key)
+    throws CacheException
+  {
+    if (_isBinary)
+      return getAllImpl(Collections.singletonList(key)).get(key);
+    else
+      return getImpl(key);
+  }
+    
   Object getImpl(String key) 
     throws CacheException
   {
@@ -436,6 +465,11 @@ public class MemcachedClient implements Cache
   
   private void putImpl(Object key, Object value) throws CacheException
   {
+    if (_isBinary) {
+      putBinary(String.valueOf(key), value);
+      return;
+    }
+    
     ClientSocket client = null;
     long idleStartTime = CurrentTime.getCurrentTime();
     
@@ -595,6 +629,11 @@ public class MemcachedClient implements Cache
   
   void removeImpl(Object key) throws CacheException
   {
+    if (_isBinary) {
+      removeAllImpl(Collections.singletonList(String.valueOf(key)));
+      return;
+    }
+    
     ClientSocket client = null;
     long idleStartTime = CurrentTime.getCurrentTime();
     
@@ -779,7 +818,7 @@ public class MemcachedClient implements Cache
   private boolean readString(ReadStream is, CharBuffer cb)
     throws IOException
   {
-    _cb.clear();
+    cb.clear();
     
     int ch = is.read();
   
@@ -1079,6 +1118,187 @@ public class MemcachedClient implements Cache
       
       return sublen;
     }
+    
+    void skipRemaining()
+      throws IOException
+    {
+      while (_length > 0 && read() >= 0) {
+      }
+    }
+  }
+  
+  /**
+   * The keys for a single server and the connection used for them.
+   */
+  static class ServerBatch {
+    private final ClientSocket _client;
+    private final long _idleStartTime;
+    private final ArrayList<String> _keys = new ArrayList<String>();
+    
+    private boolean _isValid;
+    
+    ServerBatch(ClientSocket client)
+    {
+      _client = client;
+      _idleStartTime = CurrentTime.getCurrentTime();
+    }
+    
+    ClientSocketFactory getPool()
+    {
+      return _client.getPool();
+    }
+    
+    ReadStream getInputStream()
+    {
+      return _client.getInputStream();
+    }
+    
+    WriteStream getOutputStream()
+    {
+      return _client.getOutputStream();
+    }
+    
+    ArrayList<String> getKeys()
+    {
+      return _keys;
+    }
+    
+    void addKey(String key)
+    {
+      _keys.add(key);
+    }
+    
+    void setValid(boolean isValid)
+    {
+      _isValid = isValid;
+    }
+    
+    void close()
+    {
+      if (_isValid)
+        _client.free(_idleStartTime);
+      else
+        _client.close();
+    }
+  }
+  
+  /**
+   * Header of a binary protocol response.
+   */
+  static class BinaryResponse {
+    private int _opcode;
+    private int _keyLength;
+    private int _extrasLength;
+    private int _status;
+    private long _bodyLength;
+    
+    boolean read(ReadStream is)
+      throws IOException
+    {
+      int magic = is.read();
+      
+      if (magic < 0)
+        return false;
+      
+      if (magic != MemcachedBinary.MAGIC_RESPONSE) {
+        throw new IOException(L.l("unexpected memcached binary magic 0x{0}",
+                                  Integer.toHexString(magic)));
+      }
+      
+      _opcode = MemcachedBinary.readByte(is);
+      _keyLength = MemcachedBinary.readShort(is);
+      _extrasLength = MemcachedBinary.readByte(is);
+      MemcachedBinary.readByte(is); // data type
+      _status = MemcachedBinary.readShort(is);
+      _bodyLength = MemcachedBinary.readInt(is) & 0xffffffffL;
+      MemcachedBinary.readInt(is); // opaque
+      MemcachedBinary.readLong(is); // cas
+      
+      return true;
+    }
+    
+    int getOpcode()
+    {
+      return _opcode;
+    }
+    
+    int getKeyLength()
+    {
+      return _keyLength;
+    }
+    
+    int getExtrasLength()
+    {
+      return _extrasLength;
+    }
+    
+    int getStatus()
+    {
+      return _status;
+    }
+    
+    long getBodyLength()
+    {
+      return _bodyLength;
+    }
+  }
+  
+  static class ClientMutableEntry implements MutableEntry {
+    private final Object _key;
+    private Object _value;
+    
+    private boolean _isModified;
+    private boolean _isRemoved;
+    
+    ClientMutableEntry(Object key, Object value)
+    {
+      _key = key;
+      _value = value;
+    }
+    
+    @Override
+    public Object getKey()
+    {
+      return _key;
+    }
+    
+    @Override
+    public Object getValue()
+    {
+      return _value;
+    }
+    
+    @Override
+    public boolean exists()
+    {
+      return _value != null;
+    }
+    
+    @Override
+    public void remove()
+    {
+      _value = null;
+      _isRemoved = true;
+      _isModified = false;
+    }
+    
+    @Override
+    public void setValue(Object value)
+    {
+      _value = value;
+      _isModified = true;
+      _isRemoved = false;
+    }
+    
+    boolean isModified()
+    {
+      return _isModified;
+    }
+    
+    boolean isRemoved()
+    {
+      return _isRemoved;
+    }
   }
 
   /* (non-Javadoc)
@@ -1106,8 +1326,382 @@ public class MemcachedClient implements Cache
   @Override
   public Map getAll(Set keys)
   {
-    // TODO Auto-generated method stub
-    return null;
+    if (_isResin == null)
+      initResin();
+    
+    boolean isResin = _isResin != null && _isResin;
+    
+    CacheImpl cache = isResin ? getLocalCache() : null;
+    
+    HashMap<Object,Object> result = new HashMap<Object,Object>();
+    
+    // remote key string to the caller's key
+    LinkedHashMap<String,Object> remoteKeys = new LinkedHashMap<String,Object>();
+    
+    for (Object key : keys) {
+      if (cache != null) {
+        Object value = cache.get(key);
+        
+        if (value != null) {
+          result.put(key, value);
+          continue;
+        }
+      }
+      
+      remoteKeys.put(String.valueOf(key), key);
+    }
+    
+    if (remoteKeys.size() == 0)
+      return result;
+    
+    Map<String,Object> values = getAllImpl(remoteKeys.keySet());
+    
+    for (Map.Entry<String,Object> entry : values.entrySet()) {
+      Object key = remoteKeys.get(entry.getKey());
+      Object value = entry.getValue();
+      
+      result.put(key, value);
+      
+      if (cache != null)
+        cache.put(key, value);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Fetches the keys with one pipelined request per server. The requests
+   * to all the servers are written before any response is read.
+   */
+  private Map<String,Object> getAllImpl(Collection<String> keys)
+    throws CacheException
+  {
+    HashMap<String,Object> values = new HashMap<String,Object>();
+    
+    ArrayList<ServerBatch> batches = openBatches(keys);
+    
+    try {
+      for (ServerBatch batch : batches) {
+        if (_isBinary)
+          writeBinaryGets(batch);
+        else
+          writeTextGets(batch);
+      }
+      
+      Hessian2Input hIn = new Hessian2Input();
+      CharBuffer cb = new CharBuffer();
+      
+      for (ServerBatch batch : batches) {
+        if (_isBinary)
+          readBinaryGets(batch, values, hIn);
+        else
+          readTextGets(batch, values, hIn, cb);
+        
+        batch.setValid(true);
+      }
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    } finally {
+      closeBatches(batches);
+    }
+    
+    return values;
+  }
+  
+  private void writeTextGets(ServerBatch batch)
+    throws IOException
+  {
+    WriteStream out = batch.getOutputStream();
+    ArrayList<String> keys = batch.getKeys();
+    
+    for (int i = 0; i < keys.size(); i++) {
+      if (i % MAX_GET_KEYS == 0) {
+        if (i > 0)
+          out.print("\r\n");
+        
+        out.print("get");
+      }
+      
+      out.print(' ');
+      out.print(keys.get(i));
+    }
+    
+    out.print("\r\n");
+    out.flush();
+  }
+  
+  private void readTextGets(ServerBatch batch,
+                            Map<String,Object> values,
+                            Hessian2Input hIn,
+                            CharBuffer cb)
+    throws IOException
+  {
+    ReadStream is = batch.getInputStream();
+    
+    int lines = (batch.getKeys().size() + MAX_GET_KEYS - 1) / MAX_GET_KEYS;
+    
+    for (int i = 0; i < lines; i++) {
+      while (true) {
+        readString(is, cb);
+        
+        if (cb.matches("END")) {
+          if (! skipToEndOfLine(is))
+            throw new IOException(L.l("unexpected end of memcached response"));
+          
+          break;
+        }
+        
+        if (! cb.matches("VALUE")) {
+          throw new IOException(L.l("unexpected memcached response '{0}'", cb));
+        }
+        
+        readString(is, cb);
+        String key = cb.toString();
+        
+        readInt(is); // flags
+        long length = readInt(is);
+        
+        if (! skipToEndOfLine(is))
+          throw new IOException(L.l("unexpected end of memcached response"));
+        
+        values.put(key, readValue(is, length, hIn));
+        
+        skipToEndOfLine(is);
+      }
+    }
+  }
+  
+  private void writeBinaryGets(ServerBatch batch)
+    throws IOException
+  {
+    WriteStream out = batch.getOutputStream();
+    ArrayList<String> keys = batch.getKeys();
+    
+    for (int i = 0; i < keys.size(); i++) {
+      String key = keys.get(i);
+      int keyLength = key.length();
+      
+      // quiet get with key: only hits answer
+      MemcachedBinary.writeRequest(out, MemcachedBinary.OP_GETKQ,
+                                   keyLength, 0, keyLength, i, 0);
+      MemcachedBinary.writeKey(out, key);
+    }
+    
+    MemcachedBinary.writeRequest(out, MemcachedBinary.OP_NOOP,
+                                 0, 0, 0, -1, 0);
+    out.flush();
+  }
+  
+  private void readBinaryGets(ServerBatch batch,
+                              Map<String,Object> values,
+                              Hessian2Input hIn)
+    throws IOException
+  {
+    ReadStream is = batch.getInputStream();
+    BinaryResponse response = new BinaryResponse();
+    StringBuilder sb = new StringBuilder();
+    
+    while (response.read(is)
+           && response.getOpcode() != MemcachedBinary.OP_NOOP) {
+      if (response.getStatus() != MemcachedBinary.STATUS_OK) {
+        MemcachedBinary.skip(is, response.getBodyLength());
+        continue;
+      }
+      
+      MemcachedBinary.skip(is, response.getExtrasLength());
+      
+      String key = MemcachedBinary.readKey(is, sb, response.getKeyLength());
+      
+      long length = (response.getBodyLength()
+                     - response.getExtrasLength()
+                     - response.getKeyLength());
+      
+      values.put(key, readValue(is, length, hIn));
+    }
+  }
+  
+  private Object readValue(ReadStream is, long length, Hessian2Input hIn)
+    throws IOException
+  {
+    GetInputStream gis = new GetInputStream(is, length);
+    
+    hIn.init(gis);
+    
+    Object value = hIn.readObject();
+    
+    gis.skipRemaining();
+    
+    return value;
+  }
+  
+  private void putBinary(String key, Object value)
+    throws CacheException
+  {
+    ClientSocket client = null;
+    long idleStartTime = CurrentTime.getCurrentTime();
+    
+    boolean isValid = false;
+    
+    try {
+      client = _loadBalancer.openSticky(null, key, null);
+      
+      if (client == null)
+        throw new CacheException("Cannot put memcache");
+      
+      WriteStream out = client.getOutputStream();
+      ReadStream is = client.getInputStream();
+      
+      TempStream ts = serialize(value);
+      long length = ts.getLength();
+      int keyLength = key.length();
+      
+      MemcachedBinary.writeRequest(out, MemcachedBinary.OP_SET,
+                                   keyLength, 8, 8 + keyLength + length,
+                                   0, 0);
+      MemcachedBinary.writeInt(out, 0); // flags
+      MemcachedBinary.writeInt(out, (int) (_modifiedExpireTimeout / 1000));
+      MemcachedBinary.writeKey(out, key);
+      ts.writeToStream(out);
+      out.flush();
+      
+      BinaryResponse response = new BinaryResponse();
+      
+      if (! response.read(is))
+        throw new IOException(L.l("unexpected end of memcached response"));
+      
+      MemcachedBinary.skip(is, response.getBodyLength());
+      
+      if (response.getStatus() != MemcachedBinary.STATUS_OK) {
+        throw new IllegalStateException(L.l("memcached set failed with status {0}",
+                                            response.getStatus()));
+      }
+      
+      isValid = true;
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    } finally {
+      if (client == null) {
+      }
+      else if (isValid)
+        client.free(idleStartTime);
+      else
+        client.close();
+    }
+  }
+  
+  /**
+   * Deletes the keys with one pipelined request per server.
+   */
+  private void removeAllImpl(Collection<String> keys)
+    throws CacheException
+  {
+    ArrayList<ServerBatch> batches = openBatches(keys);
+    
+    try {
+      for (ServerBatch batch : batches) {
+        WriteStream out = batch.getOutputStream();
+        
+        for (String key : batch.getKeys()) {
+          if (_isBinary) {
+            int keyLength = key.length();
+            
+            MemcachedBinary.writeRequest(out, MemcachedBinary.OP_DELETEQ,
+                                         keyLength, 0, keyLength, 0, 0);
+            MemcachedBinary.writeKey(out, key);
+          }
+          else {
+            out.print("delete ");
+            out.print(key);
+            out.print(" 0\r\n");
+          }
+        }
+        
+        if (_isBinary) {
+          MemcachedBinary.writeRequest(out, MemcachedBinary.OP_NOOP,
+                                       0, 0, 0, -1, 0);
+        }
+        
+        out.flush();
+      }
+      
+      for (ServerBatch batch : batches) {
+        ReadStream is = batch.getInputStream();
+        
+        if (_isBinary) {
+          BinaryResponse response = new BinaryResponse();
+          
+          // quiet deletes only answer for missing keys
+          while (response.read(is)
+                 && response.getOpcode() != MemcachedBinary.OP_NOOP) {
+            MemcachedBinary.skip(is, response.getBodyLength());
+          }
+        }
+        else {
+          for (int i = 0; i < batch.getKeys().size(); i++) {
+            String line = is.readLine();
+            
+            if (! "DELETED".equals(line) && ! "NOT_FOUND".equals(line)) {
+              throw new IOException(L.l("unexpected memcached response '{0}'",
+                                        line));
+            }
+          }
+        }
+        
+        batch.setValid(true);
+      }
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    } finally {
+      closeBatches(batches);
+    }
+  }
+  
+  /**
+   * Groups the keys by server, holding one connection per server.
+   */
+  private ArrayList<ServerBatch> openBatches(Collection<String> keys)
+    throws CacheException
+  {
+    ArrayList<ServerBatch> batches = new ArrayList<ServerBatch>();
+    
+    for (String key : keys) {
+      ClientSocket client = _loadBalancer.openSticky(null, key, null);
+      
+      if (client == null) {
+        closeBatches(batches);
+        
+        throw new CacheException("Cannot open client");
+      }
+      
+      ServerBatch batch = null;
+      
+      for (int i = 0; i < batches.size() && batch == null; i++) {
+        if (batches.get(i).getPool() == client.getPool())
+          batch = batches.get(i);
+      }
+      
+      if (batch == null) {
+        batch = new ServerBatch(client);
+        batches.add(batch);
+      }
+      else {
+        // the server already has a connection in the batch
+        client.free(CurrentTime.getCurrentTime());
+      }
+      
+      batch.addKey(key);
+    }
+    
+    return batches;
+  }
+  
+  private void closeBatches(ArrayList<ServerBatch> batches)
+  {
+    for (ServerBatch batch : batches) {
+      batch.close();
+    }
+    
+    batches.clear();
   }
 
   /* (non-Javadoc)
@@ -1116,8 +1710,17 @@ public class MemcachedClient implements Cache
   @Override
   public Object invokeEntryProcessor(Object key, EntryProcessor entryProcessor)
   {
-    // TODO Auto-generated method stub
-    return null;
+    // memcached has no server-side processing, so the update isn't atomic
+    ClientMutableEntry entry = new ClientMutableEntry(key, get(key));
+    
+    Object result = entryProcessor.process(entry);
+    
+    if (entry.isRemoved())
+      remove(key);
+    else if (entry.isModified())
+      put(key, entry.getValue());
+    
+    return result;
   }
 
   /* (non-Javadoc)
@@ -1126,8 +1729,29 @@ public class MemcachedClient implements Cache
   @Override
   public void removeAll(Set keys)
   {
-    // TODO Auto-generated method stub
+    if (_isResin == null)
+      initResin();
+    
+    boolean isResin = _isResin != null && _isResin;
+    
+    if (isResin) {
+      CacheImpl cache = getLocalCache();
+      
+      for (Object key : keys) {
+        cache.remove(key);
+      }
+      
+      return;
+    }
+    
+    ArrayList<String> remoteKeys = new ArrayList<String>();
+    
+    for (Object key : keys) {
+      remoteKeys.add(String.valueOf(key));
+    }
     
+    if (remoteKeys.size() > 0)
+      removeAllImpl(remoteKeys);
   }
 
   /* (non-Javadoc)
@@ -61,6 +61,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
   private SetInputStream _setInputStream = new SetInputStream();
   private GetOutputStream _getOutputStream = new GetOutputStream();
   private StringBuilder _sb = new StringBuilder();
+  private MemcachedBinaryHandler _binary;
   
   MemcachedConnection(MemcachedProtocol memcache, SocketLink link)
   {
@@ -138,6 +139,14 @@ public class MemcachedConnection extends AbstractProtocolConnection
     if (ch < 0)
       return false;
     
+    if (ch == MemcachedBinary.MAGIC_REQUEST) {
+      if (_binary == null) {
+        _binary = new MemcachedBinaryHandler(this);
+      }
+      
+      return _binary.handleRequest(is);
+    }
+    
     do {
       _method.append((char) ch);
     } while ((ch = is.read()) >= 0 && ! Character.isWhitespace(ch));
@@ -201,6 +210,23 @@ public class MemcachedConnection extends AbstractProtocolConnection
         | ((valueHash[7] & 0xffL)));
   }
   
+  /**
+   * Converts a memcached expiration, either relative seconds or an
+   * absolute unix time, to a timeout in milliseconds.
+   */
+  static long toExpireTimeout(long expTime)
+  {
+    if (expTime <= 0) {
+      return 365 * 24 * 60 * 60 * 1000L;
+    }
+    else if (expTime <= 60 * 60 * 24 * 30) {
+      return 1000L * expTime;
+    }
+    else {
+      return expTime * 1000L - CurrentTime.getCurrentTime();
+    }
+  }
+  
   static void addCommand(String name, Command command)
   {
     CharBuffer sb = new CharBuffer();
@@ -293,17 +319,7 @@ public class MemcachedConnection extends AbstractProtocolConnection
         throw new IOException("PROTOCOL: " + ch);
       }
       
-      long timeout = 60 * 1000;
-      
-      if (expTime <= 0) {
-        timeout = 365 * 24 * 60 * 60 * 1000L;
-      }
-      else if (expTime <= 60 * 60 * 24 * 30) {
-        timeout = 1000L * expTime;
-      }
-      else {
-        timeout = expTime * 1000L - CurrentTime.getCurrentTime();
-      }
+      long timeout = toExpireTimeout(expTime);
 
       boolean isStored = doCommand(conn, key, bytes, timeout, flags);
       
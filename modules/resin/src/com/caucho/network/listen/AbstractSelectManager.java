@@ -29,6 +29,7 @@
 package com.caucho.network.listen;
 
 import com.caucho.inject.Module;
+import com.caucho.vfs.QServerSocket;
 
 
 /**
@@ -58,6 +59,15 @@ abstract public class AbstractSelectManager {
     return -1;
   }
   
+  /**
+   * Returns true if sockets accepted by the server socket can be
+   * registered with this manager.
+   */
+  public boolean isSelectable(QServerSocket ss)
+  {
+    return ss != null && ss.isJni();
+  }
+  
   /**
    * Starts the manager.
    */
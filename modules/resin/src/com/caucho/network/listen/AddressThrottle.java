@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.network.listen;
+
+import com.caucho.config.Configurable;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.QSocket;
+
+/**
+ * Per-address throttle, limiting the concurrent connections and the
+ * request rate of each client IP.
+ *
+ * The address table is striped, fixed-size and open-addressed, so
+ * accepting from a flood of new addresses does not allocate. When a
+ * stripe's probe window is full of active addresses, the new address
+ * is admitted without being tracked.
+ */
+@Configurable
+public class AddressThrottle extends Throttle
+{
+  private static final int STRIPE_COUNT = 64;
+  private static final int STRIPE_SIZE = 256;
+  private static final int PROBE_MAX = 8;
+
+  private static final long EXPIRE_TIME = 60000L;
+
+  private final Stripe []_stripes = new Stripe[STRIPE_COUNT];
+
+  private int _maxConcurrentRequests = -1;
+
+  // tokens are stored in milli-tokens to avoid fractions
+  private long _requestRate = -1;
+  private long _requestBurst = -1;
+
+  public AddressThrottle()
+  {
+    for (int i = 0; i < _stripes.length; i++) {
+      _stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Sets the maximum concurrent connections for a single address.
+   */
+  @Override
+  public void setMaxConcurrentRequests(int max)
+  {
+    _maxConcurrentRequests = max;
+  }
+
+  @Override
+  public int getMaxConcurrentRequests()
+  {
+    return _maxConcurrentRequests;
+  }
+
+  /**
+   * Sets the sustained requests per second for a single address.
+   */
+  public void setRequestRate(int rate)
+  {
+    _requestRate = rate;
+
+    if (_requestBurst < rate)
+      _requestBurst = rate;
+  }
+
+  public int getRequestRate()
+  {
+    return (int) _requestRate;
+  }
+
+  /**
+   * Sets the maximum requests a single address can burst.
+   */
+  public void setRequestBurst(int burst)
+  {
+    _requestBurst = burst;
+  }
+
+  public int getRequestBurst()
+  {
+    return (int) _requestBurst;
+  }
+
+  private boolean isRateEnabled()
+  {
+    return _requestRate > 0;
+  }
+
+  /**
+   * Called on the accept thread for a new connection.
+   */
+  @Override
+  public boolean accept(QSocket socket)
+  {
+    if (_maxConcurrentRequests <= 0 && ! isRateEnabled())
+      return true;
+
+    long key = hash(socket.getRemoteIP());
+
+    return getStripe(key).accept(key, CurrentTime.getCurrentTime());
+  }
+
+  /**
+   * Called for each keepalive request after the first on a connection.
+   */
+  @Override
+  public boolean allowRequest(QSocket socket)
+  {
+    if (! isRateEnabled())
+      return true;
+
+    long key = hash(socket.getRemoteIP());
+
+    return getStripe(key).allowRequest(key, CurrentTime.getCurrentTime());
+  }
+
+  @Override
+  public void close(QSocket socket)
+  {
+    if (_maxConcurrentRequests <= 0 && ! isRateEnabled())
+      return;
+
+    long key = hash(socket.getRemoteIP());
+
+    getStripe(key).close(key);
+  }
+
+  private Stripe getStripe(long key)
+  {
+    return _stripes[(int) (key >>> 58) & (STRIPE_COUNT - 1)];
+  }
+
+  private static long hash(byte []ip)
+  {
+    if (ip == null)
+      return 1;
+
+    long hash = 0xcbf29ce484222325L;
+
+    for (int i = 0; i < ip.length; i++) {
+      hash ^= ip[i] & 0xff;
+      hash *= 0x100000001b3L;
+    }
+
+    hash ^= hash >>> 29;
+
+    // zero marks an empty slot
+    return hash != 0 ? hash : 1;
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[max=" + _maxConcurrentRequests
+            + ",rate=" + _requestRate
+            + ",burst=" + _requestBurst + "]");
+  }
+
+  private final class Stripe {
+    private final long []_keys = new long[STRIPE_SIZE];
+    private final int []_connections = new int[STRIPE_SIZE];
+    private final long []_tokens = new long[STRIPE_SIZE];
+    private final long []_lastTimes = new long[STRIPE_SIZE];
+
+    synchronized boolean accept(long key, long now)
+    {
+      int slot = findSlot(key, now, true);
+
+      if (slot < 0)
+        return true;
+
+      int max = _maxConcurrentRequests;
+
+      if (max > 0 && max <= _connections[slot])
+        return false;
+
+      if (! consumeToken(slot, now))
+        return false;
+
+      _connections[slot]++;
+
+      return true;
+    }
+
+    synchronized boolean allowRequest(long key, long now)
+    {
+      int slot = findSlot(key, now, true);
+
+      if (slot < 0)
+        return true;
+
+      return consumeToken(slot, now);
+    }
+
+    synchronized void close(long key)
+    {
+      int slot = findSlot(key, 0, false);
+
+      if (slot >= 0 && _connections[slot] > 0)
+        _connections[slot]--;
+    }
+
+    private boolean consumeToken(int slot, long now)
+    {
+      long rate = _requestRate;
+
+      if (rate <= 0) {
+        _lastTimes[slot] = now;
+        return true;
+      }
+
+      long burst = 1000L * Math.max(_requestBurst, rate);
+
+      long delta = now - _lastTimes[slot];
+      long tokens = _tokens[slot];
+
+      if (delta > 0) {
+        tokens = Math.min(burst, tokens + delta * rate);
+        _lastTimes[slot] = now;
+      }
+
+      if (tokens < 1000) {
+        _tokens[slot] = tokens;
+        return false;
+      }
+
+      _tokens[slot] = tokens - 1000;
+
+      return true;
+    }
+
+    /**
+     * Finds the slot for the key, claiming an empty or expired slot
+     * in the probe window if the key is new.
+     */
+    private int findSlot(long key, long now, boolean isCreate)
+    {
+      int base = (int) key & (STRIPE_SIZE - 1);
+      int free = -1;
+
+      for (int i = 0; i < PROBE_MAX; i++) {
+        int slot = (base + i) & (STRIPE_SIZE - 1);
+        long slotKey = _keys[slot];
+
+        if (slotKey == key)
+          return slot;
+        else if (free >= 0 || ! isCreate)
+          continue;
+        else if (slotKey == 0
+                 || (_connections[slot] == 0
+                     && _lastTimes[slot] + EXPIRE_TIME < now)) {
+          free = slot;
+        }
+      }
+
+      if (free >= 0) {
+        _keys[free] = key;
+        _connections[free] = 0;
+        _tokens[free] = 1000L * Math.max(_requestBurst, _requestRate);
+        _lastTimes[free] = now;
+      }
+
+      return free;
+    }
+  }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.network.listen;
+
+import java.nio.channels.SelectableChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.env.meter.ActiveMeter;
+import com.caucho.env.meter.MeterService;
+import com.caucho.env.thread.ThreadPool;
+import com.caucho.inject.Module;
+import com.caucho.vfs.QServerSocket;
+import com.caucho.vfs.QSocket;
+
+/**
+ * Pure-java select manager for keepalive connections, using
+ * java.nio selectors.
+ *
+ * Idle keepalive sockets are parked in one of several selector threads,
+ * sharded by connection id, and a worker thread is only resumed when
+ * data is available or the keepalive times out.
+ */
+@Module
+public class NioSelectManager extends AbstractSelectManager {
+  private static final Logger log
+    = Logger.getLogger(NioSelectManager.class.getName());
+
+  private static final int DEFAULT_SELECT_MAX = 64 * 1024;
+  private static final int SELECT_THREAD_MAX = 16;
+
+  private static final ActiveMeter _keepaliveSelectMeter
+    = MeterService.createActiveMeter("Resin|Port|Keepalive Select");
+
+  private final NioSelectThread []_selectThreads;
+
+  private final AtomicInteger _selectCount = new AtomicInteger();
+
+  private int _selectMax = DEFAULT_SELECT_MAX;
+  private long _selectTimeout = 1000L;
+
+  private volatile boolean _isActive;
+
+  public NioSelectManager()
+  {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public NioSelectManager(int selectThreadCount)
+  {
+    selectThreadCount = Math.max(1, Math.min(selectThreadCount,
+                                             SELECT_THREAD_MAX));
+
+    _selectThreads = new NioSelectThread[selectThreadCount];
+
+    for (int i = 0; i < selectThreadCount; i++) {
+      _selectThreads[i] = new NioSelectThread(this, i);
+    }
+  }
+
+  /**
+   * Sets the timeout for a single select, which is also the
+   * granularity of the keepalive timeout checks.
+   */
+  @Override
+  public void setSelectTimeout(long period)
+  {
+    if (period > 0)
+      _selectTimeout = period;
+  }
+
+  long getSelectTimeout()
+  {
+    return _selectTimeout;
+  }
+
+  /**
+   * Sets the maximum number of connections in the select.
+   */
+  @Override
+  public void setSelectMax(int max)
+  {
+    _selectMax = max;
+  }
+
+  /**
+   * Gets the maximum number of connections in the select.
+   */
+  @Override
+  public int getSelectMax()
+  {
+    return _selectMax;
+  }
+
+  /**
+   * Returns the number of selector threads.
+   */
+  public int getSelectThreadCount()
+  {
+    return _selectThreads.length;
+  }
+
+  /**
+   * Only plain java sockets created from channels can use the select.
+   */
+  @Override
+  public boolean isSelectable(QServerSocket ss)
+  {
+    return ss != null && ! ss.isJni() && ss.isSelectable();
+  }
+
+  /**
+   * Starts the manager.
+   */
+  @Override
+  public boolean start()
+  {
+    if (_isActive)
+      return true;
+
+    ThreadPool threadPool = ThreadPool.getCurrent();
+
+    try {
+      for (NioSelectThread selectThread : _selectThreads) {
+        selectThread.open();
+      }
+    } catch (Exception e) {
+      log.log(Level.WARNING, e.toString(), e);
+
+      close();
+
+      return false;
+    }
+
+    _isActive = true;
+
+    for (NioSelectThread selectThread : _selectThreads) {
+      threadPool.start(selectThread);
+    }
+
+    return true;
+  }
+
+  boolean isActive()
+  {
+    return _isActive;
+  }
+
+  /**
+   * Adds a keepalive connection.
+   *
+   * @param conn the connection to register as keepalive
+   *
+   * @return true if the keepalive was successful
+   */
+  @Override
+  public boolean keepalive(TcpSocketLink conn)
+  {
+    if (! _isActive)
+      return false;
+
+    QSocket socket = conn.getSocket();
+
+    if (socket == null)
+      return false;
+
+    SelectableChannel channel = socket.getSelectableChannel();
+
+    if (channel == null || ! channel.isOpen())
+      return false;
+
+    if (_selectMax <= _selectCount.incrementAndGet()) {
+      _selectCount.decrementAndGet();
+
+      if (log.isLoggable(Level.FINE))
+        log.fine(this + " select-max " + _selectMax + " exceeded for " + conn);
+
+      return false;
+    }
+
+    _keepaliveSelectMeter.start();
+
+    getSelectThread(conn).register(conn, channel);
+
+    return true;
+  }
+
+  /**
+   * Closes a connection registered with the select.
+   */
+  @Override
+  public void closeKeepalive(TcpSocketLink conn)
+  {
+    getSelectThread(conn).unregister(conn);
+  }
+
+  /**
+   * Wakes the keepalive connections belonging to a closing port,
+   * so they can close normally.
+   */
+  @Override
+  public void onPortClose(TcpPort port)
+  {
+    for (NioSelectThread selectThread : _selectThreads) {
+      selectThread.onPortClose(port);
+    }
+  }
+
+  /**
+   * Returns the select count.
+   */
+  @Override
+  public int getSelectCount()
+  {
+    return _selectCount.get();
+  }
+
+  /**
+   * Returns the number of available keepalives.
+   */
+  @Override
+  public int getFreeKeepalive()
+  {
+    return Math.max(0, _selectMax - _selectCount.get());
+  }
+
+  /**
+   * Called by the select thread when a connection leaves the select.
+   */
+  void onSelectRemove()
+  {
+    _selectCount.decrementAndGet();
+    _keepaliveSelectMeter.end();
+  }
+
+  private NioSelectThread getSelectThread(TcpSocketLink conn)
+  {
+    int id = conn.getId();
+
+    return _selectThreads[(id & Integer.MAX_VALUE) % _selectThreads.length];
+  }
+
+  /**
+   * Stops the manager.
+   */
+  @Override
+  public boolean stop()
+  {
+    _isActive = false;
+
+    for (NioSelectThread selectThread : _selectThreads) {
+      selectThread.close();
+    }
+
+    return true;
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + _selectThreads.length + " selectors]");
+  }
+}
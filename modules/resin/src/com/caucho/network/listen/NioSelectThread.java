@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.network.listen;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.inject.Module;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.QSocket;
+
+/**
+ * A single selector shard of the {@link NioSelectManager}.
+ *
+ * All selector operations happen on the select thread. Other threads
+ * only queue requests and wake the selector.
+ */
+@Module
+class NioSelectThread implements Runnable {
+  private static final Logger log
+    = Logger.getLogger(NioSelectThread.class.getName());
+
+  private final NioSelectManager _manager;
+  private final int _index;
+
+  private final ConcurrentLinkedQueue<TcpSocketLink> _registerQueue
+    = new ConcurrentLinkedQueue<TcpSocketLink>();
+
+  private final ConcurrentLinkedQueue<TcpSocketLink> _unregisterQueue
+    = new ConcurrentLinkedQueue<TcpSocketLink>();
+
+  private final ConcurrentLinkedQueue<TcpPort> _portCloseQueue
+    = new ConcurrentLinkedQueue<TcpPort>();
+
+  // connections currently owned by the selector (select thread only)
+  private final HashSet<TcpSocketLink> _registered
+    = new HashSet<TcpSocketLink>();
+
+  private final ArrayList<TcpSocketLink> _wakeList
+    = new ArrayList<TcpSocketLink>();
+
+  private final ArrayList<TcpSocketLink> _timeoutList
+    = new ArrayList<TcpSocketLink>();
+
+  private volatile Selector _selector;
+  private volatile Thread _thread;
+  private volatile boolean _isClosed;
+
+  private long _nextTimeoutCheck;
+
+  NioSelectThread(NioSelectManager manager, int index)
+  {
+    _manager = manager;
+    _index = index;
+  }
+
+  void open()
+    throws IOException
+  {
+    if (_selector == null)
+      _selector = Selector.open();
+  }
+
+  /**
+   * Queues a keepalive connection for the selector.
+   */
+  void register(TcpSocketLink conn, SelectableChannel channel)
+  {
+    _registerQueue.offer(conn);
+
+    wakeSelector();
+  }
+
+  /**
+   * Queues removal of a closing connection.
+   */
+  void unregister(TcpSocketLink conn)
+  {
+    _unregisterQueue.offer(conn);
+
+    wakeSelector();
+  }
+
+  void onPortClose(TcpPort port)
+  {
+    _portCloseQueue.offer(port);
+
+    wakeSelector();
+  }
+
+  private void wakeSelector()
+  {
+    Selector selector = _selector;
+
+    if (selector != null)
+      selector.wakeup();
+  }
+
+  @Override
+  public void run()
+  {
+    Thread thread = Thread.currentThread();
+    String oldName = thread.getName();
+
+    _thread = thread;
+    thread.setName("resin-nio-select-" + _index);
+
+    try {
+      Selector selector = _selector;
+
+      if (selector == null)
+        return;
+
+      long timeout = _manager.getSelectTimeout();
+
+      _nextTimeoutCheck = CurrentTime.getCurrentTimeActual() + timeout;
+
+      while (! _isClosed) {
+        processQueues();
+
+        selector.select(timeout);
+
+        if (_isClosed)
+          break;
+
+        processSelectedKeys(selector);
+
+        long now = CurrentTime.getCurrentTimeActual();
+
+        if (_nextTimeoutCheck <= now) {
+          _nextTimeoutCheck = now + timeout;
+
+          processTimeouts(now);
+        }
+      }
+    } catch (Throwable e) {
+      log.log(Level.WARNING, e.toString(), e);
+    } finally {
+      _thread = null;
+      thread.setName(oldName);
+
+      closeImpl();
+    }
+  }
+
+  private void processQueues()
+  {
+    Selector selector = _selector;
+    TcpSocketLink conn;
+
+    while ((conn = _registerQueue.poll()) != null) {
+      QSocket socket = conn.getSocket();
+
+      try {
+        SelectableChannel channel = socket.getSelectableChannel();
+
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, conn);
+
+        _registered.add(conn);
+      } catch (Exception e) {
+        log.log(Level.FINER, e.toString(), e);
+
+        // completeWake() decrements the select count
+        _timeoutList.add(conn);
+      }
+    }
+
+    while ((conn = _unregisterQueue.poll()) != null) {
+      if (_registered.remove(conn)) {
+        cancel(conn);
+
+        _manager.onSelectRemove();
+      }
+    }
+
+    TcpPort port;
+
+    while ((port = _portCloseQueue.poll()) != null) {
+      Iterator<TcpSocketLink> iter = _registered.iterator();
+
+      while (iter.hasNext()) {
+        conn = iter.next();
+
+        if (conn.getPort() == port) {
+          iter.remove();
+          cancel(conn);
+
+          _timeoutList.add(conn);
+        }
+      }
+    }
+
+    completeWake();
+  }
+
+  private void processSelectedKeys(Selector selector)
+  {
+    Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+
+    while (iter.hasNext()) {
+      SelectionKey key = iter.next();
+      iter.remove();
+
+      TcpSocketLink conn = (TcpSocketLink) key.attachment();
+
+      key.cancel();
+
+      if (_registered.remove(conn)) {
+        _wakeList.add(conn);
+      }
+    }
+
+    completeWake();
+  }
+
+  /**
+   * Wakes keepalive connections whose idle timeout has expired, or
+   * whose socket was closed while in the select.
+   */
+  private void processTimeouts(long now)
+  {
+    Iterator<TcpSocketLink> iter = _registered.iterator();
+
+    while (iter.hasNext()) {
+      TcpSocketLink conn = iter.next();
+
+      QSocket socket = conn.getSocket();
+      SelectableChannel channel = socket.getSelectableChannel();
+
+      if (conn.getIdleExpireTime() < now
+          || channel == null
+          || ! channel.isOpen()) {
+        iter.remove();
+        cancel(conn);
+
+        _timeoutList.add(conn);
+      }
+    }
+
+    completeWake();
+  }
+
+  private void cancel(TcpSocketLink conn)
+  {
+    cancel(conn, _selector);
+  }
+
+  private void cancel(TcpSocketLink conn, Selector selector)
+  {
+    SelectableChannel channel = conn.getSocket().getSelectableChannel();
+
+    if (channel != null) {
+      SelectionKey key = channel.keyFor(selector);
+
+      if (key != null)
+        key.cancel();
+    }
+  }
+
+  /**
+   * Returns woken connections to blocking mode and resumes them in
+   * a worker thread.
+   */
+  private void completeWake()
+  {
+    if (_wakeList.size() == 0 && _timeoutList.size() == 0)
+      return;
+
+    try {
+      // flush the cancelled keys, so the channels can be blocking again
+      _selector.selectNow();
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    for (int i = 0; i < _wakeList.size(); i++) {
+      TcpSocketLink conn = _wakeList.get(i);
+
+      _manager.onSelectRemove();
+
+      if (toBlocking(conn))
+        conn.requestWakeKeepalive();
+      else
+        conn.requestTimeoutKeepalive();
+    }
+
+    _wakeList.clear();
+
+    for (int i = 0; i < _timeoutList.size(); i++) {
+      TcpSocketLink conn = _timeoutList.get(i);
+
+      _manager.onSelectRemove();
+
+      toBlocking(conn);
+      conn.requestTimeoutKeepalive();
+    }
+
+    _timeoutList.clear();
+  }
+
+  private boolean toBlocking(TcpSocketLink conn)
+  {
+    SelectableChannel channel = conn.getSocket().getSelectableChannel();
+
+    if (channel == null || ! channel.isOpen())
+      return false;
+
+    try {
+      channel.configureBlocking(true);
+
+      return true;
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return false;
+    }
+  }
+
+  void close()
+  {
+    _isClosed = true;
+
+    if (_thread != null)
+      wakeSelector();
+    else
+      closeImpl();
+  }
+
+  private void closeImpl()
+  {
+    Selector selector = _selector;
+    _selector = null;
+
+    if (selector == null)
+      return;
+
+    _timeoutList.addAll(_registered);
+    _registered.clear();
+
+    TcpSocketLink conn;
+
+    while ((conn = _registerQueue.poll()) != null) {
+      _timeoutList.add(conn);
+    }
+
+    for (int i = 0; i < _timeoutList.size(); i++) {
+      cancel(_timeoutList.get(i), selector);
+    }
+
+    try {
+      selector.selectNow();
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+
+    for (int i = 0; i < _timeoutList.size(); i++) {
+      conn = _timeoutList.get(i);
+
+      _manager.onSelectRemove();
+
+      toBlocking(conn);
+      conn.requestTimeoutKeepalive();
+    }
+
+    _timeoutList.clear();
+
+    try {
+      selector.close();
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _index + "]";
+  }
+}
@@ -39,16 +39,29 @@ public class SocketPollService extends AbstractResinSubSystem
 {
   public static final int START_PRIORITY = TopologyService.START_PRIORITY + 1;
 
+  private final AbstractSelectManager _selectManager;
+
   public SocketPollService()
   {
-    
+    this(new NioSelectManager());
+  }
+
+  public SocketPollService(AbstractSelectManager selectManager)
+  {
+    _selectManager = selectManager;
   }
   
   public static SocketPollService createAndAddService()
+  {
+    return createAndAddService(new NioSelectManager());
+  }
+  
+  public static SocketPollService
+    createAndAddService(AbstractSelectManager selectManager)
   {
     ResinSystem system = preCreate(SocketPollService.class);
     
-    SocketPollService service = new SocketPollService();
+    SocketPollService service = new SocketPollService(selectManager);
     system.addService(SocketPollService.class, service);
     
     return service;
@@ -71,7 +84,7 @@ public class SocketPollService extends AbstractResinSubSystem
   
   public AbstractSelectManager getSelectManager()
   {
-    return null;
+    return _selectManager;
   }
  
   @Override
@@ -79,4 +92,24 @@ public class SocketPollService extends AbstractResinSubSystem
   {
     return START_PRIORITY;
   }
+
+  @Override
+  public void start()
+    throws Exception
+  {
+    super.start();
+    
+    if (_selectManager != null)
+      _selectManager.start();
+  }
+
+  @Override
+  public void stop()
+    throws Exception
+  {
+    if (_selectManager != null)
+      _selectManager.stop();
+    
+    super.stop();
+  }
 }
@@ -60,7 +60,6 @@ import com.caucho.env.thread.ThreadPool;
 import com.caucho.lifecycle.Lifecycle;
 import com.caucho.management.server.PortMXBean;
 import com.caucho.management.server.TcpConnectionInfo;
-import com.caucho.server.cluster.ServletService;
 import com.caucho.server.util.CauchoSystem;
 import com.caucho.util.Alarm;
 import com.caucho.util.AlarmListener;
@@ -215,6 +214,10 @@ public class TcpPort
   private final AtomicLong _lifetimeReadBytes = new AtomicLong();
   private final AtomicLong _lifetimeWriteBytes = new AtomicLong();
   private final AtomicLong _lifetimeThrottleDisconnectCount = new AtomicLong();
+  private final AtomicLong _lifetimeThrottleConnectionRejectCount
+    = new AtomicLong();
+  private final AtomicLong _lifetimeThrottleRequestRejectCount
+    = new AtomicLong();
 
   // total keepalive
   private AtomicInteger _keepaliveAllocateCount = new AtomicInteger();
@@ -740,6 +743,34 @@ public class TcpPort
       return -1;
   }
 
+  /**
+   * Configures the per-address request rate in requests per second.
+   */
+  @Configurable
+  public void setThrottleRequestRate(int rate)
+  {
+    Throttle throttle = createThrottle();
+
+    if (throttle instanceof AddressThrottle)
+      ((AddressThrottle) throttle).setRequestRate(rate);
+    else
+      throw new ConfigException(L.l("throttle-request-rate requires the built-in address throttle"));
+  }
+
+  /**
+   * Configures the per-address request burst.
+   */
+  @Configurable
+  public void setThrottleRequestBurst(int burst)
+  {
+    Throttle throttle = createThrottle();
+
+    if (throttle instanceof AddressThrottle)
+      ((AddressThrottle) throttle).setRequestBurst(burst);
+    else
+      throw new ConfigException(L.l("throttle-request-burst requires the built-in address throttle"));
+  }
+
   public void setEnableJni(boolean isEnableJni)
   {
     _isEnableJni = isEnableJni;
@@ -760,10 +791,8 @@ public class TcpPort
     if (_throttle == null) {
       _throttle = Throttle.createPro();
 
-      if (_throttle == null
-          && ServletService.getCurrent() != null
-          && ! ServletService.getCurrent().isWatchdog())
-        throw new ConfigException(L.l("throttle configuration requires Resin Professional"));
+      if (_throttle == null)
+        _throttle = new AddressThrottle();
     }
 
     return _throttle;
@@ -1192,11 +1221,13 @@ public class TcpPort
 
     _serverSocket.setConnectionSocketTimeout((int) getSocketTimeout());
 
-    if (_serverSocket.isJni()) {
-      SocketPollService pollService = SocketPollService.getCurrent();
+    SocketPollService pollService = SocketPollService.getCurrent();
+
+    if (pollService != null && isKeepaliveAsyncEnabled()) {
+      AbstractSelectManager selectManager = pollService.getSelectManager();
 
-      if (pollService != null && isKeepaliveAsyncEnabled()) {
-        _selectManager = pollService.getSelectManager();
+      if (selectManager != null && selectManager.isSelectable(_serverSocket)) {
+        _selectManager = selectManager;
       }
     }
 
@@ -1387,8 +1418,10 @@ public class TcpPort
             return true;
           }
           else {
+            // rejected on the accept thread before a request is dispatched
             _throttleDisconnectMeter.start();
             _lifetimeThrottleDisconnectCount.incrementAndGet();
+            _lifetimeThrottleConnectionRejectCount.incrementAndGet();
             socket.close();
           }
         }
@@ -1401,6 +1434,21 @@ public class TcpPort
     return false;
   }
 
+  /**
+   * Returns true if the throttle allows a keepalive request.
+   */
+  boolean allowRequest(QSocket socket)
+  {
+    if (_throttle == null || _throttle.allowRequest(socket))
+      return true;
+
+    _throttleDisconnectMeter.start();
+    _lifetimeThrottleDisconnectCount.incrementAndGet();
+    _lifetimeThrottleRequestRejectCount.incrementAndGet();
+
+    return false;
+  }
+
   /**
    * Notification when a socket closes.
    */
@@ -1708,6 +1756,16 @@ public class TcpPort
     return _lifetimeThrottleDisconnectCount.get();
   }
 
+  long getLifetimeThrottleConnectionRejectCount()
+  {
+    return _lifetimeThrottleConnectionRejectCount.get();
+  }
+
+  long getLifetimeThrottleRequestRejectCount()
+  {
+    return _lifetimeThrottleRequestRejectCount.get();
+  }
+
   /**
    * Find the TcpConnection based on the thread id (for admin)
    */
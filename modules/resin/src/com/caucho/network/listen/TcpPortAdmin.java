@@ -257,6 +257,18 @@ public class TcpPortAdmin extends AbstractManagedObject
     return _port.getLifetimeThrottleDisconnectCount();
   }
 
+  @Override
+  public long getThrottleConnectionRejectCountTotal()
+  {
+    return _port.getLifetimeThrottleConnectionRejectCount();
+  }
+
+  @Override
+  public long getThrottleRequestRejectCountTotal()
+  {
+    return _port.getLifetimeThrottleRequestRejectCount();
+  }
+
   @Override
   public long getRequestTimeTotal()
   {
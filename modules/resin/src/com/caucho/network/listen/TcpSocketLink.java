@@ -101,6 +101,8 @@ public class TcpSocketLink extends AbstractSocketLink
   private long _suspendTimeout;
 
   private long _connectionStartTime;
+  // true after the first request, which the throttle checked on accept
+  private boolean _isThrottleRequest;
   private long _requestStartTime;
 
   private long _idleStartTime;
@@ -1283,6 +1285,13 @@ public class TcpSocketLink extends AbstractSocketLink
         return result;
       }
 
+      if (_isThrottleRequest && ! _port.allowRequest(_socket)) {
+        killKeepalive("throttle request rate");
+        return RequestState.EXIT;
+      }
+
+      _isThrottleRequest = true;
+
       getPort().addLifetimeRequestCount();
       
       try {
@@ -1494,6 +1503,7 @@ public class TcpSocketLink extends AbstractSocketLink
     throws IOException
   {
     _connectionStartTime = CurrentTime.getCurrentTime();
+    _isThrottleRequest = false;
 
     setStatState("read");
     initSocket();
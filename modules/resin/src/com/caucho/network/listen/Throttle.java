@@ -74,6 +74,15 @@ public class Throttle
     return true;
   }
 
+  /**
+   * Returns true if a keepalive request on an accepted connection
+   * is allowed.
+   */
+  public boolean allowRequest(QSocket socket)
+  {
+    return true;
+  }
+
   public void close(QSocket socket)
   {
   }
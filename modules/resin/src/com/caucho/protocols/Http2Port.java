@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.protocols;
+
+import com.caucho.network.listen.AbstractProtocol;
+import com.caucho.server.cluster.ProtocolPort;
+import com.caucho.server.spdy.Http2ServerProtocol;
+
+/**
+ * Represents an HTTP/2 (h2c) port.
+ */
+public class Http2Port extends ProtocolPort
+{
+  private final Http2ServerProtocol _protocol = new Http2ServerProtocol();
+
+  public void setMaxConcurrentStreams(int max)
+  {
+    _protocol.setMaxConcurrentStreams(max);
+  }
+
+  public void setInitialWindowSize(int size)
+  {
+    _protocol.setInitialWindowSize(size);
+  }
+
+  public void setMaxFrameSize(int size)
+  {
+    _protocol.setMaxFrameSize(size);
+  }
+
+  public void setMaxHeaderListSize(int size)
+  {
+    _protocol.setMaxHeaderListSize(size);
+  }
+
+  public AbstractProtocol getProtocol()
+  {
+    return _protocol;
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.caucho.websocket.WebSocketContext;
+
+/**
+ * Frame input for the permessage-deflate extension (RFC 7692), wrapping
+ * the masked or unmasked frame stream.
+ *
+ * A compressed message is returned as a sequence of inflated frames, so
+ * WebSocketInputStream and WebSocketReader read it as an ordinary
+ * fragmented message. Uncompressed messages pass through.
+ */
+public class DeflateFrameInputStream extends FrameInputStream
+{
+  private static final byte []TAIL = new byte[] { 0, 0, (byte) 0xff, (byte) 0xff };
+
+  private final FrameInputStream _next;
+  private final Inflater _inflater = new Inflater(true);
+
+  private final byte []_inBuffer = new byte[4096];
+  private final byte []_buffer = new byte[8192];
+  private int _offset;
+
+  private boolean _isInflate;
+  private boolean _isInputDone;
+  private boolean _isTailDone;
+
+  private int _op;
+  private long _length;
+  private boolean _isFinal = true;
+
+  public DeflateFrameInputStream(FrameInputStream next)
+  {
+    _next = next;
+    _next.setDeflate(true);
+
+    setDeflate(true);
+  }
+
+  @Override
+  public void init(WebSocketContext cxt, InputStream is)
+  {
+    super.init(cxt, is);
+
+    _next.init(cxt, is);
+  }
+
+  @Override
+  public int getOpcode()
+  {
+    return _isInflate ? _op : _next.getOpcode();
+  }
+
+  @Override
+  public long getLength()
+  {
+    return _isInflate ? _length : _next.getLength();
+  }
+
+  @Override
+  public boolean isFinal()
+  {
+    return _isInflate ? _isFinal : _next.isFinal();
+  }
+
+  @Override
+  public int read()
+    throws IOException
+  {
+    if (! _isInflate)
+      return _next.read();
+
+    if (_length <= 0)
+      return -1;
+
+    _length--;
+
+    return _buffer[_offset++] & 0xff;
+  }
+
+  @Override
+  public int read(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (! _isInflate)
+      return _next.read(buffer, offset, length);
+
+    if (_length <= 0)
+      return -1;
+
+    int sublen = (int) Math.min(length, _length);
+
+    System.arraycopy(_buffer, _offset, buffer, offset, sublen);
+
+    _offset += sublen;
+    _length -= sublen;
+
+    return sublen;
+  }
+
+  @Override
+  protected boolean readFrameHeaderImpl()
+    throws IOException
+  {
+    if (_isInflate && ! _isFinal) {
+      // next chunk of the current message
+      _op = OP_CONT;
+
+      return inflateChunk();
+    }
+
+    _isInflate = false;
+
+    if (! _next.readFrameHeader())
+      return false;
+
+    if (! _next.isCompressed())
+      return true;
+
+    int op = _next.getOpcode();
+
+    if (op != OP_TEXT && op != OP_BINARY) {
+      closeError(CLOSE_ERROR, "illegal compressed frame");
+      return false;
+    }
+
+    _isInflate = true;
+    _isInputDone = false;
+    _isTailDone = false;
+    _op = op;
+
+    return inflateChunk();
+  }
+
+  /**
+   * Inflates the next chunk as a virtual frame. The last frame of the
+   * message is empty and final.
+   */
+  private boolean inflateChunk()
+    throws IOException
+  {
+    Inflater inflater = _inflater;
+
+    _offset = 0;
+    _length = 0;
+    _isFinal = false;
+
+    try {
+      while (true) {
+        int len = inflater.inflate(_buffer, 0, _buffer.length);
+
+        if (len > 0) {
+          _length = len;
+          return true;
+        }
+
+        if (inflater.finished()) {
+          // a final deflate block ends the compression context
+          inflater.reset();
+          drainInput();
+          _isFinal = true;
+          return true;
+        }
+
+        if (inflater.needsDictionary()) {
+          closeError(CLOSE_ERROR, "illegal deflate data");
+          return false;
+        }
+
+        if (! inflater.needsInput()) {
+          continue;
+        }
+        else if (! _isInputDone) {
+          int sublen = readCompressed(_inBuffer, 0, _inBuffer.length);
+
+          if (sublen > 0)
+            inflater.setInput(_inBuffer, 0, sublen);
+          else if (sublen < 0)
+            return false;
+        }
+        else if (! _isTailDone) {
+          _isTailDone = true;
+          inflater.setInput(TAIL);
+        }
+        else {
+          _isFinal = true;
+          return true;
+        }
+      }
+    } catch (DataFormatException e) {
+      closeError(CLOSE_ERROR, "illegal deflate data");
+
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Reads compressed data from the underlying frames, returning 0 at the
+   * end of the message and -1 on end of file.
+   */
+  private int readCompressed(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    FrameInputStream next = _next;
+
+    while (next.getLength() == 0) {
+      if (next.isFinal()) {
+        _isInputDone = true;
+        return 0;
+      }
+
+      if (! next.readFrameHeader())
+        return -1;
+
+      if (next.getOpcode() != OP_CONT || next.isCompressed()) {
+        closeError(CLOSE_ERROR, "illegal fragment");
+        return -1;
+      }
+    }
+
+    int sublen = (int) Math.min(length, next.getLength());
+
+    return next.read(buffer, offset, sublen);
+  }
+
+  private void drainInput()
+    throws IOException
+  {
+    byte []buffer = _inBuffer;
+
+    while (! _isInputDone) {
+      if (readCompressed(buffer, 0, buffer.length) < 0)
+        return;
+    }
+  }
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    try {
+      _next.close();
+    } finally {
+      _inflater.end();
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _next + "]";
+  }
+}
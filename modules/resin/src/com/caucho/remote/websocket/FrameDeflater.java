@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses outgoing message frames for permessage-deflate. One
+ * deflater is shared by a connection's text and binary output, since
+ * the compression context belongs to the connection.
+ */
+public class FrameDeflater implements WebSocketConstants
+{
+  // smaller single-frame messages are sent uncompressed
+  private static final int MIN_COMPRESS_LENGTH = 64;
+
+  // room for the largest frame header before the data
+  private static final int HEADER_LENGTH = 10;
+
+  private final Deflater _deflater;
+  private final boolean _isNoContextTakeover;
+
+  private byte []_buffer = new byte[HEADER_LENGTH + 8192];
+
+  public FrameDeflater(int level, boolean isNoContextTakeover)
+  {
+    _deflater = new Deflater(level, true);
+    _isNoContextTakeover = isNoContextTakeover;
+  }
+
+  /**
+   * True if a message starting with the given chunk should be compressed.
+   */
+  public boolean isCompress(int length, boolean isFinal)
+  {
+    return ! isFinal || MIN_COMPRESS_LENGTH <= length;
+  }
+
+  /**
+   * Compresses the data and writes it as a single frame.
+   *
+   * @param code1 the first header byte without the FIN flag
+   */
+  public void writeFrame(OutputStream os, int code1, boolean isFinal,
+                         byte []data, int offset, int length)
+    throws IOException
+  {
+    Deflater deflater = _deflater;
+
+    deflater.setInput(data, offset, length);
+
+    byte []buffer = _buffer;
+    int end = HEADER_LENGTH;
+
+    while (true) {
+      int sublen = deflater.deflate(buffer, end, buffer.length - end,
+                                    Deflater.SYNC_FLUSH);
+
+      end += sublen;
+
+      if (end < buffer.length)
+        break;
+
+      byte []newBuffer = new byte[2 * buffer.length];
+      System.arraycopy(buffer, 0, newBuffer, 0, end);
+      _buffer = buffer = newBuffer;
+    }
+
+    if (isFinal) {
+      if (HEADER_LENGTH + 4 <= end) {
+        // the message omits the 0x00 0x00 0xff 0xff sync flush tail
+        end -= 4;
+      }
+      else {
+        // no new data: a 0x00 byte is an empty stored block with the tail
+        buffer[end++] = 0;
+      }
+
+      if (_isNoContextTakeover)
+        deflater.reset();
+
+      code1 |= FLAG_FIN;
+    }
+
+    long frameLength = end - HEADER_LENGTH;
+    int start;
+
+    if (frameLength < 0x7e) {
+      start = HEADER_LENGTH - 2;
+      buffer[start + 1] = (byte) frameLength;
+    }
+    else if (frameLength <= 0xffff) {
+      start = HEADER_LENGTH - 4;
+      buffer[start + 1] = (byte) 0x7e;
+      buffer[start + 2] = (byte) (frameLength >> 8);
+      buffer[start + 3] = (byte) frameLength;
+    }
+    else {
+      start = 0;
+      buffer[1] = (byte) 0x7f;
+
+      for (int i = 0; i < 8; i++) {
+        buffer[2 + i] = (byte) (frameLength >> (56 - 8 * i));
+      }
+    }
+
+    buffer[start] = (byte) code1;
+
+    os.write(buffer, start, end - start);
+  }
+
+  public void close()
+  {
+    _deflater.end();
+  }
+}
@@ -57,6 +57,8 @@ abstract public class FrameInputStream extends InputStream
   private WebSocketContext _cxt;
   private WebSocketReader _textIn;
   
+  private boolean _isDeflate;
+  
   public void init(WebSocketContext cxt, InputStream is)
   {
     _cxt = cxt;
@@ -73,6 +75,33 @@ abstract public class FrameInputStream extends InputStream
   
   abstract public boolean isFinal();
   
+  /**
+   * True if the current frame has RSV1 set, i.e. it starts a
+   * permessage-deflate compressed message.
+   */
+  public boolean isCompressed()
+  {
+    return false;
+  }
+  
+  /**
+   * Allows RSV1 when permessage-deflate has been negotiated.
+   */
+  public void setDeflate(boolean isDeflate)
+  {
+    _isDeflate = isDeflate;
+  }
+  
+  public boolean isDeflate()
+  {
+    return _isDeflate;
+  }
+  
+  protected boolean isValidRsv(int rsv)
+  {
+    return rsv == 0 || (rsv == FLAG_RSV1 && _isDeflate);
+  }
+  
   public WebSocketReader initReader(long length, boolean isFinal)
     throws IOException
   {
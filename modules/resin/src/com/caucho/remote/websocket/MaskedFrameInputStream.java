@@ -58,6 +58,7 @@ public class MaskedFrameInputStream extends FrameInputStream
   private int _maskOffset;
   
   private boolean _isFinal;
+  private boolean _isCompressed;
   private int _op;
   private long _length;
 
@@ -90,6 +91,12 @@ public class MaskedFrameInputStream extends FrameInputStream
   {
     return _length;
   }
+
+  @Override
+  public boolean isCompressed()
+  {
+    return _isCompressed;
+  }
   
   public final byte []getMask()
   {
@@ -144,11 +151,8 @@ public class MaskedFrameInputStream extends FrameInputStream
       return sublen;
     
     int maskOffset = _maskOffset;
-    byte []mask = getMask();
     
-    for (int i = 0; i < sublen; i++) {
-      buffer[offset + i] ^= mask[(maskOffset + i) & 0x3];
-    }
+    WebSocketMask.unmask(buffer, offset, sublen, getMask(), maskOffset);
     
     _length -= sublen;
     _maskOffset = (maskOffset + sublen) & 0x3;
@@ -174,12 +178,13 @@ public class MaskedFrameInputStream extends FrameInputStream
       
       int rsv = frame1 & 0x70;
       
-      if (rsv != 0) {
+      if (! isValidRsv(rsv)) {
         getContext().close(CLOSE_ERROR, "illegal request");
         return false;
       }
 
       _isFinal = isFinal;
+      _isCompressed = rsv == FLAG_RSV1;
 
       long length = frame2 & 0x7f;
 
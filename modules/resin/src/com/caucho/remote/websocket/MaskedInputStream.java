@@ -82,6 +82,24 @@ public class MaskedInputStream extends InputStream
     return (ch ^ _mask[offset]) & 0xff;
   }
   
+  @Override
+  public int read(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    int sublen = _is.read(buffer, offset, length);
+
+    if (sublen <= 0)
+      return sublen;
+
+    int maskOffset = _offset;
+
+    WebSocketMask.unmask(buffer, offset, sublen, _mask, maskOffset);
+
+    _offset = (maskOffset + sublen) & 0x3;
+
+    return sublen;
+  }
+
   @Override
   public int available()
     throws IOException
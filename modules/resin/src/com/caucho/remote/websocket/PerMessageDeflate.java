@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.util.zip.Deflater;
+
+/**
+ * Server negotiation of the permessage-deflate extension (RFC 7692).
+ *
+ * java.util.zip always uses a 15-bit window, so offers which require a
+ * smaller server_max_window_bits are declined. client_max_window_bits is
+ * accepted at any size since the inflater handles any window.
+ *
+ * The extension is disabled with -Dcom.caucho.websocket.deflate=false.
+ */
+public class PerMessageDeflate
+{
+  public static final String EXTENSION = "permessage-deflate";
+
+  private static final boolean _isEnabled
+    = ! "false".equals(System.getProperty("com.caucho.websocket.deflate"));
+
+  private boolean _isServerNoContextTakeover;
+  private boolean _isClientNoContextTakeover;
+
+  private PerMessageDeflate()
+  {
+  }
+
+  /**
+   * Selects the first acceptable permessage-deflate offer from the
+   * Sec-WebSocket-Extensions header, or returns null.
+   */
+  public static PerMessageDeflate negotiate(String extensions)
+  {
+    if (extensions == null || ! _isEnabled)
+      return null;
+
+    for (String offer : extensions.split(",")) {
+      PerMessageDeflate deflate = parseOffer(offer);
+
+      if (deflate != null)
+        return deflate;
+    }
+
+    return null;
+  }
+
+  private static PerMessageDeflate parseOffer(String offer)
+  {
+    String []params = offer.split(";");
+
+    if (! EXTENSION.equalsIgnoreCase(params[0].trim()))
+      return null;
+
+    PerMessageDeflate deflate = new PerMessageDeflate();
+
+    for (int i = 1; i < params.length; i++) {
+      String param = params[i].trim();
+      String value = null;
+
+      int p = param.indexOf('=');
+
+      if (p > 0) {
+        value = param.substring(p + 1).trim();
+        param = param.substring(0, p).trim();
+
+        if (value.startsWith("\"") && value.endsWith("\"") && value.length() > 1)
+          value = value.substring(1, value.length() - 1);
+      }
+
+      if ("server_no_context_takeover".equals(param))
+        deflate._isServerNoContextTakeover = true;
+      else if ("client_no_context_takeover".equals(param))
+        deflate._isClientNoContextTakeover = true;
+      else if ("server_max_window_bits".equals(param)) {
+        if (! "15".equals(value))
+          return null;
+      }
+      else if ("client_max_window_bits".equals(param)) {
+      }
+      else
+        return null;
+    }
+
+    return deflate;
+  }
+
+  public boolean isServerNoContextTakeover()
+  {
+    return _isServerNoContextTakeover;
+  }
+
+  public boolean isClientNoContextTakeover()
+  {
+    return _isClientNoContextTakeover;
+  }
+
+  /**
+   * Returns the extension for the Sec-WebSocket-Extensions response.
+   */
+  public String getResponseHeader()
+  {
+    StringBuilder sb = new StringBuilder(EXTENSION);
+
+    if (_isServerNoContextTakeover)
+      sb.append("; server_no_context_takeover");
+
+    if (_isClientNoContextTakeover)
+      sb.append("; client_no_context_takeover");
+
+    return sb.toString();
+  }
+
+  public FrameDeflater createDeflater()
+  {
+    // favor cpu over ratio for high-volume feeds
+    return new FrameDeflater(Deflater.BEST_SPEED,
+                             _isServerNoContextTakeover);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + getResponseHeader() + "]";
+  }
+}
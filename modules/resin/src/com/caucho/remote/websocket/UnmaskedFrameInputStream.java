@@ -60,6 +60,7 @@ public class UnmaskedFrameInputStream extends FrameInputStream
   private InputStream _is;
   
   private boolean _isFinal = true;
+  private boolean _isCompressed;
   private int _op;
   private long _length;
 
@@ -96,6 +97,12 @@ public class UnmaskedFrameInputStream extends FrameInputStream
     return _length;
   }
 
+  @Override
+  public boolean isCompressed()
+  {
+    return _isCompressed;
+  }
+
   @Override
   public int read()
     throws IOException
@@ -168,7 +175,7 @@ public class UnmaskedFrameInputStream extends FrameInputStream
     
     int rsv = frame1 & 0x70;
     
-    if (rsv != 0) {
+    if (! isValidRsv(rsv)) {
       if (getContext() != null) {
         getContext().close(CLOSE_ERROR, "illegal request");
       }
@@ -182,6 +189,7 @@ public class UnmaskedFrameInputStream extends FrameInputStream
     }
 
     _isFinal = isFinal;
+    _isCompressed = rsv == FLAG_RSV1;
 
     long length = frame2 & 0x7f;
 
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.env.thread.ThreadPool;
+import com.caucho.websocket.WebSocketContext;
+
+/**
+ * Fan-out of messages to a group of websocket connections.
+ *
+ * Each message is framed once into an immutable WebSocketFrame, which is
+ * queued to every member. Each member has its own bounded queue and
+ * writer task, so a slow consumer only affects its own queue, handled by
+ * the group's overflow policy:
+ *
+ * <ul>
+ * <li>DROP - the new message is dropped for that member
+ * <li>COALESCE - the member's unsent messages are replaced by the new one
+ * <li>DISCONNECT - the member is closed and removed
+ * </ul>
+ *
+ * Applications should not write to a member directly while it is in
+ * the group, since websocket contexts are not thread safe.
+ */
+public class WebSocketBroadcastGroup implements WebSocketConstants
+{
+  private static final Logger log
+    = Logger.getLogger(WebSocketBroadcastGroup.class.getName());
+
+  public enum Overflow {
+    DROP,
+    COALESCE,
+    DISCONNECT;
+  }
+
+  private final ConcurrentHashMap<WebSocketContext,Member> _memberMap
+    = new ConcurrentHashMap<WebSocketContext,Member>();
+
+  private volatile int _capacity = 256;
+  private volatile Overflow _overflow = Overflow.DROP;
+
+  private final AtomicLong _messageCount = new AtomicLong();
+  private final AtomicLong _dropCount = new AtomicLong();
+  private final AtomicLong _coalesceCount = new AtomicLong();
+  private final AtomicLong _disconnectCount = new AtomicLong();
+
+  public WebSocketBroadcastGroup()
+  {
+  }
+
+  public WebSocketBroadcastGroup(int capacity, Overflow overflow)
+  {
+    setCapacity(capacity);
+    setOverflow(overflow);
+  }
+
+  /**
+   * Sets the maximum queued messages per member.
+   */
+  public void setCapacity(int capacity)
+  {
+    if (capacity <= 0)
+      throw new IllegalArgumentException(String.valueOf(capacity));
+
+    _capacity = capacity;
+  }
+
+  public int getCapacity()
+  {
+    return _capacity;
+  }
+
+  public void setOverflow(Overflow overflow)
+  {
+    if (overflow == null)
+      throw new NullPointerException();
+
+    _overflow = overflow;
+  }
+
+  public Overflow getOverflow()
+  {
+    return _overflow;
+  }
+
+  /**
+   * Adds a connection to the group, returning false if already a member.
+   */
+  public boolean join(WebSocketContext ws)
+  {
+    if (ws == null)
+      throw new NullPointerException();
+
+    return _memberMap.putIfAbsent(ws, new Member(ws)) == null;
+  }
+
+  /**
+   * Removes a connection from the group. Queued messages are discarded.
+   */
+  public boolean leave(WebSocketContext ws)
+  {
+    Member member = _memberMap.remove(ws);
+
+    if (member == null)
+      return false;
+
+    member.close();
+
+    return true;
+  }
+
+  public int getSize()
+  {
+    return _memberMap.size();
+  }
+
+  public void broadcastText(String text)
+  {
+    broadcast(WebSocketFrame.createText(text));
+  }
+
+  public void broadcastBinary(byte []buffer, int offset, int length)
+  {
+    broadcast(WebSocketFrame.createBinary(buffer, offset, length));
+  }
+
+  /**
+   * Queues the shared frame to all members.
+   */
+  public void broadcast(WebSocketFrame frame)
+  {
+    _messageCount.incrementAndGet();
+
+    for (Member member : _memberMap.values()) {
+      member.offer(frame);
+    }
+  }
+
+  public long getMessageCount()
+  {
+    return _messageCount.get();
+  }
+
+  public long getDropCount()
+  {
+    return _dropCount.get();
+  }
+
+  public long getCoalesceCount()
+  {
+    return _coalesceCount.get();
+  }
+
+  public long getDisconnectCount()
+  {
+    return _disconnectCount.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName() + "[size=" + getSize()
+            + "," + _overflow + "]");
+  }
+
+  /**
+   * A member's queue and writer task.
+   */
+  class Member implements Runnable {
+    private final WebSocketContext _ws;
+    private final ArrayDeque<WebSocketFrame> _queue
+      = new ArrayDeque<WebSocketFrame>();
+
+    private boolean _isActive;
+    private boolean _isClosed;
+    private boolean _isDisconnect;
+
+    Member(WebSocketContext ws)
+    {
+      _ws = ws;
+    }
+
+    void offer(WebSocketFrame frame)
+    {
+      if (_ws instanceof WebSocketFrameOutput
+          && ((WebSocketFrameOutput) _ws).isClosed()) {
+        leave(_ws);
+        return;
+      }
+
+      synchronized (this) {
+        if (_isClosed)
+          return;
+
+        if (_capacity <= _queue.size()) {
+          switch (_overflow) {
+          case DROP:
+            _dropCount.incrementAndGet();
+            return;
+
+          case COALESCE:
+            _coalesceCount.addAndGet(_queue.size());
+            _queue.clear();
+            break;
+
+          case DISCONNECT:
+            _disconnectCount.incrementAndGet();
+            _queue.clear();
+            _isClosed = true;
+            _isDisconnect = true;
+            break;
+          }
+        }
+
+        if (! _isDisconnect)
+          _queue.add(frame);
+
+        if (_isActive)
+          return;
+
+        _isActive = true;
+      }
+
+      ThreadPool.getCurrent().schedule(this);
+    }
+
+    void close()
+    {
+      synchronized (this) {
+        _isClosed = true;
+        _queue.clear();
+      }
+    }
+
+    @Override
+    public void run()
+    {
+      try {
+        while (true) {
+          WebSocketFrame frame;
+
+          synchronized (this) {
+            if (_isDisconnect) {
+              _queue.clear();
+              break;
+            }
+
+            frame = _queue.poll();
+          }
+
+          if (frame != null) {
+            write(frame);
+            continue;
+          }
+
+          _ws.flush();
+
+          synchronized (this) {
+            if (_queue.isEmpty() && ! _isDisconnect) {
+              _isActive = false;
+              return;
+            }
+          }
+        }
+      } catch (Exception e) {
+        log.log(Level.FINER, e.toString(), e);
+
+        _memberMap.remove(_ws, this);
+        close();
+
+        _ws.disconnect();
+
+        return;
+      }
+
+      // slow consumer
+      _memberMap.remove(_ws, this);
+
+      _ws.close(CLOSE_MESSAGE_TOO_BIG, "slow consumer");
+    }
+
+    private void write(WebSocketFrame frame)
+      throws IOException
+    {
+      if (_ws instanceof WebSocketFrameOutput) {
+        ((WebSocketFrameOutput) _ws).writeFrame(frame);
+      }
+      else if (frame.getOpcode() == OP_TEXT) {
+        PrintWriter out = _ws.startTextMessage();
+        out.write(frame.getText());
+        out.close();
+      }
+      else {
+        OutputStream out = _ws.startBinaryMessage();
+        frame.writePayload(out);
+        out.close();
+      }
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _ws + "]";
+    }
+  }
+}
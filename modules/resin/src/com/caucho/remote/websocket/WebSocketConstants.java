@@ -40,6 +40,7 @@ public interface WebSocketConstants {
   public static final String VERSION = "13";
   
   public static final int FLAG_FIN = 0x80;
+  public static final int FLAG_RSV1 = 0x40;
   public static final int MASK_OPCODE = 0x0f;
   public static final int FLAG_MASK = 0x80;
   
@@ -47,7 +47,7 @@ import com.caucho.websocket.WebSocketEncoder;
  * User facade for http requests.
  */
 public class WebSocketContextStreamImpl
-  implements WebSocketContext, WebSocketConstants
+  implements WebSocketContext, WebSocketConstants, WebSocketFrameOutput
 {
   private static final L10N L = new L10N(WebSocketContextStreamImpl.class);
   private static final Logger log
@@ -126,6 +126,24 @@ public class WebSocketContextStreamImpl
     return _textWriter;
   }
   
+  @Override
+  public void writeFrame(WebSocketFrame frame)
+    throws IOException
+  {
+    WriteStream out = getWriteStream();
+    
+    if (out == null)
+      throw new IOException(L.l("{0} is closed for writing.", this));
+    
+    frame.write(out);
+  }
+  
+  @Override
+  public boolean isClosed()
+  {
+    return _isWriteClosed.get();
+  }
+  
   @Override
   public void pong(byte []bytes)
   {
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An immutable, complete server frame (header and unmasked payload) which
+ * can be written to any number of connections without re-encoding.
+ */
+public final class WebSocketFrame implements WebSocketConstants
+{
+  private final int _opcode;
+  private final byte []_data;
+  private final int _headerLength;
+
+  private WebSocketFrame(int opcode, byte []data, int headerLength)
+  {
+    _opcode = opcode;
+    _data = data;
+    _headerLength = headerLength;
+  }
+
+  /**
+   * Creates a final text frame, encoding the string as utf-8 directly
+   * into the frame buffer.
+   */
+  public static WebSocketFrame createText(String text)
+  {
+    int strlen = text.length();
+    int length = 0;
+
+    for (int i = 0; i < strlen; i++) {
+      char ch = text.charAt(i);
+
+      if (ch < 0x80)
+        length += 1;
+      else if (ch < 0x800)
+        length += 2;
+      else if (isPair(text, i)) {
+        length += 4;
+        i++;
+      }
+      else if (0xd800 <= ch && ch <= 0xdfff)
+        length += 1;
+      else
+        length += 3;
+    }
+
+    int headerLength = getHeaderLength(length);
+    byte []data = new byte[headerLength + length];
+
+    fillHeader(data, OP_TEXT, length);
+
+    int offset = headerLength;
+
+    for (int i = 0; i < strlen; i++) {
+      char ch = text.charAt(i);
+
+      if (ch < 0x80)
+        data[offset++] = (byte) ch;
+      else if (ch < 0x800) {
+        data[offset++] = (byte) (0xc0 + (ch >> 6));
+        data[offset++] = (byte) (0x80 + (ch & 0x3f));
+      }
+      else if (isPair(text, i)) {
+        int cp = Character.toCodePoint(ch, text.charAt(++i));
+
+        data[offset++] = (byte) (0xf0 + (cp >> 18));
+        data[offset++] = (byte) (0x80 + ((cp >> 12) & 0x3f));
+        data[offset++] = (byte) (0x80 + ((cp >> 6) & 0x3f));
+        data[offset++] = (byte) (0x80 + (cp & 0x3f));
+      }
+      else if (0xd800 <= ch && ch <= 0xdfff) {
+        // unpaired surrogates aren't valid utf-8
+        data[offset++] = (byte) '?';
+      }
+      else {
+        data[offset++] = (byte) (0xe0 + (ch >> 12));
+        data[offset++] = (byte) (0x80 + ((ch >> 6) & 0x3f));
+        data[offset++] = (byte) (0x80 + (ch & 0x3f));
+      }
+    }
+
+    return new WebSocketFrame(OP_TEXT, data, headerLength);
+  }
+
+  /**
+   * Creates a final binary frame, copying the data.
+   */
+  public static WebSocketFrame createBinary(byte []buffer,
+                                            int offset,
+                                            int length)
+  {
+    int headerLength = getHeaderLength(length);
+    byte []data = new byte[headerLength + length];
+
+    fillHeader(data, OP_BINARY, length);
+
+    System.arraycopy(buffer, offset, data, headerLength, length);
+
+    return new WebSocketFrame(OP_BINARY, data, headerLength);
+  }
+
+  private static boolean isPair(String text, int i)
+  {
+    return (Character.isHighSurrogate(text.charAt(i))
+            && i + 1 < text.length()
+            && Character.isLowSurrogate(text.charAt(i + 1)));
+  }
+
+  private static int getHeaderLength(long length)
+  {
+    if (length < 0x7e)
+      return 2;
+    else if (length <= 0xffff)
+      return 4;
+    else
+      return 10;
+  }
+
+  private static void fillHeader(byte []data, int opcode, long length)
+  {
+    data[0] = (byte) (FLAG_FIN | opcode);
+
+    if (length < 0x7e) {
+      data[1] = (byte) length;
+    }
+    else if (length <= 0xffff) {
+      data[1] = (byte) 0x7e;
+      data[2] = (byte) (length >> 8);
+      data[3] = (byte) length;
+    }
+    else {
+      data[1] = (byte) 0x7f;
+
+      for (int i = 0; i < 8; i++) {
+        data[2 + i] = (byte) (length >> (56 - 8 * i));
+      }
+    }
+  }
+
+  public int getOpcode()
+  {
+    return _opcode;
+  }
+
+  /**
+   * Returns the payload length.
+   */
+  public int getLength()
+  {
+    return _data.length - _headerLength;
+  }
+
+  /**
+   * Writes the complete frame.
+   */
+  public void write(OutputStream os)
+    throws IOException
+  {
+    os.write(_data, 0, _data.length);
+  }
+
+  /**
+   * Writes only the payload, for contexts which frame their own output.
+   */
+  public void writePayload(OutputStream os)
+    throws IOException
+  {
+    os.write(_data, _headerLength, _data.length - _headerLength);
+  }
+
+  public String getText()
+  {
+    try {
+      return new String(_data, _headerLength, getLength(), "utf-8");
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[op=" + _opcode + ",len=" + getLength() + "]";
+  }
+}
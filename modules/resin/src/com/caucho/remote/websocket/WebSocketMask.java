@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.remote.websocket;
+
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+/**
+ * Unmasks client frame data. When sun.misc.Unsafe is available on a
+ * platform allowing unaligned access, the data is xor'ed 8 bytes at a time.
+ */
+final class WebSocketMask
+{
+  private static final Logger log
+    = Logger.getLogger(WebSocketMask.class.getName());
+
+  private static final Unsafe _unsafe;
+  private static final long _byteArrayOffset;
+  private static final boolean _isLittleEndian
+    = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  private WebSocketMask()
+  {
+  }
+
+  /**
+   * Unmasks the buffer in place.
+   *
+   * @param maskOffset the mask index of the first byte
+   */
+  static void unmask(byte []buffer, int offset, int length,
+                     byte []mask, int maskOffset)
+  {
+    int i = 0;
+
+    if (_unsafe != null && length >= 16) {
+      long wordMask = 0;
+
+      for (int k = 0; k < 8; k++) {
+        long b = mask[(maskOffset + k) & 0x3] & 0xffL;
+
+        if (_isLittleEndian)
+          wordMask |= b << (8 * k);
+        else
+          wordMask |= b << (8 * (7 - k));
+      }
+
+      Unsafe unsafe = _unsafe;
+      long address = _byteArrayOffset + offset;
+      int wordEnd = length & ~0x7;
+
+      for (; i < wordEnd; i += 8) {
+        unsafe.putLong(buffer, address + i,
+                       unsafe.getLong(buffer, address + i) ^ wordMask);
+      }
+    }
+
+    for (; i < length; i++) {
+      buffer[offset + i] ^= mask[(maskOffset + i) & 0x3];
+    }
+  }
+
+  private static boolean isUnalignedArch()
+  {
+    String arch = System.getProperty("os.arch");
+
+    return ("amd64".equals(arch)
+            || "x86_64".equals(arch)
+            || "x86".equals(arch)
+            || "i386".equals(arch)
+            || "aarch64".equals(arch));
+  }
+
+  static {
+    Unsafe unsafe = null;
+    long byteArrayOffset = 0;
+
+    try {
+      if (isUnalignedArch()) {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field theUnsafe = null;
+        for (Field field : unsafeClass.getDeclaredFields()) {
+          if (field.getName().equals("theUnsafe"))
+            theUnsafe = field;
+        }
+
+        if (theUnsafe != null) {
+          theUnsafe.setAccessible(true);
+          unsafe = (Unsafe) theUnsafe.get(null);
+          byteArrayOffset = unsafe.arrayBaseOffset(byte[].class);
+        }
+      }
+    } catch (Throwable e) {
+      log.log(Level.ALL, e.toString(), e);
+      unsafe = null;
+    }
+
+    _unsafe = unsafe;
+    _byteArrayOffset = byteArrayOffset;
+  }
+}
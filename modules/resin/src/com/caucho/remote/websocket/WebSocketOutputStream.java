@@ -52,6 +52,9 @@ public class WebSocketOutputStream extends OutputStream
   
   private MessageState _state = MessageState.IDLE;
   private boolean _isAutoFlush = true;
+  
+  private FrameDeflater _deflater;
+  private boolean _isCompressed;
 
   public WebSocketOutputStream(OutputStream os, byte []workingBuffer)
     throws IOException
@@ -78,6 +81,14 @@ public class WebSocketOutputStream extends OutputStream
     _isAutoFlush = isAutoFlush;
   }
   
+  /**
+   * Compresses messages with the connection's permessage-deflate context.
+   */
+  public void setDeflater(FrameDeflater deflater)
+  {
+    _deflater = deflater;
+  }
+  
   public void init()
   {
     if (_state != MessageState.IDLE) {
@@ -85,6 +96,7 @@ public class WebSocketOutputStream extends OutputStream
     }
     
     _state = MessageState.FIRST;
+    _isCompressed = false;
     
     _offset = 4;
   }
@@ -116,6 +128,13 @@ public class WebSocketOutputStream extends OutputStream
     if (length >= BINARY_PASSTHROUGH_SIZE) {
       complete(false);
       
+      int deflateCode = getDeflateCode(length, false);
+      
+      if (deflateCode >= 0) {
+        _deflater.writeFrame(_os, deflateCode, false, buffer, offset, length);
+        return;
+      }
+      
       while (length > 0) {
         int sublen = Math.min(0xffff, length);
         
@@ -180,6 +199,17 @@ public class WebSocketOutputStream extends OutputStream
     byte []buffer = _buffer;
     
     int offset = _offset;
+    
+    if (_deflater != null && (offset > 4 || isFinal)) {
+      int deflateCode = getDeflateCode(offset - 4, isFinal);
+      
+      if (deflateCode >= 0) {
+        _offset = 4;
+        _deflater.writeFrame(_os, deflateCode, isFinal, buffer, 4, offset - 4);
+        return;
+      }
+    }
+    
     _offset = 4;
     
     int writeOffset = fillHeader(isFinal, offset); 
@@ -234,6 +264,29 @@ public class WebSocketOutputStream extends OutputStream
     }
   }
   
+  /**
+   * Returns the compressed frame's opcode byte, or -1 if the message
+   * is uncompressed.
+   */
+  private int getDeflateCode(int length, boolean isFinal)
+  {
+    if (_deflater == null)
+      return -1;
+    else if (_state == MessageState.FIRST) {
+      if (! _deflater.isCompress(length, isFinal))
+        return -1;
+      
+      _state = MessageState.CONT;
+      _isCompressed = true;
+      
+      return OP_BINARY | FLAG_RSV1;
+    }
+    else if (_isCompressed)
+      return OP_CONT;
+    else
+      return -1;
+  }
+  
   public void destroy()
     throws IOException
   {
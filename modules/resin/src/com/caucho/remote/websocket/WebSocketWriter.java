@@ -49,6 +49,9 @@ public class WebSocketWriter extends Writer
   private MessageState _state = MessageState.IDLE;
   private boolean _isAutoFlush = true;
   
+  private FrameDeflater _deflater;
+  private boolean _isCompressed;
+  
   private char _savedPair;
 
   public WebSocketWriter(OutputStream os, byte []buffer)
@@ -62,6 +65,14 @@ public class WebSocketWriter extends Writer
     _buffer = buffer;
   }
   
+  /**
+   * Compresses messages with the connection's permessage-deflate context.
+   */
+  public void setDeflater(FrameDeflater deflater)
+  {
+    _deflater = deflater;
+  }
+  
   public void init()
     throws IOException
   {
@@ -69,6 +80,7 @@ public class WebSocketWriter extends Writer
       throw new IllegalStateException(String.valueOf(_state));
     
     _state = MessageState.FIRST;
+    _isCompressed = false;
     
     _savedPair = 0;
     
@@ -226,6 +238,15 @@ public class WebSocketWriter extends Writer
       // don't flush empty chunk
       if (length == 0 && ! isFinal)
         return;
+      
+      if (_deflater != null) {
+        int deflateCode = getDeflateCode(length, isFinal);
+        
+        if (deflateCode >= 0) {
+          _deflater.writeFrame(_os, deflateCode, isFinal, buffer, 4, length);
+          return;
+        }
+      }
 
       int code1;
 
@@ -261,6 +282,27 @@ public class WebSocketWriter extends Writer
     }
   }
   
+  /**
+   * Returns the compressed frame's opcode byte, or -1 if the message
+   * is uncompressed.
+   */
+  private int getDeflateCode(int length, boolean isFinal)
+  {
+    if (_state == MessageState.FIRST) {
+      if (! _deflater.isCompress(length, isFinal))
+        return -1;
+      
+      _state = MessageState.CONT;
+      _isCompressed = true;
+      
+      return OP_TEXT | FLAG_RSV1;
+    }
+    else if (_isCompressed)
+      return OP_CONT;
+    else
+      return -1;
+  }
+  
   public void destroy()
     throws IOException
   {
@@ -436,6 +436,24 @@ public class ServerAdmin extends AbstractEmitterObject
     return _server.getSendfileCount();
   }
 
+  /**
+   * Returns the total bytes of static files sent zero-copy.
+   */
+  @Override
+  public long getSendfileBytesTotal()
+  {
+    return _server.getFileTransferBytes();
+  }
+
+  /**
+   * Returns the total bytes of static files copied through buffers.
+   */
+  @Override
+  public long getSendfileCopyBytesTotal()
+  {
+    return _server.getFileCopyBytes();
+  }
+
   /**
    * Returns the current total amount of memory available for the JVM, in bytes.
    */
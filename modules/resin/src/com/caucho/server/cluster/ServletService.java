@@ -89,6 +89,7 @@ import com.caucho.server.host.HostController;
 import com.caucho.server.host.HostExpandDeployGenerator;
 import com.caucho.server.http.HttpBufferStore;
 import com.caucho.server.httpcache.AbstractProxyCache;
+import com.caucho.server.httpcache.ProxyCache;
 import com.caucho.server.log.AbstractAccessLog;
 import com.caucho.server.log.AccessLog;
 import com.caucho.server.resin.Resin;
@@ -188,6 +189,8 @@ public class ServletService
   // stats
   
   private final AtomicLong _sendfileCount = new AtomicLong();
+  private final AtomicLong _fileTransferBytes = new AtomicLong();
+  private final AtomicLong _fileCopyBytes = new AtomicLong();
 
   private long _startTime;
 
@@ -797,9 +800,7 @@ public class ServletService
   
   protected AbstractProxyCache instantiateProxyCache()
   {
-    log.warning(L.l("<proxy-cache> requires Resin Professional.  Please see http://www.caucho.com for Resin Professional information and licensing."));
-
-    return new AbstractProxyCache();
+    return new ProxyCache();
   }
   
   /**
@@ -838,6 +839,34 @@ public class ServletService
     _sendfileCount.incrementAndGet();
   }
 
+  /**
+   * Returns the total bytes of static files sent zero-copy, either with
+   * sendfile or with a FileChannel transfer.
+   */
+  public long getFileTransferBytes()
+  {
+    return _fileTransferBytes.get();
+  }
+
+  public void addFileTransferBytes(long bytes)
+  {
+    _fileTransferBytes.addAndGet(bytes);
+  }
+
+  /**
+   * Returns the total bytes of static files copied through the
+   * response buffers.
+   */
+  public long getFileCopyBytes()
+  {
+    return _fileCopyBytes.get();
+  }
+
+  public void addFileCopyBytes(long bytes)
+  {
+    _fileCopyBytes.addAndGet(bytes);
+  }
+
   /**
    * Sets the access log.
    */
@@ -71,6 +71,46 @@ public class AdminCacheStore extends AbstractManagedObject
     return _manager.getDataBacking().getDataStore().getCount();
   }
 
+  @Override
+  public long getMemoryTierSize()
+  {
+    DataMemoryTier memoryTier = _manager.getMemoryTier();
+    
+    return memoryTier != null ? memoryTier.getMemorySize() : 0;
+  }
+
+  @Override
+  public long getMemoryTierEntryCount()
+  {
+    DataMemoryTier memoryTier = _manager.getMemoryTier();
+    
+    return memoryTier != null ? memoryTier.getEntryCount() : 0;
+  }
+
+  @Override
+  public long getMemoryTierHitCountTotal()
+  {
+    DataMemoryTier memoryTier = _manager.getMemoryTier();
+    
+    return memoryTier != null ? memoryTier.getHitCount() : 0;
+  }
+
+  @Override
+  public long getMemoryTierMissCountTotal()
+  {
+    DataMemoryTier memoryTier = _manager.getMemoryTier();
+    
+    return memoryTier != null ? memoryTier.getMissCount() : 0;
+  }
+
+  @Override
+  public long getMemoryTierEvictCountTotal()
+  {
+    DataMemoryTier memoryTier = _manager.getMemoryTier();
+    
+    return memoryTier != null ? memoryTier.getEvictCount() : 0;
+  }
+
   @Override
   public long getLoadCountTotal()
   {
@@ -64,6 +64,7 @@ public class CacheConfig implements Configuration
 
   private String _guid;
   private int _guidHash;
+  private long _guidKeySeed;
   
   private CacheHandle _cache;
 
@@ -90,6 +91,7 @@ public class CacheConfig implements Configuration
   private CacheWriterExt _cacheWriter;
   
   private boolean _isStoreByValue = true;
+  private boolean _isFastKeyHash;
   private boolean _isStatisticsEnabled;
   private boolean _isTransactionEnabled;
 
@@ -226,12 +228,35 @@ public class CacheConfig implements Configuration
   {
     _guid = guid;
     _guidHash = guid.hashCode();
+    _guidKeySeed = FastKeyHash.hashGuid(guid);
   }
   
   public int getGuidHash()
   {
     return _guidHash;
   }
+  
+  /**
+   * Returns the guid's seed for fast key hashing.
+   */
+  long getGuidKeySeed()
+  {
+    return _guidKeySeed;
+  }
+  
+  /**
+   * True if keys use the non-cryptographic 128-bit hash instead of
+   * SHA-256.
+   */
+  public boolean isFastKeyHash()
+  {
+    return _isFastKeyHash;
+  }
+  
+  public void setFastKeyHash(boolean isFastKeyHash)
+  {
+    _isFastKeyHash = isFastKeyHash;
+  }
 
   /**
    * Returns the globally-unique id for the cache.
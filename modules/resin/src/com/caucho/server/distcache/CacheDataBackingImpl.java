@@ -508,6 +508,9 @@ public class CacheDataBackingImpl implements CacheDataBacking {
       DataSourceImpl dataSource = new DataSourceImpl();
       dataSource.setPath(path);
       dataSource.setRemoveOnError(true);
+      // session and cache writes contend on the mnode table, so
+      // lock rows instead of the whole table
+      dataSource.setRowLocking(true);
       dataSource.init();
 
       return dataSource;
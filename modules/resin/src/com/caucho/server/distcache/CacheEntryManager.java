@@ -34,7 +34,7 @@ import java.util.Iterator;
 import com.caucho.env.service.ResinSystem;
 import com.caucho.inject.Module;
 import com.caucho.util.HashKey;
-import com.caucho.util.LruCache;
+import com.caucho.util.TinyLfuCache;
 
 /**
  * Manages the server entries for the distributed cache
@@ -46,8 +46,8 @@ public final class CacheEntryManager
   
   private final CacheEntryFactory _cacheEntryFactory;
   
-  private final LruCache<HashKey, DistCacheEntry> _entryCache
-    = new LruCache<HashKey, DistCacheEntry>(64 * 1024);
+  private final TinyLfuCache<HashKey, DistCacheEntry> _entryCache
+    = new TinyLfuCache<HashKey, DistCacheEntry>(64 * 1024);
   
   public CacheEntryManager(CacheEntryFactory cacheEntryFactory)
   {
@@ -50,6 +50,9 @@ public final class CacheKeyManager
   
   private FreeList<KeyHashStream> _keyStreamFreeList
     = new FreeList<KeyHashStream>(32);
+
+  private FreeList<FastKeyHash> _fastHashFreeList
+    = new FreeList<FastKeyHash>(32);
   
   private final LruCache<CacheKey,HashKey> _keyCache;
   
@@ -106,6 +109,11 @@ public final class CacheKeyManager
 
   protected HashKey createHashKey(Object key, CacheConfig config)
   {
+    if (config.isFastKeyHash()) {
+      // cheaper to hash than to look up in the key cache
+      return createFastHashKey(key, config);
+    }
+    
     CacheKey cacheKey = new CacheKey(config.getGuid(),
                                      config.getGuidHash(), 
                                      key);
@@ -153,6 +161,38 @@ public final class CacheKeyManager
     }
   }
 
+  /**
+   * Returns the non-cryptographic key hash
+   */
+  private HashKey createFastHashKey(Object key, CacheConfig config)
+  {
+    long guidSeed = config.getGuidKeySeed();
+    
+    if (FastKeyHash.isDirect(key)) {
+      return FastKeyHash.hashDirect(guidSeed, key);
+    }
+    
+    try {
+      FastKeyHash hash = _fastHashFreeList.allocate();
+      
+      if (hash == null) {
+        hash = new FastKeyHash();
+      }
+      
+      hash.init();
+      
+      config.getKeySerializer().serialize(key, hash);
+      
+      HashKey hashKey = hash.digest(guidSeed);
+      
+      _fastHashFreeList.free(hash);
+      
+      return hashKey;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   /**
    * Returns the key hash
    */
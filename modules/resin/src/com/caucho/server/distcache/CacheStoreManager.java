@@ -75,6 +75,11 @@ public final class CacheStoreManager implements CacheEntryFactory
   
   private AdminCacheStore _admin = new AdminCacheStore(this);
   
+  private long _memoryTierSize = 16L * 1024 * 1024;
+  private int _memoryTierMaxValueSize = 64 * 1024;
+  
+  private DataMemoryTier _memoryTier;
+  
   public CacheStoreManager(ResinSystem resinSystem)
   {
     _resinSystem = resinSystem;
@@ -112,6 +117,38 @@ public final class CacheStoreManager implements CacheEntryFactory
     return _dataBacking;
   }
   
+  /**
+   * Sets the direct memory used for hot values. A zero size disables
+   * the memory tier.
+   */
+  public void setMemoryTierSize(long size)
+  {
+    _memoryTierSize = size;
+  }
+  
+  public long getMemoryTierSize()
+  {
+    return _memoryTierSize;
+  }
+  
+  /**
+   * Sets the largest serialized value kept in the memory tier.
+   */
+  public void setMemoryTierMaxValueSize(int size)
+  {
+    _memoryTierMaxValueSize = size;
+  }
+  
+  public int getMemoryTierMaxValueSize()
+  {
+    return _memoryTierMaxValueSize;
+  }
+  
+  DataMemoryTier getMemoryTier()
+  {
+    return _memoryTier;
+  }
+  
   public LocalMnodeManager getLocalMnodeManager()
   {
     return _localMnodeManager;
@@ -373,6 +410,11 @@ public final class CacheStoreManager implements CacheEntryFactory
     
     _dataBacking.start();
     
+    if (_memoryTierSize > 0 && _memoryTierMaxValueSize > 0) {
+      _memoryTier = new DataMemoryTier(_memoryTierSize,
+                                       _memoryTierMaxValueSize);
+    }
+    
     _cacheEngine.start();
   }
   
@@ -448,6 +490,13 @@ public final class CacheStoreManager implements CacheEntryFactory
   public void close()
   {
     _isClosed = true;
+    
+    DataMemoryTier memoryTier = _memoryTier;
+    _memoryTier = null;
+    
+    if (memoryTier != null) {
+      memoryTier.clear();
+    }
 
     if (getDataBacking() != null) {
       getDataBacking().close();
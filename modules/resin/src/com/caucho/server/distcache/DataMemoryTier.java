@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.distcache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.caucho.vfs.TempBuffer;
+import com.caucho.vfs.TempOutputStream;
+
+/**
+ * Off-heap memory tier for serialized cache values, keyed by the value
+ * hash.
+ *
+ * Values are stored in direct-memory slabs, allocated in 1M pages and
+ * split into power-of-two chunks. Each chunk size has its own LRU, so a
+ * full tier evicts the least-recently used value of the same size.
+ * Since a value hash always names the same bytes, entries are never
+ * invalidated, only evicted.
+ */
+final class DataMemoryTier {
+  private static final int PAGE_SIZE = 1024 * 1024;
+  private static final int MIN_CHUNK_BITS = 6;
+
+  private final HashMap<Long,Slot> _slotMap = new HashMap<Long,Slot>();
+
+  private final SizeClass []_sizeClasses;
+
+  private final int _maxValueSize;
+  private final int _maxPageCount;
+  private int _pageCount;
+
+  private volatile long _hitCount;
+  private volatile long _missCount;
+  private volatile long _evictCount;
+
+  DataMemoryTier(long capacity, int maxValueSize)
+  {
+    if (maxValueSize > PAGE_SIZE)
+      maxValueSize = PAGE_SIZE;
+
+    _maxValueSize = maxValueSize;
+    _maxPageCount = (int) Math.max(1, capacity / PAGE_SIZE);
+
+    int maxBits = 32 - Integer.numberOfLeadingZeros(maxValueSize - 1);
+
+    _sizeClasses = new SizeClass[Math.max(1, maxBits - MIN_CHUNK_BITS + 1)];
+
+    for (int i = 0; i < _sizeClasses.length; i++) {
+      _sizeClasses[i] = new SizeClass(1 << (MIN_CHUNK_BITS + i));
+    }
+  }
+
+  /**
+   * Returns the largest value stored in the tier.
+   */
+  int getMaxValueSize()
+  {
+    return _maxValueSize;
+  }
+
+  /**
+   * Returns a copy of the value's serialized bytes, or null if the value
+   * isn't in memory.
+   */
+  byte []get(long valueHash)
+  {
+    synchronized (this) {
+      Slot slot = _slotMap.get(valueHash);
+
+      if (slot == null) {
+        _missCount++;
+        return null;
+      }
+
+      _hitCount++;
+
+      // access-order map moves the slot to the young end
+      slot.getSizeClass().touch(valueHash);
+
+      return slot.read();
+    }
+  }
+
+  /**
+   * Saves the value's serialized bytes.
+   *
+   * @return true if the value is in memory after the call
+   */
+  boolean put(long valueHash, TempOutputStream os)
+  {
+    int length = os.getLength();
+
+    if (length <= 0 || _maxValueSize < length)
+      return false;
+
+    SizeClass sizeClass = _sizeClasses[getSizeClassIndex(length)];
+
+    synchronized (this) {
+      if (_slotMap.containsKey(valueHash))
+        return true;
+
+      ByteBuffer chunk = allocateChunk(sizeClass);
+
+      if (chunk == null)
+        return false;
+
+      chunk.clear();
+
+      for (TempBuffer ptr = os.getHead(); ptr != null; ptr = ptr.getNext()) {
+        chunk.put(ptr.getBuffer(), 0, ptr.getLength());
+      }
+
+      Slot slot = new Slot(sizeClass, chunk, length);
+
+      _slotMap.put(valueHash, slot);
+      sizeClass.add(valueHash, slot);
+
+      return true;
+    }
+  }
+
+  private ByteBuffer allocateChunk(SizeClass sizeClass)
+  {
+    ByteBuffer chunk = sizeClass.allocate();
+
+    if (chunk != null)
+      return chunk;
+
+    if (_pageCount < _maxPageCount) {
+      _pageCount++;
+
+      sizeClass.addPage(ByteBuffer.allocateDirect(PAGE_SIZE));
+
+      return sizeClass.allocate();
+    }
+
+    Long oldHash = sizeClass.removeEldest();
+
+    if (oldHash == null)
+      return null;
+
+    _evictCount++;
+
+    return _slotMap.remove(oldHash).getChunk();
+  }
+
+  private int getSizeClassIndex(int length)
+  {
+    int bits = 32 - Integer.numberOfLeadingZeros(length - 1);
+
+    return Math.max(0, bits - MIN_CHUNK_BITS);
+  }
+
+  /**
+   * Drops all values. The pages are returned when they are collected.
+   */
+  synchronized void clear()
+  {
+    _slotMap.clear();
+
+    for (int i = 0; i < _sizeClasses.length; i++) {
+      _sizeClasses[i] = new SizeClass(_sizeClasses[i].getChunkSize());
+    }
+
+    _pageCount = 0;
+  }
+
+  //
+  // statistics
+  //
+
+  synchronized int getEntryCount()
+  {
+    return _slotMap.size();
+  }
+
+  synchronized long getMemorySize()
+  {
+    return (long) _pageCount * PAGE_SIZE;
+  }
+
+  long getHitCount()
+  {
+    return _hitCount;
+  }
+
+  long getMissCount()
+  {
+    return _missCount;
+  }
+
+  long getEvictCount()
+  {
+    return _evictCount;
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[pages=" + _pageCount + "/" + _maxPageCount
+            + ",max-value=" + _maxValueSize + "]");
+  }
+
+  /**
+   * Chunks of a single power-of-two size.
+   */
+  private static final class SizeClass {
+    private final int _chunkSize;
+
+    private final LinkedHashMap<Long,Slot> _lruMap
+      = new LinkedHashMap<Long,Slot>(16, 0.75f, true);
+
+    private final ArrayList<ByteBuffer> _freeList = new ArrayList<ByteBuffer>();
+
+    SizeClass(int chunkSize)
+    {
+      _chunkSize = chunkSize;
+    }
+
+    int getChunkSize()
+    {
+      return _chunkSize;
+    }
+
+    ByteBuffer allocate()
+    {
+      int size = _freeList.size();
+
+      if (size > 0)
+        return _freeList.remove(size - 1);
+      else
+        return null;
+    }
+
+    void addPage(ByteBuffer page)
+    {
+      for (int offset = 0; offset + _chunkSize <= PAGE_SIZE; offset += _chunkSize) {
+        page.limit(offset + _chunkSize);
+        page.position(offset);
+
+        _freeList.add(page.slice());
+      }
+    }
+
+    void add(long valueHash, Slot slot)
+    {
+      _lruMap.put(valueHash, slot);
+    }
+
+    void touch(long valueHash)
+    {
+      _lruMap.get(valueHash);
+    }
+
+    Long removeEldest()
+    {
+      Iterator<Long> iter = _lruMap.keySet().iterator();
+
+      if (! iter.hasNext())
+        return null;
+
+      Long valueHash = iter.next();
+      iter.remove();
+
+      return valueHash;
+    }
+  }
+
+  private static final class Slot {
+    private final SizeClass _sizeClass;
+    private final ByteBuffer _chunk;
+    private final int _length;
+
+    Slot(SizeClass sizeClass, ByteBuffer chunk, int length)
+    {
+      _sizeClass = sizeClass;
+      _chunk = chunk;
+      _length = length;
+    }
+
+    SizeClass getSizeClass()
+    {
+      return _sizeClass;
+    }
+
+    ByteBuffer getChunk()
+    {
+      return _chunk;
+    }
+
+    byte []read()
+    {
+      byte []data = new byte[_length];
+
+      _chunk.clear();
+      _chunk.get(data, 0, _length);
+
+      return data;
+    }
+  }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.distcache;
+
+import java.io.OutputStream;
+
+import com.caucho.util.HashKey;
+
+/**
+ * Non-cryptographic 128-bit key hash for caches which don't need
+ * SHA-256 keys, based on MurmurHash3 x64/128.
+ *
+ * String, byte[] and Long keys are hashed directly without the key
+ * serializer. Other keys are serialized into the hash's buffer first.
+ * The result is widened to the usual 32-byte HashKey, so the mnode
+ * table and the triad ownership are unchanged.
+ */
+final class FastKeyHash extends OutputStream {
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private static final long TYPE_STRING = 0x2f6b1a93c4e5d7f1L;
+  private static final long TYPE_BYTES = 0x5c3e8a7b19d2f463L;
+  private static final long TYPE_LONG = 0x71d4b9e2a6c3f585L;
+  private static final long TYPE_SERIAL = 0x3a9f6d1c8e7b2457L;
+
+  private byte []_buffer = new byte[256];
+  private int _length;
+
+  /**
+   * Returns the seed for a cache's keys.
+   */
+  static long hashGuid(String guid)
+  {
+    return hash(0, guid)[0];
+  }
+
+  /**
+   * Returns true if the key can be hashed without serialization.
+   */
+  static boolean isDirect(Object key)
+  {
+    return (key instanceof String
+            || key instanceof byte[]
+            || key instanceof Long);
+  }
+
+  /**
+   * Hashes a String, byte[] or Long key.
+   */
+  static HashKey hashDirect(long guidSeed, Object key)
+  {
+    if (key instanceof String)
+      return toHashKey(hash(guidSeed ^ TYPE_STRING, (String) key));
+    else if (key instanceof byte[]) {
+      byte []bytes = (byte []) key;
+
+      return toHashKey(hash(guidSeed ^ TYPE_BYTES, bytes, bytes.length));
+    }
+    else if (key instanceof Long)
+      return toHashKey(hash(guidSeed ^ TYPE_LONG, ((Long) key).longValue()));
+    else
+      throw new IllegalArgumentException(String.valueOf(key));
+  }
+
+  //
+  // serialized keys
+  //
+
+  void init()
+  {
+    _length = 0;
+  }
+
+  /**
+   * Hashes the serialized key.
+   */
+  HashKey digest(long guidSeed)
+  {
+    return toHashKey(hash(guidSeed ^ TYPE_SERIAL, _buffer, _length));
+  }
+
+  @Override
+  public void write(int value)
+  {
+    if (_buffer.length <= _length)
+      grow(_length + 1);
+
+    _buffer[_length++] = (byte) value;
+  }
+
+  @Override
+  public void write(byte []buffer, int offset, int length)
+  {
+    if (_buffer.length < _length + length)
+      grow(_length + length);
+
+    System.arraycopy(buffer, offset, _buffer, _length, length);
+    _length += length;
+  }
+
+  private void grow(int minLength)
+  {
+    byte []buffer = new byte[Math.max(minLength, 2 * _buffer.length)];
+
+    System.arraycopy(_buffer, 0, buffer, 0, _length);
+
+    _buffer = buffer;
+  }
+
+  @Override
+  public void flush()
+  {
+  }
+
+  @Override
+  public void close()
+  {
+  }
+
+  //
+  // MurmurHash3 x64/128
+  //
+
+  /**
+   * Hashes the string's chars as UTF-16LE bytes.
+   */
+  private static long []hash(long seed, String s)
+  {
+    int len = s.length();
+
+    long h1 = seed;
+    long h2 = seed;
+
+    int i = 0;
+
+    for (; i + 8 <= len; i += 8) {
+      long k1 = (s.charAt(i)
+                 | (long) s.charAt(i + 1) << 16
+                 | (long) s.charAt(i + 2) << 32
+                 | (long) s.charAt(i + 3) << 48);
+
+      long k2 = (s.charAt(i + 4)
+                 | (long) s.charAt(i + 5) << 16
+                 | (long) s.charAt(i + 6) << 32
+                 | (long) s.charAt(i + 7) << 48);
+
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27) + h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31) + h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    int tail = len - i;
+
+    if (tail > 0) {
+      long k1 = 0;
+      long k2 = 0;
+
+      for (int j = 0; j < tail; j++) {
+        long ch = s.charAt(i + j);
+
+        if (j < 4)
+          k1 |= ch << (16 * j);
+        else
+          k2 |= ch << (16 * (j - 4));
+      }
+
+      if (tail > 4)
+        h2 ^= mixK2(k2);
+
+      h1 ^= mixK1(k1);
+    }
+
+    return finish(h1, h2, 2L * len);
+  }
+
+  private static long []hash(long seed, byte []buffer, int len)
+  {
+    long h1 = seed;
+    long h2 = seed;
+
+    int i = 0;
+
+    for (; i + 16 <= len; i += 16) {
+      long k1 = getLong(buffer, i);
+      long k2 = getLong(buffer, i + 8);
+
+      h1 ^= mixK1(k1);
+      h1 = Long.rotateLeft(h1, 27) + h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      h2 ^= mixK2(k2);
+      h2 = Long.rotateLeft(h2, 31) + h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    int tail = len - i;
+
+    if (tail > 0) {
+      long k1 = 0;
+      long k2 = 0;
+
+      for (int j = 0; j < tail; j++) {
+        long b = buffer[i + j] & 0xff;
+
+        if (j < 8)
+          k1 |= b << (8 * j);
+        else
+          k2 |= b << (8 * (j - 8));
+      }
+
+      if (tail > 8)
+        h2 ^= mixK2(k2);
+
+      h1 ^= mixK1(k1);
+    }
+
+    return finish(h1, h2, len);
+  }
+
+  private static long []hash(long seed, long value)
+  {
+    long h1 = seed ^ mixK1(value);
+    long h2 = seed;
+
+    return finish(h1, h2, 8);
+  }
+
+  private static long getLong(byte []buffer, int offset)
+  {
+    return ((buffer[offset] & 0xffL)
+            | (buffer[offset + 1] & 0xffL) << 8
+            | (buffer[offset + 2] & 0xffL) << 16
+            | (buffer[offset + 3] & 0xffL) << 24
+            | (buffer[offset + 4] & 0xffL) << 32
+            | (buffer[offset + 5] & 0xffL) << 40
+            | (buffer[offset + 6] & 0xffL) << 48
+            | (buffer[offset + 7] & 0xffL) << 56);
+  }
+
+  private static long mixK1(long k1)
+  {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    k1 *= C2;
+
+    return k1;
+  }
+
+  private static long mixK2(long k2)
+  {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    k2 *= C1;
+
+    return k2;
+  }
+
+  private static long []finish(long h1, long h2, long len)
+  {
+    h1 ^= len;
+    h2 ^= len;
+
+    h1 += h2;
+    h2 += h1;
+
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+
+    h1 += h2;
+    h2 += h1;
+
+    return new long[] { h1, h2 };
+  }
+
+  private static long fmix(long k)
+  {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+
+    return k;
+  }
+
+  /**
+   * Widens the 128-bit hash to a HashKey. The upper 16 bytes are
+   * derived from the lower, so the key has 128 bits of entropy.
+   */
+  private static HashKey toHashKey(long []hash)
+  {
+    byte []bytes = new byte[HashManager.SIZE];
+
+    putLong(bytes, 0, hash[0]);
+    putLong(bytes, 8, hash[1]);
+    putLong(bytes, 16, fmix(hash[0] + 0x9e3779b97f4a7c15L));
+    putLong(bytes, 24, fmix(hash[1] + 0x9e3779b97f4a7c15L));
+
+    return new HashKey(bytes);
+  }
+
+  private static void putLong(byte []bytes, int offset, long value)
+  {
+    for (int i = 7; i >= 0; i--) {
+      bytes[offset + i] = (byte) value;
+      value >>>= 8;
+    }
+  }
+}
@@ -29,6 +29,7 @@
 
 package com.caucho.server.distcache;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -82,6 +83,16 @@ public final class LocalDataManager
     return getStoreManager().getDataBacking();
   }
 
+  private DataMemoryTier getMemoryTier()
+  {
+    return getStoreManager().getMemoryTier();
+  }
+  
+  private static boolean isMemoryTierHash(long valueHash)
+  {
+    return valueHash != 0 && valueHash != -1 && valueHash != MnodeEntry.ANY_KEY;
+  }
+
   DataItemLocal writeData(MnodeValue update, 
                      long version,
                      StreamSource source)
@@ -144,6 +155,13 @@ public final class LocalDataManager
                                             valueHash));
       }
       
+      // write-through, since the mnode and the triad refer to the saved data
+      DataMemoryTier memoryTier = getMemoryTier();
+      
+      if (memoryTier != null) {
+        memoryTier.put(valueHash, os);
+      }
+      
       // XXX: request owner?
 
       return new DataItemLocal(valueHash, valueData, length);
@@ -165,6 +183,20 @@ public final class LocalDataManager
   {
     if (valueHash == 0)
       return null;
+    
+    DataMemoryTier memoryTier = getMemoryTier();
+    
+    if (! isMemoryTierHash(valueHash)) {
+      memoryTier = null;
+    }
+    
+    if (memoryTier != null) {
+      byte []data = memoryTier.get(valueHash);
+      
+      if (data != null) {
+        return decodeValue(new ByteArrayInputStream(data), serializer);
+      }
+    }
 
     TempOutputStream os = null;
 
@@ -200,6 +232,10 @@ public final class LocalDataManager
       }
 
       out.close();
+      
+      if (memoryTier != null) {
+        memoryTier.put(valueHash, os);
+      }
 
       InputStream is = os.openInputStream();
 
@@ -260,6 +296,19 @@ public final class LocalDataManager
       throw new IllegalStateException(L.l("readData may not be called with a null value"));
     }
 
+    long valueHash = mnodeValue.getValueHash();
+    DataMemoryTier memoryTier = getMemoryTier();
+    
+    if (memoryTier != null && isMemoryTierHash(valueHash)) {
+      byte []data = memoryTier.get(valueHash);
+      
+      if (data != null) {
+        os.write(data, 0, data.length);
+        
+        return true;
+      }
+    }
+
     WriteStream out = Vfs.openWrite(os);
 
     try {
@@ -251,6 +251,18 @@ public abstract class AbstractResponseStream
   abstract public void write(byte []buffer, int offset, int length)
     throws IOException;
 
+  /**
+   * Writes text already encoded in the given java encoding. Returns
+   * false if the stream can't accept the bytes directly, in which case
+   * the caller prints the text as chars.
+   */
+  public boolean writeEncoded(byte []buffer, int offset, int length,
+                              String javaEncoding)
+    throws IOException
+  {
+    return false;
+  }
+
   /**
    * Writes a character to the output.
    */
@@ -815,6 +815,10 @@ public class HttpRequest extends AbstractHttpRequest
         return false;
       }
 
+      if (startProtocolUpgrade()) {
+        return true;
+      }
+
       CharSequence host = getInvocationHost();
 
       Invocation invocation = getInvocation(host, _uri, _uriLength);
@@ -886,6 +890,17 @@ public class HttpRequest extends AbstractHttpRequest
     return true;
   }
 
+  /**
+   * Called after the request headers are parsed, before the invocation.
+   * Returns true if the connection has switched to another protocol and
+   * the request must not be serviced as HTTP/1.x.
+   */
+  protected boolean startProtocolUpgrade()
+    throws IOException
+  {
+    return false;
+  }
+
   private boolean parseRequest()
     throws IOException
   {
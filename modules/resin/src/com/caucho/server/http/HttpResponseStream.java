@@ -30,6 +30,8 @@
 package com.caucho.server.http;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,6 +39,7 @@ import java.util.logging.Logger;
 import com.caucho.server.webapp.WebApp;
 import com.caucho.util.L10N;
 import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
 import com.caucho.vfs.SendfileOutputStream;
 import com.caucho.vfs.WriteStream;
 
@@ -330,6 +333,12 @@ public class HttpResponseStream
     return _nextStream.isSendfileEnabled();
   }
 
+  @Override
+  public boolean isFileTransferEnabled()
+  {
+    return _nextStream.isFileTransferEnabled();
+  }
+
   /**
    * Sends a file.
    *
@@ -342,18 +351,77 @@ public class HttpResponseStream
   {
     AbstractHttpRequest request = _response.getRequest();
     WebApp webApp = request.getWebApp();
+    boolean isCaching = request.getResponseFacade().isCaching();
 
-    if (! isSendfileEnabled()
-        || ! webApp.isSendfileEnabled()
-        || (request.getResponseFacade().isCaching()
-            && length < webApp.getSendfileMinLength())) {
-      path.writeToStream(this);
+    if (! webApp.isSendfileEnabled()) {
+      writeFileCopy(webApp, path, offset, length);
       return;
     }
+
+    if (isSendfileEnabled()
+        && offset == 0
+        && ! (isCaching && length < webApp.getSendfileMinLength())) {
+      // sendfile bypasses the buffers, so the cache can't see the body
+      if (isCaching)
+        request.getResponseFacade().killCache();
+
+      webApp.addSendfileCount();
+      webApp.addFileTransferBytes(length);
     
-    webApp.addSendfileCount();
-    
-    path.sendfile(this, offset, length);
+      path.sendfile(this, offset, length);
+      return;
+    }
+
+    // pure-java zero-copy, when the socket has a channel
+    if (! isCaching
+        && webApp.getSendfileMinLength() <= length
+        && isFileTransferEnabled()) {
+      FileChannel file = path.openFileChannel(StandardOpenOption.READ);
+
+      if (file != null) {
+        try {
+          flushBuffer();
+
+          if (! _isChunkedEncoding) {
+            webApp.addSendfileCount();
+            webApp.addFileTransferBytes(length);
+
+            writeFileTransfer(file, offset, length);
+            return;
+          }
+        } finally {
+          file.close();
+        }
+      }
+    }
+
+    writeFileCopy(webApp, path, offset, length);
+  }
+
+  /**
+   * Copies the file region through the response buffers.
+   */
+  private void writeFileCopy(WebApp webApp, Path path,
+                             long offset, long length)
+    throws IOException
+  {
+    if (offset == 0 && (length < 0 || length == path.getLength())) {
+      path.writeToStream(this);
+    }
+    else {
+      ReadStream is = path.openRead();
+
+      try {
+        is.skip(offset);
+
+        is.writeToStream(this, (int) length);
+      } finally {
+        is.close();
+      }
+    }
+
+    if (length > 0)
+      webApp.addFileCopyBytes(length);
   }
 
   /*
@@ -385,6 +453,20 @@ public class HttpResponseStream
     _nextStream.writeMmap(mmapAddress, mmapBlocks, mmapOffset, mmapLength);
   }
 
+  @Override
+  public void writeFileTransfer(FileChannel file,
+                                long fileOffset, long fileLength)
+    throws IOException
+  {
+    if (_isChunkedEncoding) {
+      throw new IllegalStateException(L.l("writeFileTransfer cannot use chunked"));
+    }
+    
+    flushBuffer();
+    
+    _nextStream.writeFileTransfer(file, fileOffset, fileLength);
+  }
+
   @Override
   public void writeSendfile(byte []fileName, int nameLength, long fileLength)
     throws IOException
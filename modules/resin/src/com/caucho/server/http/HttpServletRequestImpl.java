@@ -58,7 +58,10 @@ import javax.servlet.http.HttpServletResponse;
 import com.caucho.config.scope.ScopeRemoveListener;
 import com.caucho.network.listen.SocketLink;
 import com.caucho.network.listen.SocketLinkDuplexController;
+import com.caucho.remote.websocket.DeflateFrameInputStream;
+import com.caucho.remote.websocket.FrameInputStream;
 import com.caucho.remote.websocket.MaskedFrameInputStream;
+import com.caucho.remote.websocket.PerMessageDeflate;
 import com.caucho.remote.websocket.UnmaskedFrameInputStream;
 import com.caucho.remote.websocket.WebSocketConstants;
 import com.caucho.security.AbstractLogin;
@@ -1622,6 +1625,15 @@ public final class HttpServletRequestImpl extends AbstractCauchoRequest
     if (! isMasked)
       serverExtensions = "x-unmasked";
     
+    PerMessageDeflate deflate = PerMessageDeflate.negotiate(extensions);
+    
+    if (deflate == null) {
+    }
+    else if (serverExtensions != null)
+      serverExtensions += ", " + deflate.getResponseHeader();
+    else
+      serverExtensions = deflate.getResponseHeader();
+    
     _response.setStatus(101);//, "Switching Protocols");
     _response.setHeader("Upgrade", "websocket");
     
@@ -1634,14 +1646,21 @@ public final class HttpServletRequestImpl extends AbstractCauchoRequest
 
     _response.setContentLength(0);
 
-    WebSocketContextImpl webSocket;
+    FrameInputStream frameIs;
     
     if (isMasked)
-      webSocket = new WebSocketContextImpl(this, _response, listener,
-                                           new MaskedFrameInputStream());
+      frameIs = new MaskedFrameInputStream();
     else
-      webSocket = new WebSocketContextImpl(this, _response, listener,
-                                           new UnmaskedFrameInputStream());
+      frameIs = new UnmaskedFrameInputStream();
+    
+    if (deflate != null)
+      frameIs = new DeflateFrameInputStream(frameIs);
+    
+    WebSocketContextImpl webSocket
+      = new WebSocketContextImpl(this, _response, listener, frameIs);
+    
+    if (deflate != null)
+      webSocket.setDeflater(deflate.createDeflater());
     
     SocketLinkDuplexController controller = _request.startDuplex(webSocket);
     webSocket.setController(controller);
@@ -319,6 +319,24 @@ public abstract class ToByteResponseStream extends AbstractResponseStream {
     _tailByteBuffer[_tailByteLength++] = (byte) ch;
   }
 
+  /**
+   * Writes pre-encoded text when it matches the response encoding.
+   */
+  @Override
+  public boolean writeEncoded(byte []buffer, int offset, int length,
+                              String javaEncoding)
+    throws IOException
+  {
+    if (_isOutputStreamOnly
+        || ! javaEncoding.equals(_toByte.getJavaEncoding())) {
+      return false;
+    }
+
+    write(buffer, offset, length);
+
+    return true;
+  }
+
   /**
    * Writes a chunk of bytes to the stream.
    */
@@ -40,8 +40,11 @@ import java.util.logging.Logger;
 
 import com.caucho.network.listen.SocketLinkDuplexController;
 import com.caucho.network.listen.SocketLinkDuplexListener;
+import com.caucho.remote.websocket.FrameDeflater;
 import com.caucho.remote.websocket.WebSocketBlockingQueue;
 import com.caucho.remote.websocket.WebSocketConstants;
+import com.caucho.remote.websocket.WebSocketFrame;
+import com.caucho.remote.websocket.WebSocketFrameOutput;
 import com.caucho.remote.websocket.WebSocketInputStream;
 import com.caucho.remote.websocket.WebSocketOutputStream;
 import com.caucho.remote.websocket.WebSocketPrintWriter;
@@ -61,7 +64,8 @@ import com.caucho.websocket.WebSocketListener;
  * User facade for http requests.
  */
 class WebSocketContextImpl
-  implements WebSocketContext, WebSocketConstants, SocketLinkDuplexListener
+  implements WebSocketContext, WebSocketConstants, SocketLinkDuplexListener,
+             WebSocketFrameOutput
 {
   private static final L10N L = new L10N(WebSocketContextImpl.class);
   private static final Logger log
@@ -79,6 +83,8 @@ class WebSocketContextImpl
 
   private WebSocketWriter _textOut;
   private PrintWriter _textWriter;
+  
+  private FrameDeflater _deflater;
   // private WebSocketReader _textIn;
 
   private boolean _isReadClosed;
@@ -94,6 +100,14 @@ class WebSocketContextImpl
     _is = is;
   }
 
+  /**
+   * Sets the negotiated permessage-deflate compressor.
+   */
+  void setDeflater(FrameDeflater deflater)
+  {
+    _deflater = deflater;
+  }
+
   public void setController(SocketLinkDuplexController controller)
   {
     _controller = controller;
@@ -138,9 +152,11 @@ class WebSocketContextImpl
       throw new IllegalStateException(L.l("{0} is closed for writing.",
                                           this));
 
-    if (_binaryOut == null)
+    if (_binaryOut == null) {
       _binaryOut = new WebSocketOutputStream(_controller.getWriteStream(),
                                              TempBuffer.allocate().getBuffer());
+      _binaryOut.setDeflater(_deflater);
+    }
 
     _binaryOut.init();
 
@@ -154,6 +170,7 @@ class WebSocketContextImpl
     if (_textOut == null) {
       _textOut = new WebSocketWriter(_controller.getWriteStream(),
                                      TempBuffer.allocate().getBuffer());
+      _textOut.setDeflater(_deflater);
       _textWriter = new WebSocketPrintWriter(_textOut);
     }
 
@@ -162,6 +179,16 @@ class WebSocketContextImpl
     return _textWriter;
   }
 
+  @Override
+  public void writeFrame(WebSocketFrame frame)
+    throws IOException
+  {
+    if (_isWriteClosed.get())
+      throw new IOException(L.l("{0} is closed for writing.", this));
+    
+    frame.write(_controller.getWriteStream());
+  }
+
   @Override
   public void pong(byte []value)
     throws IOException
@@ -176,6 +203,7 @@ class WebSocketContextImpl
     out.flush();
   }
 
+  @Override
   public boolean isClosed()
   {
     return _isWriteClosed.get();
@@ -226,6 +254,11 @@ class WebSocketContextImpl
       _controller.complete();
     } finally {
       IoUtil.close(_is);
+      
+      FrameDeflater deflater = _deflater;
+      
+      if (deflater != null)
+        deflater.close();
     }
   }
 
@@ -0,0 +1,525 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.httpcache;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+
+import com.caucho.config.types.Bytes;
+import com.caucho.server.webapp.WebApp;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+import com.caucho.util.LruCache;
+import com.caucho.vfs.Path;
+
+/**
+ * HTTP proxy cache. Cacheable GET responses are saved in an LRU of
+ * entries, with small bodies in memory and larger bodies in temp files.
+ */
+public class ProxyCache extends AbstractProxyCache
+{
+  private static final L10N L = new L10N(ProxyCache.class);
+  private static final Logger log
+    = Logger.getLogger(ProxyCache.class.getName());
+
+  private static final int DEFAULT_ENTRIES = 8192;
+
+  private Path _path;
+  private TempFileManager _tempFileManager;
+  private boolean _isTempFileInit;
+
+  private boolean _isEnable = true;
+
+  private long _diskSize = 256L * 1024 * 1024;
+  private long _memorySize = 16L * 1024 * 1024;
+  private int _maxEntrySize = 1024 * 1024;
+  private int _memoryEntrySize = 64 * 1024;
+
+  private volatile LruCache<String,ProxyCacheEntry> _entryCache;
+  private volatile LruCache<String,Vary> _varyCache;
+
+  private final AtomicLong _memoryUsed = new AtomicLong();
+  private final AtomicLong _diskUsed = new AtomicLong();
+
+  // distinguishes variants of a URL after an invalidation
+  private final AtomicLong _varySequence = new AtomicLong();
+
+  private final AtomicLong _hitCount = new AtomicLong();
+  private final AtomicLong _missCount = new AtomicLong();
+  private final AtomicLong _memoryHitCount = new AtomicLong();
+  private final AtomicLong _diskHitCount = new AtomicLong();
+
+  /**
+   * Sets the path to the cache directory.
+   */
+  @Override
+  public void setPath(Path path)
+  {
+    _path = path;
+  }
+
+  /**
+   * Returns the path from the cache directory.
+   */
+  @Override
+  public Path getPath()
+  {
+    return _path;
+  }
+
+  /**
+   * Sets the path to the cache directory (backwards compatibility).
+   */
+  @Override
+  public void setDir(Path path)
+  {
+    setPath(path);
+  }
+
+  /**
+   * Sets the disk size of the cache
+   */
+  @Override
+  public void setDiskSize(Bytes size)
+  {
+    _diskSize = size.getBytes();
+  }
+
+  /**
+   * Sets the size of the the cache (backwards compatibility).
+   */
+  @Override
+  public void setSize(Bytes size)
+  {
+    setDiskSize(size);
+  }
+
+  /**
+   * Sets the memory size of the cache.
+   */
+  @Override
+  public void setMemorySize(Bytes size)
+  {
+    _memorySize = size.getBytes();
+  }
+
+  /**
+   * Sets the max entry size of the cache
+   */
+  public void setMaxEntrySize(Bytes size)
+  {
+    _maxEntrySize = (int) Math.min(Integer.MAX_VALUE, size.getBytes());
+  }
+
+  /**
+   * Returns the max entry size of the cache
+   */
+  @Override
+  public int getMaxEntrySize()
+  {
+    return _maxEntrySize;
+  }
+
+  /**
+   * Sets the largest body kept in memory. Larger bodies are saved
+   * in a temp file.
+   */
+  public void setMemoryEntrySize(Bytes size)
+  {
+    _memoryEntrySize = (int) Math.min(Integer.MAX_VALUE, size.getBytes());
+  }
+
+  int getMemoryEntrySize()
+  {
+    return _memoryEntrySize;
+  }
+
+  /**
+   * Set true if enabled.
+   */
+  @Override
+  public void setEnable(boolean isEnable)
+  {
+    _isEnable = isEnable;
+  }
+
+  /**
+   * Return true if enabled.
+   */
+  @Override
+  public boolean isEnable()
+  {
+    return _isEnable;
+  }
+
+  /**
+   * Creates the filter.
+   */
+  @Override
+  public FilterChain createFilterChain(FilterChain next,
+                                       WebApp app)
+  {
+    if (! _isEnable)
+      return next;
+
+    initCache();
+
+    return new ProxyCacheFilterChain(this, next, app);
+  }
+
+  private void initCache()
+  {
+    if (_entryCache != null)
+      return;
+
+    synchronized (this) {
+      if (_entryCache == null) {
+        int entries = getEntries();
+
+        if (entries <= 0)
+          entries = DEFAULT_ENTRIES;
+
+        _varyCache = new LruCache<String,Vary>(entries);
+        _entryCache = new LruCache<String,ProxyCacheEntry>(entries);
+      }
+    }
+  }
+
+  /**
+   * Returns the temp file manager for large bodies, or null if
+   * bodies are only cached in memory.
+   */
+  TempFileManager getTempFileManager()
+  {
+    if (_isTempFileInit)
+      return _tempFileManager;
+
+    synchronized (this) {
+      if (! _isTempFileInit) {
+        try {
+          if (_path != null) {
+            _tempFileManager = new TempFileManager(_path);
+          }
+          else {
+            TempFileService service = TempFileService.getCurrent();
+
+            if (service != null)
+              _tempFileManager = service.getManager();
+          }
+        } catch (Exception e) {
+          log.log(Level.WARNING, e.toString(), e);
+        }
+
+        _isTempFileInit = true;
+      }
+
+      return _tempFileManager;
+    }
+  }
+
+  //
+  // entry management
+  //
+
+  /**
+   * Returns the cache key for the request's URL.
+   */
+  String getKey(HttpServletRequest req)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append(req.getScheme());
+    sb.append("://");
+    sb.append(req.getServerName());
+    sb.append(':');
+    sb.append(req.getServerPort());
+    sb.append(req.getRequestURI());
+
+    String query = req.getQueryString();
+
+    if (query != null) {
+      sb.append('?');
+      sb.append(query);
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Returns a fresh, allocated entry matching the request, or null.
+   * The caller must free the entry.
+   */
+  ProxyCacheEntry get(String key, HttpServletRequest req)
+  {
+    LruCache<String,ProxyCacheEntry> entryCache = _entryCache;
+
+    String entryKey = getEntryKey(key, req, _varyCache.get(key));
+
+    ProxyCacheEntry entry = entryCache.get(entryKey);
+
+    if (entry == null) {
+      _missCount.incrementAndGet();
+      return null;
+    }
+
+    long now = CurrentTime.getCurrentTime();
+
+    if (entry.isExpired(now) || ! entry.allocate()) {
+      entryCache.remove(entryKey);
+
+      _missCount.incrementAndGet();
+      return null;
+    }
+
+    _hitCount.incrementAndGet();
+
+    if (entry.isMemory())
+      _memoryHitCount.incrementAndGet();
+    else
+      _diskHitCount.incrementAndGet();
+
+    return entry;
+  }
+
+  /**
+   * Returns the key for a new entry, saving its Vary headers.
+   */
+  String createEntryKey(String key, HttpServletRequest req,
+                        ArrayList<String> varyNames)
+  {
+    Vary vary = null;
+
+    if (varyNames.size() > 0) {
+      vary = _varyCache.get(key);
+
+      if (vary == null || ! vary.isMatch(varyNames)) {
+        vary = new Vary(varyNames, _varySequence.incrementAndGet());
+
+        _varyCache.put(key, vary);
+      }
+    }
+    else {
+      _varyCache.remove(key);
+    }
+
+    return getEntryKey(key, req, vary);
+  }
+
+  private String getEntryKey(String key, HttpServletRequest req, Vary vary)
+  {
+    if (vary == null)
+      return key;
+
+    StringBuilder sb = new StringBuilder(key);
+
+    sb.append('\u0000');
+    sb.append(vary.getSequence());
+
+    for (String name : vary.getNames()) {
+      sb.append('\u0000');
+
+      String value = req.getHeader(name);
+
+      if (value != null)
+        sb.append(value);
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Adds a completed entry. The cache owns the entry afterwards.
+   */
+  void put(String entryKey, ProxyCacheEntry entry)
+  {
+    if (log.isLoggable(Level.FINER))
+      log.finer(L.l("{0} caching {1}", this, entryKey));
+
+    _entryCache.put(entryKey, entry);
+  }
+
+  /**
+   * Invalidates the URL, e.g. after a POST.
+   */
+  void invalidate(String key)
+  {
+    LruCache<String,Vary> varyCache = _varyCache;
+
+    if (varyCache == null)
+      return;
+
+    // variants are unreachable once the vary sequence is removed
+    varyCache.remove(key);
+    _entryCache.remove(key);
+  }
+
+  //
+  // memory and disk accounting
+  //
+
+  boolean allocateMemory(long size)
+  {
+    return allocate(_memoryUsed, _memorySize, size);
+  }
+
+  void freeMemory(long size)
+  {
+    _memoryUsed.addAndGet(-size);
+  }
+
+  boolean allocateDisk(long size)
+  {
+    return allocate(_diskUsed, _diskSize, size);
+  }
+
+  void freeDisk(long size)
+  {
+    _diskUsed.addAndGet(-size);
+  }
+
+  private boolean allocate(AtomicLong used, long max, long size)
+  {
+    while (true) {
+      long oldUsed = used.get();
+      long newUsed = oldUsed + size;
+
+      if (max < newUsed) {
+        // make room by evicting the oldest entry
+        if (! _entryCache.removeTail())
+          return false;
+
+        continue;
+      }
+
+      if (used.compareAndSet(oldUsed, newUsed))
+        return true;
+    }
+  }
+
+  /**
+   * Clears the cache.
+   */
+  @Override
+  public void clear()
+  {
+    LruCache<String,ProxyCacheEntry> entryCache = _entryCache;
+
+    if (entryCache != null) {
+      entryCache.clear();
+      _varyCache.clear();
+    }
+  }
+
+  /**
+   * Returns the hit count.
+   */
+  @Override
+  public long getHitCount()
+  {
+    return _hitCount.get();
+  }
+
+  /**
+   * Returns the miss count.
+   */
+  @Override
+  public long getMissCount()
+  {
+    return _missCount.get();
+  }
+
+  /**
+   * Returns the count of hits served from memory.
+   */
+  @Override
+  public long getMemoryBlockHitCount()
+  {
+    return _memoryHitCount.get();
+  }
+
+  /**
+   * Returns the count of hits served from temp files.
+   */
+  @Override
+  public long getMemoryBlockMissCount()
+  {
+    return _diskHitCount.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[]";
+  }
+
+  /**
+   * The Vary headers of a cached URL.
+   */
+  static final class Vary {
+    private final String []_names;
+    private final long _sequence;
+
+    Vary(ArrayList<String> names, long sequence)
+    {
+      _names = new String[names.size()];
+      names.toArray(_names);
+
+      _sequence = sequence;
+    }
+
+    String []getNames()
+    {
+      return _names;
+    }
+
+    long getSequence()
+    {
+      return _sequence;
+    }
+
+    boolean isMatch(ArrayList<String> names)
+    {
+      if (names.size() != _names.length)
+        return false;
+
+      for (int i = 0; i < _names.length; i++) {
+        if (! _names[i].equalsIgnoreCase(names.get(i)))
+          return false;
+      }
+
+      return true;
+    }
+  }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.httpcache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.util.CacheListener;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.OutputStreamWithBuffer;
+
+/**
+ * Cached response. Small bodies are kept on the heap, larger bodies are
+ * spilled to a temp file inode.
+ */
+class ProxyCacheEntry extends AbstractCacheEntry implements CacheListener {
+  private static final Logger log
+    = Logger.getLogger(ProxyCacheEntry.class.getName());
+
+  private final ProxyCache _cache;
+  private final String _key;
+
+  private final ArrayList<String> _headerKeys;
+  private final ArrayList<String> _headerValues;
+  private final String _contentType;
+  private final String _charEncoding;
+
+  private final String _etag;
+  private final String _lastModified;
+
+  private final long _maxAge;
+  private final long _createTime;
+  private volatile long _expireTime;
+
+  // one count for the cache, plus one for each active fill
+  private final AtomicInteger _useCount = new AtomicInteger(1);
+  private final AtomicBoolean _isReleased = new AtomicBoolean();
+
+  private byte []_data;
+  private int _dataLength;
+  private long _memorySize;
+
+  private TempFileInode _inode;
+  private OutputStream _inodeOut;
+  private long _diskSize;
+
+  private long _length;
+
+  private boolean _isValid = true;
+  private boolean _isForwardEnclosed;
+
+  ProxyCacheEntry(ProxyCache cache,
+                  String key,
+                  ArrayList<String> headerKeys,
+                  ArrayList<String> headerValues,
+                  String contentType,
+                  String charEncoding,
+                  String etag,
+                  String lastModified,
+                  long maxAge)
+  {
+    _cache = cache;
+    _key = key;
+
+    _headerKeys = new ArrayList<String>(headerKeys);
+    _headerValues = new ArrayList<String>(headerValues);
+    _contentType = contentType;
+    _charEncoding = charEncoding;
+
+    _etag = etag;
+    _lastModified = lastModified;
+
+    _maxAge = maxAge;
+    _createTime = CurrentTime.getCurrentTime();
+    _expireTime = _createTime + maxAge;
+  }
+
+  String getKey()
+  {
+    return _key;
+  }
+
+  ArrayList<String> getHeaderKeys()
+  {
+    return _headerKeys;
+  }
+
+  ArrayList<String> getHeaderValues()
+  {
+    return _headerValues;
+  }
+
+  String getContentType()
+  {
+    return _contentType;
+  }
+
+  String getCharacterEncoding()
+  {
+    return _charEncoding;
+  }
+
+  String getEtag()
+  {
+    return _etag;
+  }
+
+  String getLastModified()
+  {
+    return _lastModified;
+  }
+
+  long getLength()
+  {
+    return _length;
+  }
+
+  /**
+   * Returns the age of the entry in seconds.
+   */
+  long getAge(long now)
+  {
+    return Math.max(0, (now - _createTime) / 1000);
+  }
+
+  boolean isExpired(long now)
+  {
+    return _expireTime <= now;
+  }
+
+  /**
+   * True if the body is in memory, not in a temp file.
+   */
+  boolean isMemory()
+  {
+    return _inode == null;
+  }
+
+  /**
+   * If the response discovers that the page hasn't changed,
+   * update the cache time.
+   */
+  @Override
+  public void updateExpiresDate()
+  {
+    _expireTime = CurrentTime.getCurrentTime() + _maxAge;
+  }
+
+  /**
+   * Opens an output stream for the response body.
+   */
+  @Override
+  public OutputStream openOutputStream()
+  {
+    return new EntryOutputStream();
+  }
+
+  /**
+   * Opens a writer for char entries, saved in the response encoding.
+   */
+  @Override
+  public Writer openWriter()
+  {
+    String encoding = _charEncoding != null ? _charEncoding : "ISO-8859-1";
+
+    try {
+      return new OutputStreamWriter(openOutputStream(), encoding);
+    } catch (UnsupportedEncodingException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      destroy();
+
+      return null;
+    }
+  }
+
+  @Override
+  public void setForwardEnclosed(boolean isForward)
+  {
+    _isForwardEnclosed = isForward;
+  }
+
+  @Override
+  public boolean isForwardEnclosed()
+  {
+    return _isForwardEnclosed;
+  }
+
+  /**
+   * True if the body was saved completely.
+   */
+  boolean isValid()
+  {
+    return _isValid;
+  }
+
+  /**
+   * Allocates the entry for a cache fill.
+   */
+  boolean allocate()
+  {
+    int count;
+
+    while ((count = _useCount.get()) > 0) {
+      if (_useCount.compareAndSet(count, count + 1))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Releases the entry. The body is freed when the last user is done.
+   */
+  void free()
+  {
+    if (_useCount.decrementAndGet() == 0) {
+      remove();
+    }
+  }
+
+  /**
+   * Called when the entry is evicted from the cache.
+   */
+  @Override
+  public void removeEvent()
+  {
+    release();
+  }
+
+  /**
+   * Destroys an entry which was never added to the cache.
+   */
+  @Override
+  public void destroy()
+  {
+    _isValid = false;
+
+    release();
+  }
+
+  /**
+   * Releases the owner's reference, either the filling request's or,
+   * after the fill completes, the cache's.
+   */
+  private void release()
+  {
+    if (_isReleased.compareAndSet(false, true)) {
+      free();
+    }
+  }
+
+  /**
+   * Writes the cached body to the response stream.
+   */
+  void writeBody(OutputStreamWithBuffer os)
+    throws IOException
+  {
+    TempFileInode inode = _inode;
+
+    if (inode != null) {
+      inode.writeToStream(os, 0, _length);
+    }
+    else if (_dataLength > 0) {
+      os.write(_data, 0, _dataLength);
+    }
+  }
+
+  private void remove()
+  {
+    _isValid = false;
+
+    TempFileInode inode;
+    long diskSize;
+    long memorySize;
+
+    synchronized (this) {
+      inode = _inode;
+      _inode = null;
+
+      diskSize = _diskSize;
+      _diskSize = 0;
+
+      memorySize = _memorySize;
+      _memorySize = 0;
+      _data = null;
+    }
+
+    if (inode != null)
+      inode.free();
+
+    if (diskSize > 0)
+      _cache.freeDisk(diskSize);
+
+    if (memorySize > 0)
+      _cache.freeMemory(memorySize);
+  }
+
+  private synchronized void writeData(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    if (! _isValid)
+      return;
+
+    _length += length;
+
+    if (_cache.getMaxEntrySize() < _length) {
+      _isValid = false;
+      return;
+    }
+
+    if (_inode != null) {
+      writeDisk(buffer, offset, length);
+      return;
+    }
+
+    int newLength = _dataLength + length;
+
+    if (newLength <= _cache.getMemoryEntrySize()
+        && ensureMemory(newLength)) {
+      System.arraycopy(buffer, offset, _data, _dataLength, length);
+      _dataLength = newLength;
+      return;
+    }
+
+    // spill the body to disk
+    if (! startDisk()) {
+      _isValid = false;
+      return;
+    }
+
+    writeDisk(buffer, offset, length);
+  }
+
+  private boolean ensureMemory(int length)
+  {
+    if (_data != null && length <= _data.length)
+      return true;
+
+    int capacity = _data == null ? 1024 : 2 * _data.length;
+
+    while (capacity < length) {
+      capacity *= 2;
+    }
+
+    capacity = Math.min(capacity, _cache.getMemoryEntrySize());
+
+    if (! _cache.allocateMemory(capacity - _memorySize))
+      return false;
+
+    byte []data = new byte[capacity];
+
+    if (_dataLength > 0)
+      System.arraycopy(_data, 0, data, 0, _dataLength);
+
+    _data = data;
+    _memorySize = capacity;
+
+    return true;
+  }
+
+  private boolean startDisk()
+    throws IOException
+  {
+    TempFileManager manager = _cache.getTempFileManager();
+
+    if (manager == null)
+      return false;
+
+    _inode = manager.createInode();
+    _inodeOut = _inode.openOutputStream();
+
+    if (_dataLength > 0) {
+      _inodeOut.write(_data, 0, _dataLength);
+    }
+
+    long memorySize = _memorySize;
+    _memorySize = 0;
+    _data = null;
+    _dataLength = 0;
+
+    if (memorySize > 0)
+      _cache.freeMemory(memorySize);
+
+    return true;
+  }
+
+  private void writeDisk(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    _inodeOut.write(buffer, offset, length);
+  }
+
+  private void closeData()
+    throws IOException
+  {
+    OutputStream inodeOut = _inodeOut;
+    _inodeOut = null;
+
+    if (inodeOut == null)
+      return;
+
+    inodeOut.close();
+
+    synchronized (this) {
+      if (_isValid && _cache.allocateDisk(_length)) {
+        _diskSize = _length;
+        return;
+      }
+    }
+
+    // the entry is too large for the disk cache or was killed
+    destroy();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _key + "]";
+  }
+
+  class EntryOutputStream extends OutputStream {
+    private boolean _isClosed;
+
+    @Override
+    public void write(int ch)
+      throws IOException
+    {
+      write(new byte[] { (byte) ch }, 0, 1);
+    }
+
+    @Override
+    public void write(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      if (_isClosed)
+        return;
+
+      try {
+        writeData(buffer, offset, length);
+      } catch (IOException e) {
+        log.log(Level.FINER, e.toString(), e);
+
+        _isValid = false;
+      }
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      if (_isClosed)
+        return;
+
+      _isClosed = true;
+
+      closeData();
+    }
+  }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.httpcache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import com.caucho.server.http.CauchoRequest;
+import com.caucho.server.http.CauchoResponse;
+import com.caucho.server.http.HttpServletResponseImpl;
+import com.caucho.server.webapp.WebApp;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.QDate;
+
+/**
+ * Filter chain which serves cacheable GET requests from the proxy cache
+ * and fills the cache from the servlet's response.
+ */
+class ProxyCacheFilterChain extends AbstractCacheFilterChain {
+  private static final Logger log
+    = Logger.getLogger(ProxyCacheFilterChain.class.getName());
+
+  private final ProxyCache _cache;
+  private final FilterChain _next;
+  private final WebApp _webApp;
+
+  // entries being filled, by response
+  private final ConcurrentHashMap<CauchoResponse,Fill> _fillMap
+    = new ConcurrentHashMap<CauchoResponse,Fill>();
+
+  ProxyCacheFilterChain(ProxyCache cache, FilterChain next, WebApp webApp)
+  {
+    _cache = cache;
+    _next = next;
+    _webApp = webApp;
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response)
+    throws ServletException, IOException
+  {
+    if (! (request instanceof CauchoRequest)
+        || ! (response instanceof CauchoResponse)) {
+      _next.doFilter(request, response);
+      return;
+    }
+
+    CauchoRequest req = (CauchoRequest) request;
+    CauchoResponse res = (CauchoResponse) response;
+
+    String method = req.getMethod();
+    boolean isGet = "GET".equals(method);
+    boolean isHead = "HEAD".equals(method);
+
+    if (! req.isTop()) {
+      _next.doFilter(req, res);
+      return;
+    }
+
+    if (! isGet && ! isHead) {
+      // unsafe methods invalidate the URL
+      if (! "OPTIONS".equals(method) && ! "TRACE".equals(method))
+        _cache.invalidate(_cache.getKey(req));
+
+      _next.doFilter(req, res);
+      return;
+    }
+
+    if (req.getHeader("Authorization") != null) {
+      _next.doFilter(req, res);
+      return;
+    }
+
+    String key = _cache.getKey(req);
+
+    if (! isNoCacheRequest(req)) {
+      ProxyCacheEntry entry = _cache.get(key, req);
+
+      if (entry != null) {
+        try {
+          if (fillFromCache(req, res, entry))
+            return;
+        } finally {
+          entry.free();
+        }
+      }
+    }
+
+    // HEAD responses have no body to save
+    if (isHead) {
+      _next.doFilter(req, res);
+      return;
+    }
+
+    res.setCacheInvocation(this);
+
+    _next.doFilter(req, res);
+
+    // saves the entry before the response is closed
+    res.completeCache();
+  }
+
+  /**
+   * A client's "Cache-Control: no-cache" refills the entry.
+   */
+  private boolean isNoCacheRequest(CauchoRequest req)
+  {
+    String cacheControl = req.getHeader("Cache-Control");
+
+    if (cacheControl != null
+        && (cacheControl.indexOf("no-cache") >= 0
+            || cacheControl.indexOf("max-age=0") >= 0)) {
+      return true;
+    }
+
+    String pragma = req.getHeader("Pragma");
+
+    return pragma != null && pragma.indexOf("no-cache") >= 0;
+  }
+
+  /**
+   * fillFromCache is called when the client needs the entire result, and
+   * the result is already in the cache.
+   */
+  @Override
+  public boolean fillFromCache(CauchoRequest req,
+                               CauchoResponse res,
+                               AbstractCacheEntry abstractEntry)
+    throws IOException
+  {
+    ProxyCacheEntry entry = (ProxyCacheEntry) abstractEntry;
+
+    if (! entry.isValid())
+      return false;
+
+    ArrayList<String> keys = entry.getHeaderKeys();
+    ArrayList<String> values = entry.getHeaderValues();
+
+    for (int i = 0; i < keys.size(); i++) {
+      res.addHeader(keys.get(i), values.get(i));
+    }
+
+    long now = CurrentTime.getCurrentTime();
+    res.setHeader("Age", String.valueOf(entry.getAge(now)));
+
+    if (isNotModified(req, entry)) {
+      res.sendError(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+
+    if (entry.getContentType() != null)
+      res.setContentType(entry.getContentType());
+
+    if (entry.getCharacterEncoding() != null)
+      res.setCharacterEncoding(entry.getCharacterEncoding());
+
+    res.setContentLength(entry.getLength());
+
+    entry.writeBody(res.getResponseStream());
+
+    if (log.isLoggable(Level.FINEST))
+      log.finest(entry + " cache hit");
+
+    return true;
+  }
+
+  private boolean isNotModified(CauchoRequest req, ProxyCacheEntry entry)
+  {
+    String etag = entry.getEtag();
+    String ifNoneMatch = req.getHeader("If-None-Match");
+
+    if (ifNoneMatch != null) {
+      return etag != null && isEtagMatch(ifNoneMatch, etag);
+    }
+
+    String lastModified = entry.getLastModified();
+    String ifModifiedSince = req.getHeader("If-Modified-Since");
+
+    if (lastModified == null || ifModifiedSince == null)
+      return false;
+    else if (ifModifiedSince.equals(lastModified))
+      return true;
+
+    QDate date = QDate.allocateGmtDate();
+
+    try {
+      long ifModifiedTime = date.parseDate(ifModifiedSince);
+      long lastModifiedTime = date.parseDate(lastModified);
+
+      return lastModifiedTime <= ifModifiedTime;
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return false;
+    } finally {
+      QDate.freeGmtDate(date);
+    }
+  }
+
+  private boolean isEtagMatch(String ifNoneMatch, String etag)
+  {
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+
+      if (tag.equals("*") || tag.equals(etag))
+        return true;
+      else if (tag.startsWith("W/") && tag.substring(2).equals(etag))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Starts the caching after the headers have been sent.
+   *
+   * @return the cache entry to fill or null if uncacheable.
+   */
+  @Override
+  public AbstractCacheEntry startCaching(CauchoRequest req,
+                                         CauchoResponse res,
+                                         ArrayList<String> keys,
+                                         ArrayList<String> values,
+                                         String contentType,
+                                         String charEncoding,
+                                         long contentLength)
+  {
+    if (! isCacheable(req, res))
+      return null;
+
+    if (_cache.getMaxEntrySize() < contentLength)
+      return null;
+
+    long now = CurrentTime.getCurrentTime();
+
+    long sMaxAge = -1;
+    long maxAge = -1;
+    long expires = -1;
+    String etag = null;
+    String lastModified = null;
+    ArrayList<String> varyNames = new ArrayList<String>();
+
+    for (int i = 0; i < keys.size(); i++) {
+      String key = keys.get(i);
+      String value = values.get(i);
+
+      if (key.equalsIgnoreCase("Cache-Control")) {
+        for (String token : value.split(",")) {
+          token = token.trim().toLowerCase(Locale.ENGLISH);
+
+          if (token.equals("no-store")
+              || token.equals("no-cache")
+              || token.startsWith("private")) {
+            return null;
+          }
+          else if (token.startsWith("s-maxage="))
+            sMaxAge = parseSeconds(token.substring("s-maxage=".length()));
+          else if (token.startsWith("max-age="))
+            maxAge = parseSeconds(token.substring("max-age=".length()));
+        }
+      }
+      else if (key.equalsIgnoreCase("Expires")) {
+        expires = parseExpires(value, now);
+      }
+      else if (key.equalsIgnoreCase("Vary")) {
+        for (String name : value.split(",")) {
+          name = name.trim();
+
+          if (name.equals("*"))
+            return null;
+          else if (name.length() > 0)
+            varyNames.add(name);
+        }
+      }
+      else if (key.equalsIgnoreCase("ETag")) {
+        etag = value;
+      }
+      else if (key.equalsIgnoreCase("Last-Modified")) {
+        lastModified = value;
+      }
+      else if (key.equalsIgnoreCase("Set-Cookie")
+               || key.equalsIgnoreCase("Set-Cookie2")) {
+        return null;
+      }
+    }
+
+    if (req.getVaryCookies() && ! containsIgnoreCase(varyNames, "Cookie"))
+      return null;
+
+    long ttl;
+
+    if (sMaxAge >= 0)
+      ttl = sMaxAge;
+    else if (maxAge >= 0)
+      ttl = maxAge;
+    else if (expires >= 0)
+      ttl = expires;
+    else
+      ttl = getCacheMappingMaxAge(req);
+
+    if (ttl <= 0)
+      return null;
+
+    String key = _cache.getKey(req);
+    String entryKey = _cache.createEntryKey(key, req, varyNames);
+
+    ProxyCacheEntry entry
+      = new ProxyCacheEntry(_cache, entryKey, keys, values,
+                            contentType, charEncoding,
+                            etag, lastModified, ttl);
+
+    Fill oldFill = _fillMap.put(res, new Fill(entryKey, entry));
+
+    if (oldFill != null)
+      oldFill.getEntry().destroy();
+
+    return entry;
+  }
+
+  /**
+   * Update the headers when the caching has finished.
+   */
+  @Override
+  public void finishCaching(CauchoResponse res)
+  {
+    Fill fill = _fillMap.remove(res);
+
+    if (fill == null)
+      return;
+
+    ProxyCacheEntry entry = fill.getEntry();
+
+    // the session cookie is added after the headers start caching
+    if (! entry.isValid() || ! isCacheable(null, res)) {
+      entry.destroy();
+      return;
+    }
+
+    _cache.put(fill.getKey(), entry);
+  }
+
+  /**
+   * Cleanup the cache entry on a failed cache attempt.
+   */
+  @Override
+  public void killCaching(CauchoResponse res)
+  {
+    Fill fill = _fillMap.remove(res);
+
+    if (fill != null)
+      fill.getEntry().destroy();
+  }
+
+  private boolean isCacheable(CauchoRequest req, CauchoResponse res)
+  {
+    if (! (res instanceof HttpServletResponseImpl))
+      return false;
+
+    HttpServletResponseImpl response = (HttpServletResponseImpl) res;
+
+    if (response.getStatus() != HttpServletResponse.SC_OK
+        || response.isDisableCache()
+        || response.isNoCache()
+        || response.isPrivateCache()) {
+      return false;
+    }
+
+    if (response.isNoCacheUnlessVary()
+        && response.getHeader("Vary") == null) {
+      return false;
+    }
+
+    ArrayList<Cookie> cookies = response.getCookies();
+
+    return cookies == null || cookies.size() == 0;
+  }
+
+  /**
+   * Returns the time from a <cache-mapping>.
+   */
+  private long getCacheMappingMaxAge(CauchoRequest req)
+  {
+    WebApp webApp = _webApp;
+
+    if (webApp == null)
+      return -1;
+
+    String uri = req.getRequestURI();
+
+    long sMaxAge = webApp.getSMaxAge(uri);
+
+    if (sMaxAge > 0)
+      return sMaxAge;
+
+    return webApp.getMaxAge(uri);
+  }
+
+  private long parseSeconds(String value)
+  {
+    try {
+      return 1000L * Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private long parseExpires(String value, long now)
+  {
+    QDate date = QDate.allocateGmtDate();
+
+    try {
+      return Math.max(0, date.parseDate(value) - now);
+    } catch (Exception e) {
+      // invalid dates are already expired
+      return 0;
+    } finally {
+      QDate.freeGmtDate(date);
+    }
+  }
+
+  private static boolean containsIgnoreCase(ArrayList<String> list,
+                                            String value)
+  {
+    for (String item : list) {
+      if (item.equalsIgnoreCase(value))
+        return true;
+    }
+
+    return false;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _next + "]";
+  }
+
+  static final class Fill {
+    private final String _key;
+    private final ProxyCacheEntry _entry;
+
+    Fill(String key, ProxyCacheEntry entry)
+    {
+      _key = key;
+      _entry = entry;
+    }
+
+    String getKey()
+    {
+      return _key;
+    }
+
+    ProxyCacheEntry getEntry()
+    {
+      return _entry;
+    }
+  }
+}
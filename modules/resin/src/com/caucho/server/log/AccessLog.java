@@ -30,7 +30,6 @@
 package com.caucho.server.log;
 
 import java.io.IOException;
-import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -38,7 +37,6 @@ import java.util.regex.Pattern;
 import javax.annotation.PostConstruct;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
-import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -52,12 +50,8 @@ import com.caucho.server.http.AbstractHttpResponse;
 import com.caucho.server.http.CauchoRequest;
 import com.caucho.server.http.HttpServletRequestImpl;
 import com.caucho.server.http.HttpServletResponseImpl;
-import com.caucho.server.util.CauchoSystem;
 import com.caucho.util.Alarm;
 import com.caucho.util.AlarmListener;
-import com.caucho.util.CharBuffer;
-import com.caucho.util.CharSegment;
-import com.caucho.util.CurrentTime;
 import com.caucho.util.L10N;
 import com.caucho.util.WeakAlarm;
 import com.caucho.vfs.Path;
@@ -80,7 +74,7 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
   private final AccessLogWriter _logWriter = new AccessLogWriter(this);
 
   private String _format;
-  private Segment []_segments;
+  private AccessLogSegment []_segments;
 
   private ArrayList<Pattern> _excludeList = new ArrayList<Pattern>();
   private Pattern []_excludes = new Pattern[0];
@@ -89,8 +83,6 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
 
   private long _autoFlushTime = 60000;
 
-  private final CharBuffer _cb = new CharBuffer();
-
   private Alarm _alarm = new WeakAlarm(this);
   private boolean _isActive;
 
@@ -273,14 +265,12 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
     if (_format == null)
       _format = "%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"";
 
-    ArrayList<Segment> segments = parseFormat(_format);
-
-    _segments = new Segment[segments.size()];
-    segments.toArray(_segments);
-
     if (_timeFormat == null || _timeFormat.equals("")) {
       _timeFormat = "[%d/%b/%Y:%H:%M:%S %z]";
     }
+
+    _segments = AccessLogSegment.compile(_format, _timeFormat,
+                                         isHostnameDnsLookup());
     
     _logWriter.init();
     // _sharedBufferLock = _logWriter.getBufferLock();
@@ -290,74 +280,6 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
     _logWriter.rollover();
   }
 
-  /**
-   * Parses the access log string.
-   */
-  private ArrayList<Segment> parseFormat(String format)
-  {
-    ArrayList<Segment> segments = new ArrayList<Segment>();
-    CharBuffer cb = new CharBuffer();
-
-    int i = 0;
-    while (i < _format.length()) {
-      char ch = _format.charAt(i++);
-
-      if (ch != '%' || i >= _format.length()) {
-        cb.append((char) ch);
-        continue;
-      }
-
-      String arg = null;
-      ch = _format.charAt(i++);
-      if (ch == '>')
-        ch = _format.charAt(i++);
-      else if (ch == '{') {
-        if (cb.length() > 0)
-          segments.add(new Segment(this, Segment.TEXT, cb.toString()));
-        cb.clear();
-        while (i < _format.length() && _format.charAt(i++) != '}')
-          cb.append(_format.charAt(i - 1));
-        arg = cb.toString();
-        cb.clear();
-
-        ch = _format.charAt(i++);
-      }
-
-      switch (ch) {
-      case 'b': case 'c':
-      case 'h': case 'i': case 'l': case 'n':
-      case 'r': case 's':
-      case 'T': case 'D': case 'o':
-      case 'u': case 'U':
-      case 'v': case 'S':
-        if (cb.length() > 0)
-          segments.add(new Segment(this, Segment.TEXT, cb.toString()));
-        cb.clear();
-        segments.add(new Segment(this, ch, arg));
-        break;
-
-      case 't':
-        if (cb.length() > 0)
-          segments.add(new Segment(this, Segment.TEXT, cb.toString()));
-        cb.clear();
-        if (arg != null)
-          _timeFormat = arg;
-        segments.add(new Segment(this, ch, arg));
-        break;
-
-      default:
-        cb.append('%');
-        i--;
-        break;
-      }
-    }
-
-    cb.append(CauchoSystem.getNewlineString());
-    segments.add(new Segment(this, Segment.TEXT, cb.toString()));
-
-    return segments;
-  }
-
   /**
    * Logs a request using the current format.
    */
@@ -413,7 +335,7 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
   }
 
   /**
-   * Logs a request using the current format.
+   * Logs a request using the compiled format.
    *
    * @param request the servlet request.
    * @param response the servlet response.
@@ -425,362 +347,23 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
    */
   private int log(HttpServletRequestImpl request,
                   HttpServletResponseImpl responseFacade,
-                  final AbstractHttpResponse response,
+                  AbstractHttpResponse response,
                   byte []buffer, int offset, int length)
     throws IOException
   {
-    final AbstractHttpRequest absRequest = request.getAbstractHttpRequest();
-    CharBuffer cb = _cb;
-
-    int len = _segments.length;
-    for (int i = 0; i < len; i++) {
-      Segment segment = _segments[i];
-      String value = null;
-      CharSegment csValue = null;
-
-      switch (segment._code) {
-      case Segment.TEXT:
-        int sublen = segment._data.length;
-        byte []data = segment._data;
-        for (int j = 0; j < sublen; j++) {
-          buffer[offset++] = data[j];
-        }
-        break;
-
-      case Segment.CHAR:
-        buffer[offset++] = segment._ch;
-        break;
-
-      case 'b':
-        if (responseFacade.getStatus() == 304)
-          buffer[offset++] = (byte) '-';
-        else
-          offset = print(buffer, offset, response.getContentLength());
-        break;
-
-        // cookie
-      case 'c':
-        Cookie cookie = request.getCookie(segment._string);
-        if (cookie == null)
-          cookie = responseFacade.getCookie(segment._string);
-        if (cookie == null)
-          buffer[offset++] = (byte) '-';
-        else
-          offset = print(buffer, offset, cookie.getValue());
-        break;
-
-        // set cookie
-      case Segment.SET_COOKIE:
-        ArrayList<Cookie> cookies = responseFacade.getCookies();
-        
-        if (cookies == null) {
-          break;
-        }
-        
-        int cookiesSize = cookies.size();
-        
-        value = response.getHeader(segment._string);
-        
-        if (cookies != null && cookiesSize > 0) {
-          cb.clear();
-          
-          if (value != null) {
-            cb.append(value);
-          }
-
-          for (int j = 0; j < cookiesSize; j++) {
-            cookie = cookies.get(j);
-            
-            if (cb.getLength() > 0) {
-              cb.append(",");
-            }
-
-            cb.append(cookie.getName());
-            cb.append('=');
-            cb.append(cookie.getValue());
-          }
-
-          offset = print(buffer, offset, cb.getBuffer(), 0, cb.getLength());
-        }
-        else if (value != null) {
-          int p = value.indexOf(';');
-          
-          if (p > 0) {
-            offset = print(buffer, offset, value, 0, p);
-          }
-          else {
-            offset = print(buffer, offset, value);
-          }
-        }
-        else {
-          buffer[offset++] = (byte) '-';
-        }
-        break;
-
-      case 'h':
-        if (isHostnameDnsLookup()) {
-          String addrName = request.getRemoteAddr();
-          InetAddress addr = InetAddress.getByName(addrName);
+    AbstractHttpRequest absRequest = request.getAbstractHttpRequest();
 
-          offset = print(buffer, offset, addr.getHostName());
-        }
-        else
-          offset = absRequest.printRemoteAddr(buffer, offset);
-        break;
-
-        // input header
-      case 'i':
-        csValue = absRequest.getHeaderBuffer(segment._string);
-        if (csValue == null)
-          buffer[offset++] = (byte) '-';
-        else
-          offset = print(buffer, offset, csValue);
-        break;
-
-      case 'l':
-        buffer[offset++] = (byte) '-';
-        break;
-
-        // request attribute
-      case 'n':
-        Object oValue = request.getAttribute(segment._string);
-        if (oValue == null)
-          buffer[offset++] = (byte) '-';
-        else
-          offset = print(buffer, offset, String.valueOf(oValue));
-        break;
-
-        // output header
-      case 'o':
-        value = response.getHeader(segment._string);
-        if (value == null)
-          buffer[offset++] = (byte) '-';
-        else
-          offset = print(buffer, offset, value);
-        break;
-
-      case 'r':
-        offset = print(buffer, offset, request.getMethod());
-
-        buffer[offset++] = (byte) ' ';
-
-        data = absRequest.getUriBuffer();
-        sublen = absRequest.getUriLength();
-
-        // server/02e9
-        if (buffer.length - offset - 128 < sublen) {
-          sublen = buffer.length - offset - 128;
-          System.arraycopy(data, 0, buffer, offset, sublen);
-          offset += sublen;
-          buffer[offset++] = (byte) '.';
-          buffer[offset++] = (byte) '.';
-          buffer[offset++] = (byte) '.';
-        }
-        else {
-          System.arraycopy(data, 0, buffer, offset, sublen);
-          offset += sublen;
-        }
-
-        buffer[offset++] = (byte) ' ';
-
-        offset = print(buffer, offset, request.getProtocol());
-        break;
-
-      case 's':
-        int status = responseFacade.getStatus();
-        buffer[offset++] = (byte) ('0' + (status / 100) % 10);
-        buffer[offset++] = (byte) ('0' + (status / 10) % 10);
-        buffer[offset++] = (byte) ('0' + status % 10);
-        break;
-        
-      case 'S':
-        {
-          String sessionId = request.getRequestedSessionId();
-          if (! request.isRequestedSessionIdValid() || sessionId == null) {
-            buffer[offset++] = (byte) '-';
-          }
-          else {
-            offset = print(buffer, offset, sessionId);
-          }
-          break;
-        }
-
-      case 't':
-      {
-        long now = CurrentTime.getCurrentTime();
-
-        data = response.fillLogDateBuffer(now, _timeFormat);
-        sublen = response.getLogDateBufferLength();
-
-        System.arraycopy(data, 0, buffer, offset, sublen);
-
-        offset += sublen;
-        break;
-      }
-
-      case 'T':
-        {
-          long startTime = request.getStartTime();
-          long endTime = CurrentTime.getCurrentTime();
-
-          offset = print(buffer, offset, (int) ((endTime - startTime + 500) / 1000));
-          break;
-        }
+    AccessLogSegment []segments = _segments;
 
-      case 'D':
-        {
-          long startTime = request.getStartTime();
-          long endTime = CurrentTime.getExactTime();
-
-          offset = print(buffer, offset, (int) ((endTime - startTime) * 1000));
-          break;
-        }
-
-      case 'u':
-        value = request.getRemoteUser(false);
-        if (value == null)
-          buffer[offset++] = (byte) '-';
-        else {
-          buffer[offset++] = (byte) '"';
-          offset = print(buffer, offset, value);
-          buffer[offset++] = (byte) '"';
-        }
-        break;
-
-      case 'v':
-        value = request.getServerName();
-        if (value == null)
-          buffer[offset++] = (byte) '-';
-        else {
-          offset = print(buffer, offset, value);
-        }
-        break;
-
-      case 'U':
-        offset = print(buffer, offset, request.getRequestURI());
-        break;
-
-      default:
-        throw new IOException();
-      }
+    for (int i = 0; i < segments.length; i++) {
+      offset = segments[i].write(request, absRequest,
+                                 responseFacade, response,
+                                 buffer, offset);
     }
 
     return offset;
   }
 
-  /**
-   * Prints a CharSegment to the log.
-   *
-   * @param buffer receiving byte buffer.
-   * @param offset offset into the receiving buffer.
-   * @param cb the new char segment to be logged.
-   * @return the new offset into the byte buffer.
-   */
-  private int print(byte []buffer, int offset, CharSegment cb)
-  {
-    char []charBuffer = cb.getBuffer();
-    int cbOffset = cb.getOffset();
-    int length = cb.getLength();
-
-    // truncate for hacker attacks
-    if (buffer.length - offset - 256 < length)
-      length =  buffer.length - offset - 256;
-
-    for (int i = length - 1; i >= 0; i--)
-      buffer[offset + i] = (byte) charBuffer[cbOffset + i];
-
-    return offset + length;
-  }
-
-  /**
-   * Prints a String to the log.
-   *
-   * @param buffer receiving byte buffer.
-   * @param offset offset into the receiving buffer.
-   * @param s the new string to be logged.
-   * @return the new offset into the byte buffer.
-   */
-  private int print(byte []buffer, int offset, String s)
-  {
-    int length = s.length();
-
-    _cb.ensureCapacity(length);
-    char []cBuf = _cb.getBuffer();
-
-    s.getChars(0, length, cBuf, 0);
-
-    for (int i = length - 1; i >= 0; i--)
-      buffer[offset + i] = (byte) cBuf[i];
-
-    return offset + length;
-  }
-  
-  private int print(byte []buffer, int offset, String s, int sOff, int sLen)
-  {
-    _cb.ensureCapacity(sLen);
-    char []cBuf = _cb.getBuffer();
-
-    s.getChars(sOff, sLen, cBuf, 0);
-
-    for (int i = sLen - 1; i >= 0; i--) {
-      buffer[offset + i] = (byte) cBuf[i];
-    }
-
-    return offset + sLen;
-  }
-
-  /**
-   * Prints a String to the log.
-   *
-   * @param buffer receiving byte buffer.
-   * @param offset offset into the receiving buffer.
-   * @param cb the new string to be logged.
-   * @return the new offset into the byte buffer.
-   */
-  private int print(byte []buffer, int offset,
-                    char []cb, int cbOff, int length)
-  {
-    for (int i = length - 1; i >= 0; i--)
-      buffer[offset + i] = (byte) cb[cbOff + i];
-
-    return offset + length;
-  }
-
-  /**
-   * Prints an integer to the log.
-   *
-   * @param buffer receiving byte buffer.
-   * @param offset offset into the receiving buffer.
-   * @param v the new integer to be logged.
-   * @return the new offset into the byte buffer.
-   */
-  private int print(byte []buffer, int offset, long v)
-  {
-    if (v == 0) {
-      buffer[offset] = (byte) '0';
-      return offset + 1;
-    }
-
-    if (v < 0) {
-      buffer[offset++] = (byte) '-';
-      v = -v;
-    }
-
-    int length = 0;
-    int exp = 10;
-
-    for (; exp <= v && exp > 0; length++)
-      exp = 10 * exp;
-
-    offset += length;
-    for (int i = 0; i <= length; i++) {
-      buffer[offset - i] = (byte) (v % 10 + '0');
-      v = v / 10;
-    }
-
-    return offset + 1;
-  }
-
   /**
    * Flushes the log.
    */
@@ -829,45 +412,4 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
 
     _logWriter.close();
   }
-
-  /**
-   * Represents one portion of the access log.
-   */
-  static class Segment {
-    final static int TEXT = 0;
-    final static int CHAR = 1;
-    final static int SET_COOKIE = 2;
-
-    int _code;
-    byte []_data;
-    byte _ch;
-    String _string;
-    AccessLog _log;
-
-    /**
-     * Creates a new log segment.
-     *
-     * @param log the owning log
-     * @param code the segment code, telling what kind of segment it is
-     * @param string the parameter for the segment code.
-     */
-    Segment(AccessLog log, int code, String string)
-    {
-      _log = log;
-      _code = code;
-
-      _string = string;
-      if (string != null) {
-        if (code == 'o' && string.equalsIgnoreCase("Set-Cookie")) {
-          _code = SET_COOKIE;
-        }
-
-        _data = _string.getBytes();
-        if (code == TEXT && _string.length() == 1) {
-          _ch = (byte) _string.charAt(0);
-          _code = CHAR;
-        }
-      }
-    }
-  }
 }
@@ -0,0 +1,836 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+
+import javax.servlet.http.Cookie;
+
+import com.caucho.server.http.AbstractHttpRequest;
+import com.caucho.server.http.AbstractHttpResponse;
+import com.caucho.server.http.HttpRequest;
+import com.caucho.server.http.HttpServletRequestImpl;
+import com.caucho.server.http.HttpServletResponseImpl;
+import com.caucho.server.util.CauchoSystem;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.CharSegment;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.QDate;
+
+/**
+ * A compiled portion of the access log format. The format is compiled
+ * once into a chain of specialized writers, so logging a request is a
+ * sequence of direct byte copies instead of a switch on the format code.
+ */
+abstract class AccessLogSegment
+{
+  // reserved tail of the log buffer for truncated values
+  private static final int TRUNCATE_RESERVE = 256;
+
+  /**
+   * Writes the segment.
+   *
+   * @return the new tail of the buffer
+   */
+  abstract int write(HttpServletRequestImpl request,
+                     AbstractHttpRequest absRequest,
+                     HttpServletResponseImpl responseFacade,
+                     AbstractHttpResponse response,
+                     byte []buffer, int offset)
+    throws IOException;
+
+  /**
+   * Compiles the access log format.
+   *
+   * @param format the apache-style log format
+   * @param timeFormat the default QDate format for %t
+   * @param isDnsLookup true if %h should resolve the host name
+   */
+  static AccessLogSegment []compile(String format,
+                                    String timeFormat,
+                                    boolean isDnsLookup)
+  {
+    ArrayList<AccessLogSegment> segments = new ArrayList<AccessLogSegment>();
+    CharBuffer cb = new CharBuffer();
+
+    int i = 0;
+    int length = format.length();
+
+    while (i < length) {
+      char ch = format.charAt(i++);
+
+      if (ch != '%' || i >= length) {
+        cb.append(ch);
+        continue;
+      }
+
+      int start = i - 1;
+      String arg = null;
+
+      ch = format.charAt(i++);
+      if (ch == '>' && i < length)
+        ch = format.charAt(i++);
+      else if (ch == '{') {
+        int end = format.indexOf('}', i);
+
+        if (end < 0 || end + 1 >= length) {
+          cb.append(format, start, length - start);
+          break;
+        }
+
+        arg = format.substring(i, end);
+        i = end + 1;
+        ch = format.charAt(i++);
+      }
+
+      AccessLogSegment segment;
+
+      switch (ch) {
+      case 'l':
+        // constant, folded into the surrounding text
+        cb.append('-');
+        continue;
+
+      case 'b':
+        segment = new ContentLengthSegment();
+        break;
+
+      case 'c':
+        segment = new CookieSegment(arg);
+        break;
+
+      case 'D':
+        segment = new MicroTimeSegment();
+        break;
+
+      case 'h':
+        if (isDnsLookup)
+          segment = new RemoteHostSegment();
+        else
+          segment = new RemoteAddrSegment();
+        break;
+
+      case 'i':
+        segment = new InputHeaderSegment(arg);
+        break;
+
+      case 'n':
+        segment = new AttributeSegment(arg);
+        break;
+
+      case 'o':
+        if (arg != null && arg.equalsIgnoreCase("Set-Cookie"))
+          segment = new SetCookieSegment(arg);
+        else
+          segment = new OutputHeaderSegment(arg);
+        break;
+
+      case 'r':
+        segment = new RequestLineSegment();
+        break;
+
+      case 's':
+        segment = new StatusSegment();
+        break;
+
+      case 'S':
+        segment = new SessionSegment();
+        break;
+
+      case 't':
+        segment = new TimeSegment(arg != null ? arg : timeFormat);
+        break;
+
+      case 'T':
+        segment = new SecondsTimeSegment();
+        break;
+
+      case 'u':
+        segment = new RemoteUserSegment();
+        break;
+
+      case 'U':
+        segment = new UriSegment();
+        break;
+
+      case 'v':
+        segment = new ServerNameSegment();
+        break;
+
+      default:
+        cb.append('%');
+        i = start + 1;
+        continue;
+      }
+
+      addText(segments, cb);
+      segments.add(segment);
+    }
+
+    cb.append(CauchoSystem.getNewlineString());
+    addText(segments, cb);
+
+    AccessLogSegment []segmentArray = new AccessLogSegment[segments.size()];
+    segments.toArray(segmentArray);
+
+    return segmentArray;
+  }
+
+  private static void addText(ArrayList<AccessLogSegment> segments,
+                              CharBuffer cb)
+  {
+    if (cb.length() == 1)
+      segments.add(new ByteSegment((byte) cb.charAt(0)));
+    else if (cb.length() > 0)
+      segments.add(new TextSegment(cb.toString().getBytes()));
+
+    cb.clear();
+  }
+
+  /**
+   * Prints a CharSegment to the log, truncating for hacker attacks.
+   */
+  static int print(byte []buffer, int offset, CharSegment cs)
+  {
+    char []charBuffer = cs.getBuffer();
+    int csOffset = cs.getOffset();
+    int length = truncate(buffer, offset, cs.getLength());
+
+    for (int i = length - 1; i >= 0; i--)
+      buffer[offset + i] = (byte) charBuffer[csOffset + i];
+
+    return offset + length;
+  }
+
+  /**
+   * Prints a String to the log, truncating for hacker attacks.
+   */
+  static int print(byte []buffer, int offset, String s)
+  {
+    return print(buffer, offset, s, 0, s.length());
+  }
+
+  static int print(byte []buffer, int offset, String s, int sOff, int sLen)
+  {
+    int length = truncate(buffer, offset, sLen);
+
+    for (int i = 0; i < length; i++)
+      buffer[offset + i] = (byte) s.charAt(sOff + i);
+
+    return offset + length;
+  }
+
+  /**
+   * Prints an integer to the log.
+   */
+  static int print(byte []buffer, int offset, long v)
+  {
+    if (v == 0) {
+      buffer[offset] = (byte) '0';
+      return offset + 1;
+    }
+
+    if (v < 0) {
+      buffer[offset++] = (byte) '-';
+      v = -v;
+    }
+
+    int length = 0;
+    long exp = 10;
+
+    for (; exp <= v && exp > 0; length++)
+      exp = 10 * exp;
+
+    offset += length;
+    for (int i = 0; i <= length; i++) {
+      buffer[offset - i] = (byte) (v % 10 + '0');
+      v = v / 10;
+    }
+
+    return offset + 1;
+  }
+
+  private static int truncate(byte []buffer, int offset, int length)
+  {
+    int max = buffer.length - offset - TRUNCATE_RESERVE;
+
+    if (max < length)
+      return Math.max(max, 0);
+    else
+      return length;
+  }
+
+  /**
+   * Pre-encoded constant text.
+   */
+  static final class TextSegment extends AccessLogSegment {
+    private final byte []_data;
+
+    TextSegment(byte []data)
+    {
+      _data = data;
+    }
+
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      byte []data = _data;
+
+      System.arraycopy(data, 0, buffer, offset, data.length);
+
+      return offset + data.length;
+    }
+  }
+
+  /**
+   * Single constant byte.
+   */
+  static final class ByteSegment extends AccessLogSegment {
+    private final byte _ch;
+
+    ByteSegment(byte ch)
+    {
+      _ch = ch;
+    }
+
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      buffer[offset] = _ch;
+
+      return offset + 1;
+    }
+  }
+
+  /**
+   * %b - the content length
+   */
+  static final class ContentLengthSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      if (responseFacade.getStatus() == 304) {
+        buffer[offset] = (byte) '-';
+        return offset + 1;
+      }
+      else
+        return print(buffer, offset, response.getContentLength());
+    }
+  }
+
+  /**
+   * %{name}c - a request or response cookie
+   */
+  static final class CookieSegment extends AccessLogSegment {
+    private final String _name;
+
+    CookieSegment(String name)
+    {
+      _name = name;
+    }
+
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      Cookie cookie = request.getCookie(_name);
+
+      if (cookie == null)
+        cookie = responseFacade.getCookie(_name);
+
+      if (cookie == null) {
+        buffer[offset] = (byte) '-';
+        return offset + 1;
+      }
+      else
+        return print(buffer, offset, cookie.getValue());
+    }
+  }
+
+  /**
+   * %{Set-Cookie}o - the cookies set by the response
+   */
+  static final class SetCookieSegment extends AccessLogSegment {
+    private final String _name;
+
+    SetCookieSegment(String name)
+    {
+      _name = name;
+    }
+
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      ArrayList<Cookie> cookies = responseFacade.getCookies();
+
+      if (cookies == null)
+        return offset;
+
+      String value = response.getHeader(_name);
+      int cookiesSize = cookies.size();
+
+      if (cookiesSize > 0) {
+        int start = offset;
+
+        if (value != null)
+          offset = print(buffer, offset, value);
+
+        for (int i = 0; i < cookiesSize; i++) {
+          Cookie cookie = cookies.get(i);
+
+          if (start < offset)
+            buffer[offset++] = (byte) ',';
+
+          offset = print(buffer, offset, cookie.getName());
+          buffer[offset++] = (byte) '=';
+          offset = print(buffer, offset, cookie.getValue());
+        }
+
+        return offset;
+      }
+      else if (value != null) {
+        int p = value.indexOf(';');
+
+        if (p > 0)
+          return print(buffer, offset, value, 0, p);
+        else
+          return print(buffer, offset, value);
+      }
+      else {
+        buffer[offset] = (byte) '-';
+        return offset + 1;
+      }
+    }
+  }
+
+  /**
+   * %h - the remote address
+   */
+  static final class RemoteAddrSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+      throws IOException
+    {
+      return absRequest.printRemoteAddr(buffer, offset);
+    }
+  }
+
+  /**
+   * %h - the remote host name with hostname-dns-lookup
+   */
+  static final class RemoteHostSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+      throws IOException
+    {
+      InetAddress addr = InetAddress.getByName(request.getRemoteAddr());
+
+      return print(buffer, offset, addr.getHostName());
+    }
+  }
+
+  /**
+   * %{name}i - a request header, copied directly from the header buffer
+   */
+  static final class InputHeaderSegment extends AccessLogSegment {
+    private final String _name;
+    private final char []_nameChars;
+
+    InputHeaderSegment(String name)
+    {
+      _name = name;
+      _nameChars = name != null ? name.toCharArray() : new char[0];
+    }
+
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      CharSegment value;
+
+      if (absRequest instanceof HttpRequest) {
+        HttpRequest httpRequest = (HttpRequest) absRequest;
+
+        value = httpRequest.getHeaderBuffer(_nameChars, _nameChars.length);
+      }
+      else
+        value = absRequest.getHeaderBuffer(_name);
+
+      if (value == null) {
+        buffer[offset] = (byte) '-';
+        return offset + 1;
+      }
+      else
+        return print(buffer, offset, value);
+    }
+  }
+
+  /**
+   * %{name}n - a request attribute
+   */
+  static final class AttributeSegment extends AccessLogSegment {
+    private final String _name;
+
+    AttributeSegment(String name)
+    {
+      _name = name;
+    }
+
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      Object value = request.getAttribute(_name);
+
+      if (value == null) {
+        buffer[offset] = (byte) '-';
+        return offset + 1;
+      }
+      else
+        return print(buffer, offset, String.valueOf(value));
+    }
+  }
+
+  /**
+   * %{name}o - a response header
+   */
+  static final class OutputHeaderSegment extends AccessLogSegment {
+    private final String _name;
+
+    OutputHeaderSegment(String name)
+    {
+      _name = name;
+    }
+
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      String value = response.getHeader(_name);
+
+      if (value == null) {
+        buffer[offset] = (byte) '-';
+        return offset + 1;
+      }
+      else
+        return print(buffer, offset, value);
+    }
+  }
+
+  /**
+   * %r - the request line
+   */
+  static final class RequestLineSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      offset = print(buffer, offset, request.getMethod());
+
+      buffer[offset++] = (byte) ' ';
+
+      byte []data = absRequest.getUriBuffer();
+      int sublen = absRequest.getUriLength();
+
+      // server/02e9
+      if (buffer.length - offset - 128 < sublen) {
+        sublen = buffer.length - offset - 128;
+        System.arraycopy(data, 0, buffer, offset, sublen);
+        offset += sublen;
+        buffer[offset++] = (byte) '.';
+        buffer[offset++] = (byte) '.';
+        buffer[offset++] = (byte) '.';
+      }
+      else {
+        System.arraycopy(data, 0, buffer, offset, sublen);
+        offset += sublen;
+      }
+
+      buffer[offset++] = (byte) ' ';
+
+      return print(buffer, offset, request.getProtocol());
+    }
+  }
+
+  /**
+   * %s - the response status
+   */
+  static final class StatusSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      int status = responseFacade.getStatus();
+
+      buffer[offset++] = (byte) ('0' + (status / 100) % 10);
+      buffer[offset++] = (byte) ('0' + (status / 10) % 10);
+      buffer[offset++] = (byte) ('0' + status % 10);
+
+      return offset;
+    }
+  }
+
+  /**
+   * %S - the requested session id
+   */
+  static final class SessionSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      String sessionId = request.getRequestedSessionId();
+
+      if (! request.isRequestedSessionIdValid() || sessionId == null) {
+        buffer[offset] = (byte) '-';
+        return offset + 1;
+      }
+      else
+        return print(buffer, offset, sessionId);
+    }
+  }
+
+  /**
+   * %t - the request time, formatted at most once a second and shared
+   * by all requests.
+   */
+  static final class TimeSegment extends AccessLogSegment {
+    private final String _format;
+    private final QDate _calendar = new QDate(true);
+    private final CharBuffer _cb = new CharBuffer();
+
+    private volatile LogDate _date;
+
+    TimeSegment(String format)
+    {
+      _format = format;
+    }
+
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      long now = CurrentTime.getCurrentTime();
+
+      LogDate date = _date;
+
+      if (date == null || date._second != now / 1000)
+        date = fillDate(now);
+
+      byte []data = date._data;
+
+      System.arraycopy(data, 0, buffer, offset, data.length);
+
+      return offset + data.length;
+    }
+
+    private synchronized LogDate fillDate(long now)
+    {
+      LogDate date = _date;
+
+      if (date != null && date._second == now / 1000)
+        return date;
+
+      _calendar.setGMTTime(now);
+      _cb.clear();
+      _calendar.format(_cb, _format);
+
+      int len = _cb.length();
+      byte []data = new byte[len];
+
+      for (int i = 0; i < len; i++)
+        data[i] = (byte) _cb.charAt(i);
+
+      date = new LogDate(now / 1000, data);
+      _date = date;
+
+      return date;
+    }
+  }
+
+  static final class LogDate {
+    final long _second;
+    final byte []_data;
+
+    LogDate(long second, byte []data)
+    {
+      _second = second;
+      _data = data;
+    }
+  }
+
+  /**
+   * %T - the request time in seconds
+   */
+  static final class SecondsTimeSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      long startTime = request.getStartTime();
+      long endTime = CurrentTime.getCurrentTime();
+
+      return print(buffer, offset, (int) ((endTime - startTime + 500) / 1000));
+    }
+  }
+
+  /**
+   * %D - the request time in microseconds
+   */
+  static final class MicroTimeSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      long startTime = request.getStartTime();
+      long endTime = CurrentTime.getExactTime();
+
+      return print(buffer, offset, (int) ((endTime - startTime) * 1000));
+    }
+  }
+
+  /**
+   * %u - the remote user
+   */
+  static final class RemoteUserSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      String value = request.getRemoteUser(false);
+
+      if (value == null) {
+        buffer[offset] = (byte) '-';
+        return offset + 1;
+      }
+
+      buffer[offset++] = (byte) '"';
+      offset = print(buffer, offset, value);
+      buffer[offset++] = (byte) '"';
+
+      return offset;
+    }
+  }
+
+  /**
+   * %v - the server name
+   */
+  static final class ServerNameSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      String value = request.getServerName();
+
+      if (value == null) {
+        buffer[offset] = (byte) '-';
+        return offset + 1;
+      }
+      else
+        return print(buffer, offset, value);
+    }
+  }
+
+  /**
+   * %U - the request uri
+   */
+  static final class UriSegment extends AccessLogSegment {
+    @Override
+    int write(HttpServletRequestImpl request,
+              AbstractHttpRequest absRequest,
+              HttpServletResponseImpl responseFacade,
+              AbstractHttpResponse response,
+              byte []buffer, int offset)
+    {
+      return print(buffer, offset, request.getRequestURI());
+    }
+  }
+}
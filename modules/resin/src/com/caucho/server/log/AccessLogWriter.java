@@ -227,6 +227,10 @@ public class AccessLogWriter extends AbstractRolloverLog
 
   class LogWriterTask extends AbstractWorkerQueue<LogBuffer> {
     private final String _threadName;
+
+    // batches queued log buffers into a single write
+    private final byte []_batch = new byte[AccessLog.BUFFER_SIZE];
+    private int _batchLength;
     
     LogWriterTask()
     {
@@ -249,7 +253,19 @@ public class AccessLogWriter extends AbstractRolloverLog
         
       }
       try {
-        write(value.getBuffer(), 0, value.getLength());
+        int length = value.getLength();
+
+        if (_batch.length - _batchLength < length) {
+          writeBatch();
+        }
+
+        if (_batch.length < length) {
+          write(value.getBuffer(), 0, length);
+        }
+        else {
+          System.arraycopy(value.getBuffer(), 0, _batch, _batchLength, length);
+          _batchLength += length;
+        }
       } catch (Throwable e) {
         log.log(Level.WARNING, e.toString(), e);
       } finally {
@@ -261,11 +277,25 @@ public class AccessLogWriter extends AbstractRolloverLog
     public void onProcessComplete()
     {
       try {
+        writeBatch();
+        
         flushStream();
       } catch (IOException e) {
         log.log(Level.FINE, e.toString(), e);
       }
     }
+
+    private void writeBatch()
+      throws IOException
+    {
+      int length = _batchLength;
+      
+      if (length > 0) {
+        _batchLength = 0;
+        
+        write(_batch, 0, length);
+      }
+    }
     
     public void close()
     {
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import com.caucho.util.L10N;
+
+/**
+ * Decodes HPACK header blocks (RFC 7541) for the reader side of an
+ * HTTP/2 connection.
+ */
+class HpackDecoder {
+  private static final L10N L = new L10N(HpackDecoder.class);
+  
+  private final HpackTable _table = new HpackTable();
+  private final StringBuilder _sb = new StringBuilder();
+  
+  private int _maxTableSize = HpackTable.DEFAULT_SIZE;
+  
+  private byte []_buffer;
+  private int _offset;
+  private int _end;
+  
+  HpackDecoder()
+  {
+  }
+  
+  /**
+   * Decodes a complete header block, adding the headers to the lists.
+   */
+  void decode(byte []buffer, int offset, int length,
+              ArrayList<String> names,
+              ArrayList<String> values)
+    throws IOException
+  {
+    _buffer = buffer;
+    _offset = offset;
+    _end = offset + length;
+    
+    boolean isHeader = false;
+    
+    try {
+      while (_offset < _end) {
+        int ch = buffer[_offset] & 0xff;
+        
+        if ((ch & 0x80) != 0) {
+          // indexed header field
+          int index = readInt(7);
+          
+          names.add(_table.getName(index));
+          values.add(_table.getValue(index));
+          isHeader = true;
+        }
+        else if ((ch & 0xc0) == 0x40) {
+          // literal with incremental indexing
+          String name = readName(6);
+          String value = readString();
+          
+          _table.add(name, value);
+          
+          names.add(name);
+          values.add(value);
+          isHeader = true;
+        }
+        else if ((ch & 0xe0) == 0x20) {
+          // dynamic table size update, only before the first header
+          int size = readInt(5);
+          
+          if (isHeader || _maxTableSize < size) {
+            throw new IOException(L.l("HPACK invalid table size update {0}",
+                                      size));
+          }
+          
+          _table.setMaxSize(size);
+        }
+        else {
+          // literal without indexing (0000) or never indexed (0001)
+          String name = readName(4);
+          String value = readString();
+          
+          names.add(name);
+          values.add(value);
+          isHeader = true;
+        }
+      }
+    } finally {
+      _buffer = null;
+    }
+  }
+  
+  private String readName(int prefix)
+    throws IOException
+  {
+    int index = readInt(prefix);
+    
+    if (index > 0) {
+      return _table.getName(index);
+    }
+    else {
+      return readString();
+    }
+  }
+  
+  private String readString()
+    throws IOException
+  {
+    if (_end <= _offset) {
+      throw new IOException(L.l("HPACK truncated string"));
+    }
+    
+    boolean isHuffman = (_buffer[_offset] & 0x80) != 0;
+    int length = readInt(7);
+    
+    if (_end - _offset < length) {
+      throw new IOException(L.l("HPACK string length {0} is out of range",
+                                length));
+    }
+    
+    StringBuilder sb = _sb;
+    sb.setLength(0);
+    
+    if (isHuffman) {
+      HpackHuffman.decode(_buffer, _offset, length, sb);
+    }
+    else {
+      byte []buffer = _buffer;
+      int offset = _offset;
+      
+      for (int i = 0; i < length; i++) {
+        sb.append((char) (buffer[offset + i] & 0xff));
+      }
+    }
+    
+    _offset += length;
+    
+    return sb.toString();
+  }
+  
+  /**
+   * Reads an HPACK prefix-coded integer.
+   */
+  private int readInt(int prefix)
+    throws IOException
+  {
+    int mask = (1 << prefix) - 1;
+    
+    int value = _buffer[_offset++] & mask;
+    
+    if (value < mask) {
+      return value;
+    }
+    
+    int shift = 0;
+    
+    while (true) {
+      if (_end <= _offset || 28 < shift) {
+        throw new IOException(L.l("HPACK invalid integer encoding"));
+      }
+      
+      int ch = _buffer[_offset++] & 0xff;
+      
+      value += (ch & 0x7f) << shift;
+      shift += 7;
+      
+      if ((ch & 0x80) == 0) {
+        break;
+      }
+    }
+    
+    if (value < 0) {
+      throw new IOException(L.l("HPACK integer overflow"));
+    }
+    
+    return value;
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+/**
+ * Encodes HPACK header blocks (RFC 7541) for the write side of an
+ * HTTP/2 connection. Only the write actor uses the encoder, so the
+ * dynamic table follows the frame order on the wire.
+ */
+class HpackEncoder {
+  private final HpackTable _table = new HpackTable();
+  
+  private byte []_buffer = new byte[1024];
+  private int _length;
+  
+  // table size update to be sent at the start of the next block
+  private int _pendingTableSize = -1;
+  
+  HpackEncoder()
+  {
+  }
+  
+  /**
+   * Called when the peer's SETTINGS_HEADER_TABLE_SIZE changes.
+   */
+  void setMaxTableSize(int size)
+  {
+    if (HpackTable.DEFAULT_SIZE < size) {
+      size = HpackTable.DEFAULT_SIZE;
+    }
+    
+    if (size != _table.getMaxSize()) {
+      _table.setMaxSize(size);
+      _pendingTableSize = size;
+    }
+  }
+  
+  /**
+   * Starts a new header block.
+   */
+  void startBlock()
+  {
+    _length = 0;
+    
+    if (_pendingTableSize >= 0) {
+      writeInt(0x20, 5, _pendingTableSize);
+      _pendingTableSize = -1;
+    }
+  }
+  
+  byte []getBuffer()
+  {
+    return _buffer;
+  }
+  
+  int getLength()
+  {
+    return _length;
+  }
+  
+  /**
+   * Encodes a header. The name must already be lower case.
+   */
+  void header(String name, String value)
+  {
+    int index = _table.find(name, value);
+    
+    if (index > 0) {
+      writeInt(0x80, 7, index);
+      return;
+    }
+    
+    boolean isIndex = isIndexable(name, value);
+    
+    if (isIndex) {
+      writeInt(0x40, 6, -index);
+    }
+    else {
+      writeInt(0x00, 4, -index);
+    }
+    
+    if (index == 0) {
+      writeString(name);
+    }
+    
+    writeString(value);
+    
+    if (isIndex) {
+      _table.add(name, value);
+    }
+  }
+  
+  /**
+   * Values which change on nearly every response would only churn the
+   * dynamic table.
+   */
+  private boolean isIndexable(String name, String value)
+  {
+    switch (name.length()) {
+    case 3:
+      return ! name.equals("age");
+      
+    case 4:
+      return ! name.equals("date") && ! name.equals("etag");
+      
+    case 7:
+      return ! name.equals(":status") && ! name.equals("expires");
+      
+    case 8:
+      return ! name.equals("location");
+      
+    case 10:
+      return ! name.equals("set-cookie");
+      
+    case 13:
+      return ! name.equals("last-modified")
+             && ! name.equals("content-range");
+      
+    case 14:
+      return ! name.equals("content-length");
+      
+    default:
+      return value.length() < 256;
+    }
+  }
+  
+  private void writeString(String value)
+  {
+    int length = value.length();
+    int huffmanLength = HpackHuffman.getEncodedLength(value);
+    
+    if (huffmanLength < length) {
+      writeInt(0x80, 7, huffmanLength);
+      ensureCapacity(huffmanLength);
+      _length = HpackHuffman.encode(_buffer, _length, value);
+    }
+    else {
+      writeInt(0x00, 7, length);
+      ensureCapacity(length);
+      
+      byte []buffer = _buffer;
+      int offset = _length;
+      
+      for (int i = 0; i < length; i++) {
+        buffer[offset + i] = (byte) value.charAt(i);
+      }
+      
+      _length = offset + length;
+    }
+  }
+  
+  private void writeInt(int flags, int prefix, int value)
+  {
+    ensureCapacity(8);
+    
+    int mask = (1 << prefix) - 1;
+    
+    if (value < mask) {
+      _buffer[_length++] = (byte) (flags | value);
+      return;
+    }
+    
+    _buffer[_length++] = (byte) (flags | mask);
+    value -= mask;
+    
+    while (value >= 0x80) {
+      _buffer[_length++] = (byte) (0x80 | (value & 0x7f));
+      value >>= 7;
+    }
+    
+    _buffer[_length++] = (byte) value;
+  }
+  
+  private void ensureCapacity(int length)
+  {
+    if (_buffer.length < _length + length) {
+      byte []buffer = new byte[2 * (_length + length)];
+      System.arraycopy(_buffer, 0, buffer, 0, _length);
+      _buffer = buffer;
+    }
+  }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import com.caucho.util.L10N;
+
+/**
+ * HPACK header table: the static table followed by the dynamic table.
+ *
+ * Each side of the connection has its own table. The table is not
+ * synchronized; the decoder table belongs to the reader and the
+ * encoder table to the write actor.
+ */
+final class HpackTable {
+  private static final L10N L = new L10N(HpackTable.class);
+  
+  static final int ENTRY_OVERHEAD = 32;
+  static final int DEFAULT_SIZE = 4096;
+  
+  private static final String [][]STATIC = {
+    { ":authority", "" },
+    { ":method", "GET" },
+    { ":method", "POST" },
+    { ":path", "/" },
+    { ":path", "/index.html" },
+    { ":scheme", "http" },
+    { ":scheme", "https" },
+    { ":status", "200" },
+    { ":status", "204" },
+    { ":status", "206" },
+    { ":status", "304" },
+    { ":status", "400" },
+    { ":status", "404" },
+    { ":status", "500" },
+    { "accept-charset", "" },
+    { "accept-encoding", "gzip, deflate" },
+    { "accept-language", "" },
+    { "accept-ranges", "" },
+    { "accept", "" },
+    { "access-control-allow-origin", "" },
+    { "age", "" },
+    { "allow", "" },
+    { "authorization", "" },
+    { "cache-control", "" },
+    { "content-disposition", "" },
+    { "content-encoding", "" },
+    { "content-language", "" },
+    { "content-length", "" },
+    { "content-location", "" },
+    { "content-range", "" },
+    { "content-type", "" },
+    { "cookie", "" },
+    { "date", "" },
+    { "etag", "" },
+    { "expect", "" },
+    { "expires", "" },
+    { "from", "" },
+    { "host", "" },
+    { "if-match", "" },
+    { "if-modified-since", "" },
+    { "if-none-match", "" },
+    { "if-range", "" },
+    { "if-unmodified-since", "" },
+    { "last-modified", "" },
+    { "link", "" },
+    { "location", "" },
+    { "max-forwards", "" },
+    { "proxy-authenticate", "" },
+    { "proxy-authorization", "" },
+    { "range", "" },
+    { "referer", "" },
+    { "refresh", "" },
+    { "retry-after", "" },
+    { "server", "" },
+    { "set-cookie", "" },
+    { "strict-transport-security", "" },
+    { "transfer-encoding", "" },
+    { "user-agent", "" },
+    { "vary", "" },
+    { "via", "" },
+    { "www-authenticate", "" }
+  };
+  
+  static final int STATIC_LENGTH = STATIC.length;
+  
+  private static final HashMap<String,Integer> _staticNameMap
+    = new HashMap<String,Integer>();
+  private static final HashMap<String,Integer> _staticEntryMap
+    = new HashMap<String,Integer>();
+  
+  // dynamic entries as a ring, newest at _head
+  private String []_names = new String[16];
+  private String []_values = new String[16];
+  private int _head;
+  private int _count;
+  
+  private int _size;
+  private int _maxSize = DEFAULT_SIZE;
+  
+  HpackTable()
+  {
+  }
+  
+  int getMaxSize()
+  {
+    return _maxSize;
+  }
+  
+  /**
+   * Sets the maximum table size, evicting entries as needed.
+   */
+  void setMaxSize(int maxSize)
+  {
+    _maxSize = maxSize;
+    
+    evict(0);
+  }
+  
+  int getSize()
+  {
+    return _size;
+  }
+  
+  int getLength()
+  {
+    return STATIC_LENGTH + _count;
+  }
+  
+  /**
+   * Returns the header name for the 1-based HPACK index.
+   */
+  String getName(int index)
+    throws IOException
+  {
+    if (index <= 0) {
+    }
+    else if (index <= STATIC_LENGTH) {
+      return STATIC[index - 1][0];
+    }
+    else if (index <= STATIC_LENGTH + _count) {
+      return _names[ring(index)];
+    }
+    
+    throw new IOException(L.l("HPACK index {0} is out of range", index));
+  }
+  
+  /**
+   * Returns the header value for the 1-based HPACK index.
+   */
+  String getValue(int index)
+    throws IOException
+  {
+    if (index <= 0) {
+    }
+    else if (index <= STATIC_LENGTH) {
+      return STATIC[index - 1][1];
+    }
+    else if (index <= STATIC_LENGTH + _count) {
+      return _values[ring(index)];
+    }
+    
+    throw new IOException(L.l("HPACK index {0} is out of range", index));
+  }
+  
+  private int ring(int index)
+  {
+    return (_head - (index - STATIC_LENGTH - 1)) & (_names.length - 1);
+  }
+  
+  /**
+   * Adds a new entry to the dynamic table.
+   */
+  void add(String name, String value)
+  {
+    int entrySize = entrySize(name, value);
+    
+    if (_maxSize < entrySize) {
+      // an oversized entry empties the table
+      evict(_maxSize);
+      return;
+    }
+    
+    evict(entrySize);
+    
+    if (_count == _names.length) {
+      resize();
+    }
+    
+    _head = (_head + 1) & (_names.length - 1);
+    _names[_head] = name;
+    _values[_head] = value;
+    _count++;
+    _size += entrySize;
+  }
+  
+  private void evict(int newSize)
+  {
+    while (_count > 0 && _maxSize < _size + newSize) {
+      int tail = (_head - _count + 1) & (_names.length - 1);
+      
+      _size -= entrySize(_names[tail], _values[tail]);
+      _names[tail] = null;
+      _values[tail] = null;
+      _count--;
+    }
+  }
+  
+  private void resize()
+  {
+    int length = _names.length;
+    
+    String []names = new String[2 * length];
+    String []values = new String[2 * length];
+    
+    for (int i = 0; i < _count; i++) {
+      int j = (_head - i) & (length - 1);
+      
+      names[_count - 1 - i] = _names[j];
+      values[_count - 1 - i] = _values[j];
+    }
+    
+    _names = names;
+    _values = values;
+    _head = _count - 1;
+  }
+  
+  /**
+   * Finds an entry. Returns the index for an exact match, the negative
+   * index for a name-only match, and 0 if the name is unknown.
+   */
+  int find(String name, String value)
+  {
+    Integer index = _staticEntryMap.get(name + '\0' + value);
+    
+    if (index != null) {
+      return index;
+    }
+    
+    int nameIndex = 0;
+    
+    for (int i = 0; i < _count; i++) {
+      int j = (_head - i) & (_names.length - 1);
+      
+      if (name.equals(_names[j])) {
+        if (value.equals(_values[j])) {
+          return STATIC_LENGTH + 1 + i;
+        }
+        else if (nameIndex == 0) {
+          nameIndex = STATIC_LENGTH + 1 + i;
+        }
+      }
+    }
+    
+    index = _staticNameMap.get(name);
+    
+    if (index != null) {
+      return -index;
+    }
+    
+    return -nameIndex;
+  }
+  
+  static int entrySize(String name, String value)
+  {
+    return name.length() + value.length() + ENTRY_OVERHEAD;
+  }
+  
+  static {
+    for (int i = STATIC_LENGTH - 1; i >= 0; i--) {
+      String name = STATIC[i][0];
+      String value = STATIC[i][1];
+      
+      _staticNameMap.put(name, i + 1);
+      _staticEntryMap.put(name + '\0' + value, i + 1);
+    }
+  }
+}
@@ -0,0 +1,1292 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.env.thread.ThreadPool;
+import com.caucho.network.listen.AbstractProtocolConnection;
+import com.caucho.network.listen.SocketLink;
+import com.caucho.network.listen.TcpSocketLink;
+import com.caucho.server.cluster.ServletService;
+import com.caucho.util.Base64;
+import com.caucho.util.L10N;
+import com.caucho.vfs.ClientDisconnectException;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * HTTP/2 connection (RFC 7540).
+ *
+ * <p>The connection starts as HTTP/1.1 and switches to HTTP/2 on the
+ * connection preface or an <code>Upgrade: h2c</code> request. After the
+ * switch, the link thread reads frames and dispatches each request stream
+ * to the thread pool. All frames are written by the
+ * {@link Http2WriteActor}.
+ */
+class Http2Connection extends AbstractProtocolConnection {
+  private static final Logger log
+    = Logger.getLogger(Http2Connection.class.getName());
+  
+  private static final L10N L = new L10N(Http2Connection.class);
+  
+  // the preface's "PRI * HTTP/2.0\r\n\r\n" is parsed as an HTTP/1.1 request
+  private static final byte []PREFACE_TAIL = "SM\r\n\r\n".getBytes();
+  private static final byte []PREFACE
+    = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+  
+  static final int DATA = 0x0;
+  static final int HEADERS = 0x1;
+  static final int PRIORITY = 0x2;
+  static final int RST_STREAM = 0x3;
+  static final int SETTINGS = 0x4;
+  static final int PUSH_PROMISE = 0x5;
+  static final int PING = 0x6;
+  static final int GOAWAY = 0x7;
+  static final int WINDOW_UPDATE = 0x8;
+  static final int CONTINUATION = 0x9;
+  
+  static final int FLAG_END_STREAM = 0x1;
+  static final int FLAG_ACK = 0x1;
+  static final int FLAG_END_HEADERS = 0x4;
+  static final int FLAG_PADDED = 0x8;
+  static final int FLAG_PRIORITY = 0x20;
+  
+  static final int NO_ERROR = 0x0;
+  static final int PROTOCOL_ERROR = 0x1;
+  static final int INTERNAL_ERROR = 0x2;
+  static final int FLOW_CONTROL_ERROR = 0x3;
+  static final int STREAM_CLOSED = 0x5;
+  static final int FRAME_SIZE_ERROR = 0x6;
+  static final int REFUSED_STREAM = 0x7;
+  static final int CANCEL = 0x8;
+  static final int COMPRESSION_ERROR = 0x9;
+  static final int ENHANCE_YOUR_CALM = 0xb;
+  
+  static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  static final int SETTINGS_ENABLE_PUSH = 0x2;
+  static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+  static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+  
+  private final Http2ServerProtocol _protocol;
+  private final ServletService _server;
+  private final TcpSocketLink _link;
+  
+  // HTTP/1.1 requests before the switch
+  private final Http2UpgradeRequest _httpRequest;
+  
+  private final ConcurrentHashMap<Integer,Http2Stream> _streamMap
+    = new ConcurrentHashMap<Integer,Http2Stream>();
+  private final AtomicInteger _activeCount = new AtomicInteger();
+  
+  private HpackDecoder _decoder;
+  private WriteStream _os;
+  private Http2WriteActor _actor;
+  
+  private boolean _isHttp2;
+  private boolean _isPrefaceRequired;
+  private boolean _isGoaway;
+  private volatile boolean _isClosed;
+  
+  private int _lastClientId;
+  
+  // header block for HEADERS and its CONTINUATION frames
+  private byte []_headerBlock = new byte[1024];
+  private int _headerLength;
+  private int _headerStreamId;
+  private boolean _isHeaderEndStream;
+  
+  private int _recvWindow;
+  private int _recvWindowMax;
+  
+  // send flow control, guarded by _windowLock
+  private final Object _windowLock = new Object();
+  private int _sendWindow;
+  private int _peerInitialWindowSize;
+  
+  private volatile int _peerMaxFrameSize;
+  
+  Http2Connection(Http2ServerProtocol protocol,
+                  ServletService server,
+                  SocketLink link)
+  {
+    _protocol = protocol;
+    _server = server;
+    _link = (TcpSocketLink) link;
+    
+    _httpRequest = new Http2UpgradeRequest(server, link, this);
+  }
+  
+  ServletService getServer()
+  {
+    return _server;
+  }
+  
+  TcpSocketLink getLink()
+  {
+    return _link;
+  }
+  
+  int getPeerMaxFrameSize()
+  {
+    return _peerMaxFrameSize;
+  }
+  
+  /**
+   * Timeout for a request thread waiting on the peer.
+   */
+  long getStreamTimeout()
+  {
+    return _link.getPort().getSocketTimeout();
+  }
+  
+  //
+  // ProtocolConnection, delegating to HTTP/1.1 until the switch
+  //
+
+  @Override
+  public void init()
+  {
+    _httpRequest.init();
+  }
+  
+  @Override
+  public boolean isWaitForRead()
+  {
+    return true;
+  }
+  
+  @Override
+  public void onAttachThread()
+  {
+    _httpRequest.onAttachThread();
+  }
+  
+  @Override
+  public void onDetachThread()
+  {
+    _httpRequest.onDetachThread();
+  }
+  
+  @Override
+  public void onStartConnection()
+  {
+    _isHttp2 = false;
+    _isPrefaceRequired = false;
+    _isGoaway = false;
+    _isClosed = false;
+    _lastClientId = 0;
+    _headerStreamId = 0;
+    
+    _httpRequest.onStartConnection();
+  }
+  
+  @Override
+  public String getProtocolRequestURL()
+  {
+    if (_isHttp2) {
+      return null;
+    }
+    
+    return _httpRequest.getProtocolRequestURL();
+  }
+  
+  @Override
+  public boolean handleResume()
+    throws IOException
+  {
+    return _httpRequest.handleResume();
+  }
+
+  @Override
+  public boolean handleRequest()
+    throws IOException
+  {
+    if (! _isHttp2) {
+      boolean isKeepalive = _httpRequest.handleRequest();
+      
+      if (! _isHttp2) {
+        return isKeepalive;
+      }
+    }
+    
+    return readFrames();
+  }
+  
+  @Override
+  public void onCloseConnection()
+  {
+    if (_isHttp2) {
+      closeHttp2();
+    }
+    
+    _httpRequest.onCloseConnection();
+  }
+  
+  //
+  // switch to HTTP/2
+  //
+  
+  /**
+   * Starts HTTP/2 after a prior-knowledge preface. The HTTP/1.1 parser
+   * has consumed the "PRI * HTTP/2.0" line.
+   */
+  void startPriorKnowledge()
+    throws IOException
+  {
+    ReadStream is = _link.getReadStream();
+    
+    for (int i = 0; i < PREFACE_TAIL.length; i++) {
+      if (is.read() != PREFACE_TAIL[i]) {
+        throw new IOException(L.l("{0} invalid HTTP/2 connection preface",
+                                  this));
+      }
+    }
+    
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + " start HTTP/2 (prior knowledge)");
+    }
+    
+    startHttp2();
+  }
+  
+  /**
+   * Starts HTTP/2 after an HTTP/1.1 Upgrade: h2c request. The upgrade
+   * request becomes stream 1, which is already half-closed.
+   */
+  void startUpgrade(ArrayList<String> names,
+                    ArrayList<String> values,
+                    String http2Settings)
+    throws IOException
+  {
+    WriteStream os = _link.getWriteStream();
+    
+    os.print("HTTP/1.1 101 Switching Protocols\r\n"
+             + "Connection: Upgrade\r\n"
+             + "Upgrade: h2c\r\n\r\n");
+    os.flush();
+    
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + " start HTTP/2 (h2c upgrade)");
+    }
+    
+    startHttp2();
+    
+    _isPrefaceRequired = true;
+    
+    // the 101 response acknowledges the HTTP2-Settings implicitly
+    byte []settings = decodeSettings(http2Settings);
+    
+    for (int i = 0; i + 6 <= settings.length; i += 6) {
+      int id = ((settings[i] & 0xff) << 8) + (settings[i + 1] & 0xff);
+      int value = (((settings[i + 2] & 0xff) << 24)
+                   + ((settings[i + 3] & 0xff) << 16)
+                   + ((settings[i + 4] & 0xff) << 8)
+                   + (settings[i + 5] & 0xff));
+      
+      if (applySetting(id, value) != NO_ERROR) {
+        throw new IOException(L.l("{0} invalid HTTP2-Settings", this));
+      }
+    }
+    
+    _lastClientId = 1;
+    
+    Http2Stream stream = createStream(1, names, values);
+    stream.onEnd();
+    
+    dispatch(stream);
+  }
+  
+  private byte []decodeSettings(String value)
+  {
+    StringBuilder sb = new StringBuilder();
+    
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      
+      if (ch == '-') {
+        sb.append('+');
+      }
+      else if (ch == '_') {
+        sb.append('/');
+      }
+      else if (ch != '=' && ch != ' ') {
+        sb.append(ch);
+      }
+    }
+    
+    while (sb.length() % 4 != 0) {
+      sb.append('=');
+    }
+    
+    return Base64.decodeToByteArray(sb.toString());
+  }
+  
+  private void startHttp2()
+  {
+    _isHttp2 = true;
+    
+    _decoder = new HpackDecoder();
+    
+    _os = new WriteStream(_link.getWriteStream().getSource());
+    _os.setDisableCloseSource(true);
+    
+    _actor = new Http2WriteActor(this, _os);
+    
+    _peerMaxFrameSize = Http2ServerProtocol.MIN_FRAME_SIZE;
+    
+    synchronized (_windowLock) {
+      _sendWindow = Http2ServerProtocol.DEFAULT_WINDOW_SIZE;
+      _peerInitialWindowSize = Http2ServerProtocol.DEFAULT_WINDOW_SIZE;
+    }
+    
+    _actor.writeSettings(createSettings());
+    
+    // the connection window covers every stream's buffered body
+    _recvWindowMax = Math.max(Http2ServerProtocol.DEFAULT_WINDOW_SIZE,
+                              _protocol.getInitialWindowSize());
+    _recvWindow = Http2ServerProtocol.DEFAULT_WINDOW_SIZE;
+    
+    if (_recvWindow < _recvWindowMax) {
+      _actor.writeWindowUpdate(0, _recvWindowMax - _recvWindow);
+      _recvWindow = _recvWindowMax;
+    }
+  }
+  
+  private byte []createSettings()
+  {
+    int []settings = new int[] {
+      SETTINGS_ENABLE_PUSH, 0,
+      SETTINGS_MAX_CONCURRENT_STREAMS, _protocol.getMaxConcurrentStreams(),
+      SETTINGS_INITIAL_WINDOW_SIZE, _protocol.getInitialWindowSize(),
+      SETTINGS_MAX_FRAME_SIZE, _protocol.getMaxFrameSize(),
+      SETTINGS_MAX_HEADER_LIST_SIZE, _protocol.getMaxHeaderListSize(),
+    };
+    
+    byte []payload = new byte[3 * settings.length];
+    
+    for (int i = 0; i < settings.length; i += 2) {
+      int offset = 3 * i;
+      int id = settings[i];
+      int value = settings[i + 1];
+      
+      payload[offset + 0] = (byte) (id >> 8);
+      payload[offset + 1] = (byte) id;
+      payload[offset + 2] = (byte) (value >> 24);
+      payload[offset + 3] = (byte) (value >> 16);
+      payload[offset + 4] = (byte) (value >> 8);
+      payload[offset + 5] = (byte) value;
+    }
+    
+    return payload;
+  }
+  
+  //
+  // frame reading
+  //
+  
+  /**
+   * Reads frames while there is buffered data or an active stream. With
+   * no active streams the link returns to keepalive, waiting on the
+   * select manager instead of holding a thread.
+   */
+  private boolean readFrames()
+    throws IOException
+  {
+    ReadStream is = _link.getReadStream();
+    
+    try {
+      if (_isPrefaceRequired) {
+        for (int i = 0; i < PREFACE.length; i++) {
+          if (is.read() != PREFACE[i]) {
+            log.fine(L.l("{0} invalid HTTP/2 connection preface", this));
+            
+            return false;
+          }
+        }
+        
+        _isPrefaceRequired = false;
+      }
+      
+      while (! _isClosed) {
+        if (is.getBufferAvailable() <= 0 && _activeCount.get() == 0) {
+          return ! _isGoaway;
+        }
+        
+        int ch;
+        
+        try {
+          ch = is.read();
+        } catch (SocketTimeoutException e) {
+          if (_activeCount.get() > 0) {
+            continue;
+          }
+          
+          // the last stream completed while the reader was waiting
+          return ! _isGoaway;
+        }
+        
+        if (ch < 0 || ! readFrame(is, ch)) {
+          return false;
+        }
+      }
+      
+      return false;
+    } finally {
+      if (_isClosed || ! _link.isKeepaliveAllocated()) {
+        waitForWrites();
+      }
+    }
+  }
+  
+  private boolean readFrame(ReadStream is, int ch1)
+    throws IOException
+  {
+    int ch2 = is.read();
+    int ch3 = is.read();
+    int type = is.read();
+    int flags = is.read();
+    int streamId = readInt(is) & 0x7fffffff;
+    
+    if (flags < 0) {
+      return false;
+    }
+    
+    int length = (ch1 << 16) + (ch2 << 8) + ch3;
+    
+    if (log.isLoggable(Level.FINEST)) {
+      log.finest(this + " read type=0x" + Integer.toHexString(type)
+                 + " flags=0x" + Integer.toHexString(flags)
+                 + " stream=" + streamId + " len=" + length);
+    }
+    
+    if (_protocol.getMaxFrameSize() < length) {
+      return connectionError(FRAME_SIZE_ERROR,
+                             L.l("frame length {0} is too large", length));
+    }
+    
+    if (_headerStreamId > 0 && type != CONTINUATION) {
+      return connectionError(PROTOCOL_ERROR,
+                             L.l("expected CONTINUATION for stream {0}",
+                                 _headerStreamId));
+    }
+    
+    switch (type) {
+    case DATA:
+      return readData(is, length, flags, streamId);
+      
+    case HEADERS:
+      return readHeaders(is, length, flags, streamId);
+      
+    case PRIORITY:
+      if (streamId == 0) {
+        return connectionError(PROTOCOL_ERROR, L.l("PRIORITY on stream 0"));
+      }
+      
+      // priorities are advisory and ignored
+      skip(is, length);
+      return true;
+      
+    case RST_STREAM:
+      return readReset(is, length, streamId);
+      
+    case SETTINGS:
+      return readSettings(is, length, flags, streamId);
+      
+    case PUSH_PROMISE:
+      return connectionError(PROTOCOL_ERROR, L.l("client sent PUSH_PROMISE"));
+      
+    case PING:
+      return readPing(is, length, flags, streamId);
+      
+    case GOAWAY:
+      return readGoaway(is, length, streamId);
+      
+    case WINDOW_UPDATE:
+      return readWindowUpdate(is, length, streamId);
+      
+    case CONTINUATION:
+      return readContinuation(is, length, flags, streamId);
+      
+    default:
+      // unknown frame types are ignored
+      skip(is, length);
+      return true;
+    }
+  }
+  
+  private boolean readData(ReadStream is, int length, int flags, int streamId)
+    throws IOException
+  {
+    if (streamId == 0) {
+      return connectionError(PROTOCOL_ERROR, L.l("DATA on stream 0"));
+    }
+    
+    int pad = 0;
+    int dataLength = length;
+    
+    if ((flags & FLAG_PADDED) != 0) {
+      pad = is.read();
+      dataLength -= 1 + pad;
+      
+      if (dataLength < 0) {
+        return connectionError(PROTOCOL_ERROR, L.l("invalid DATA padding"));
+      }
+    }
+    
+    // flow control counts the entire payload, including padding
+    _recvWindow -= length;
+    
+    if (_recvWindow < 0) {
+      return connectionError(FLOW_CONTROL_ERROR,
+                             L.l("connection window exceeded"));
+    }
+    
+    boolean isEnd = (flags & FLAG_END_STREAM) != 0;
+    
+    Http2Stream stream = _streamMap.get(streamId);
+    
+    if (stream == null || stream.isRemoteClosed()) {
+      if (_lastClientId < streamId) {
+        return connectionError(PROTOCOL_ERROR,
+                               L.l("DATA on idle stream {0}", streamId));
+      }
+      
+      // the stream was already reset or completed
+      skip(is, dataLength);
+    }
+    else if (! stream.onData(is, dataLength, length, isEnd)) {
+      resetStream(stream, FLOW_CONTROL_ERROR);
+    }
+    
+    skip(is, pad);
+    
+    // streams return their window as the body is read, but the
+    // connection window is returned as soon as the data is buffered
+    if (_recvWindow < _recvWindowMax / 2) {
+      _actor.writeWindowUpdate(0, _recvWindowMax - _recvWindow);
+      _recvWindow = _recvWindowMax;
+    }
+    
+    return true;
+  }
+  
+  private boolean readHeaders(ReadStream is, int length,
+                              int flags, int streamId)
+    throws IOException
+  {
+    if (streamId == 0) {
+      return connectionError(PROTOCOL_ERROR, L.l("HEADERS on stream 0"));
+    }
+    
+    int pad = 0;
+    int fragmentLength = length;
+    
+    if ((flags & FLAG_PADDED) != 0) {
+      pad = is.read();
+      fragmentLength -= 1 + pad;
+    }
+    
+    if ((flags & FLAG_PRIORITY) != 0) {
+      // stream dependency and weight are ignored
+      skip(is, 5);
+      fragmentLength -= 5;
+    }
+    
+    if (fragmentLength < 0) {
+      return connectionError(PROTOCOL_ERROR, L.l("invalid HEADERS padding"));
+    }
+    
+    _headerLength = 0;
+    
+    if (! readHeaderFragment(is, fragmentLength)) {
+      return false;
+    }
+    
+    skip(is, pad);
+    
+    _isHeaderEndStream = (flags & FLAG_END_STREAM) != 0;
+    
+    if ((flags & FLAG_END_HEADERS) != 0) {
+      return finishHeaders(streamId);
+    }
+    
+    _headerStreamId = streamId;
+    
+    return true;
+  }
+  
+  private boolean readContinuation(ReadStream is, int length,
+                                   int flags, int streamId)
+    throws IOException
+  {
+    if (_headerStreamId == 0 || streamId != _headerStreamId) {
+      return connectionError(PROTOCOL_ERROR,
+                             L.l("unexpected CONTINUATION for stream {0}",
+                                 streamId));
+    }
+    
+    if (! readHeaderFragment(is, length)) {
+      return false;
+    }
+    
+    if ((flags & FLAG_END_HEADERS) != 0) {
+      _headerStreamId = 0;
+      
+      return finishHeaders(streamId);
+    }
+    
+    return true;
+  }
+  
+  private boolean readHeaderFragment(ReadStream is, int length)
+    throws IOException
+  {
+    int newLength = _headerLength + length;
+    
+    if (_protocol.getMaxHeaderListSize() < newLength) {
+      return connectionError(ENHANCE_YOUR_CALM,
+                             L.l("header block is larger than {0}",
+                                 _protocol.getMaxHeaderListSize()));
+    }
+    
+    if (_headerBlock.length < newLength) {
+      byte []buffer = new byte[Math.max(newLength, 2 * _headerBlock.length)];
+      System.arraycopy(_headerBlock, 0, buffer, 0, _headerLength);
+      _headerBlock = buffer;
+    }
+    
+    if (is.readAll(_headerBlock, _headerLength, length) != length) {
+      return false;
+    }
+    
+    _headerLength = newLength;
+    
+    return true;
+  }
+  
+  private boolean finishHeaders(int streamId)
+    throws IOException
+  {
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<String> values = new ArrayList<String>();
+    
+    try {
+      _decoder.decode(_headerBlock, 0, _headerLength, names, values);
+    } catch (IOException e) {
+      log.log(Level.FINER, e.toString(), e);
+      
+      return connectionError(COMPRESSION_ERROR, e.getMessage());
+    }
+    
+    Http2Stream stream = _streamMap.get(streamId);
+    
+    if (stream != null) {
+      // trailers, which are ignored
+      if (! _isHeaderEndStream) {
+        return connectionError(PROTOCOL_ERROR,
+                               L.l("trailers without END_STREAM"));
+      }
+      
+      stream.onEnd();
+      
+      return true;
+    }
+    
+    if ((streamId & 1) == 0 || streamId <= _lastClientId) {
+      return connectionError(PROTOCOL_ERROR,
+                             L.l("invalid stream id {0}", streamId));
+    }
+    
+    _lastClientId = streamId;
+    
+    if (_isGoaway) {
+      // streams after GOAWAY are ignored
+      return true;
+    }
+    
+    if (_protocol.getMaxConcurrentStreams() <= _activeCount.get()) {
+      _actor.writeReset(streamId, REFUSED_STREAM);
+      return true;
+    }
+    
+    stream = createStream(streamId, names, values);
+    
+    if (_isHeaderEndStream) {
+      stream.onEnd();
+    }
+    
+    dispatch(stream);
+    
+    return true;
+  }
+  
+  private boolean readReset(ReadStream is, int length, int streamId)
+    throws IOException
+  {
+    if (streamId == 0) {
+      return connectionError(PROTOCOL_ERROR, L.l("RST_STREAM on stream 0"));
+    }
+    
+    if (length != 4) {
+      return connectionError(FRAME_SIZE_ERROR, L.l("invalid RST_STREAM"));
+    }
+    
+    int errorCode = readInt(is);
+    
+    Http2Stream stream = _streamMap.get(streamId);
+    
+    if (stream != null) {
+      if (log.isLoggable(Level.FINER)) {
+        log.finer(stream + " reset by peer error=" + errorCode);
+      }
+      
+      stream.onReset();
+      removeStream(stream);
+      
+      synchronized (_windowLock) {
+        _windowLock.notifyAll();
+      }
+    }
+    
+    return true;
+  }
+  
+  private boolean readSettings(ReadStream is, int length,
+                               int flags, int streamId)
+    throws IOException
+  {
+    if (streamId != 0) {
+      return connectionError(PROTOCOL_ERROR, L.l("SETTINGS on a stream"));
+    }
+    
+    if ((flags & FLAG_ACK) != 0) {
+      if (length != 0) {
+        return connectionError(FRAME_SIZE_ERROR, L.l("invalid SETTINGS ack"));
+      }
+      
+      return true;
+    }
+    
+    if (length % 6 != 0) {
+      return connectionError(FRAME_SIZE_ERROR, L.l("invalid SETTINGS length"));
+    }
+    
+    int headerTableSize = -1;
+    
+    for (int i = 0; i < length; i += 6) {
+      int id = readShort(is);
+      int value = readInt(is);
+      
+      if (id == SETTINGS_HEADER_TABLE_SIZE) {
+        headerTableSize = value;
+        continue;
+      }
+      
+      int errorCode = applySetting(id, value);
+      
+      if (errorCode != NO_ERROR) {
+        return connectionError(errorCode,
+                               L.l("invalid setting {0}={1}", id, value));
+      }
+    }
+    
+    _actor.writeSettingsAck(headerTableSize);
+    
+    return true;
+  }
+  
+  /**
+   * Applies one of the peer's settings, returning an error code.
+   */
+  private int applySetting(int id, int value)
+  {
+    switch (id) {
+    case SETTINGS_ENABLE_PUSH:
+      return (value == 0 || value == 1) ? NO_ERROR : PROTOCOL_ERROR;
+      
+    case SETTINGS_INITIAL_WINDOW_SIZE:
+      if (value < 0) {
+        return FLOW_CONTROL_ERROR;
+      }
+      
+      return updateInitialWindowSize(value);
+      
+    case SETTINGS_MAX_FRAME_SIZE:
+      if (value < Http2ServerProtocol.MIN_FRAME_SIZE
+          || Http2ServerProtocol.MAX_FRAME_SIZE < value) {
+        return PROTOCOL_ERROR;
+      }
+      
+      _peerMaxFrameSize = value;
+      return NO_ERROR;
+      
+    default:
+      // the server doesn't push, and the peer's header list
+      // limit and table size are handled elsewhere
+      return NO_ERROR;
+    }
+  }
+  
+  /**
+   * A new initial window size adjusts the send window of all open
+   * streams by the difference.
+   */
+  private int updateInitialWindowSize(int value)
+  {
+    synchronized (_windowLock) {
+      int delta = value - _peerInitialWindowSize;
+      _peerInitialWindowSize = value;
+      
+      for (Http2Stream stream : _streamMap.values()) {
+        if (! stream.addSendWindow(delta)) {
+          return FLOW_CONTROL_ERROR;
+        }
+      }
+      
+      _windowLock.notifyAll();
+    }
+    
+    return NO_ERROR;
+  }
+  
+  private boolean readPing(ReadStream is, int length,
+                           int flags, int streamId)
+    throws IOException
+  {
+    if (streamId != 0) {
+      return connectionError(PROTOCOL_ERROR, L.l("PING on a stream"));
+    }
+    
+    if (length != 8) {
+      return connectionError(FRAME_SIZE_ERROR, L.l("invalid PING length"));
+    }
+    
+    long data = ((long) readInt(is) << 32) + (readInt(is) & 0xffffffffL);
+    
+    if ((flags & FLAG_ACK) == 0) {
+      _actor.writePingAck(data);
+    }
+    
+    return true;
+  }
+  
+  private boolean readGoaway(ReadStream is, int length, int streamId)
+    throws IOException
+  {
+    if (streamId != 0) {
+      return connectionError(PROTOCOL_ERROR, L.l("GOAWAY on a stream"));
+    }
+    
+    if (length < 8) {
+      return connectionError(FRAME_SIZE_ERROR, L.l("invalid GOAWAY length"));
+    }
+    
+    int lastStreamId = readInt(is) & 0x7fffffff;
+    int errorCode = readInt(is);
+    
+    skip(is, length - 8);
+    
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + " GOAWAY last-stream=" + lastStreamId
+               + " error=" + errorCode);
+    }
+    
+    // active streams complete, then the connection closes
+    _isGoaway = true;
+    
+    return true;
+  }
+  
+  private boolean readWindowUpdate(ReadStream is, int length, int streamId)
+    throws IOException
+  {
+    if (length != 4) {
+      return connectionError(FRAME_SIZE_ERROR,
+                             L.l("invalid WINDOW_UPDATE length"));
+    }
+    
+    int increment = readInt(is) & 0x7fffffff;
+    
+    if (streamId == 0) {
+      if (increment == 0) {
+        return connectionError(PROTOCOL_ERROR,
+                               L.l("WINDOW_UPDATE increment is 0"));
+      }
+      
+      synchronized (_windowLock) {
+        long window = (long) _sendWindow + increment;
+        
+        if (Integer.MAX_VALUE < window) {
+          return connectionError(FLOW_CONTROL_ERROR,
+                                 L.l("connection window overflow"));
+        }
+        
+        _sendWindow = (int) window;
+        _windowLock.notifyAll();
+      }
+      
+      return true;
+    }
+    
+    Http2Stream stream = _streamMap.get(streamId);
+    
+    if (stream == null) {
+      return true;
+    }
+    
+    boolean isValid;
+    
+    synchronized (_windowLock) {
+      isValid = increment > 0 && stream.addSendWindow(increment);
+      
+      _windowLock.notifyAll();
+    }
+    
+    if (! isValid) {
+      resetStream(stream, increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR);
+    }
+    
+    return true;
+  }
+  
+  //
+  // streams
+  //
+  
+  private Http2Stream createStream(int streamId,
+                                   ArrayList<String> names,
+                                   ArrayList<String> values)
+  {
+    int sendWindow;
+    
+    synchronized (_windowLock) {
+      sendWindow = _peerInitialWindowSize;
+    }
+    
+    Http2Stream stream = new Http2Stream(this, streamId, names, values,
+                                         _protocol.getInitialWindowSize(),
+                                         sendWindow);
+    
+    _streamMap.put(streamId, stream);
+    _activeCount.incrementAndGet();
+    
+    return stream;
+  }
+  
+  private void dispatch(Http2Stream stream)
+  {
+    Http2Request request = new Http2Request(_server, stream);
+    
+    if (! ThreadPool.getCurrent().schedule(request)) {
+      log.warning(L.l("{0} unable to schedule {1}", this, stream));
+      
+      resetStream(stream, REFUSED_STREAM);
+    }
+  }
+  
+  /**
+   * Resets a stream from the server side.
+   */
+  void resetStream(Http2Stream stream, int errorCode)
+  {
+    if (log.isLoggable(Level.FINER)) {
+      log.finer(stream + " reset error=" + errorCode);
+    }
+    
+    stream.onReset();
+    
+    if (removeStream(stream) && ! _isClosed) {
+      _actor.writeReset(stream.getId(), errorCode);
+    }
+    
+    synchronized (_windowLock) {
+      _windowLock.notifyAll();
+    }
+  }
+  
+  /**
+   * Called by the request thread when the response is complete.
+   */
+  void onStreamComplete(Http2Stream stream)
+  {
+    if (! stream.isRemoteClosed() && ! _isClosed) {
+      // the response is complete, so the rest of the body isn't needed
+      _actor.writeReset(stream.getId(), NO_ERROR);
+    }
+    
+    removeStream(stream);
+    stream.free();
+  }
+  
+  private boolean removeStream(Http2Stream stream)
+  {
+    if (_streamMap.remove(stream.getId(), stream)) {
+      _activeCount.decrementAndGet();
+      
+      return true;
+    }
+    else {
+      return false;
+    }
+  }
+  
+  //
+  // writes from the request threads
+  //
+  
+  void writeHeaders(Http2Stream stream,
+                    ArrayList<String> names,
+                    ArrayList<String> values,
+                    boolean isEnd)
+    throws IOException
+  {
+    if (_isClosed) {
+      throw new ClientDisconnectException(L.l("{0} is closed", this));
+    }
+    
+    _actor.writeHeaders(stream.getId(), names, values, isEnd);
+  }
+  
+  /**
+   * Writes response data as DATA frames, blocking for flow-control credit.
+   */
+  void writeData(Http2Stream stream,
+                 byte []buffer, int offset, int length,
+                 boolean isEnd)
+    throws IOException
+  {
+    if (length == 0) {
+      if (_isClosed) {
+        throw new ClientDisconnectException(L.l("{0} is closed", this));
+      }
+      
+      _actor.writeData(stream.getId(), null, 0, isEnd);
+      return;
+    }
+    
+    while (length > 0) {
+      int sublen = allocateSendWindow(stream, length);
+      
+      byte []data = new byte[sublen];
+      System.arraycopy(buffer, offset, data, 0, sublen);
+      
+      offset += sublen;
+      length -= sublen;
+      
+      _actor.writeData(stream.getId(), data, sublen, isEnd && length == 0);
+    }
+  }
+  
+  void writeWindowUpdate(int streamId, int increment)
+  {
+    if (! _isClosed) {
+      _actor.writeWindowUpdate(streamId, increment);
+    }
+  }
+  
+  /**
+   * Reserves send window for a DATA frame, waiting until both the
+   * connection and the stream window allow at least one byte.
+   */
+  private int allocateSendWindow(Http2Stream stream, int length)
+    throws IOException
+  {
+    long timeout = getStreamTimeout();
+    long expires = System.currentTimeMillis() + timeout;
+    
+    synchronized (_windowLock) {
+      while (true) {
+        if (_isClosed || stream.isReset()) {
+          throw new ClientDisconnectException(L.l("{0} is closed", stream));
+        }
+        
+        int window = Math.min(_sendWindow, stream.getSendWindow());
+        
+        if (window > 0) {
+          int sublen = Math.min(window, Math.min(length, _peerMaxFrameSize));
+          
+          _sendWindow -= sublen;
+          stream.addSendWindow(-sublen);
+          
+          return sublen;
+        }
+        
+        long delta = expires - System.currentTimeMillis();
+        
+        if (delta <= 0) {
+          throw new SocketTimeoutException(L.l("{0} flow control timeout",
+                                               stream));
+        }
+        
+        try {
+          _windowLock.wait(delta);
+        } catch (InterruptedException e) {
+          throw new ClientDisconnectException(e);
+        }
+      }
+    }
+  }
+  
+  //
+  // errors and close
+  //
+  
+  /**
+   * Sends GOAWAY for a connection error. The caller closes the connection.
+   */
+  private boolean connectionError(int errorCode, String msg)
+  {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + " connection error 0x" + Integer.toHexString(errorCode)
+               + " " + msg);
+    }
+    
+    if (! _isGoaway || ! _isClosed) {
+      _actor.writeGoaway(_lastClientId, errorCode);
+    }
+    
+    _isGoaway = true;
+    
+    return false;
+  }
+  
+  /**
+   * Called by the write actor when the socket fails.
+   */
+  void onWriteError(IOException e)
+  {
+    _isClosed = true;
+    
+    resetAllStreams();
+    
+    _link.killKeepalive("http2 write error: " + e);
+  }
+  
+  /**
+   * Gives the actor a chance to write the final frames, e.g. GOAWAY,
+   * before the link closes the socket.
+   */
+  private void waitForWrites()
+  {
+    Http2WriteActor actor = _actor;
+    
+    for (int i = 0; i < 100 && actor != null && ! actor.isEmpty(); i++) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+  
+  private void closeHttp2()
+  {
+    _isHttp2 = false;
+    _isClosed = true;
+    
+    resetAllStreams();
+    
+    waitForWrites();
+    
+    WriteStream os = _os;
+    _os = null;
+    _actor = null;
+    _decoder = null;
+    
+    if (os != null) {
+      try {
+        os.close();
+      } catch (IOException e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+    }
+  }
+  
+  private void resetAllStreams()
+  {
+    for (Http2Stream stream : _streamMap.values()) {
+      stream.onReset();
+      removeStream(stream);
+    }
+    
+    synchronized (_windowLock) {
+      _windowLock.notifyAll();
+    }
+  }
+  
+  private void skip(ReadStream is, int length)
+    throws IOException
+  {
+    if (length > 0 && is.skip(length) != length) {
+      throw new ClientDisconnectException(L.l("{0} unexpected end of file",
+                                              this));
+    }
+  }
+  
+  private int readShort(ReadStream is)
+    throws IOException
+  {
+    int ch1 = is.read();
+    int ch2 = is.read();
+    
+    return (ch1 << 8) + ch2;
+  }
+  
+  private int readInt(ReadStream is)
+    throws IOException
+  {
+    int ch1 = is.read();
+    int ch2 = is.read();
+    int ch3 = is.read();
+    int ch4 = is.read();
+    
+    if (ch4 < 0) {
+      throw new ClientDisconnectException(L.l("{0} unexpected end of file",
+                                              this));
+    }
+    
+    return (ch1 << 24) + (ch2 << 16) + (ch3 << 8) + ch4;
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _link.getId() + "]";
+  }
+}
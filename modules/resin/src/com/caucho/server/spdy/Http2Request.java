@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.server.cluster.ServletService;
+import com.caucho.server.dispatch.BadRequestException;
+import com.caucho.server.dispatch.Invocation;
+import com.caucho.server.http.AbstractHttpRequest;
+import com.caucho.server.http.CauchoResponse;
+import com.caucho.server.http.HttpServletRequestImpl;
+import com.caucho.util.CharSegment;
+import com.caucho.util.L10N;
+import com.caucho.vfs.ClientDisconnectException;
+import com.caucho.vfs.ReadStream;
+
+/**
+ * Request for a single HTTP/2 stream, serviced on a pool thread.
+ */
+class Http2Request extends AbstractHttpRequest implements Runnable {
+  private static final Logger log
+    = Logger.getLogger(Http2Request.class.getName());
+  private static final L10N L = new L10N(Http2Request.class);
+
+  private static final char []HOST = "host".toCharArray();
+
+  private final Http2Stream _stream;
+
+  private String _method = "GET";
+  private byte []_uri = new byte[0];
+
+  private int _headerSize;
+  private char []_headerBuffer;
+  private CharSegment []_headerKeys;
+  private CharSegment []_headerValues;
+
+  Http2Request(ServletService server, Http2Stream stream)
+  {
+    super(server, new Http2StreamLink(stream));
+
+    _stream = stream;
+  }
+
+  @Override
+  protected Http2Response createResponse()
+  {
+    return new Http2Response(this);
+  }
+
+  Http2Stream getHttp2Stream()
+  {
+    return _stream;
+  }
+
+  @Override
+  public boolean isWaitForRead()
+  {
+    return false;
+  }
+
+  /**
+   * Services the stream's request.
+   */
+  @Override
+  public void run()
+  {
+    try {
+      handleRequest();
+    } catch (ClientDisconnectException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    } catch (Throwable e) {
+      log.log(Level.FINE, e.toString(), e);
+    } finally {
+      onDetachThread();
+
+      _stream.getConnection().onStreamComplete(_stream);
+    }
+  }
+
+  @Override
+  public boolean handleRequest()
+    throws IOException
+  {
+    boolean isInvocation = false;
+
+    ServletService server = getServer();
+    Thread thread = Thread.currentThread();
+    ClassLoader oldLoader = thread.getContextClassLoader();
+
+    try {
+      thread.setContextClassLoader(server.getClassLoader());
+
+      startRequest();
+
+      if (! parseHeaders()) {
+        throw new BadRequestException(L.l("Invalid HTTP/2 request headers"));
+      }
+
+      CharSequence host = getHost();
+
+      String ipHost = getConnection().getVirtualHost();
+      if (ipHost != null)
+        host = ipHost;
+
+      Invocation invocation = getInvocation(host, _uri, _uri.length);
+
+      if (invocation == null)
+        return false;
+
+      HttpServletRequestImpl requestFacade = getRequestFacade();
+
+      requestFacade.setInvocation(invocation);
+
+      isInvocation = true;
+      startInvocation();
+
+      invocation.service(requestFacade, getResponseFacade());
+    } catch (ClientDisconnectException e) {
+      throw e;
+    } catch (Throwable e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      CauchoResponse response = getResponseFacade();
+
+      if (response != null)
+        response.killCache();
+
+      sendRequestError(e);
+
+      return false;
+    } finally {
+      if (isInvocation) {
+        finishInvocation();
+      }
+
+      finishRequest();
+
+      thread.setContextClassLoader(oldLoader);
+    }
+
+    return true;
+  }
+
+  /**
+   * Fills the request from the decoded header block.
+   */
+  private boolean parseHeaders()
+  {
+    ArrayList<String> names = _stream.getHeaderNames();
+    ArrayList<String> values = _stream.getHeaderValues();
+
+    int size = names.size();
+    int bufferLength = 0;
+
+    for (int i = 0; i < size; i++) {
+      bufferLength += names.get(i).length() + values.get(i).length();
+    }
+
+    _headerSize = 0;
+    _headerBuffer = new char[bufferLength];
+    _headerKeys = new CharSegment[size];
+    _headerValues = new CharSegment[size];
+
+    String path = null;
+    int offset = 0;
+
+    for (int i = 0; i < size; i++) {
+      String name = names.get(i);
+      String value = values.get(i);
+
+      if (name.startsWith(":")) {
+        if (name.equals(":method")) {
+          _method = value;
+        }
+        else if (name.equals(":path")) {
+          path = value;
+        }
+        else if (name.equals(":authority")) {
+          char []buffer = value.toCharArray();
+          
+          addHeaderInt(HOST, 0, HOST.length,
+                       new CharSegment(buffer, 0, buffer.length));
+        }
+
+        continue;
+      }
+
+      if (Http2UpgradeRequest.isConnectionHeader(name)
+          && ! name.equals("host")) {
+        return false;
+      }
+
+      int keyOffset = offset;
+      name.getChars(0, name.length(), _headerBuffer, offset);
+      offset += name.length();
+
+      int valueOffset = offset;
+      value.getChars(0, value.length(), _headerBuffer, offset);
+      offset += value.length();
+
+      CharSegment key = new CharSegment(_headerBuffer, keyOffset,
+                                        name.length());
+      CharSegment valueSegment = new CharSegment(_headerBuffer, valueOffset,
+                                                 value.length());
+
+      _headerKeys[_headerSize] = key;
+      _headerValues[_headerSize] = valueSegment;
+      _headerSize++;
+
+      addHeaderInt(_headerBuffer, keyOffset, name.length(), valueSegment);
+    }
+
+    if (path == null || path.length() == 0) {
+      return false;
+    }
+
+    _uri = new byte[path.length()];
+
+    for (int i = 0; i < _uri.length; i++) {
+      _uri[i] = (byte) path.charAt(i);
+    }
+
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(dbgId() + _method + " " + path + " HTTP/2.0");
+    }
+
+    return true;
+  }
+
+  @Override
+  public byte []getUriBuffer()
+  {
+    return _uri;
+  }
+
+  @Override
+  public int getUriLength()
+  {
+    return _uri.length;
+  }
+
+  @Override
+  public String getProtocol()
+  {
+    return "HTTP/2.0";
+  }
+
+  @Override
+  public String getMethod()
+  {
+    return _method;
+  }
+
+  @Override
+  public int getHeaderSize()
+  {
+    return _headerSize;
+  }
+
+  @Override
+  public CharSegment getHeaderKey(int index)
+  {
+    return _headerKeys[index];
+  }
+
+  @Override
+  public CharSegment getHeaderValue(int index)
+  {
+    return _headerValues[index];
+  }
+
+  /**
+   * Returns the header. HTTP/2 header names are lower case.
+   */
+  @Override
+  public String getHeader(String key)
+  {
+    for (int i = 0; i < _headerSize; i++) {
+      if (_headerKeys[i].matchesIgnoreCase(key))
+        return _headerValues[i].toString();
+    }
+
+    if (key.equalsIgnoreCase("host")) {
+      CharSequence host = getHostHeader();
+
+      if (host != null)
+        return host.toString();
+    }
+
+    return null;
+  }
+
+  @Override
+  public Enumeration<String> getHeaderNames()
+  {
+    ArrayList<String> names = new ArrayList<String>();
+
+    for (int i = 0; i < _headerSize; i++) {
+      String name = _headerKeys[i].toString();
+
+      if (! names.contains(name))
+        names.add(name);
+    }
+
+    return Collections.enumeration(names);
+  }
+
+  /**
+   * The request body is the stream's DATA frames.
+   */
+  @Override
+  protected boolean initStream(ReadStream readStream, ReadStream rawRead)
+    throws IOException
+  {
+    readStream.init(_stream.getInputStream(), null);
+
+    return true;
+  }
+
+  @Override
+  protected String dbgId()
+  {
+    return "Http2[" + getConnectionId() + "," + _stream.getId() + "] ";
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _stream + "]";
+  }
+}
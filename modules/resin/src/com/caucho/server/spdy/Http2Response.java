@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import javax.servlet.http.Cookie;
+
+import com.caucho.server.http.AbstractHttpResponse;
+import com.caucho.server.http.AbstractResponseStream;
+import com.caucho.server.http.HttpServletResponseImpl;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.CurrentTime;
+
+/**
+ * Response for an HTTP/2 stream. The headers are written as a HEADERS
+ * frame and the body as DATA frames.
+ */
+class Http2Response extends AbstractHttpResponse {
+  private final Http2Request _req;
+  private final CharBuffer _cb = new CharBuffer();
+
+  Http2Response(Http2Request request)
+  {
+    super(request);
+
+    _req = request;
+  }
+
+  @Override
+  protected AbstractResponseStream createResponseStream()
+  {
+    return new Http2ResponseStream(_req, this,
+                                   _req.getConnection().getWriteStream());
+  }
+
+  /**
+   * Writes a 100-continue as an informational HEADERS frame.
+   */
+  @Override
+  protected void writeContinueInt()
+    throws IOException
+  {
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<String> values = new ArrayList<String>();
+
+    names.add(":status");
+    values.add("100");
+
+    _req.getHttp2Stream().writeHeaders(names, values, false);
+  }
+
+  @Override
+  protected boolean writeHeadersInt(int length,
+                                    boolean isHead)
+    throws IOException
+  {
+    if (! _req.hasRequest())
+      return false;
+
+    HttpServletResponseImpl response = _req.getResponseFacade();
+
+    int statusCode = response.getStatus();
+
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<String> values = new ArrayList<String>();
+
+    names.add(":status");
+    values.add(String.valueOf(statusCode));
+
+    if (statusCode >= 400) {
+      removeHeader("ETag");
+      removeHeader("Last-Modified");
+    }
+    else if (response.isNoCache()) {
+      removeHeader("ETag");
+      removeHeader("Last-Modified");
+
+      setHeader("Expires", "Thu, 01 Dec 1994 16:00:00 GMT");
+
+      names.add("cache-control");
+      values.add("no-cache");
+    }
+    else if (response.isPrivateCache()) {
+      names.add("cache-control");
+      values.add("private");
+    }
+
+    String serverHeader = getServerHeader();
+    if (serverHeader != null) {
+      names.add("server");
+      values.add(serverHeader);
+    }
+
+    ArrayList<String> headerKeys = getHeaderKeys();
+    ArrayList<String> headerValues = getHeaderValues();
+
+    int size = headerKeys.size();
+    for (int i = 0; i < size; i++) {
+      String key = headerKeys.get(i).toLowerCase(Locale.ENGLISH);
+
+      // connection-specific headers are invalid in HTTP/2
+      if (Http2UpgradeRequest.isConnectionHeader(key))
+        continue;
+
+      names.add(key);
+      values.add(headerValues.get(i));
+    }
+
+    long now = CurrentTime.getCurrentTime();
+    ArrayList<Cookie> cookiesOut = response.getCookies();
+
+    if (cookiesOut != null) {
+      CharBuffer cb = _cb;
+
+      size = cookiesOut.size();
+      for (int i = 0; i < size; i++) {
+        Cookie cookie = cookiesOut.get(i);
+
+        cb.clear();
+        fillCookie(cb, cookie, now, 0, false);
+
+        names.add("set-cookie");
+        values.add(cb.toString());
+      }
+    }
+
+    String contentType = response.getContentTypeImpl();
+    String charEncoding = response.getCharacterEncodingImpl();
+
+    if (contentType != null) {
+      names.add("content-type");
+
+      if (charEncoding != null)
+        values.add(contentType + "; charset=" + charEncoding);
+      else
+        values.add(contentType);
+    }
+
+    long contentLength = getContentLengthHeader();
+
+    if (statusCode == 304 || statusCode == 204) {
+      setHead();
+    }
+    else if (contentLength >= 0) {
+      names.add("content-length");
+      values.add(String.valueOf(contentLength));
+    }
+    else if (length >= 0) {
+      names.add("content-length");
+      values.add(String.valueOf(length));
+    }
+
+    _req.getHttp2Stream().writeHeaders(names, values, false);
+
+    return false;
+  }
+}
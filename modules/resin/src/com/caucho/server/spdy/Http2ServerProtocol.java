@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import com.caucho.config.ConfigException;
+import com.caucho.network.listen.ProtocolConnection;
+import com.caucho.network.listen.SocketLink;
+import com.caucho.server.http.AbstractHttpProtocol;
+import com.caucho.util.L10N;
+
+/**
+ * HTTP/2 server protocol for cleartext ports (h2c).
+ *
+ * <p>The port accepts HTTP/1.1 as before. Clients switch to HTTP/2 either
+ * with prior knowledge, by sending the connection preface, or with an
+ * HTTP/1.1 <code>Upgrade: h2c</code> request.
+ */
+public class Http2ServerProtocol extends AbstractHttpProtocol {
+  private static final L10N L = new L10N(Http2ServerProtocol.class);
+  
+  static final int DEFAULT_WINDOW_SIZE = 65535;
+  static final int MIN_FRAME_SIZE = 16384;
+  static final int MAX_FRAME_SIZE = 16777215;
+  
+  private int _maxConcurrentStreams = 100;
+  private int _initialWindowSize = DEFAULT_WINDOW_SIZE;
+  private int _maxFrameSize = MIN_FRAME_SIZE;
+  private int _maxHeaderListSize = 64 * 1024;
+  
+  public Http2ServerProtocol()
+  {
+    setProtocolName("http2");
+  }
+  
+  /**
+   * Sets the maximum number of concurrent streams per connection.
+   */
+  public void setMaxConcurrentStreams(int max)
+  {
+    if (max < 1) {
+      throw new ConfigException(L.l("max-concurrent-streams '{0}' must be positive",
+                                    max));
+    }
+    
+    _maxConcurrentStreams = max;
+  }
+  
+  public int getMaxConcurrentStreams()
+  {
+    return _maxConcurrentStreams;
+  }
+  
+  /**
+   * Sets the per-stream receive window, which bounds the buffered
+   * request body for each stream.
+   */
+  public void setInitialWindowSize(int size)
+  {
+    if (size < 1) {
+      throw new ConfigException(L.l("initial-window-size '{0}' must be positive",
+                                    size));
+    }
+    
+    _initialWindowSize = size;
+  }
+  
+  public int getInitialWindowSize()
+  {
+    return _initialWindowSize;
+  }
+  
+  /**
+   * Sets the largest frame payload the server will accept.
+   */
+  public void setMaxFrameSize(int size)
+  {
+    if (size < MIN_FRAME_SIZE || MAX_FRAME_SIZE < size) {
+      throw new ConfigException(L.l("max-frame-size '{0}' must be between {1} and {2}",
+                                    size, MIN_FRAME_SIZE, MAX_FRAME_SIZE));
+    }
+    
+    _maxFrameSize = size;
+  }
+  
+  public int getMaxFrameSize()
+  {
+    return _maxFrameSize;
+  }
+  
+  /**
+   * Sets the largest compressed header block the server will accept.
+   */
+  public void setMaxHeaderListSize(int size)
+  {
+    _maxHeaderListSize = size;
+  }
+  
+  public int getMaxHeaderListSize()
+  {
+    return _maxHeaderListSize;
+  }
+  
+  @Override
+  public ProtocolConnection createConnection(SocketLink link)
+  {
+    return new Http2Connection(this, getServletSystem(), link);
+  }
+}
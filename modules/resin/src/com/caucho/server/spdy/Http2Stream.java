@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+import com.caucho.vfs.ClientDisconnectException;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.StreamImpl;
+import com.caucho.vfs.TempBuffer;
+
+/**
+ * HTTP/2 stream. The connection's reader fills the request body from
+ * DATA frames and the request thread drains it, returning flow-control
+ * credit as the body is consumed.
+ */
+class Http2Stream {
+  private static final L10N L = new L10N(Http2Stream.class);
+  
+  private final Http2Connection _conn;
+  private final int _id;
+  
+  private final ArrayList<String> _headerNames;
+  private final ArrayList<String> _headerValues;
+  
+  private final int _initialRecvWindow;
+  
+  // request body, guarded by this
+  private TempBuffer _head;
+  private TempBuffer _tail;
+  private int _headOffset;
+  private int _available;
+  private int _recvWindow;
+  private int _recvConsumed;
+  private boolean _isRemoteClosed;
+  private boolean _isReset;
+  
+  // guarded by the connection's window lock
+  private int _sendWindow;
+  
+  private final StreamImpl _inputStream = new InputStreamImpl();
+  private final StreamImpl _outputStream = new OutputStreamImpl();
+  
+  private boolean _isHeaderWritten;
+  private boolean _isLocalClosed;
+  
+  Http2Stream(Http2Connection conn,
+              int id,
+              ArrayList<String> headerNames,
+              ArrayList<String> headerValues,
+              int recvWindow,
+              int sendWindow)
+  {
+    _conn = conn;
+    _id = id;
+    
+    _headerNames = headerNames;
+    _headerValues = headerValues;
+    
+    _initialRecvWindow = recvWindow;
+    _recvWindow = recvWindow;
+    _sendWindow = sendWindow;
+  }
+  
+  int getId()
+  {
+    return _id;
+  }
+  
+  Http2Connection getConnection()
+  {
+    return _conn;
+  }
+  
+  ArrayList<String> getHeaderNames()
+  {
+    return _headerNames;
+  }
+  
+  ArrayList<String> getHeaderValues()
+  {
+    return _headerValues;
+  }
+  
+  /**
+   * Returns the request body stream.
+   */
+  StreamImpl getInputStream()
+  {
+    return _inputStream;
+  }
+  
+  /**
+   * Returns the response body stream, framed as DATA.
+   */
+  StreamImpl getOutputStream()
+  {
+    return _outputStream;
+  }
+  
+  synchronized boolean isRemoteClosed()
+  {
+    return _isRemoteClosed;
+  }
+  
+  synchronized boolean isReset()
+  {
+    return _isReset;
+  }
+  
+  //
+  // send window, guarded by the connection's window lock
+  //
+  
+  int getSendWindow()
+  {
+    return _sendWindow;
+  }
+  
+  /**
+   * Adjusts the send window, returning false on overflow.
+   */
+  boolean addSendWindow(int delta)
+  {
+    long window = (long) _sendWindow + delta;
+    
+    if (Integer.MAX_VALUE < window) {
+      return false;
+    }
+    
+    _sendWindow = (int) window;
+    
+    return true;
+  }
+  
+  //
+  // reader thread callbacks
+  //
+  
+  /**
+   * Reads a DATA payload into the request body. Returns false if the
+   * peer exceeded the stream's flow-control window.
+   */
+  boolean onData(ReadStream is, int dataLength, int frameLength,
+                 boolean isEnd)
+    throws IOException
+  {
+    synchronized (this) {
+      _recvWindow -= frameLength;
+      
+      if (_recvWindow < 0 || _isReset) {
+        is.skip(dataLength);
+        
+        return _recvWindow >= 0;
+      }
+    }
+    
+    while (dataLength > 0) {
+      TempBuffer tail = _tail;
+      
+      if (tail == null || tail.getCapacity() <= tail.getLength()) {
+        tail = TempBuffer.allocate();
+        
+        synchronized (this) {
+          if (_tail != null) {
+            _tail.setNext(tail);
+          }
+          else {
+            _head = tail;
+            _headOffset = 0;
+          }
+          
+          _tail = tail;
+        }
+      }
+      
+      int offset = tail.getLength();
+      int sublen = Math.min(dataLength, tail.getCapacity() - offset);
+      
+      // the reader only writes past the tail's length, which the request
+      // thread doesn't read until the length is updated
+      if (is.readAll(tail.getBuffer(), offset, sublen) != sublen) {
+        throw new ClientDisconnectException(L.l("{0} unexpected end of file",
+                                                this));
+      }
+      
+      synchronized (this) {
+        tail.setLength(offset + sublen);
+        _available += sublen;
+        
+        notifyAll();
+      }
+      
+      dataLength -= sublen;
+    }
+    
+    if (isEnd) {
+      onEnd();
+    }
+    
+    return true;
+  }
+  
+  /**
+   * The peer has finished sending (END_STREAM).
+   */
+  synchronized void onEnd()
+  {
+    _isRemoteClosed = true;
+    
+    notifyAll();
+  }
+  
+  /**
+   * The stream was reset by the peer or by the connection closing.
+   */
+  void onReset()
+  {
+    TempBuffer head;
+    
+    synchronized (this) {
+      _isReset = true;
+      _isRemoteClosed = true;
+      
+      head = _head;
+      _head = null;
+      _tail = null;
+      _available = 0;
+      
+      notifyAll();
+    }
+    
+    if (head != null) {
+      TempBuffer.freeAll(head);
+    }
+  }
+  
+  //
+  // request thread
+  //
+  
+  private int read(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    int sublen;
+    int windowUpdate = 0;
+    
+    synchronized (this) {
+      long timeout = _conn.getStreamTimeout();
+      long expires = CurrentTime.getCurrentTimeActual() + timeout;
+      
+      while (_available == 0 && ! _isRemoteClosed) {
+        long delta = expires - CurrentTime.getCurrentTimeActual();
+        
+        if (delta <= 0) {
+          throw new SocketTimeoutException(L.l("{0} read timeout", this));
+        }
+        
+        try {
+          wait(delta);
+        } catch (InterruptedException e) {
+          throw new ClientDisconnectException(e);
+        }
+      }
+      
+      if (_isReset) {
+        throw new ClientDisconnectException(L.l("{0} was reset", this));
+      }
+      
+      if (_available == 0) {
+        return -1;
+      }
+      
+      TempBuffer head = _head;
+      
+      sublen = Math.min(length, head.getLength() - _headOffset);
+      
+      System.arraycopy(head.getBuffer(), _headOffset,
+                       buffer, offset, sublen);
+      
+      _headOffset += sublen;
+      _available -= sublen;
+      
+      if (head.getLength() <= _headOffset && head.getNext() != null) {
+        _head = head.getNext();
+        _headOffset = 0;
+        
+        head.setNext(null);
+        TempBuffer.free(head);
+      }
+      
+      _recvConsumed += sublen;
+      
+      if (! _isRemoteClosed && _initialRecvWindow / 2 <= _recvConsumed) {
+        windowUpdate = _recvConsumed;
+        _recvWindow += windowUpdate;
+        _recvConsumed = 0;
+      }
+    }
+    
+    if (windowUpdate > 0) {
+      _conn.writeWindowUpdate(_id, windowUpdate);
+    }
+    
+    return sublen;
+  }
+  
+  private synchronized int getAvailable()
+  {
+    return _available;
+  }
+  
+  /**
+   * Writes the response headers.
+   */
+  void writeHeaders(ArrayList<String> names,
+                    ArrayList<String> values,
+                    boolean isEnd)
+    throws IOException
+  {
+    if (isReset()) {
+      throw new ClientDisconnectException(L.l("{0} was reset", this));
+    }
+    
+    _isHeaderWritten = true;
+    _isLocalClosed = isEnd;
+    
+    _conn.writeHeaders(this, names, values, isEnd);
+  }
+  
+  boolean isHeaderWritten()
+  {
+    return _isHeaderWritten;
+  }
+  
+  /**
+   * Completes the response, sending END_STREAM if it hasn't been sent.
+   */
+  void closeLocal()
+    throws IOException
+  {
+    if (_isLocalClosed) {
+      return;
+    }
+    
+    _isLocalClosed = true;
+    
+    if (! isReset()) {
+      _conn.writeData(this, null, 0, 0, true);
+    }
+  }
+  
+  /**
+   * Frees the buffered request body.
+   */
+  void free()
+  {
+    TempBuffer head;
+    
+    synchronized (this) {
+      head = _head;
+      _head = null;
+      _tail = null;
+      _available = 0;
+    }
+    
+    if (head != null) {
+      TempBuffer.freeAll(head);
+    }
+  }
+  
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _id + "," + _conn + "]";
+  }
+  
+  class InputStreamImpl extends StreamImpl {
+    @Override
+    public boolean canRead()
+    {
+      return true;
+    }
+    
+    @Override
+    public int read(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      return Http2Stream.this.read(buffer, offset, length);
+    }
+    
+    @Override
+    public int getAvailable()
+      throws IOException
+    {
+      return Http2Stream.this.getAvailable();
+    }
+  }
+  
+  class OutputStreamImpl extends StreamImpl {
+    @Override
+    public boolean canWrite()
+    {
+      return true;
+    }
+    
+    @Override
+    public void write(byte []buffer, int offset, int length, boolean isEnd)
+      throws IOException
+    {
+      if (_isLocalClosed) {
+        throw new ClientDisconnectException(L.l("{0} is closed", Http2Stream.this));
+      }
+      
+      if (length > 0) {
+        _conn.writeData(Http2Stream.this, buffer, offset, length, false);
+      }
+    }
+    
+    @Override
+    public void flush()
+    {
+      // the write actor flushes after each batch of frames
+    }
+    
+    @Override
+    public void close()
+      throws IOException
+    {
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import java.net.InetAddress;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import com.caucho.network.listen.AbstractSocketLink;
+import com.caucho.network.listen.SocketLinkDuplexController;
+import com.caucho.network.listen.SocketLinkDuplexListener;
+import com.caucho.network.listen.TcpSocketLink;
+
+/**
+ * Socket view of a single HTTP/2 stream. The read and write streams are
+ * the stream's request body and response DATA frames, and the addresses
+ * are the underlying TCP connection's.
+ */
+class Http2StreamLink extends AbstractSocketLink {
+  private final Http2Stream _stream;
+  private final TcpSocketLink _link;
+
+  Http2StreamLink(Http2Stream stream)
+  {
+    _stream = stream;
+    _link = stream.getConnection().getLink();
+
+    getReadStream().init(stream.getInputStream(), null);
+    getWriteStream().init(stream.getOutputStream());
+  }
+
+  Http2Stream getStream()
+  {
+    return _stream;
+  }
+
+  @Override
+  public int getId()
+  {
+    return _link.getId();
+  }
+
+  @Override
+  public boolean isPortActive()
+  {
+    return _link.isPortActive();
+  }
+
+  @Override
+  public boolean isSecure()
+  {
+    return _link.isSecure();
+  }
+
+  @Override
+  public String getVirtualHost()
+  {
+    return _link.getVirtualHost();
+  }
+
+  @Override
+  public InetAddress getLocalAddress()
+  {
+    return _link.getLocalAddress();
+  }
+
+  @Override
+  public int getLocalPort()
+  {
+    return _link.getLocalPort();
+  }
+
+  @Override
+  public InetAddress getRemoteAddress()
+  {
+    return _link.getRemoteAddress();
+  }
+
+  @Override
+  public int getRemoteAddress(byte []buffer, int offset, int length)
+  {
+    return _link.getRemoteAddress(buffer, offset, length);
+  }
+
+  @Override
+  public int getRemotePort()
+  {
+    return _link.getRemotePort();
+  }
+
+  @Override
+  public String getCipherSuite()
+  {
+    return _link.getCipherSuite();
+  }
+
+  @Override
+  public int getKeySize()
+  {
+    return _link.getKeySize();
+  }
+
+  @Override
+  public X509Certificate []getClientCertificates()
+    throws CertificateException
+  {
+    return _link.getClientCertificates();
+  }
+
+  /**
+   * Duplex (websocket) requests need the whole connection, which
+   * HTTP/2 streams can't provide.
+   */
+  @Override
+  public SocketLinkDuplexController startDuplex(SocketLinkDuplexListener handler)
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
+  /**
+   * A client disconnect resets the stream, leaving the connection open.
+   */
+  @Override
+  public void clientDisconnect()
+  {
+    if (! _stream.isReset()) {
+      _stream.getConnection().resetStream(_stream, Http2Connection.CANCEL);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _stream + "]";
+  }
+}
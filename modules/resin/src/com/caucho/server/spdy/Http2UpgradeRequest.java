@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import com.caucho.network.listen.SocketLink;
+import com.caucho.server.cluster.ServletService;
+import com.caucho.server.http.HttpRequest;
+import com.caucho.util.CharSegment;
+
+/**
+ * HTTP/1.1 request on an HTTP/2 port, which recognizes the HTTP/2
+ * connection preface and the <code>Upgrade: h2c</code> handshake.
+ */
+class Http2UpgradeRequest extends HttpRequest {
+  private final Http2Connection _conn;
+
+  Http2UpgradeRequest(ServletService server,
+                      SocketLink link,
+                      Http2Connection conn)
+  {
+    super(server, link);
+
+    _conn = conn;
+  }
+
+  @Override
+  protected boolean startProtocolUpgrade()
+    throws IOException
+  {
+    if (isPriorKnowledge()) {
+      _conn.startPriorKnowledge();
+
+      return true;
+    }
+
+    String upgrade = getHeader("Upgrade");
+
+    if (upgrade == null
+        || ! upgrade.trim().equalsIgnoreCase("h2c")) {
+      return false;
+    }
+
+    String settings = getHeader("HTTP2-Settings");
+
+    // an upgrade with a request body stays on HTTP/1.1
+    if (settings == null || getLongContentLength() > 0
+        || getHeader("Transfer-Encoding") != null) {
+      return false;
+    }
+
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<String> values = new ArrayList<String>();
+
+    names.add(":method");
+    values.add(getMethod());
+
+    names.add(":path");
+    values.add(new String(getUriBuffer(), 0, getUriLength(), "ISO-8859-1"));
+
+    names.add(":scheme");
+    values.add(isSecure() ? "https" : "http");
+
+    String host = getHeader("Host");
+
+    if (host != null) {
+      names.add(":authority");
+      values.add(host);
+    }
+
+    int size = getHeaderSize();
+
+    for (int i = 0; i < size; i++) {
+      String name = getHeaderKey(i).toString().toLowerCase(Locale.ENGLISH);
+
+      if (isConnectionHeader(name)) {
+        continue;
+      }
+
+      CharSegment value = getHeaderValue(i);
+
+      names.add(name);
+      values.add(value.toString());
+    }
+
+    _conn.startUpgrade(names, values, settings);
+
+    return true;
+  }
+
+  /**
+   * The preface "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n" parses as a PRI
+   * request with no headers.
+   */
+  private boolean isPriorKnowledge()
+  {
+    return ("PRI".equals(getMethod())
+            && getUriLength() == 1
+            && getUriBuffer()[0] == '*'
+            && getProtocolBuffer().matches("HTTP/2.0"));
+  }
+
+  /**
+   * Connection-specific headers are not allowed in HTTP/2.
+   */
+  static boolean isConnectionHeader(String name)
+  {
+    return (name.equals("host")
+            || name.equals("connection")
+            || name.equals("keep-alive")
+            || name.equals("proxy-connection")
+            || name.equals("transfer-encoding")
+            || name.equals("upgrade")
+            || name.equals("http2-settings"));
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.env.actor.AbstractActorProcessor;
+import com.caucho.env.actor.ActorQueue;
+import com.caucho.util.RingItemFactory;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Single writer for an HTTP/2 connection. Request threads and the reader
+ * queue frames, and the actor serializes them onto the socket, so the
+ * HPACK encoder state always matches the frame order on the wire.
+ */
+class Http2WriteActor extends AbstractActorProcessor<Http2WriteItem>
+  implements RingItemFactory<Http2WriteItem>
+{
+  private static final Logger log
+    = Logger.getLogger(Http2WriteActor.class.getName());
+  
+  private final Http2Connection _conn;
+  private final WriteStream _os;
+  private final ActorQueue<Http2WriteItem> _writeQueue;
+  
+  private final HpackEncoder _encoder = new HpackEncoder();
+  
+  private boolean _isWriteError;
+  
+  @SuppressWarnings("unchecked")
+  Http2WriteActor(Http2Connection conn, WriteStream os)
+  {
+    _conn = conn;
+    _os = os;
+    
+    _writeQueue = new ActorQueue<Http2WriteItem>(256, this, this);
+  }
+
+  @Override
+  public String getThreadName()
+  {
+    return _conn.getClass().getSimpleName() + '-' + Thread.currentThread().getId();
+  }
+
+  @Override
+  public Http2WriteItem createItem(int index)
+  {
+    return new Http2WriteItem(index);
+  }
+  
+  /**
+   * Returns true when all queued frames have been written.
+   */
+  boolean isEmpty()
+  {
+    return _writeQueue.isEmpty();
+  }
+  
+  //
+  // queue methods, called from the reader and the request threads
+  //
+  
+  void writeSettings(byte []payload)
+  {
+    Http2WriteItem item = _writeQueue.startOffer(true);
+    
+    item.init(Http2Connection.SETTINGS, 0, 0);
+    item.setBuffer(payload, payload.length);
+    
+    _writeQueue.finishOffer(item);
+  }
+  
+  /**
+   * Acknowledges the peer's SETTINGS. The header table size is applied
+   * to the encoder in frame order.
+   */
+  void writeSettingsAck(int headerTableSize)
+  {
+    Http2WriteItem item = _writeQueue.startOffer(true);
+    
+    item.init(Http2Connection.SETTINGS, 0, Http2Connection.FLAG_ACK);
+    item.setValue(headerTableSize);
+    
+    _writeQueue.finishOffer(item);
+  }
+  
+  void writePingAck(long data)
+  {
+    Http2WriteItem item = _writeQueue.startOffer(true);
+    
+    item.init(Http2Connection.PING, 0, Http2Connection.FLAG_ACK);
+    item.setData(data);
+    
+    _writeQueue.finishOffer(item);
+  }
+  
+  void writeGoaway(int lastStreamId, int errorCode)
+  {
+    Http2WriteItem item = _writeQueue.startOffer(true);
+    
+    item.init(Http2Connection.GOAWAY, 0, 0);
+    item.setData(lastStreamId);
+    item.setValue(errorCode);
+    
+    _writeQueue.finishOffer(item);
+  }
+  
+  void writeReset(int streamId, int errorCode)
+  {
+    Http2WriteItem item = _writeQueue.startOffer(true);
+    
+    item.init(Http2Connection.RST_STREAM, streamId, 0);
+    item.setValue(errorCode);
+    
+    _writeQueue.finishOffer(item);
+  }
+  
+  void writeWindowUpdate(int streamId, int increment)
+  {
+    Http2WriteItem item = _writeQueue.startOffer(true);
+    
+    item.init(Http2Connection.WINDOW_UPDATE, streamId, 0);
+    item.setValue(increment);
+    
+    _writeQueue.finishOffer(item);
+  }
+  
+  void writeHeaders(int streamId,
+                    ArrayList<String> names,
+                    ArrayList<String> values,
+                    boolean isEnd)
+  {
+    Http2WriteItem item = _writeQueue.startOffer(true);
+    
+    int flags = isEnd ? Http2Connection.FLAG_END_STREAM : 0;
+    
+    item.init(Http2Connection.HEADERS, streamId, flags);
+    item.setHeaders(names, values);
+    
+    _writeQueue.finishOffer(item);
+  }
+  
+  /**
+   * Queues a DATA frame. The buffer belongs to the actor after the call.
+   */
+  void writeData(int streamId, byte []buffer, int length, boolean isEnd)
+  {
+    Http2WriteItem item = _writeQueue.startOffer(true);
+    
+    int flags = isEnd ? Http2Connection.FLAG_END_STREAM : 0;
+    
+    item.init(Http2Connection.DATA, streamId, flags);
+    item.setBuffer(buffer, length);
+    
+    _writeQueue.finishOffer(item);
+  }
+  
+  //
+  // actor thread
+  //
+
+  @Override
+  public void process(Http2WriteItem item) throws Exception
+  {
+    try {
+      if (! _isWriteError) {
+        processFrame(item);
+      }
+    } catch (IOException e) {
+      _isWriteError = true;
+      
+      log.log(Level.FINER, e.toString(), e);
+      
+      _conn.onWriteError(e);
+    } finally {
+      item.clear();
+    }
+  }
+  
+  private void processFrame(Http2WriteItem item)
+    throws IOException
+  {
+    WriteStream os = _os;
+    
+    int type = item.getType();
+    int flags = item.getFlags();
+    int streamId = item.getStreamId();
+    
+    switch (type) {
+    case Http2Connection.DATA:
+      writeFrameHeader(item.getLength(), type, flags, streamId);
+      
+      if (item.getLength() > 0) {
+        os.write(item.getBuffer(), 0, item.getLength());
+      }
+      break;
+      
+    case Http2Connection.HEADERS:
+      writeHeaders(item);
+      break;
+      
+    case Http2Connection.SETTINGS:
+      if ((flags & Http2Connection.FLAG_ACK) != 0) {
+        if (item.getValue() >= 0) {
+          _encoder.setMaxTableSize(item.getValue());
+        }
+        
+        writeFrameHeader(0, type, flags, 0);
+      }
+      else {
+        writeFrameHeader(item.getLength(), type, flags, 0);
+        os.write(item.getBuffer(), 0, item.getLength());
+      }
+      break;
+      
+    case Http2Connection.PING:
+      writeFrameHeader(8, type, flags, 0);
+      writeInt(os, (int) (item.getData() >> 32));
+      writeInt(os, (int) item.getData());
+      break;
+      
+    case Http2Connection.GOAWAY:
+      writeFrameHeader(8, type, flags, 0);
+      writeInt(os, (int) item.getData());
+      writeInt(os, item.getValue());
+      break;
+      
+    case Http2Connection.RST_STREAM:
+    case Http2Connection.WINDOW_UPDATE:
+      writeFrameHeader(4, type, flags, streamId);
+      writeInt(os, item.getValue());
+      break;
+      
+    default:
+      throw new IllegalStateException(String.valueOf(type));
+    }
+  }
+  
+  /**
+   * Encodes the header block, splitting it into HEADERS and CONTINUATION
+   * frames at the peer's maximum frame size.
+   */
+  private void writeHeaders(Http2WriteItem item)
+    throws IOException
+  {
+    HpackEncoder encoder = _encoder;
+    
+    encoder.startBlock();
+    
+    ArrayList<String> names = item.getHeaderNames();
+    ArrayList<String> values = item.getHeaderValues();
+    
+    int size = names.size();
+    for (int i = 0; i < size; i++) {
+      encoder.header(names.get(i), values.get(i));
+    }
+    
+    byte []buffer = encoder.getBuffer();
+    int length = encoder.getLength();
+    int maxFrameSize = _conn.getPeerMaxFrameSize();
+    
+    int type = Http2Connection.HEADERS;
+    int flags = item.getFlags();
+    int offset = 0;
+    
+    do {
+      int sublen = Math.min(length - offset, maxFrameSize);
+      
+      if (offset + sublen == length) {
+        flags |= Http2Connection.FLAG_END_HEADERS;
+      }
+      
+      writeFrameHeader(sublen, type, flags, item.getStreamId());
+      _os.write(buffer, offset, sublen);
+      
+      offset += sublen;
+      type = Http2Connection.CONTINUATION;
+      flags = 0;
+    } while (offset < length);
+  }
+  
+  private void writeFrameHeader(int length, int type, int flags, int streamId)
+    throws IOException
+  {
+    WriteStream os = _os;
+    
+    os.write(length >> 16);
+    os.write(length >> 8);
+    os.write(length);
+    os.write(type);
+    os.write(flags);
+    writeInt(os, streamId);
+  }
+  
+  private void writeInt(WriteStream os, int value)
+    throws IOException
+  {
+    os.write(value >> 24);
+    os.write(value >> 16);
+    os.write(value >> 8);
+    os.write(value);
+  }
+
+  @Override
+  public void onProcessComplete() throws Exception
+  {
+    if (! _isWriteError) {
+      try {
+        _os.flush();
+      } catch (IOException e) {
+        _isWriteError = true;
+        
+        log.log(Level.FINER, e.toString(), e);
+        
+        _conn.onWriteError(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.spdy;
+
+import java.util.ArrayList;
+
+import com.caucho.util.RingItem;
+
+/**
+ * Queued HTTP/2 frame for the write actor.
+ */
+final class Http2WriteItem extends RingItem {
+  private int _type;
+  private int _streamId;
+  private int _flags;
+  private int _value;
+  private long _data;
+  
+  private byte []_buffer;
+  private int _length;
+  
+  private ArrayList<String> _names;
+  private ArrayList<String> _values;
+  
+  Http2WriteItem(int index)
+  {
+    super(index);
+  }
+  
+  final void init(int type, int streamId, int flags)
+  {
+    _type = type;
+    _streamId = streamId;
+    _flags = flags;
+  }
+  
+  final int getType()
+  {
+    return _type;
+  }
+  
+  final int getStreamId()
+  {
+    return _streamId;
+  }
+  
+  final int getFlags()
+  {
+    return _flags;
+  }
+  
+  final void setValue(int value)
+  {
+    _value = value;
+  }
+  
+  final int getValue()
+  {
+    return _value;
+  }
+  
+  final void setData(long data)
+  {
+    _data = data;
+  }
+  
+  final long getData()
+  {
+    return _data;
+  }
+  
+  final void setBuffer(byte []buffer, int length)
+  {
+    _buffer = buffer;
+    _length = length;
+  }
+  
+  final byte []getBuffer()
+  {
+    return _buffer;
+  }
+  
+  final int getLength()
+  {
+    return _length;
+  }
+  
+  final void setHeaders(ArrayList<String> names, ArrayList<String> values)
+  {
+    _names = names;
+    _values = values;
+  }
+  
+  final ArrayList<String> getHeaderNames()
+  {
+    return _names;
+  }
+  
+  final ArrayList<String> getHeaderValues()
+  {
+    return _values;
+  }
+  
+  void clear()
+  {
+    _type = 0;
+    _streamId = 0;
+    _flags = 0;
+    _value = 0;
+    _data = 0;
+    _buffer = null;
+    _length = 0;
+    _names = null;
+    _values = null;
+  }
+}
@@ -2666,6 +2666,16 @@ public class WebApp extends ServletContextImpl
     _server.addSendfileCount();
   }
   
+  public void addFileTransferBytes(long bytes)
+  {
+    _server.addFileTransferBytes(bytes);
+  }
+  
+  public void addFileCopyBytes(long bytes)
+  {
+    _server.addFileCopyBytes(bytes);
+  }
+  
   /**
    * Returns the minimum length for a caching sendfile
    */
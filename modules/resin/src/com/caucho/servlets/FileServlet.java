@@ -60,9 +60,9 @@ import com.caucho.util.Base64;
 import com.caucho.util.CharBuffer;
 import com.caucho.util.Crc64;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
 import com.caucho.util.QDate;
 import com.caucho.util.RandomUtil;
+import com.caucho.util.TinyLfuCache;
 import com.caucho.vfs.CaseInsensitive;
 import com.caucho.vfs.Path;
 import com.caucho.vfs.ReadStream;
@@ -78,13 +78,13 @@ public class FileServlet extends GenericServlet {
   private static final Logger log
     = Logger.getLogger(FileServlet.class.getName());
 
-  private static final EnvironmentLocal<LruCache<String,Cache>> _pathCacheLocal
-    = new EnvironmentLocal<LruCache<String,Cache>>();
+  private static final EnvironmentLocal<TinyLfuCache<String,Cache>> _pathCacheLocal
+    = new EnvironmentLocal<TinyLfuCache<String,Cache>>();
 
-  private final LruCache<String,Cache> _pathCache;
+  private final TinyLfuCache<String,Cache> _pathCache;
 
-  private final LruCache<String,Cache> _localCache
-    = new LruCache<String,Cache>(16 * 1024);
+  private final TinyLfuCache<String,Cache> _localCache
+    = new TinyLfuCache<String,Cache>(16 * 1024);
 
   private Path _context;
   private WebApp _app;
@@ -99,11 +99,11 @@ public class FileServlet extends GenericServlet {
   {
     ResinSystem resin = ResinSystem.getCurrent();
 
-    LruCache<String,Cache> pathCache;
+    TinyLfuCache<String,Cache> pathCache;
 
     pathCache = _pathCacheLocal.get(resin.getClassLoader());
     if (pathCache == null) {
-      pathCache = new LruCache<String,Cache>(256 * 1024);
+      pathCache = new TinyLfuCache<String,Cache>(256 * 1024);
       _pathCacheLocal.set(pathCache, resin.getClassLoader());
     }
 
@@ -688,16 +688,26 @@ public class FileServlet extends GenericServlet {
         res.addHeader("Content-Range", chunkRange);
       }
 
-      ReadStream is = null;
-      try {
-        is = cache.getPath().openRead();
-        is.skip(first);
+      if (! hasMore && res instanceof CauchoResponse) {
+        // single range can use the response's sendfile/zero-copy path
+        CauchoResponse cRes = (CauchoResponse) res;
 
-        os = res.getOutputStream();
-        is.writeToStream(os, (int) (last - first + 1));
-      } finally {
-        if (is != null)
-          is.close();
+        cRes.getResponseStream().sendFile(cache.getPath(),
+                                          first,
+                                          last - first + 1);
+      }
+      else {
+        ReadStream is = null;
+        try {
+          is = cache.getPath().openRead();
+          is.skip(first);
+
+          os = res.getOutputStream();
+          is.writeToStream(os, (int) (last - first + 1));
+        } finally {
+          if (is != null)
+            is.close();
+        }
       }
 
       for (off--; off < length && range.charAt(off) != ','; off++) {
@@ -442,6 +442,15 @@ public class DBPool
     _connectionPool.setCloseDanglingConnections(isClose);
   }
 
+  /**
+   * Set true if a thread should reuse the connection it last released,
+   * taking idle connections from a lock-free bag.
+   */
+  public void setThreadAffinity(boolean isThreadAffinity)
+  {
+    _connectionPool.setThreadAffinity(isThreadAffinity);
+  }
+
   /**
    * The number of connections to overflow if the connection pool fills
    * and there's a timeout.
@@ -650,6 +659,30 @@ public class DBPool
     getPool().setPreparedStatementCacheSize(size);
   }
 
+  /**
+   * Returns the number of hot statements prepared on new connections.
+   */
+  public int getPreparedStatementWarmupSize()
+  {
+    return getPool().getPreparedStatementWarmupSize();
+  }
+
+  /**
+   * Sets the number of hot statements prepared on new connections.
+   */
+  public void setPreparedStatementWarmupSize(int size)
+  {
+    getPool().setPreparedStatementWarmupSize(size);
+  }
+
+  /**
+   * Returns the pool-wide prepared statement statistics.
+   */
+  StatementRegistry getStatementRegistry()
+  {
+    return getPool().getStatementRegistry();
+  }
+
   /**
    * Set the transaction manager for this pool.
    */
@@ -193,6 +193,11 @@ public class DBPoolImpl implements AlarmListener, EnvironmentListener {
   private int _maxCloseStatements = 256;
   // The prepared statement cache size.
   private int _preparedStatementCacheSize = 0;
+  // number of hot statements prepared on each new connection
+  private int _preparedStatementWarmupSize = 16;
+
+  private final StatementRegistry _statementRegistry
+    = new StatementRegistry(1024);
 
   private boolean _isWrapStatements = true;
   
@@ -549,6 +554,31 @@ public class DBPoolImpl implements AlarmListener, EnvironmentListener {
     _preparedStatementCacheSize = size;
   }
 
+  /**
+   * Returns the number of hot statements prepared on new connections.
+   */
+  public int getPreparedStatementWarmupSize()
+  {
+    return _preparedStatementWarmupSize;
+  }
+
+  /**
+   * Sets the number of hot statements prepared on new connections.
+   * The warmup is bounded by the prepared statement cache size.
+   */
+  public void setPreparedStatementWarmupSize(int size)
+  {
+    _preparedStatementWarmupSize = size;
+  }
+
+  /**
+   * Returns the pool-wide prepared statement statistics.
+   */
+  StatementRegistry getStatementRegistry()
+  {
+    return _statementRegistry;
+  }
+
   /**
    * Get the time in milliseconds a connection will remain in the pool before
    * being closed.
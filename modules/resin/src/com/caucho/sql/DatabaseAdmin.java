@@ -258,6 +258,42 @@ public class DatabaseAdmin extends AbstractManagedObject
     return _jcaPool.getLastFailTime();
   }
 
+  /**
+   * Returns the number of distinct prepared statements tracked.
+   */
+  @Override
+  public int getStatementCount()
+  {
+    return _dbPool.getStatementRegistry().getSize();
+  }
+
+  /**
+   * Returns the total prepared statement executions.
+   */
+  @Override
+  public long getStatementExecuteCountTotal()
+  {
+    return _dbPool.getStatementRegistry().getExecuteCountTotal();
+  }
+
+  /**
+   * Returns the total prepareStatement calls.
+   */
+  @Override
+  public long getStatementPrepareCountTotal()
+  {
+    return _dbPool.getStatementRegistry().getPrepareCountTotal();
+  }
+
+  /**
+   * Returns the total prepareStatement calls served from the cache.
+   */
+  @Override
+  public long getStatementPrepareCacheHitCountTotal()
+  {
+    return _dbPool.getStatementRegistry().getPrepareCacheHitCountTotal();
+  }
+
   //
   // Operations
   //
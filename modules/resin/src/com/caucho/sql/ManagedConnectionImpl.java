@@ -153,9 +153,56 @@ public class ManagedConnectionImpl
     if (preparedStatementCacheSize > 0) {
       _preparedStatementCache = new LruCache<PreparedStatementKey,PreparedStatementCacheItem>(preparedStatementCacheSize);
       _key = new PreparedStatementKey();
+
+      int warmupSize = Math.min(preparedStatementCacheSize,
+                                _dbPool.getPreparedStatementWarmupSize());
+
+      warmupPreparedStatements(warmupSize);
     }
   }
 
+  /**
+   * Prepares the pool's hottest statements, so the first use on the
+   * new connection is a cache hit.
+   */
+  private void warmupPreparedStatements(int warmupSize)
+  {
+    if (warmupSize <= 0)
+      return;
+
+    StatementRegistry registry = _dbPool.getStatementRegistry();
+    String []hotSql = registry.getHotStatements(warmupSize);
+
+    if (hotSql.length == 0)
+      return;
+
+    Connection conn = getDriverConnection();
+
+    if (conn == null)
+      return;
+
+    for (String sql : hotSql) {
+      try {
+        PreparedStatement pStmt = conn.prepareStatement(sql);
+
+        PreparedStatementKey key = new PreparedStatementKey(sql);
+
+        _preparedStatementCache.put(key,
+                                    new PreparedStatementCacheItem(key, pStmt, this));
+      } catch (SQLException e) {
+        log.log(Level.FINER, e.toString(), e);
+
+        StatementRegistry.StatementStat stat = registry.getStat(sql);
+
+        if (stat != null)
+          stat.setWarmupFailed();
+      }
+    }
+
+    if (log.isLoggable(Level.FINER))
+      log.finer(this + " prepared " + hotSql.length + " cached statements");
+  }
+
   /**
    * Returns the db pool.
    */
@@ -463,7 +510,13 @@ public class ManagedConnectionImpl
     if (conn == null)
       throw new IllegalStateException(L.l("can't prepare statement from closed connection"));
 
+    StatementRegistry.StatementStat stat
+      = _dbPool.getStatementRegistry().getStat(sql);
+
     if (key == null) {
+      if (stat != null)
+        stat.addPrepare(false);
+
       return conn.prepareStatement(sql);
     }
 
@@ -477,13 +530,20 @@ public class ManagedConnectionImpl
       if (item != null) {
         UserPreparedStatement upStmt = item.toActive(uConn);
 
-        if (upStmt != null)
+        if (upStmt != null) {
+          if (stat != null)
+            stat.addPrepare(true);
+
           return upStmt;
+        }
 
         hasItem = ! item.isRemoved();
       }
     }
 
+    if (stat != null)
+      stat.addPrepare(false);
+
     PreparedStatement pStmt;
     pStmt = conn.prepareStatement(sql);
 
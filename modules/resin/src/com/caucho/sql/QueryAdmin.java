@@ -41,6 +41,7 @@ import java.util.ArrayList;
 import com.caucho.management.server.AbstractManagedObject;
 import com.caucho.management.server.JdbcQueryMXBean;
 import com.caucho.management.server.JdbcQueryResult;
+import com.caucho.management.server.JdbcStatementStatistics;
 import com.caucho.management.server.JdbcTableColumn;
 
 public class QueryAdmin extends AbstractManagedObject
@@ -177,6 +178,16 @@ public class QueryAdmin extends AbstractManagedObject
         connection.close();
     }
   }
+
+  public JdbcStatementStatistics []getStatementStatistics()
+  {
+    return _pool.getStatementRegistry().getStatistics();
+  }
+
+  public void clearStatementStatistics()
+  {
+    _pool.getStatementRegistry().clear();
+  }
   
   @Override
   public String getName()
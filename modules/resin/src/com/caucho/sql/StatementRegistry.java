@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.caucho.management.server.JdbcStatementStatistics;
+
+/**
+ * Pool-wide registry of prepared statement shapes, shared by all the
+ * connections of a DBPoolImpl.
+ *
+ * The driver's PreparedStatement objects belong to a single connection,
+ * so the registry shares the statistics for each prepared sql: execution
+ * counts, a latency histogram, updated rows and the prepare cache
+ * hit rate. New connections use the hottest entries to pre-warm their
+ * prepared statement cache.
+ */
+class StatementRegistry {
+  private static final int HISTOGRAM_SIZE = 16;
+
+  private final ConcurrentHashMap<String,StatementStat> _statMap
+    = new ConcurrentHashMap<String,StatementStat>();
+
+  private final int _maxSize;
+
+  StatementRegistry(int maxSize)
+  {
+    _maxSize = maxSize;
+  }
+
+  /**
+   * Returns the statistics for the sql, creating them if the registry
+   * has room, or null if the registry is full.
+   */
+  StatementStat getStat(String sql)
+  {
+    StatementStat stat = _statMap.get(sql);
+
+    if (stat != null || _maxSize <= _statMap.size())
+      return stat;
+
+    stat = new StatementStat(sql);
+
+    StatementStat oldStat = _statMap.putIfAbsent(sql, stat);
+
+    return oldStat != null ? oldStat : stat;
+  }
+
+  /**
+   * Returns the number of registered statements.
+   */
+  int getSize()
+  {
+    return _statMap.size();
+  }
+
+  /**
+   * Returns the most frequently executed sql, hottest first.
+   */
+  String []getHotStatements(int max)
+  {
+    if (max <= 0 || _statMap.size() == 0)
+      return new String[0];
+
+    ArrayList<StatementStat> stats = getSortedStats();
+
+    ArrayList<String> sqlList = new ArrayList<String>();
+
+    for (int i = 0; i < stats.size() && sqlList.size() < max; i++) {
+      StatementStat stat = stats.get(i);
+
+      // a single execution isn't worth a prepare on every new connection
+      if (stat.getExecuteCount() > 1 && ! stat.isWarmupFailed())
+        sqlList.add(stat.getSql());
+    }
+
+    String []sqlArray = new String[sqlList.size()];
+    sqlList.toArray(sqlArray);
+
+    return sqlArray;
+  }
+
+  /**
+   * Returns a statistics snapshot, hottest first.
+   */
+  JdbcStatementStatistics []getStatistics()
+  {
+    ArrayList<StatementStat> stats = getSortedStats();
+
+    JdbcStatementStatistics []result
+      = new JdbcStatementStatistics[stats.size()];
+
+    for (int i = 0; i < result.length; i++)
+      result[i] = stats.get(i).createStatistics();
+
+    return result;
+  }
+
+  long getExecuteCountTotal()
+  {
+    long sum = 0;
+
+    for (StatementStat stat : _statMap.values())
+      sum += stat.getExecuteCount();
+
+    return sum;
+  }
+
+  long getPrepareCountTotal()
+  {
+    long sum = 0;
+
+    for (StatementStat stat : _statMap.values())
+      sum += stat.getPrepareCount();
+
+    return sum;
+  }
+
+  long getPrepareCacheHitCountTotal()
+  {
+    long sum = 0;
+
+    for (StatementStat stat : _statMap.values())
+      sum += stat.getPrepareCacheHitCount();
+
+    return sum;
+  }
+
+  /**
+   * Clears the statistics.
+   */
+  void clear()
+  {
+    _statMap.clear();
+  }
+
+  private ArrayList<StatementStat> getSortedStats()
+  {
+    ArrayList<StatementStat> stats
+      = new ArrayList<StatementStat>(_statMap.values());
+
+    Collections.sort(stats, new HotComparator());
+
+    return stats;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _statMap.size() + "]";
+  }
+
+  /**
+   * Statistics for a single prepared sql.
+   */
+  static final class StatementStat {
+    private final String _sql;
+
+    private final AtomicLong _executeCount = new AtomicLong();
+    private final AtomicLong _executeTime = new AtomicLong();
+    private final AtomicLong _executeTimeMax = new AtomicLong();
+    private final AtomicLong _errorCount = new AtomicLong();
+    private final AtomicLong _rowCount = new AtomicLong();
+
+    private final AtomicLong _prepareCount = new AtomicLong();
+    private final AtomicLong _prepareCacheHitCount = new AtomicLong();
+
+    private final AtomicLongArray _histogram
+      = new AtomicLongArray(HISTOGRAM_SIZE);
+
+    private volatile boolean _isWarmupFailed;
+
+    StatementStat(String sql)
+    {
+      _sql = sql;
+    }
+
+    String getSql()
+    {
+      return _sql;
+    }
+
+    long getExecuteCount()
+    {
+      return _executeCount.get();
+    }
+
+    long getPrepareCount()
+    {
+      return _prepareCount.get();
+    }
+
+    long getPrepareCacheHitCount()
+    {
+      return _prepareCacheHitCount.get();
+    }
+
+    boolean isWarmupFailed()
+    {
+      return _isWarmupFailed;
+    }
+
+    /**
+     * Marks the sql as failing to prepare on a new connection.
+     */
+    void setWarmupFailed()
+    {
+      _isWarmupFailed = true;
+    }
+
+    /**
+     * Records a prepareStatement call.
+     */
+    void addPrepare(boolean isCacheHit)
+    {
+      _prepareCount.incrementAndGet();
+
+      if (isCacheHit)
+        _prepareCacheHitCount.incrementAndGet();
+    }
+
+    /**
+     * Records an execution.
+     *
+     * @param nanos the execution time in nanoseconds
+     * @param rows the updated row count, or -1 if unknown
+     * @param isError true if the execution threw an exception
+     */
+    void addExecute(long nanos, long rows, boolean isError)
+    {
+      long micros = nanos / 1000;
+
+      _executeCount.incrementAndGet();
+      _executeTime.addAndGet(micros);
+
+      long max;
+      while ((max = _executeTimeMax.get()) < micros
+             && ! _executeTimeMax.compareAndSet(max, micros)) {
+      }
+
+      if (isError)
+        _errorCount.incrementAndGet();
+
+      if (rows > 0)
+        _rowCount.addAndGet(rows);
+
+      _histogram.incrementAndGet(getBucket(micros / 1000));
+    }
+
+    private static int getBucket(long ms)
+    {
+      int bucket = 64 - Long.numberOfLeadingZeros(ms);
+
+      return Math.min(bucket, HISTOGRAM_SIZE - 1);
+    }
+
+    JdbcStatementStatistics createStatistics()
+    {
+      long []histogram = new long[HISTOGRAM_SIZE];
+
+      for (int i = 0; i < histogram.length; i++)
+        histogram[i] = _histogram.get(i);
+
+      return new JdbcStatementStatistics(_sql,
+                                         _executeCount.get(),
+                                         _executeTime.get(),
+                                         _executeTimeMax.get(),
+                                         _errorCount.get(),
+                                         _rowCount.get(),
+                                         _prepareCount.get(),
+                                         _prepareCacheHitCount.get(),
+                                         histogram);
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _sql + "]";
+    }
+  }
+
+  static final class HotComparator implements Comparator<StatementStat> {
+    @Override
+    public int compare(StatementStat a, StatementStat b)
+    {
+      long countA = a.getExecuteCount();
+      long countB = b.getExecuteCount();
+
+      if (countA < countB)
+        return 1;
+      else if (countB < countA)
+        return -1;
+      else
+        return 0;
+    }
+  }
+}
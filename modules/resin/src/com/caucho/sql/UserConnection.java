@@ -245,8 +245,12 @@ public class UserConnection implements java.sql.Connection {
 
     addStatement(stmt);
 
-    if (_mConn.isWrapStatements())
-      return new UserPreparedStatement(this, stmt);
+    if (_mConn.isWrapStatements()) {
+      StatementRegistry.StatementStat stat
+        = _mConn.getDBPool().getStatementRegistry().getStat(sql);
+
+      return new UserPreparedStatement(this, stmt, stat);
+    }
     else
       return stmt;
   }
@@ -66,6 +66,9 @@ public class UserPreparedStatement extends UserStatement
   private boolean _isClosed;
 
   private ActiveTimeSensor _timeProbe;
+
+  // pool-wide statistics for the sql
+  private StatementRegistry.StatementStat _stat;
   
   UserPreparedStatement(UserConnection conn,
                         PreparedStatement pStmt,
@@ -84,7 +87,16 @@ public class UserPreparedStatement extends UserStatement
   UserPreparedStatement(UserConnection conn,
                         PreparedStatement pStmt)
   {
-    this(conn, pStmt, null);
+    this(conn, pStmt, (PreparedStatementCacheItem) null);
+  }
+  
+  UserPreparedStatement(UserConnection conn,
+                        PreparedStatement pStmt,
+                        StatementRegistry.StatementStat stat)
+  {
+    this(conn, pStmt, (PreparedStatementCacheItem) null);
+
+    _stat = stat;
   }
 
   /**
@@ -103,14 +115,22 @@ public class UserPreparedStatement extends UserStatement
     throws SQLException
   {
     long startTime = _timeProbe.start();
+    long startNanos = _stat != null ? System.nanoTime() : 0;
     
     try {
-      return _pstmt.executeQuery();
+      ResultSet value = _pstmt.executeQuery();
+
+      if (_stat != null)
+        addExecute(startNanos, -1, false);
+
+      return value;
     } catch (RuntimeException e) {
+      addExecute(startNanos, -1, true);
       onRuntimeException(e);
       
       throw e;
     } catch (SQLException e) {
+      addExecute(startNanos, -1, true);
       onSqlException(e);
       
       throw e;
@@ -127,14 +147,22 @@ public class UserPreparedStatement extends UserStatement
     throws SQLException
   {
     long startTime = _timeProbe.start();
+    long startNanos = _stat != null ? System.nanoTime() : 0;
     
     try {
-      return _pstmt.executeUpdate();
+      int value = _pstmt.executeUpdate();
+
+      if (_stat != null)
+        addExecute(startNanos, value, false);
+
+      return value;
     } catch (RuntimeException e) {
+      addExecute(startNanos, -1, true);
       onRuntimeException(e);
       
       throw e;
     } catch (SQLException e) {
+      addExecute(startNanos, -1, true);
       onSqlException(e);
       
       throw e;
@@ -151,14 +179,22 @@ public class UserPreparedStatement extends UserStatement
     throws SQLException
   {
     long startTime = _timeProbe.start();
+    long startNanos = _stat != null ? System.nanoTime() : 0;
     
     try {
-      return _pstmt.execute();
+      boolean value = _pstmt.execute();
+
+      if (_stat != null)
+        addExecute(startNanos, value ? -1 : _pstmt.getUpdateCount(), false);
+
+      return value;
     } catch (RuntimeException e) {
+      addExecute(startNanos, -1, true);
       onRuntimeException(e);
       
       throw e;
     } catch (SQLException e) {
+      addExecute(startNanos, -1, true);
       onSqlException(e);
       
       throw e;
@@ -167,6 +203,47 @@ public class UserPreparedStatement extends UserStatement
     }
   }
 
+  /**
+   * Executes the batch.
+   */
+  @Override
+  public int []executeBatch()
+    throws SQLException
+  {
+    long startNanos = _stat != null ? System.nanoTime() : 0;
+
+    boolean isError = true;
+    long rows = 0;
+
+    try {
+      int []counts = super.executeBatch();
+
+      isError = false;
+
+      if (counts != null) {
+        for (int count : counts) {
+          if (count > 0)
+            rows += count;
+        }
+      }
+
+      return counts;
+    } finally {
+      addExecute(startNanos, rows, isError);
+    }
+  }
+
+  /**
+   * Records the execution in the pool's statement statistics.
+   */
+  private void addExecute(long startNanos, long rows, boolean isError)
+  {
+    StatementRegistry.StatementStat stat = _stat;
+
+    if (stat != null)
+      stat.addExecute(System.nanoTime() - startNanos, rows, isError);
+  }
+
   /**
    * Adds the statement as a batch.
    */